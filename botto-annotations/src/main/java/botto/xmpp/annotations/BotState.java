@@ -0,0 +1,29 @@
+package botto.xmpp.annotations;
+
+/**
+ * A persistent key-value store of primitive values, private to a single bot address.
+ * Values survive restarts, and are not kept on the java heap.
+ */
+public interface BotState {
+    public boolean contains(String key);
+
+    public long getLong(String key, long defaultValue);
+    public void putLong(String key, long value);
+
+    /**
+     * Atomically add delta to the value of key, starting from zero if key is not set
+     * @return the new value
+     */
+    public long increment(String key, long delta);
+
+    public int getInt(String key, int defaultValue);
+    public void putInt(String key, int value);
+
+    public double getDouble(String key, double defaultValue);
+    public void putDouble(String key, double value);
+
+    public boolean getBoolean(String key, boolean defaultValue);
+    public void putBoolean(String key, boolean value);
+
+    public void remove(String key);
+}
@@ -8,4 +8,10 @@ import java.lang.annotation.Target;
 @Target({ElementType.METHOD})
 @Retention(RetentionPolicy.RUNTIME)
 public @interface Receive {
+
+    /**
+     * The namespaces of the child element of the IQs the method receives; any namespace when empty.
+     * IQs without a child element are always received.
+     */
+    String[] namespaces() default {};
 }
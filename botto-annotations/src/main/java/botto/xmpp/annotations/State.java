@@ -0,0 +1,16 @@
+package botto.xmpp.annotations;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * This annotation is used to inject the persistent BotState of a bot
+ * into a class field or a parameter of a @Receive method.
+ * @See BotState
+ */
+@Target({ElementType.FIELD, ElementType.PARAMETER})
+@Retention(RetentionPolicy.RUNTIME)
+public @interface State {
+}
@@ -0,0 +1,11 @@
+package botto.xmpp.annotations;
+
+/**
+ * A BotContext that can provide a persistent BotState
+ */
+public interface StatefulBotContext extends BotContext {
+    /**
+     * @return the state of this bot, or null if no state store is available
+     */
+    public BotState getState();
+}
@@ -2,6 +2,7 @@ package botto.xmpp.botto.xmpp.connector;
 
 import botto.xmpp.botto.xmpp.connector.channel.*;
 import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
 import org.apache.commons.lang.builder.ToStringBuilder;
 import org.apache.commons.lang.builder.ToStringStyle;
 import org.slf4j.Logger;
@@ -9,7 +10,10 @@ import org.slf4j.LoggerFactory;
 import org.xmpp.packet.JID;
 import org.xmpp.packet.Packet;
 
+import java.util.Collections;
+import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Base class for implementations of low-level XMPP Connectors.
@@ -18,6 +22,9 @@ import java.util.concurrent.ConcurrentHashMap;
  * It allows to send/receive packets from/to an Address
  * A Channel is an immutable binding between an Address and a Connector
  * A ChannelContext is a mutable descriptor of a Channel
+ *
+ * Channels are opened and closed from many threads at once, for instance by BotManager.addBots:
+ * implementations of doOpenChannel and doCloseChannel must be thread-safe.
  */
 // TODO: implement address and channel validation
 public abstract class Connector<TConfig extends ConnectorConfiguration, TConnection extends ChannelConnection> {
@@ -30,6 +37,7 @@ public abstract class Connector<TConfig extends ConnectorConfiguration, TConnect
     private ChannelListener channelListener;
 
     private final ConcurrentHashMap<Channel, TConnection> connections = new ConcurrentHashMap<Channel, TConnection>();
+    private final AtomicLong filtered = new AtomicLong();
 
     public abstract void doOpenChannel(Channel channel) throws ConnectorException;
     public abstract void doCloseChannel(Channel channel) throws ConnectorException;
@@ -105,6 +113,84 @@ public abstract class Connector<TConfig extends ConnectorConfiguration, TConnect
         }
     }
 
+    /**
+     * Delivers a packet received on a connection to the receiver bound to it, or to the ChannelListener
+     * when the connection has no receiver. Packets its ingress filter refuses are dropped: connectors should
+     * rather check the filter before converting what they read to a Packet.
+     */
+    protected final void receive(TConnection connection, Packet packet) throws ConnectorException {
+        Preconditions.checkNotNull(connection, "Connection can't be null");
+        if (!connection.getIngressFilter().accepts(packet)) {
+            filtered(connection);
+            return;
+        }
+        ChannelReceiver receiver = connection.getReceiver();
+        if (receiver == null) {
+            receive(connection.getChannel(), packet);
+            return;
+        }
+        Preconditions.checkNotNull(packet, "Packet can't be null");
+        try {
+            receiver.receive(packet);
+        }
+        catch(Exception ex) {
+            Log.error("Error while delivering incoming packet to receiver {}: {}:" + ex, connection.getChannel(), packet.toXML());
+        }
+    }
+
+    /**
+     * Binds a receiver to the connection of an open channel: packets received on the channel
+     * are then delivered to the receiver instead of the ChannelListener.
+     */
+    public void bindReceiver(Channel channel, ChannelReceiver receiver) throws ConnectorException {
+        Preconditions.checkNotNull(receiver);
+        TConnection connection = getConnection(channel);
+        if (connection == null) {
+            throw new ConnectorException("No connection found for channel {0}", channel);
+        }
+        connection.setReceiver(receiver);
+    }
+
+    /**
+     * @return the receiver that was bound to the channel, or null
+     */
+    public ChannelReceiver unbindReceiver(Channel channel) {
+        TConnection connection = getConnection(channel);
+        if (connection == null) {
+            return null;
+        }
+        ChannelReceiver receiver = connection.getReceiver();
+        connection.setReceiver(null);
+        return receiver;
+    }
+
+    /**
+     * Restricts the packets received on an open channel to those the filter accepts.
+     */
+    public void setIngressFilter(Channel channel, IngressFilter filter) throws ConnectorException {
+        Preconditions.checkNotNull(filter);
+        TConnection connection = getConnection(channel);
+        if (connection == null) {
+            throw new ConnectorException("No connection found for channel {0}", channel);
+        }
+        connection.setIngressFilter(filter);
+    }
+
+    /**
+     * Counts a packet dropped because the ingress filter of its connection refused it.
+     */
+    protected final void filtered(TConnection connection) {
+        filtered.incrementAndGet();
+        Log.trace("Dropped a packet refused by the ingress filter of {}", connection.getChannel());
+    }
+
+    /**
+     * @return how many received packets were dropped by ingress filters
+     */
+    public final long getFilteredCount() {
+        return filtered.get();
+    }
+
     protected final TConfig getConfiguration() {
         return configuration;
     }
@@ -113,8 +199,8 @@ public abstract class Connector<TConfig extends ConnectorConfiguration, TConnect
         Preconditions.checkNotNull(channel);
         Preconditions.checkNotNull(connection);
         TConnection existing = connections.putIfAbsent(channel, connection);
-        if (connection == existing) {
-            throw new ConnectorException("A connection for channel {} already exists: {}", channel, existing);
+        if (existing != null) {
+            throw new ConnectorException("A connection for channel {0} already exists: {1}", channel, existing);
         }
     }
 
@@ -123,11 +209,26 @@ public abstract class Connector<TConfig extends ConnectorConfiguration, TConnect
         return connections.get(channel);
     }
 
+    /**
+     * Closes all open channels, for doStop: connections must not outlive the threads and pools they run on,
+     * so that the connector can start again with none left over.
+     */
+    protected final void closeChannels() {
+        for (Channel channel : ImmutableList.copyOf(connections.keySet())) {
+            try {
+                closeChannel(channel);
+            }
+            catch (Exception ex) {
+                Log.warn("Could not close channel {} while stopping connector {}: {}", channel, connectorId, ex);
+            }
+        }
+    }
+
     protected final TConnection removeConnection(Channel channel) throws ConnectorException {
         Preconditions.checkNotNull(channel);
         TConnection removed = connections.remove(channel);
         if (removed == null) {
-            throw new ConnectorException("No connection found for channel {}", channel);
+            throw new ConnectorException("No connection found for channel {0}", channel);
         }
         return removed;
     }
@@ -136,6 +237,14 @@ public abstract class Connector<TConfig extends ConnectorConfiguration, TConnect
         channelListener.onChannelEvent(event);
     }
 
+    /**
+     * Gauges for the resources this connector uses, keyed by a dotted name such as "connect.queue".
+     * Read once when the connector is registered; the default has none.
+     */
+    public Map<String, ConnectorGauge> getGauges() {
+        return Collections.emptyMap();
+    }
+
     public ConnectorId getConnectorId() {
         return connectorId;
     }
@@ -0,0 +1,10 @@
+package botto.xmpp.botto.xmpp.connector;
+
+/**
+ * A value a Connector reports about its own resources, such as threads or queued work.
+ *
+ * @see Connector#getGauges()
+ */
+public interface ConnectorGauge {
+    public long getValue();
+}
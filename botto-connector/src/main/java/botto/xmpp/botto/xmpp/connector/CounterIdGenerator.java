@@ -0,0 +1,116 @@
+package botto.xmpp.botto.xmpp.connector;
+
+import com.google.common.base.Preconditions;
+
+import java.security.SecureRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Generates ids from a prefix private to the calling thread and a counter, written in base-64 characters.
+ *
+ * The prefix starts with a node part, random unless given, so that ids do not collide across restarts
+ * and processes, followed by the index of the thread in this generator. Both parts end with a separator
+ * that no node nor digit contains, so no two nodes and indexes make the same prefix. Once a thread has
+ * its prefix, an id costs an increment and a short string, with no lock nor shared state.
+ */
+public final class CounterIdGenerator implements StanzaIdGenerator {
+
+    // url-safe, so ids need no escaping in attributes
+    private static final char[] DIGITS = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789-_".toCharArray();
+    // 48 random bits, written in a fixed 8 digits
+    private static final int NODE_BYTES = 6;
+    private static final int NODE_DIGITS = 8;
+    // ends the node and the thread index, as nodes, indexes and counters vary in length
+    private static final char SEPARATOR = '.';
+
+    private final String node;
+    private final AtomicInteger threads = new AtomicInteger();
+    private final ThreadLocal<Sequence> sequences = new ThreadLocal<Sequence>() {
+        @Override
+        protected Sequence initialValue() {
+            return new Sequence(node + SEPARATOR + encode(threads.getAndIncrement()) + SEPARATOR);
+        }
+    };
+
+    /**
+     * A generator with a random node part.
+     */
+    public CounterIdGenerator() {
+        this(randomNode());
+    }
+
+    /**
+     * @param node a part unique to this generator among all processes that exchange ids,
+     *             made of the url-safe digits A-Z, a-z, 0-9, '-' and '_'
+     */
+    public CounterIdGenerator(String node) {
+        Preconditions.checkNotNull(node, "Node can't be null");
+        Preconditions.checkArgument(isNode(node), "Node must be url-safe digits: %s", node);
+        this.node = node;
+    }
+
+    @Override
+    public String nextId() {
+        return sequences.get().next();
+    }
+
+    private static String randomNode() {
+        byte[] bytes = new byte[NODE_BYTES];
+        new SecureRandom().nextBytes(bytes);
+        long value = 0;
+        for (byte b : bytes) {
+            value = (value << 8) | (b & 0xff);
+        }
+        char[] digits = new char[NODE_DIGITS];
+        for (int i = 0; i < NODE_DIGITS; i++) {
+            digits[i] = DIGITS[(int) (value & 63)];
+            value >>>= 6;
+        }
+        return new String(digits);
+    }
+
+    private static boolean isNode(String node) {
+        if (node.isEmpty()) {
+            return false;
+        }
+        for (int i = 0; i < node.length(); i++) {
+            char c = node.charAt(i);
+            boolean digit = (c >= 'A' && c <= 'Z') || (c >= 'a' && c <= 'z') || (c >= '0' && c <= '9') || c == '-' || c == '_';
+            if (!digit) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // least significant digit first
+    static String encode(long value) {
+        char[] digits = new char[11];
+        return new String(digits, 0, write(value, digits, 0));
+    }
+
+    private static int write(long value, char[] buffer, int offset) {
+        do {
+            buffer[offset++] = DIGITS[(int) (value & 63)];
+            value >>>= 6;
+        } while (value != 0);
+        return offset;
+    }
+
+    // owned by one thread
+    private static final class Sequence {
+        private final char[] buffer;
+        private final int prefixLength;
+        private long counter;
+
+        Sequence(String prefix) {
+            this.prefixLength = prefix.length();
+            this.buffer = new char[prefixLength + 11];
+            prefix.getChars(0, prefixLength, buffer, 0);
+        }
+
+        String next() {
+            return new String(buffer, 0, write(counter++, buffer, prefixLength));
+        }
+    }
+}
@@ -0,0 +1,174 @@
+package botto.xmpp.botto.xmpp.connector;
+
+import com.google.common.collect.MapMaker;
+import org.xmpp.packet.JID;
+
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Pool of canonical JID instances.
+ *
+ * Equal addresses interned through the pool are the same object, and each canonical JID holds its
+ * bare form, itself canonical: comparing the bare addresses of two pooled JIDs is a pointer comparison.
+ * Canonical instances also cache their string form and hash code, which plain JIDs rebuild on every call.
+ * Entries are weakly held and disappear once no channel or packet refers to them.
+ *
+ * Only addresses owned by this process, such as channel addresses, are interned. Addresses read from
+ * the network are resolved with lookup() and lookupBare(), which return the canonical instance when
+ * there is one and never add to the pool, so that remote senders can not grow it.
+ */
+public final class JIDPool {
+
+    private static final ConcurrentMap<String, PooledJID> pool = new MapMaker()
+        .concurrencyLevel(16)
+        .weakValues()
+        .makeMap();
+
+    private JIDPool() {}
+
+    /**
+     * @return the canonical instance for the address, or null if the address is null
+     */
+    public static JID intern(String address) {
+        if (address == null) {
+            return null;
+        }
+        PooledJID found = pool.get(address);
+        if (found != null) {
+            return found;
+        }
+        PooledJID created = new PooledJID(address);
+        // the prepped form may differ from the given string
+        PooledJID canonical = putIfAbsent(created.toString(), created);
+        if (!address.equals(canonical.toString())) {
+            pool.putIfAbsent(address, canonical);
+        }
+        return canonical;
+    }
+
+    /**
+     * @return the canonical instance equal to the address, or null if the address is null
+     */
+    public static JID intern(JID address) {
+        if (address == null || address instanceof PooledJID) {
+            return address;
+        }
+        String key = address.toString();
+        PooledJID found = pool.get(key);
+        if (found != null) {
+            return found;
+        }
+        // the parts of an existing JID are already prepped
+        return putIfAbsent(key, new PooledJID(address.getNode(), address.getDomain(), address.getResource()));
+    }
+
+    /**
+     * @return the canonical instance for the address if it is pooled, otherwise a new JID that is not
+     * added to the pool, or null if the address is null
+     */
+    public static JID lookup(String address) {
+        if (address == null) {
+            return null;
+        }
+        PooledJID found = pool.get(address);
+        return found != null ? found : new JID(address);
+    }
+
+    /**
+     * @return the canonical bare form of the address if it is pooled, otherwise a new bare JID that is
+     * not added to the pool, or null if the address is null
+     */
+    public static JID lookupBare(String address) {
+        if (address == null) {
+            return null;
+        }
+        PooledJID found = pool.get(address);
+        if (found != null) {
+            return found.bare;
+        }
+        JID parsed = new JID(address);
+        return parsed.getResource() == null ? parsed : new JID(parsed.getNode(), parsed.getDomain(), null, true);
+    }
+
+    /**
+     * @return the canonical bare form of the address, or null if the address is null
+     */
+    public static JID bare(JID address) {
+        JID interned = intern(address);
+        return interned instanceof PooledJID ? ((PooledJID) interned).bare : interned;
+    }
+
+    /**
+     * @return the canonical bare form of the address, or null if the address is null
+     */
+    public static JID bare(String address) {
+        PooledJID pooled = (PooledJID) intern(address);
+        return pooled == null ? null : pooled.bare;
+    }
+
+    /**
+     * Compares node and domain of two addresses, without building their bare forms.
+     * Pooled addresses are compared by identity.
+     */
+    public static boolean sameBare(JID first, JID second) {
+        if (first == second) {
+            return true;
+        }
+        if (first == null || second == null) {
+            return false;
+        }
+        if (first instanceof PooledJID && second instanceof PooledJID) {
+            return ((PooledJID) first).bare == ((PooledJID) second).bare;
+        }
+        String node = first.getNode();
+        return (node == null ? second.getNode() == null : node.equals(second.getNode()))
+            && first.getDomain().equals(second.getDomain());
+    }
+
+    private static PooledJID putIfAbsent(String key, PooledJID jid) {
+        PooledJID found = pool.putIfAbsent(key, jid);
+        return found == null ? jid : found;
+    }
+
+    private static final class PooledJID extends JID {
+        private final String string;
+        private final int hash;
+        private final PooledJID bare;
+
+        private PooledJID(String address) {
+            super(address);
+            string = super.toString();
+            hash = string.hashCode();
+            bare = bareOf(this);
+        }
+
+        private PooledJID(String node, String domain, String resource) {
+            super(node, domain, resource, true);
+            string = super.toString();
+            hash = string.hashCode();
+            bare = bareOf(this);
+        }
+
+        private static PooledJID bareOf(PooledJID address) {
+            if (address.getResource() == null) {
+                return address;
+            }
+            return (PooledJID) intern(new JID(address.getNode(), address.getDomain(), null, true));
+        }
+
+        @Override
+        public String toString() {
+            return string;
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object object) {
+            return object == this || super.equals(object);
+        }
+    }
+}
@@ -0,0 +1,222 @@
+package botto.xmpp.botto.xmpp.connector;
+
+import com.google.common.base.Preconditions;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.PriorityQueue;
+import java.util.Random;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Schedules the reconnection of the channels of a Connector, so that a server restart
+ * is not followed by all the channels logging in again at the same time.
+ *
+ * A failed attempt is retried after a random delay between zero and an exponentially growing bound
+ * (exponential backoff with full jitter). At most maxConcurrent attempts run at any time, and the
+ * attempts ready to run go in order of the last activity of their channel, most recent first.
+ */
+public class ReconnectScheduler {
+
+    private final static Logger Log = LoggerFactory.getLogger(ReconnectScheduler.class);
+
+    /**
+     * A reconnection: the same task is attempted until it returns true.
+     */
+    public interface Task {
+        /**
+         * @return true when done, false to be attempted again after a backoff delay
+         */
+        public boolean attempt();
+
+        /**
+         * @return the time in milliseconds of the last activity on the channel, or 0 if there was none
+         */
+        public long getLastActivity();
+    }
+
+    private final ScheduledExecutorService timer;
+    private final Executor executor;
+    private final int maxConcurrent;
+    private final long baseDelayMillis;
+    private final long maxDelayMillis;
+    private final Random random = new Random();
+
+    // guarded by this
+    private final PriorityQueue<Entry> ready = new PriorityQueue<Entry>();
+    private int running = 0;
+
+    private final AtomicLong sequence = new AtomicLong();
+    private final AtomicLong waiting = new AtomicLong();
+
+    /**
+     * @param timer runs nothing but the delayed re-queueing of failed attempts
+     * @param executor runs the attempts
+     * @param maxConcurrent the most attempts running at the same time
+     * @param baseDelayMillis the bound of the delay after the first failure, doubled at each further failure
+     * @param maxDelayMillis the largest bound of the delay
+     */
+    public ReconnectScheduler(ScheduledExecutorService timer, Executor executor, int maxConcurrent, long baseDelayMillis, long maxDelayMillis) {
+        Preconditions.checkArgument(maxConcurrent > 0, "maxConcurrent must be positive: %s", maxConcurrent);
+        Preconditions.checkArgument(baseDelayMillis > 0 && maxDelayMillis >= baseDelayMillis, "Invalid delays: base %s, max %s", baseDelayMillis, maxDelayMillis);
+        this.timer = Preconditions.checkNotNull(timer);
+        this.executor = Preconditions.checkNotNull(executor);
+        this.maxConcurrent = maxConcurrent;
+        this.baseDelayMillis = baseDelayMillis;
+        this.maxDelayMillis = maxDelayMillis;
+    }
+
+    /**
+     * Attempts the task as soon as a slot is free.
+     */
+    public void submit(Task task) {
+        enqueue(new Entry(Preconditions.checkNotNull(task), 0));
+    }
+
+    /**
+     * Attempts a task that already failed, after the backoff delay for that many failures.
+     */
+    public void retry(Task task, int failures) {
+        schedule(new Entry(Preconditions.checkNotNull(task), failures));
+    }
+
+    /**
+     * @return a random delay between zero and min(maxDelay, baseDelay * 2^(failures - 1))
+     */
+    public long getDelayMillis(int failures) {
+        long bound = maxDelayMillis;
+        if (failures < 1) {
+            return 0;
+        }
+        if (failures < 63 && baseDelayMillis <= (maxDelayMillis >> (failures - 1))) {
+            bound = baseDelayMillis << (failures - 1);
+        }
+        synchronized (random) {
+            return (long) (random.nextDouble() * (bound + 1));
+        }
+    }
+
+    /**
+     * @return the attempts ready to run, waiting for a free slot
+     */
+    public synchronized int getReadyCount() {
+        return ready.size();
+    }
+
+    /**
+     * @return the attempts running now
+     */
+    public synchronized int getRunningCount() {
+        return running;
+    }
+
+    /**
+     * @return the failed attempts waiting for their backoff delay
+     */
+    public long getWaitingCount() {
+        return waiting.get();
+    }
+
+    private void schedule(final Entry entry) {
+        long delay = getDelayMillis(entry.failures);
+        waiting.incrementAndGet();
+        try {
+            timer.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    waiting.decrementAndGet();
+                    enqueue(entry);
+                }
+            }, delay, TimeUnit.MILLISECONDS);
+        }
+        catch (RejectedExecutionException ex) {
+            waiting.decrementAndGet();
+            Log.debug("Not retrying {}: scheduler is shut down", entry.task);
+        }
+    }
+
+    private void enqueue(Entry entry) {
+        synchronized (this) {
+            ready.add(entry);
+        }
+        drain();
+    }
+
+    private void drain() {
+        while (true) {
+            final Entry entry;
+            synchronized (this) {
+                if (running >= maxConcurrent || ready.isEmpty()) {
+                    return;
+                }
+                entry = ready.poll();
+                running++;
+            }
+            try {
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        attempt(entry);
+                    }
+                });
+            }
+            catch (RejectedExecutionException ex) {
+                synchronized (this) {
+                    running--;
+                }
+                // the executor is saturated: back off as if the attempt had failed
+                schedule(entry.next());
+                return;
+            }
+        }
+    }
+
+    private void attempt(Entry entry) {
+        boolean done = false;
+        try {
+            done = entry.task.attempt();
+        }
+        catch (Exception ex) {
+            Log.error("Reconnection attempt failed for {}", entry.task, ex);
+        }
+        finally {
+            synchronized (this) {
+                running--;
+            }
+        }
+        if (!done) {
+            schedule(entry.next());
+        }
+        drain();
+    }
+
+    private final class Entry implements Comparable<Entry> {
+        private final Task task;
+        private final int failures;
+        private final long lastActivity;
+        private final long order = sequence.getAndIncrement();
+
+        private Entry(Task task, int failures) {
+            this.task = task;
+            this.failures = failures;
+            this.lastActivity = task.getLastActivity();
+        }
+
+        private Entry next() {
+            return new Entry(task, failures + 1);
+        }
+
+        @Override
+        public int compareTo(Entry other) {
+            // most recently active first, then first come first served
+            if (lastActivity != other.lastActivity) {
+                return lastActivity > other.lastActivity ? -1 : 1;
+            }
+            return order < other.order ? -1 : (order == other.order ? 0 : 1);
+        }
+    }
+}
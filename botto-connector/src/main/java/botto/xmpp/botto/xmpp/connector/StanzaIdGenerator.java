@@ -0,0 +1,12 @@
+package botto.xmpp.botto.xmpp.connector;
+
+/**
+ * Source of the ids given to outgoing stanzas that have none. Implementations are called
+ * by any thread sending, and must return ids that are unique across the deployment.
+ *
+ * @see StanzaIds
+ */
+public interface StanzaIdGenerator {
+
+    String nextId();
+}
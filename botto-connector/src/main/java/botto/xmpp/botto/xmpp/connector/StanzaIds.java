@@ -0,0 +1,44 @@
+package botto.xmpp.botto.xmpp.connector;
+
+import com.google.common.base.Preconditions;
+import com.google.common.base.Strings;
+import org.xmpp.packet.IQ;
+import org.xmpp.packet.Message;
+import org.xmpp.packet.Packet;
+
+/**
+ * The ids connectors give to outgoing stanzas that need one and have none: messages, so that errors
+ * can be matched to them, and IQs, whose replies are matched by id.
+ *
+ * Ids come from a CounterIdGenerator unless another generator is installed, for instance one
+ * with a configured node part.
+ */
+public final class StanzaIds {
+
+    private static volatile StanzaIdGenerator generator = new CounterIdGenerator();
+
+    private StanzaIds() {}
+
+    public static void setGenerator(StanzaIdGenerator generator) {
+        StanzaIds.generator = Preconditions.checkNotNull(generator, "Generator can't be null");
+    }
+
+    public static StanzaIdGenerator getGenerator() {
+        return generator;
+    }
+
+    public static String nextId() {
+        return generator.nextId();
+    }
+
+    public static boolean requiresId(Packet packet) {
+        return packet instanceof Message || packet instanceof IQ;
+    }
+
+    /**
+     * @return true if the packet must be given an id before it is sent
+     */
+    public static boolean lacksId(Packet packet) {
+        return requiresId(packet) && Strings.isNullOrEmpty(packet.getID());
+    }
+}
@@ -0,0 +1,30 @@
+package botto.xmpp.botto.xmpp.connector.channel;
+
+/**
+ * Base for ChannelConnections, holding the receiver bound to the connection and its ingress filter.
+ */
+public abstract class AbstractChannelConnection implements ChannelConnection {
+
+    private volatile ChannelReceiver receiver;
+    private volatile IngressFilter ingressFilter = IngressFilter.ALL;
+
+    @Override
+    public ChannelReceiver getReceiver() {
+        return receiver;
+    }
+
+    @Override
+    public void setReceiver(ChannelReceiver receiver) {
+        this.receiver = receiver;
+    }
+
+    @Override
+    public IngressFilter getIngressFilter() {
+        return ingressFilter;
+    }
+
+    @Override
+    public void setIngressFilter(IngressFilter filter) {
+        this.ingressFilter = filter;
+    }
+}
@@ -1,6 +1,7 @@
 package botto.xmpp.botto.xmpp.connector.channel;
 
 import botto.xmpp.botto.xmpp.connector.ConnectorId;
+import botto.xmpp.botto.xmpp.connector.JIDPool;
 import com.google.common.base.Objects;
 import org.xmpp.packet.JID;
 
@@ -15,7 +16,7 @@ public class Channel {
 
     private Channel(ConnectorId connectorId, JID address) {
         this.connectorId = connectorId;
-        this.address = address;
+        this.address = JIDPool.intern(address);
         this.hashCode = Objects.hashCode(connectorId, address);
     }
 
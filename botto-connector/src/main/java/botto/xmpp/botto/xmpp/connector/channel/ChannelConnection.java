@@ -9,4 +9,16 @@ import botto.xmpp.botto.xmpp.connector.channel.Channel;
 public interface ChannelConnection {
     public Channel getChannel();
     public Connector getConnector();
+
+    /**
+     * @return the receiver bound to this connection, or null if packets must go through the ChannelListener
+     */
+    public ChannelReceiver getReceiver();
+    public void setReceiver(ChannelReceiver receiver);
+
+    /**
+     * @return the packets the receiver of this connection can handle, all of them by default
+     */
+    public IngressFilter getIngressFilter();
+    public void setIngressFilter(IngressFilter filter);
 }
@@ -2,12 +2,25 @@ package botto.xmpp.botto.xmpp.connector.channel;
 
 import com.google.common.base.Objects;
 
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+
 /**
  * Mutable information about a Channel
+ *
+ * The status and the sequence number of the event that set it are packed in a single volatile long,
+ * updated with compare-and-set: reading the status never locks, and an event is only applied if it is
+ * newer than the last applied event and a valid transition from the current status.
  */
 public class ChannelContext {
+
+    private static final ChannelStatus[] statuses = ChannelStatus.values();
+    private static final int STATUS_BITS = 8;
+    private static final long STATUS_MASK = (1L << STATUS_BITS) - 1;
+    private static final AtomicLongFieldUpdater<ChannelContext> stateUpdater =
+        AtomicLongFieldUpdater.newUpdater(ChannelContext.class, "state");
+
     private final Channel channel;
-    private ChannelStatus status = ChannelStatus.Opening;
+    private volatile long state = pack(0, ChannelStatus.Opening);
 
     public static ChannelContext of(Channel channel) {
         return new ChannelContext(channel);
@@ -22,18 +35,53 @@ public class ChannelContext {
     }
 
     public ChannelStatus getStatus() {
-        return status;
+        return statuses[(int) (state & STATUS_MASK)];
+    }
+
+    /**
+     * @return the sequence number of the last event applied to this context, 0 if none was applied.
+     * It only grows, and changes with every applied event.
+     */
+    public long getVersion() {
+        return state >>> STATUS_BITS;
+    }
+
+    /**
+     * Applies the status of the event.
+     * @return false if the event was dropped, because it is older than the last applied event
+     * or because its status is not a valid transition from the current status
+     */
+    public boolean setEvent(ChannelEvent event) {
+        return applyEvent(event) != null;
+    }
+
+    /**
+     * Applies the status of the event, as setEvent.
+     * @return the status before the event, or null if the event was dropped
+     */
+    public ChannelStatus applyEvent(ChannelEvent event) {
+        long updated = pack(event.getSequence(), event.getStatus());
+        while (true) {
+            long current = state;
+            ChannelStatus previous = statuses[(int) (current & STATUS_MASK)];
+            if (event.getSequence() <= current >>> STATUS_BITS || !previous.canTransitionTo(event.getStatus())) {
+                return null;
+            }
+            if (stateUpdater.compareAndSet(this, current, updated)) {
+                return previous;
+            }
+        }
     }
 
-    public void setEvent(ChannelEvent event) {
-        status = event.getStatus();
+    private static long pack(long sequence, ChannelStatus status) {
+        return sequence << STATUS_BITS | status.ordinal();
     }
 
     @Override
     public String toString() {
         return Objects.toStringHelper(this)
             .addValue(channel.getAddress())
-            .addValue(status)
+            .addValue(getStatus())
             .toString();
     }
 }
@@ -1,9 +1,13 @@
 package botto.xmpp.botto.xmpp.connector.channel;
 
 import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class ChannelEvent {
 
+    private static final AtomicLong sequences = new AtomicLong();
+
+    private final long sequence = sequences.incrementAndGet();
     private final Channel channel;
     private final ChannelStatus status;
     private final String message;
@@ -50,11 +54,11 @@ public class ChannelEvent {
     }
 
     public static ChannelEvent disconnecting(Channel channel, String message, Throwable error) {
-        return new ChannelEvent(channel, ChannelStatus.Disconnected, message, error);
+        return new ChannelEvent(channel, ChannelStatus.Disconnecting, message, error);
     }
 
     public static ChannelEvent disconnecting(Channel channel, String message) {
-        return new ChannelEvent(channel, ChannelStatus.Disconnected, message, null);
+        return new ChannelEvent(channel, ChannelStatus.Disconnecting, message, null);
     }
 
     public static ChannelEvent closing(Channel channel) {
@@ -66,7 +70,7 @@ public class ChannelEvent {
     }
 
     public static ChannelEvent closed(Channel channel, String message) {
-        return new ChannelEvent(channel, ChannelStatus.Opening, message, null);
+        return new ChannelEvent(channel, ChannelStatus.Closed, message, null);
     }
 
     public static ChannelEvent closed(Channel channel, String message, Throwable error) {
@@ -80,6 +84,13 @@ public class ChannelEvent {
         this.error = error;
     }
 
+    /**
+     * @return a number that is unique to this event, and greater than the numbers of all events created before it
+     */
+    public long getSequence() {
+        return sequence;
+    }
+
     public ChannelStatus getStatus() {
         return status;
     }
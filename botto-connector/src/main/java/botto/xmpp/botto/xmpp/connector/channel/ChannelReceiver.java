@@ -0,0 +1,12 @@
+package botto.xmpp.botto.xmpp.connector.channel;
+
+import org.xmpp.packet.Packet;
+
+/**
+ * Delivers the packets received on one channel, already resolved to their destination.
+ * Connectors keep the receiver of each channel on its ChannelConnection, so that incoming
+ * packets reach their destination without any lookup.
+ */
+public interface ChannelReceiver {
+    public void receive(Packet packet);
+}
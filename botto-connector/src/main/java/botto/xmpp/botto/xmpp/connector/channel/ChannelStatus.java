@@ -1,5 +1,8 @@
 package botto.xmpp.botto.xmpp.connector.channel;
 
+import java.util.EnumSet;
+import java.util.Set;
+
 public enum ChannelStatus {
     Opening,
     Opened,
@@ -9,7 +12,30 @@ public enum ChannelStatus {
     Disconnected,
     Closing, Closed;
 
+    private Set<ChannelStatus> next;
+
+    static {
+        Set<ChannelStatus> connection = EnumSet.of(Connecting, Connected, Disconnecting, Disconnected, Closing, Closed);
+        Opening.next = EnumSet.of(Opened);
+        Opening.next.addAll(connection);
+        Opened.next = connection;
+        Connecting.next = connection;
+        Connected.next = connection;
+        Disconnecting.next = connection;
+        Disconnected.next = connection;
+        Closing.next = EnumSet.of(Closed);
+        Closed.next = EnumSet.noneOf(ChannelStatus.class);
+    }
+
     public boolean isConnected() {
         return this == Connected;
     }
+
+    /**
+     * A channel never goes back to opening, only closes once closing, and stays closed.
+     * Any other change between connection statuses is valid, including to the same status.
+     */
+    public boolean canTransitionTo(ChannelStatus status) {
+        return next.contains(status);
+    }
 }
@@ -0,0 +1,192 @@
+package botto.xmpp.botto.xmpp.connector.channel;
+
+import com.google.common.base.Objects;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableSet;
+import org.dom4j.Element;
+import org.xmpp.packet.IQ;
+import org.xmpp.packet.Message;
+import org.xmpp.packet.Packet;
+import org.xmpp.packet.Presence;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * The packets a channel wants to receive: messages, presences, and IQs whose child element
+ * is in one of a set of namespaces or in any namespace.
+ *
+ * Connectors check it on what they read from the wire, before converting it to a Packet,
+ * so that packets nobody can handle cost as little as possible. IQs without a child element,
+ * such as most results, pass whenever IQs are accepted. Filters are immutable.
+ */
+public final class IngressFilter {
+
+    public static final IngressFilter ALL = new IngressFilter(true, true, true, null);
+    public static final IngressFilter NONE = new IngressFilter(false, false, false, ImmutableSet.<String>of());
+
+    private final boolean messages;
+    private final boolean presences;
+    private final boolean iqs;
+    // null for any namespace
+    private final ImmutableSet<String> iqNamespaces;
+
+    private IngressFilter(boolean messages, boolean presences, boolean iqs, ImmutableSet<String> iqNamespaces) {
+        this.messages = messages;
+        this.presences = presences;
+        this.iqs = iqs;
+        this.iqNamespaces = iqNamespaces;
+    }
+
+    /**
+     * The filter of a receiver of packets of a type: Message, Presence, IQ or Packet for all of them.
+     * @param namespaces the namespaces of the IQs it receives, or none for IQs in any namespace
+     */
+    public static IngressFilter of(Class<? extends Packet> type, String... namespaces) {
+        return of(type, Arrays.asList(namespaces));
+    }
+
+    public static IngressFilter of(Class<? extends Packet> type, Collection<String> namespaces) {
+        Preconditions.checkNotNull(type, "Type can't be null");
+        ImmutableSet<String> iqNamespaces = namespaces.isEmpty() ? null : ImmutableSet.copyOf(namespaces);
+        if (Message.class.isAssignableFrom(type)) {
+            return new IngressFilter(true, false, false, ImmutableSet.<String>of());
+        }
+        if (Presence.class.isAssignableFrom(type)) {
+            return new IngressFilter(false, true, false, ImmutableSet.<String>of());
+        }
+        if (IQ.class.isAssignableFrom(type)) {
+            return new IngressFilter(false, false, true, iqNamespaces);
+        }
+        return new IngressFilter(true, true, true, iqNamespaces);
+    }
+
+    /**
+     * @return a filter accepting what either filter accepts
+     */
+    public IngressFilter union(IngressFilter other) {
+        Preconditions.checkNotNull(other, "Filter can't be null");
+        ImmutableSet<String> namespaces;
+        if (!iqs || !other.iqs) {
+            namespaces = iqs ? iqNamespaces : other.iqNamespaces;
+        } else if (iqNamespaces == null || other.iqNamespaces == null) {
+            namespaces = null;
+        } else {
+            namespaces = ImmutableSet.<String>builder().addAll(iqNamespaces).addAll(other.iqNamespaces).build();
+        }
+        return new IngressFilter(messages || other.messages, presences || other.presences, iqs || other.iqs, namespaces);
+    }
+
+    public static IngressFilter union(Collection<IngressFilter> filters) {
+        IngressFilter union = NONE;
+        for (IngressFilter filter : filters) {
+            union = union.union(filter);
+        }
+        return union;
+    }
+
+    public boolean acceptsAll() {
+        return messages && presences && iqs && iqNamespaces == null;
+    }
+
+    public boolean acceptsMessages() {
+        return messages;
+    }
+
+    public boolean acceptsPresences() {
+        return presences;
+    }
+
+    /**
+     * @param namespace the namespace of the child element of the IQ, or null if it has none
+     */
+    public boolean acceptsIQ(String namespace) {
+        return iqs && (iqNamespaces == null || namespace == null || iqNamespaces.contains(namespace));
+    }
+
+    /**
+     * @return true if IQs are accepted in some namespaces only, so that the child element must be looked at
+     */
+    public boolean filtersNamespaces() {
+        return iqs && iqNamespaces != null;
+    }
+
+    /**
+     * Checks an element read from a stream, by its name and by the namespace of its child element
+     * if it is an IQ. Elements other than stanzas are accepted.
+     */
+    public boolean accepts(String name, String childNamespace) {
+        if ("message".equals(name)) {
+            return messages;
+        }
+        if ("presence".equals(name)) {
+            return presences;
+        }
+        if ("iq".equals(name)) {
+            return acceptsIQ(childNamespace);
+        }
+        return true;
+    }
+
+    public boolean accepts(Element element) {
+        return accepts(element.getName(), "iq".equals(element.getName()) ? childNamespace(element) : null);
+    }
+
+    public boolean accepts(Packet packet) {
+        if (acceptsAll()) {
+            return true;
+        }
+        if (packet instanceof Message) {
+            return messages;
+        }
+        if (packet instanceof Presence) {
+            return presences;
+        }
+        if (packet instanceof IQ) {
+            return acceptsIQ(filtersNamespaces() ? childNamespace(packet.getElement()) : null);
+        }
+        return true;
+    }
+
+    /**
+     * @return the namespace of the payload of an IQ: its first child element other than an error, or null
+     */
+    @SuppressWarnings("unchecked")
+    public static String childNamespace(Element iq) {
+        for (Element child : (List<Element>) iq.elements()) {
+            if (!"error".equals(child.getName())) {
+                return child.getNamespaceURI();
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof IngressFilter)) {
+            return false;
+        }
+        IngressFilter other = (IngressFilter) o;
+        return messages == other.messages && presences == other.presences && iqs == other.iqs
+            && Objects.equal(iqNamespaces, other.iqNamespaces);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hashCode(messages, presences, iqs, iqNamespaces);
+    }
+
+    @Override
+    public String toString() {
+        return Objects.toStringHelper(this)
+            .add("messages", messages)
+            .add("presences", presences)
+            .add("iqs", iqs)
+            .add("iqNamespaces", iqNamespaces)
+            .toString();
+    }
+}
@@ -0,0 +1,89 @@
+package botto.xmpp.botto.xmpp.connector.stanza;
+
+import org.dom4j.DocumentFactory;
+import org.dom4j.Namespace;
+import org.dom4j.QName;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A DocumentFactory that gives the elements and attributes it builds shared names and namespaces,
+ * looked up in lock-free maps where the default factory goes through synchronized weak maps.
+ *
+ * Stanzas use few names, which are kept once seen. As a peer could send any number of names, past
+ * a bound new ones are no longer kept, and are created for each element as by the default factory.
+ */
+final class InterningDocumentFactory extends DocumentFactory {
+
+    static final int MAX_ENTRIES = 4096;
+
+    private final ConcurrentMap<Namespace, ConcurrentMap<String, QName>> names = new ConcurrentHashMap<Namespace, ConcurrentMap<String, QName>>();
+    // by uri, then by prefix
+    private final ConcurrentMap<String, ConcurrentMap<String, Namespace>> namespaces = new ConcurrentHashMap<String, ConcurrentMap<String, Namespace>>();
+    private final AtomicInteger entries = new AtomicInteger();
+
+    @Override
+    public QName createQName(String localName, Namespace namespace) {
+        ConcurrentMap<String, QName> byName = names.get(namespace);
+        if (byName != null) {
+            QName found = byName.get(localName);
+            if (found != null) {
+                return found;
+            }
+        }
+        QName created = new QName(localName, namespace);
+        created.setDocumentFactory(this);
+        if (entries.get() >= MAX_ENTRIES) {
+            return created;
+        }
+        if (byName == null) {
+            byName = putIfAbsent(names, namespace, new ConcurrentHashMap<String, QName>());
+        }
+        QName existing = byName.putIfAbsent(localName, created);
+        if (existing != null) {
+            return existing;
+        }
+        entries.incrementAndGet();
+        return created;
+    }
+
+    @Override
+    public QName createQName(String name) {
+        return createQName(name, Namespace.NO_NAMESPACE);
+    }
+
+    @Override
+    public Namespace createNamespace(String prefix, String uri) {
+        ConcurrentMap<String, Namespace> byPrefix = namespaces.get(uri);
+        if (byPrefix != null) {
+            Namespace found = byPrefix.get(prefix);
+            if (found != null) {
+                return found;
+            }
+        }
+        Namespace created = Namespace.get(prefix, uri);
+        if (entries.get() >= MAX_ENTRIES) {
+            return created;
+        }
+        if (byPrefix == null) {
+            byPrefix = putIfAbsent(namespaces, uri, new ConcurrentHashMap<String, Namespace>());
+        }
+        Namespace existing = byPrefix.putIfAbsent(prefix, created);
+        if (existing != null) {
+            return existing;
+        }
+        entries.incrementAndGet();
+        return created;
+    }
+
+    int size() {
+        return entries.get();
+    }
+
+    private static <K, V> V putIfAbsent(ConcurrentMap<K, V> map, K key, V value) {
+        V existing = map.putIfAbsent(key, value);
+        return existing != null ? existing : value;
+    }
+}
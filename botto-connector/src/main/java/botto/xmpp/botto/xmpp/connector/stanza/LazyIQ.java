@@ -0,0 +1,193 @@
+package botto.xmpp.botto.xmpp.connector.stanza;
+
+import org.dom4j.DocumentHelper;
+import org.dom4j.Element;
+import org.xmpp.packet.IQ;
+import org.xmpp.packet.JID;
+import org.xmpp.packet.PacketError;
+import org.xmpp.packet.PacketExtension;
+
+/**
+ * An IQ read from a RawStanza, that builds its DOM only when it must.
+ *
+ * The addresses, id and type are read from the raw XML, which is enough to route it. The child element,
+ * any other accessor, and any change parse the stanza first; from then on it is a plain IQ. Changes of the
+ * id and addresses are written in the raw XML instead.
+ * Like any Packet, it is not safe for use by several threads at once.
+ */
+public class LazyIQ extends IQ implements LazyPacket {
+
+    // what Packet holds until the stanza is parsed; nothing reads or changes it
+    private static final Element UNPARSED = DocumentHelper.createElement("iq");
+
+    private RawStanza raw;
+
+    public LazyIQ(RawStanza raw) {
+        super(UNPARSED, true);
+        this.raw = raw;
+    }
+
+    @Override
+    public RawStanza getRawStanza() {
+        return raw;
+    }
+
+    @Override
+    public boolean isParsed() {
+        return raw == null;
+    }
+
+    private void parse() {
+        if (raw != null) {
+            element = raw.parse();
+            raw = null;
+        }
+    }
+
+    @Override
+    public String getID() {
+        return raw != null ? raw.getAttribute("id") : super.getID();
+    }
+
+    @Override
+    public JID getTo() {
+        return raw != null ? raw.getAddress("to") : super.getTo();
+    }
+
+    @Override
+    public JID getFrom() {
+        return raw != null ? raw.getAddress("from") : super.getFrom();
+    }
+
+    @Override
+    public Type getType() {
+        if (raw == null) {
+            return super.getType();
+        }
+        String type = raw.getAttribute("type");
+        return type == null ? null : Type.valueOf(type);
+    }
+
+    @Override
+    public String toXML() {
+        return raw != null ? raw.getXML() : super.toXML();
+    }
+
+    @Override
+    public String toString() {
+        return toXML();
+    }
+
+    /**
+     * Copies share the raw stanza until either is parsed.
+     */
+    @Override
+    public IQ createCopy() {
+        return raw != null ? new LazyIQ(raw) : super.createCopy();
+    }
+
+    @Override
+    public Element getElement() {
+        parse();
+        return super.getElement();
+    }
+
+    @Override
+    public Element getChildElement() {
+        parse();
+        return super.getChildElement();
+    }
+
+    @Override
+    public void setChildElement(Element childElement) {
+        parse();
+        super.setChildElement(childElement);
+    }
+
+    @Override
+    public Element setChildElement(String name, String namespace) {
+        parse();
+        return super.setChildElement(name, namespace);
+    }
+
+    @Override
+    public void setID(String id) {
+        if (raw != null) {
+            raw = raw.withAttribute("id", id);
+        } else {
+            super.setID(id);
+        }
+    }
+
+    @Override
+    public void setTo(String to) {
+        if (raw != null) {
+            raw = raw.withAttribute("to", to);
+        } else {
+            super.setTo(to);
+        }
+    }
+
+    @Override
+    public void setTo(JID to) {
+        if (raw != null) {
+            raw = raw.withAddress("to", to);
+        } else {
+            super.setTo(to);
+        }
+    }
+
+    @Override
+    public void setFrom(String from) {
+        if (raw != null) {
+            raw = raw.withAttribute("from", from);
+        } else {
+            super.setFrom(from);
+        }
+    }
+
+    @Override
+    public void setFrom(JID from) {
+        if (raw != null) {
+            raw = raw.withAddress("from", from);
+        } else {
+            super.setFrom(from);
+        }
+    }
+
+    @Override
+    public void setType(Type type) {
+        parse();
+        super.setType(type);
+    }
+
+    @Override
+    public void addExtension(PacketExtension extension) {
+        parse();
+        super.addExtension(extension);
+    }
+
+    @Override
+    public PacketExtension getExtension(String name, String namespace) {
+        parse();
+        return super.getExtension(name, namespace);
+    }
+
+    @Override
+    public boolean deleteExtension(String name, String namespace) {
+        parse();
+        return super.deleteExtension(name, namespace);
+    }
+
+    @Override
+    public PacketError getError() {
+        parse();
+        return super.getError();
+    }
+
+    @Override
+    public void setError(PacketError error) {
+        parse();
+        super.setError(error);
+    }
+}
@@ -0,0 +1,14 @@
+package botto.xmpp.botto.xmpp.connector.stanza;
+
+/**
+ * A Packet read from a RawStanza, that builds its DOM only when an accessor needs it.
+ */
+public interface LazyPacket {
+
+    /**
+     * @return the stanza the packet was read from, or null if it was parsed since
+     */
+    public RawStanza getRawStanza();
+
+    public boolean isParsed();
+}
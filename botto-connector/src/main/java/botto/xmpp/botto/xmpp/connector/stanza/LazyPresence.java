@@ -0,0 +1,233 @@
+package botto.xmpp.botto.xmpp.connector.stanza;
+
+import org.dom4j.DocumentHelper;
+import org.dom4j.Element;
+import org.xmpp.packet.JID;
+import org.xmpp.packet.PacketError;
+import org.xmpp.packet.PacketExtension;
+import org.xmpp.packet.Presence;
+
+/**
+ * A Presence read from a RawStanza, that builds its DOM only when it must.
+ *
+ * The addresses, id, type, show and status are read from the raw XML. Any other accessor,
+ * and any change, parses the stanza first; from then on it is a plain Presence. Changes of the id and addresses
+ * are written in the raw XML instead.
+ * Like any Packet, it is not safe for use by several threads at once.
+ */
+public class LazyPresence extends Presence implements LazyPacket {
+
+    // what Packet holds until the stanza is parsed; nothing reads or changes it
+    private static final Element UNPARSED = DocumentHelper.createElement("presence");
+
+    private RawStanza raw;
+
+    public LazyPresence(RawStanza raw) {
+        super(UNPARSED, true);
+        this.raw = raw;
+    }
+
+    @Override
+    public RawStanza getRawStanza() {
+        return raw;
+    }
+
+    @Override
+    public boolean isParsed() {
+        return raw == null;
+    }
+
+    private void parse() {
+        if (raw != null) {
+            element = raw.parse();
+            raw = null;
+        }
+    }
+
+    private boolean hasText(String child) {
+        if (raw != null && raw.isTextChild(child)) {
+            return true;
+        }
+        parse();
+        return false;
+    }
+
+    @Override
+    public String getID() {
+        return raw != null ? raw.getAttribute("id") : super.getID();
+    }
+
+    @Override
+    public JID getTo() {
+        return raw != null ? raw.getAddress("to") : super.getTo();
+    }
+
+    @Override
+    public JID getFrom() {
+        return raw != null ? raw.getAddress("from") : super.getFrom();
+    }
+
+    @Override
+    public Type getType() {
+        if (raw == null) {
+            return super.getType();
+        }
+        String type = raw.getAttribute("type");
+        return type == null ? null : Type.valueOf(type);
+    }
+
+    @Override
+    public Show getShow() {
+        if (!hasText("show")) {
+            return super.getShow();
+        }
+        String show = raw.getChildText("show");
+        return show == null ? null : Show.valueOf(show);
+    }
+
+    @Override
+    public String getStatus() {
+        return hasText("status") ? raw.getChildText("status") : super.getStatus();
+    }
+
+    @Override
+    public String toXML() {
+        return raw != null ? raw.getXML() : super.toXML();
+    }
+
+    @Override
+    public String toString() {
+        return toXML();
+    }
+
+    /**
+     * Copies share the raw stanza until either is parsed.
+     */
+    @Override
+    public Presence createCopy() {
+        return raw != null ? new LazyPresence(raw) : super.createCopy();
+    }
+
+    @Override
+    public Element getElement() {
+        parse();
+        return super.getElement();
+    }
+
+    @Override
+    public int getPriority() {
+        parse();
+        return super.getPriority();
+    }
+
+    @Override
+    public void setID(String id) {
+        if (raw != null) {
+            raw = raw.withAttribute("id", id);
+        } else {
+            super.setID(id);
+        }
+    }
+
+    @Override
+    public void setTo(String to) {
+        if (raw != null) {
+            raw = raw.withAttribute("to", to);
+        } else {
+            super.setTo(to);
+        }
+    }
+
+    @Override
+    public void setTo(JID to) {
+        if (raw != null) {
+            raw = raw.withAddress("to", to);
+        } else {
+            super.setTo(to);
+        }
+    }
+
+    @Override
+    public void setFrom(String from) {
+        if (raw != null) {
+            raw = raw.withAttribute("from", from);
+        } else {
+            super.setFrom(from);
+        }
+    }
+
+    @Override
+    public void setFrom(JID from) {
+        if (raw != null) {
+            raw = raw.withAddress("from", from);
+        } else {
+            super.setFrom(from);
+        }
+    }
+
+    @Override
+    public void setType(Type type) {
+        parse();
+        super.setType(type);
+    }
+
+    @Override
+    public void setShow(Show show) {
+        parse();
+        super.setShow(show);
+    }
+
+    @Override
+    public void setStatus(String status) {
+        parse();
+        super.setStatus(status);
+    }
+
+    @Override
+    public void setPriority(int priority) {
+        parse();
+        super.setPriority(priority);
+    }
+
+    @Override
+    public Element getChildElement(String name, String namespace) {
+        parse();
+        return super.getChildElement(name, namespace);
+    }
+
+    @Override
+    public Element addChildElement(String name, String namespace) {
+        parse();
+        return super.addChildElement(name, namespace);
+    }
+
+    @Override
+    public void addExtension(PacketExtension extension) {
+        parse();
+        super.addExtension(extension);
+    }
+
+    @Override
+    public PacketExtension getExtension(String name, String namespace) {
+        parse();
+        return super.getExtension(name, namespace);
+    }
+
+    @Override
+    public boolean deleteExtension(String name, String namespace) {
+        parse();
+        return super.deleteExtension(name, namespace);
+    }
+
+    @Override
+    public PacketError getError() {
+        parse();
+        return super.getError();
+    }
+
+    @Override
+    public void setError(PacketError error) {
+        parse();
+        super.setError(error);
+    }
+}
@@ -0,0 +1,190 @@
+package botto.xmpp.botto.xmpp.connector.stanza;
+
+import botto.xmpp.botto.xmpp.connector.JIDPool;
+import org.dom4j.DocumentHelper;
+import org.dom4j.Element;
+import org.xmpp.packet.JID;
+import org.xmpp.packet.Message;
+import org.xmpp.packet.PacketError;
+import org.xmpp.packet.PacketExtension;
+
+/**
+ * A copy of a Message sharing the element of the original, made by PacketOverlay.
+ */
+class OverlayMessage extends Message implements OverlayPacket {
+
+    // what Packet is built with, so that its constructor does not touch the shared element
+    private static final Element SHARED = DocumentHelper.createElement("message");
+
+    private PacketOverlay overlay;
+
+    OverlayMessage(PacketOverlay overlay) {
+        super(SHARED, true);
+        this.overlay = overlay;
+        this.element = overlay.getOriginal();
+    }
+
+    @Override
+    public boolean isWritten() {
+        return overlay == null;
+    }
+
+    @Override
+    public PacketOverlay getOverlay() {
+        return overlay;
+    }
+
+    private void write() {
+        if (overlay != null) {
+            element = overlay.write();
+            toJID = null;
+            fromJID = null;
+            overlay = null;
+        }
+    }
+
+    @Override
+    public String getID() {
+        return overlay != null ? overlay.getID() : super.getID();
+    }
+
+    @Override
+    public JID getTo() {
+        return overlay != null ? overlay.getTo() : super.getTo();
+    }
+
+    @Override
+    public JID getFrom() {
+        return overlay != null ? overlay.getFrom() : super.getFrom();
+    }
+
+    @Override
+    public String toXML() {
+        return overlay != null ? overlay.toXML() : super.toXML();
+    }
+
+    @Override
+    public String toString() {
+        return toXML();
+    }
+
+    /**
+     * Copies share the original element too.
+     */
+    @Override
+    public Message createCopy() {
+        return overlay != null ? new OverlayMessage(overlay.copy()) : super.createCopy();
+    }
+
+    @Override
+    public void setID(String id) {
+        if (overlay != null && id != null) {
+            overlay.setID(id);
+        } else {
+            write();
+            super.setID(id);
+        }
+    }
+
+    @Override
+    public void setTo(String to) {
+        setTo(to == null ? null : JIDPool.lookup(to));
+    }
+
+    @Override
+    public void setTo(JID to) {
+        if (overlay != null && to != null) {
+            overlay.setTo(to);
+        } else {
+            write();
+            super.setTo(to);
+        }
+    }
+
+    @Override
+    public void setFrom(String from) {
+        setFrom(from == null ? null : JIDPool.lookup(from));
+    }
+
+    @Override
+    public void setFrom(JID from) {
+        if (overlay != null && from != null) {
+            overlay.setFrom(from);
+        } else {
+            write();
+            super.setFrom(from);
+        }
+    }
+
+    @Override
+    public Element getElement() {
+        write();
+        return super.getElement();
+    }
+
+    @Override
+    public void setType(Type type) {
+        write();
+        super.setType(type);
+    }
+
+    @Override
+    public void setBody(String body) {
+        write();
+        super.setBody(body);
+    }
+
+    @Override
+    public void setSubject(String subject) {
+        write();
+        super.setSubject(subject);
+    }
+
+    @Override
+    public void setThread(String thread) {
+        write();
+        super.setThread(thread);
+    }
+
+    @Override
+    public Element getChildElement(String name, String namespace) {
+        write();
+        return super.getChildElement(name, namespace);
+    }
+
+    @Override
+    public Element addChildElement(String name, String namespace) {
+        write();
+        return super.addChildElement(name, namespace);
+    }
+
+    @Override
+    public void addExtension(PacketExtension extension) {
+        write();
+        super.addExtension(extension);
+    }
+
+    @Override
+    public PacketExtension getExtension(String name, String namespace) {
+        write();
+        return super.getExtension(name, namespace);
+    }
+
+    @Override
+    public boolean deleteExtension(String name, String namespace) {
+        write();
+        return super.deleteExtension(name, namespace);
+    }
+
+    @Override
+    public PacketError getError() {
+        write();
+        return super.getError();
+    }
+
+    @Override
+    public void setError(PacketError error) {
+        write();
+        super.setError(error);
+    }
+}
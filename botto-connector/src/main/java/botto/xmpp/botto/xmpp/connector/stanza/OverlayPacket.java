@@ -0,0 +1,17 @@
+package botto.xmpp.botto.xmpp.connector.stanza;
+
+/**
+ * A copy made by PacketOverlay, that shares the element of its original until it is changed.
+ */
+interface OverlayPacket {
+
+    /**
+     * @return true if the packet has an element of its own
+     */
+    boolean isWritten();
+
+    /**
+     * @return what the packet overlays on its original, or null once it is written
+     */
+    PacketOverlay getOverlay();
+}
@@ -0,0 +1,35 @@
+package botto.xmpp.botto.xmpp.connector.stanza;
+
+import com.google.common.base.Charsets;
+import org.xmpp.packet.Packet;
+
+/**
+ * The UTF-8 form of packets, as connectors write it.
+ *
+ * Unparsed stanzas and overlay copies keep it once encoded, as they know when they change: a packet
+ * sent several times, or logged and then sent, is serialized once. Other packets hand out their element
+ * to anyone who asks, and are serialized on each call.
+ */
+public final class PacketBytes {
+
+    private PacketBytes() {}
+
+    /**
+     * @return the serialized packet, that callers must not change as it may be shared
+     */
+    public static byte[] of(Packet packet) {
+        if (packet instanceof LazyPacket) {
+            RawStanza raw = ((LazyPacket) packet).getRawStanza();
+            if (raw != null) {
+                return raw.getBytes();
+            }
+        }
+        if (packet instanceof OverlayPacket) {
+            PacketOverlay overlay = ((OverlayPacket) packet).getOverlay();
+            if (overlay != null) {
+                return overlay.toBytes();
+            }
+        }
+        return packet.toXML().getBytes(Charsets.UTF_8);
+    }
+}
@@ -0,0 +1,167 @@
+package botto.xmpp.botto.xmpp.connector.stanza;
+
+import botto.xmpp.botto.xmpp.connector.JIDPool;
+import com.google.common.base.Charsets;
+import org.dom4j.Element;
+import org.xmpp.packet.IQ;
+import org.xmpp.packet.JID;
+import org.xmpp.packet.Message;
+import org.xmpp.packet.Packet;
+import org.xmpp.packet.Presence;
+
+/**
+ * Copies of packets that share the element of their original until they are changed.
+ *
+ * A copy keeps the id and addresses set on it apart, and writes them over the attributes of the original
+ * when it is serialized, so fixing the sender of a reply costs no copy of its DOM. Any other change, and
+ * any access to an element, copies the element first, as Packet.createCopy() would have.
+ * The original must not be changed while copies of it are in use, and the serialized form of a copy
+ * is kept until one of its attributes changes, so that sending it again does not serialize it again.
+ */
+public final class PacketOverlay {
+
+    private final Element original;
+    // null when not overlaid
+    private String id;
+    private JID from;
+    private JID to;
+    // the serialized copy, until an overlaid attribute changes
+    private String xml;
+    private byte[] utf8;
+
+    private PacketOverlay(Element original) {
+        this.original = original;
+    }
+
+    private PacketOverlay(PacketOverlay other) {
+        this.original = other.original;
+        this.id = other.id;
+        this.from = other.from;
+        this.to = other.to;
+        this.xml = other.xml;
+        this.utf8 = other.utf8;
+    }
+
+    /**
+     * @return a copy of the packet that can be given a new id and addresses without copying its element
+     */
+    public static Packet copyOf(Packet packet) {
+        if (packet instanceof LazyPacket && !((LazyPacket) packet).isParsed()) {
+            // shares its raw stanza, and rewrites addresses in it
+            return packet.createCopy();
+        }
+        if (packet instanceof OverlayPacket && !((OverlayPacket) packet).isWritten()) {
+            return packet.createCopy();
+        }
+        if (packet instanceof Message) {
+            return new OverlayMessage(new PacketOverlay(packet.getElement()));
+        }
+        if (packet instanceof Presence) {
+            return new OverlayPresence(new PacketOverlay(packet.getElement()));
+        }
+        if (packet instanceof IQ) {
+            return new OverlayIQ(new PacketOverlay(packet.getElement()));
+        }
+        return packet.createCopy();
+    }
+
+    Element getOriginal() {
+        return original;
+    }
+
+    PacketOverlay copy() {
+        return new PacketOverlay(this);
+    }
+
+    /**
+     * @return the overlaid id, or else the one of the original
+     */
+    String getID() {
+        return id != null ? id : original.attributeValue("id");
+    }
+
+    JID getFrom() {
+        return from != null ? from : address("from");
+    }
+
+    JID getTo() {
+        return to != null ? to : address("to");
+    }
+
+    private JID address(String attribute) {
+        String address = original.attributeValue(attribute);
+        return address == null || address.length() == 0 ? null : JIDPool.lookup(address);
+    }
+
+    void setID(String id) {
+        this.id = id;
+        invalidate();
+    }
+
+    void setFrom(JID from) {
+        this.from = from;
+        invalidate();
+    }
+
+    void setTo(JID to) {
+        this.to = to;
+        invalidate();
+    }
+
+    private void invalidate() {
+        xml = null;
+        utf8 = null;
+    }
+
+    /**
+     * @return the XML of the original, with the overlaid attributes rewritten in its start tag
+     */
+    String toXML() {
+        if (xml == null) {
+            xml = serialize();
+        }
+        return xml;
+    }
+
+    byte[] toBytes() {
+        if (utf8 == null) {
+            utf8 = toXML().getBytes(Charsets.UTF_8);
+        }
+        return utf8;
+    }
+
+    private String serialize() {
+        String xml = original.asXML();
+        if (id == null && from == null && to == null) {
+            return xml;
+        }
+        RawStanza raw = new RawStanza(xml, RawStanza.DEFAULT_NAMESPACE);
+        if (id != null) {
+            raw = raw.withAttribute("id", id);
+        }
+        if (from != null) {
+            raw = raw.withAttribute("from", from.toString());
+        }
+        if (to != null) {
+            raw = raw.withAttribute("to", to.toString());
+        }
+        return raw.getXML();
+    }
+
+    /**
+     * @return a copy of the original element, with the overlaid attributes
+     */
+    Element write() {
+        Element copy = original.createCopy();
+        if (id != null) {
+            copy.addAttribute("id", id);
+        }
+        if (from != null) {
+            copy.addAttribute("from", from.toString());
+        }
+        if (to != null) {
+            copy.addAttribute("to", to.toString());
+        }
+        return copy;
+    }
+}
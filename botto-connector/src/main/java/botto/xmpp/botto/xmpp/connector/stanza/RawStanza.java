@@ -0,0 +1,537 @@
+package botto.xmpp.botto.xmpp.connector.stanza;
+
+import botto.xmpp.botto.xmpp.connector.JIDPool;
+import com.google.common.base.Charsets;
+import com.google.common.base.Preconditions;
+import org.dom4j.DocumentException;
+import org.dom4j.Element;
+import org.xmpp.packet.JID;
+import org.xmpp.packet.Packet;
+
+/**
+ * A stanza as read from a stream, not parsed: its XML, and the namespace of the stream it comes from.
+ *
+ * The attributes of the start tag are indexed when the stanza is created, and the direct child elements
+ * the first time one is looked for; both are read from the XML without building a DOM.
+ * Instances are immutable and can be shared between threads: rewriting an attribute makes a new stanza,
+ * which is how bots receiving raw stanzas forward them.
+ */
+public final class RawStanza {
+
+    // for packets built in memory, whose element has no namespace
+    static final String DEFAULT_NAMESPACE = "jabber:client";
+
+    private final String xml;
+    private final String namespace;
+    private final String name;
+    // the names of the attributes of the start tag, and the start and end offsets of their values
+    private final String[] attributeNames;
+    private final int[] attributeValues;
+    // where the content of the stanza starts, or -1 if the start tag is empty
+    private final int contentStart;
+
+    // the direct child elements, indexed on first use: a racing thread builds an identical index
+    private volatile ChildIndex children;
+    // the encoded XML, on first use too
+    private volatile byte[] utf8;
+
+    /**
+     * @param xml a well-formed element
+     * @param namespace the default namespace of the stream it was read from, as jabber:client
+     */
+    public RawStanza(String xml, String namespace) {
+        this.xml = Preconditions.checkNotNull(xml, "XML can't be null");
+        this.namespace = Preconditions.checkNotNull(namespace, "Namespace can't be null");
+        int start = xml.indexOf('<') + 1;
+        int i = nameEnd(xml, start);
+        this.name = xml.substring(start, i);
+
+        String[] names = new String[4];
+        int[] values = new int[8];
+        int count = 0;
+        int length = xml.length();
+        int content = -1;
+        while (i < length) {
+            char c = xml.charAt(i);
+            if (c == '>') {
+                content = i + 1;
+                break;
+            }
+            if (c == '/') {
+                break;
+            }
+            if (Character.isWhitespace(c)) {
+                i++;
+                continue;
+            }
+            int nameStart = i;
+            while (i < length && xml.charAt(i) != '=' && !Character.isWhitespace(xml.charAt(i))) {
+                i++;
+            }
+            String attribute = xml.substring(nameStart, i);
+            while (i < length && xml.charAt(i) != '\'' && xml.charAt(i) != '"') {
+                i++;
+            }
+            int close = xml.indexOf(xml.charAt(i), i + 1);
+            if (count == names.length) {
+                names = copyOf(names, count * 2);
+                values = copyOf(values, count * 4);
+            }
+            names[count] = attribute;
+            values[2 * count] = i + 1;
+            values[2 * count + 1] = close;
+            count++;
+            i = close + 1;
+        }
+        this.attributeNames = count == names.length ? names : copyOf(names, count);
+        this.attributeValues = values;
+        this.contentStart = content;
+    }
+
+    public String getXML() {
+        return xml;
+    }
+
+    /**
+     * @return the XML encoded in UTF-8, shared by all callers: it must not be changed
+     */
+    public byte[] getBytes() {
+        byte[] bytes = utf8;
+        if (bytes == null) {
+            bytes = xml.getBytes(Charsets.UTF_8);
+            utf8 = bytes;
+        }
+        return bytes;
+    }
+
+    public String getNamespace() {
+        return namespace;
+    }
+
+    /**
+     * @return the qualified name of the element, as message
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return the value of an attribute of the start tag, with its entities decoded, or null if there is none
+     */
+    public String getAttribute(String name) {
+        for (int i = 0; i < attributeNames.length; i++) {
+            if (attributeNames[i].equals(name)) {
+                return decode(xml, attributeValues[2 * i], attributeValues[2 * i + 1], true);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return the address in an attribute of the start tag, or null if there is none
+     */
+    JID getAddress(String name) {
+        String address = getAttribute(name);
+        return address == null || address.length() == 0 ? null : JIDPool.lookup(address);
+    }
+
+    /**
+     * @return true if the direct child elements with this name, if any, hold nothing but text,
+     *         so that getChildText can read them without parsing the stanza
+     */
+    public boolean isTextChild(String name) {
+        return !childIndex().complex(name);
+    }
+
+    /**
+     * @return the text of the first direct child element with this name, or null if there is none
+     * @throws IllegalStateException if the child element holds more than text
+     */
+    public String getChildText(String name) {
+        ChildIndex index = childIndex();
+        Preconditions.checkState(!index.complex(name), "Child %s of %s is not text only", name, this.name);
+        int child = index.find(name);
+        if (child < 0) {
+            return null;
+        }
+        return decode(xml, index.contentStarts[child], index.contentEnds[child], false);
+    }
+
+    /**
+     * @return the stanza as a DOM element, detached from any document
+     */
+    public Element parse() {
+        try {
+            return XmlCodec.readStanza(xml, namespace);
+        }
+        catch (DocumentException e) {
+            throw new IllegalStateException("Could not parse stanza " + xml, e);
+        }
+    }
+
+    /**
+     * @return a message, presence or IQ that parses the stanza only when it must, or null for any other element
+     */
+    public Packet toPacket() {
+        if ("message".equals(name)) {
+            return new LazyMessage(this);
+        }
+        if ("presence".equals(name)) {
+            return new LazyPresence(this);
+        }
+        if ("iq".equals(name)) {
+            return new LazyIQ(this);
+        }
+        return null;
+    }
+
+    /**
+     * @return the stanza a packet was read from if it was not parsed since, or else the serialized packet
+     */
+    public static RawStanza of(Packet packet) {
+        if (packet instanceof LazyPacket) {
+            RawStanza raw = ((LazyPacket) packet).getRawStanza();
+            if (raw != null) {
+                return raw;
+            }
+        }
+        String namespace = packet.getElement().getNamespaceURI();
+        return new RawStanza(packet.toXML(), namespace.length() == 0 ? DEFAULT_NAMESPACE : namespace);
+    }
+
+    /**
+     * @return a stanza with the address in an attribute rewritten, or removed when null
+     */
+    RawStanza withAddress(String name, JID address) {
+        return withAttribute(name, address == null ? null : address.toString());
+    }
+
+    /**
+     * Rewrites an attribute of the start tag, leaving the rest of the XML as it is.
+     * @param value the new value, not escaped, or null to remove the attribute
+     * @return a stanza with the attribute changed
+     */
+    public RawStanza withAttribute(String name, String value) {
+        int index = -1;
+        for (int i = 0; i < attributeNames.length; i++) {
+            if (attributeNames[i].equals(name)) {
+                index = i;
+                break;
+            }
+        }
+        StringBuilder rewritten = new StringBuilder(xml.length() + (value == null ? 0 : value.length() + name.length() + 4));
+        if (index >= 0) {
+            int valueStart = attributeValues[2 * index];
+            int valueEnd = attributeValues[2 * index + 1];
+            if (value == null) {
+                // from the whitespace before the name to the closing quote
+                int start = valueStart - 1;
+                while (!Character.isWhitespace(xml.charAt(start))) {
+                    start--;
+                }
+                rewritten.append(xml, 0, start).append(xml, valueEnd + 1, xml.length());
+            } else {
+                rewritten.append(xml, 0, valueStart);
+                escape(value, xml.charAt(valueEnd), rewritten);
+                rewritten.append(xml, valueEnd, xml.length());
+            }
+        } else if (value != null) {
+            int nameEnd = xml.indexOf('<') + 1 + this.name.length();
+            rewritten.append(xml, 0, nameEnd).append(' ').append(name).append("='");
+            escape(value, '\'', rewritten);
+            rewritten.append('\'').append(xml, nameEnd, xml.length());
+        } else {
+            return this;
+        }
+        return new RawStanza(rewritten.toString(), namespace);
+    }
+
+    // escapes a value written between quotes of the given kind
+    private static void escape(String value, char quote, StringBuilder out) {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '&':
+                    out.append("&amp;");
+                    break;
+                case '<':
+                    out.append("&lt;");
+                    break;
+                case '>':
+                    out.append("&gt;");
+                    break;
+                case '\'':
+                    out.append(quote == '\'' ? "&apos;" : "'");
+                    break;
+                case '"':
+                    out.append(quote == '"' ? "&quot;" : "\"");
+                    break;
+                default:
+                    out.append(c);
+            }
+        }
+    }
+
+    /**
+     * @return the name of an element, read from its start tag without parsing it
+     */
+    public static String name(String xml) {
+        int start = xml.indexOf('<') + 1;
+        return xml.substring(start, nameEnd(xml, start));
+    }
+
+    /**
+     * Reads an attribute from the start tag of an element without parsing it or indexing the others.
+     * Entities are not decoded.
+     * @return the raw value of the attribute, or null if the start tag does not have it
+     */
+    public static String attribute(String xml, String name) {
+        int length = xml.length();
+        int i = nameEnd(xml, xml.indexOf('<') + 1);
+        while (i < length) {
+            char c = xml.charAt(i);
+            if (c == '>' || c == '/') {
+                return null;
+            }
+            if (Character.isWhitespace(c)) {
+                i++;
+                continue;
+            }
+            int nameStart = i;
+            while (i < length && xml.charAt(i) != '=' && !Character.isWhitespace(xml.charAt(i))) {
+                i++;
+            }
+            boolean found = i - nameStart == name.length() && xml.regionMatches(nameStart, name, 0, name.length());
+            while (i < length && xml.charAt(i) != '\'' && xml.charAt(i) != '"') {
+                i++;
+            }
+            if (i == length) {
+                return null;
+            }
+            int close = xml.indexOf(xml.charAt(i), i + 1);
+            if (close < 0) {
+                return null;
+            }
+            if (found) {
+                return xml.substring(i + 1, close);
+            }
+            i = close + 1;
+        }
+        return null;
+    }
+
+    private static int nameEnd(String xml, int start) {
+        int end = start;
+        while (end < xml.length()) {
+            char c = xml.charAt(end);
+            if (c == '>' || c == '/' || Character.isWhitespace(c)) {
+                break;
+            }
+            end++;
+        }
+        return end;
+    }
+
+    // decodes the predefined and numeric entities, and normalizes line ends, and whitespace in attribute values
+    static String decode(String xml, int start, int end, boolean attribute) {
+        int i = start;
+        while (i < end) {
+            char c = xml.charAt(i);
+            if (c == '&' || c == '\r' || (attribute && (c == '\n' || c == '\t'))) {
+                break;
+            }
+            i++;
+        }
+        if (i == end) {
+            return xml.substring(start, end);
+        }
+        StringBuilder decoded = new StringBuilder(end - start);
+        decoded.append(xml, start, i);
+        while (i < end) {
+            char c = xml.charAt(i);
+            if (c == '&') {
+                int semicolon = xml.indexOf(';', i);
+                String entity = xml.substring(i + 1, semicolon);
+                if (entity.equals("amp")) {
+                    decoded.append('&');
+                } else if (entity.equals("lt")) {
+                    decoded.append('<');
+                } else if (entity.equals("gt")) {
+                    decoded.append('>');
+                } else if (entity.equals("quot")) {
+                    decoded.append('"');
+                } else if (entity.equals("apos")) {
+                    decoded.append('\'');
+                } else if (entity.startsWith("#x")) {
+                    decoded.appendCodePoint(Integer.parseInt(entity.substring(2), 16));
+                } else if (entity.startsWith("#")) {
+                    decoded.appendCodePoint(Integer.parseInt(entity.substring(1)));
+                } else {
+                    throw new IllegalStateException("Unknown entity &" + entity + ";");
+                }
+                i = semicolon + 1;
+                continue;
+            }
+            if (c == '\r') {
+                decoded.append(attribute ? ' ' : '\n');
+                if (i + 1 < end && xml.charAt(i + 1) == '\n') {
+                    i++;
+                }
+            } else if (attribute && (c == '\n' || c == '\t')) {
+                decoded.append(' ');
+            } else {
+                decoded.append(c);
+            }
+            i++;
+        }
+        return decoded.toString();
+    }
+
+    private ChildIndex childIndex() {
+        ChildIndex index = children;
+        if (index == null) {
+            index = new ChildIndex(xml, contentStart);
+            children = index;
+        }
+        return index;
+    }
+
+    private static String[] copyOf(String[] array, int length) {
+        String[] copy = new String[length];
+        System.arraycopy(array, 0, copy, 0, Math.min(length, array.length));
+        return copy;
+    }
+
+    private static int[] copyOf(int[] array, int length) {
+        int[] copy = new int[length];
+        System.arraycopy(array, 0, copy, 0, Math.min(length, array.length));
+        return copy;
+    }
+
+    @Override
+    public String toString() {
+        return xml;
+    }
+
+    /**
+     * The direct child elements of a stanza: for each, its name, where its content starts and ends,
+     * and whether that content is only text, without CDATA sections or elements.
+     */
+    private static final class ChildIndex {
+        private String[] names = new String[4];
+        private int[] contentStarts = new int[4];
+        private int[] contentEnds = new int[4];
+        private boolean[] text = new boolean[4];
+        private int count = 0;
+
+        private ChildIndex(String xml, int start) {
+            if (start < 0) {
+                return;
+            }
+            int depth = 0;
+            int child = -1;
+            int i = start;
+            while (true) {
+                int open = xml.indexOf('<', i);
+                if (open < 0) {
+                    return;
+                }
+                char next = xml.charAt(open + 1);
+                if (next == '/') {
+                    // end tag of a child, or of the stanza itself
+                    if (depth == 0) {
+                        return;
+                    }
+                    depth--;
+                    if (depth == 0) {
+                        contentEnds[child] = open;
+                    }
+                    i = xml.indexOf('>', open) + 1;
+                    continue;
+                }
+                if (next == '!' || next == '?') {
+                    // CDATA sections, comments and processing instructions are left to the parser
+                    if (depth > 0) {
+                        text[child] = false;
+                    }
+                    i = skipMarkup(xml, open);
+                    continue;
+                }
+                int nameEnd = nameEnd(xml, open + 1);
+                int close = tagEnd(xml, nameEnd);
+                boolean empty = xml.charAt(close - 1) == '/';
+                if (depth == 0) {
+                    child = add(xml.substring(open + 1, nameEnd), close + 1, empty);
+                    if (!empty) {
+                        depth = 1;
+                    }
+                } else {
+                    text[child] = false;
+                    if (!empty) {
+                        depth++;
+                    }
+                }
+                i = close + 1;
+            }
+        }
+
+        private int add(String name, int contentStart, boolean empty) {
+            if (count == names.length) {
+                names = copyOf(names, count * 2);
+                contentStarts = copyOf(contentStarts, count * 2);
+                contentEnds = copyOf(contentEnds, count * 2);
+                boolean[] grown = new boolean[count * 2];
+                System.arraycopy(text, 0, grown, 0, count);
+                text = grown;
+            }
+            names[count] = name;
+            contentStarts[count] = contentStart;
+            contentEnds[count] = empty ? contentStart : -1;
+            text[count] = true;
+            return count++;
+        }
+
+        private int find(String name) {
+            for (int i = 0; i < count; i++) {
+                if (names[i].equals(name)) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        // true if any child with the name holds more than text
+        private boolean complex(String name) {
+            for (int i = 0; i < count; i++) {
+                if (names[i].equals(name) && !text[i]) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        // the position of the > closing a start tag, skipping quoted attribute values
+        private static int tagEnd(String xml, int i) {
+            while (true) {
+                char c = xml.charAt(i);
+                if (c == '>') {
+                    return i;
+                }
+                if (c == '\'' || c == '"') {
+                    i = xml.indexOf(c, i + 1);
+                }
+                i++;
+            }
+        }
+
+        private static int skipMarkup(String xml, int open) {
+            if (xml.startsWith("<![CDATA[", open)) {
+                return xml.indexOf("]]>", open) + 3;
+            }
+            if (xml.startsWith("<!--", open)) {
+                return xml.indexOf("-->", open) + 3;
+            }
+            return xml.indexOf('>', open) + 1;
+        }
+    }
+}
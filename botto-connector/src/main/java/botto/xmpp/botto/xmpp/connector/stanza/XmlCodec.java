@@ -0,0 +1,57 @@
+package botto.xmpp.botto.xmpp.connector.stanza;
+
+import org.dom4j.DocumentException;
+import org.dom4j.DocumentFactory;
+import org.dom4j.Element;
+import org.dom4j.io.SAXReader;
+
+import java.io.ByteArrayInputStream;
+import java.io.StringReader;
+
+/**
+ * Parses the XML that connectors read, with one SAXReader per thread rather than one per stanza,
+ * and a DocumentFactory shared by all of them that interns names and namespaces.
+ */
+public final class XmlCodec {
+
+    private static final DocumentFactory documentFactory = new InterningDocumentFactory();
+
+    private static final ThreadLocal<SAXReader> readers = new ThreadLocal<SAXReader>() {
+        @Override
+        protected SAXReader initialValue() {
+            return new SAXReader(documentFactory);
+        }
+    };
+
+    private XmlCodec() {}
+
+    public static DocumentFactory getDocumentFactory() {
+        return documentFactory;
+    }
+
+    /**
+     * @return the root element of a document
+     */
+    public static Element read(String xml) throws DocumentException {
+        return readers.get().read(new StringReader(xml)).getRootElement();
+    }
+
+    /**
+     * @return the root element of a document encoded in UTF-8
+     */
+    public static Element read(byte[] utf8) throws DocumentException {
+        return readers.get().read(new ByteArrayInputStream(utf8)).getRootElement();
+    }
+
+    /**
+     * Parses an element inside a stream header, as an element alone lacks the namespace declarations of its stream.
+     * @param namespace the default namespace of the stream, as jabber:client
+     * @return the element, detached from any document
+     */
+    public static Element readStanza(String xml, String namespace) throws DocumentException {
+        String wrapped = "<stream:stream xmlns='" + namespace + "' xmlns:stream='http://etherx.jabber.org/streams'>" + xml + "</stream:stream>";
+        Element element = (Element) read(wrapped).elements().get(0);
+        element.detach();
+        return element;
+    }
+}
@@ -1,7 +1,7 @@
 package botto.xmpp.botto.xmpp.connector;
 
 import botto.xmpp.botto.xmpp.connector.channel.Channel;
-import botto.xmpp.botto.xmpp.connector.channel.ChannelConnection;
+import botto.xmpp.botto.xmpp.connector.channel.AbstractChannelConnection;
 import botto.xmpp.botto.xmpp.connector.channel.ChannelEvent;
 import botto.xmpp.botto.xmpp.connector.channel.ChannelListener;
 import org.junit.Test;
@@ -17,7 +17,7 @@ public class ConnectorTest {
 
     @Test
     public void should_invoke_doOpenChannel() throws ConnectorException {
-        JID address = mock(JID.class);
+        JID address = new JID("bot@example.com");
 
         TestConnectorConfig config = mock(TestConnectorConfig.class);
         ChannelListener listener = mock(ChannelListener.class);
@@ -76,7 +76,7 @@ public class ConnectorTest {
         }
     }
 
-    public static class TestConnectorConnection implements ChannelConnection {
+    public static class TestConnectorConnection extends AbstractChannelConnection {
 
         @Override
         public Channel getChannel() {
@@ -0,0 +1,83 @@
+package botto.xmpp.botto.xmpp.connector;
+
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class CounterIdGeneratorTest {
+
+    @Test
+    public void should_count_after_a_thread_prefix() {
+        CounterIdGenerator generator = new CounterIdGenerator("node");
+        assertEquals("node.A.A", generator.nextId());
+        assertEquals("node.A.B", generator.nextId());
+        for (int i = 2; i < 64; i++) {
+            generator.nextId();
+        }
+        assertEquals("node.A.AB", generator.nextId());
+    }
+
+    @Test
+    public void should_not_repeat_ids_across_threads_and_generators() throws InterruptedException {
+        final Set<String> ids = Collections.synchronizedSet(new HashSet<String>());
+        final CounterIdGenerator first = new CounterIdGenerator();
+        final CounterIdGenerator second = new CounterIdGenerator();
+        final CountDownLatch done = new CountDownLatch(4);
+        for (int t = 0; t < 4; t++) {
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < 1000; i++) {
+                        ids.add(first.nextId());
+                        ids.add(second.nextId());
+                    }
+                    done.countDown();
+                }
+            }).start();
+        }
+        done.await();
+        assertEquals(8000, ids.size());
+    }
+
+    @Test
+    public void should_use_url_safe_characters() {
+        String id = new CounterIdGenerator().nextId();
+        assertTrue(id.matches("[A-Za-z0-9_\\-]{8}\\.[A-Za-z0-9_\\-]+\\.[A-Za-z0-9_\\-]+"));
+        assertFalse(id.equals(new CounterIdGenerator().nextId()));
+    }
+
+    @Test
+    public void should_not_share_prefixes_across_nodes() throws InterruptedException {
+        final CounterIdGenerator generator = new CounterIdGenerator("node");
+        final String[] last = new String[1];
+        // the 65th thread has index "AB", which must not read as the 2nd thread of node "nodeA"
+        for (int t = 0; t < 65; t++) {
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    last[0] = generator.nextId();
+                }
+            });
+            thread.start();
+            thread.join();
+        }
+        assertEquals("node.AB.A", last[0]);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void should_refuse_nodes_with_separator() {
+        new CounterIdGenerator("a.b");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void should_refuse_nodes_outside_the_alphabet() {
+        new CounterIdGenerator("nöde");
+    }
+}
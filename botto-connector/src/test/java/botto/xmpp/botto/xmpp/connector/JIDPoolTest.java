@@ -0,0 +1,61 @@
+package botto.xmpp.botto.xmpp.connector;
+
+import org.junit.Test;
+import org.xmpp.packet.JID;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class JIDPoolTest {
+
+    @Test
+    public void should_return_same_instance_for_equal_addresses() {
+        JID first = JIDPool.intern("bot@example.com/one");
+        assertSame(first, JIDPool.intern(new JID("bot@example.com/one")));
+        assertSame(first, JIDPool.intern(first));
+        assertEquals(new JID("bot@example.com/one"), first);
+        assertEquals(new JID("bot@example.com/one").hashCode(), first.hashCode());
+    }
+
+    @Test
+    public void should_share_canonical_bare_form() {
+        JID bare = JIDPool.bare("bot@example.com/one");
+        assertSame(bare, JIDPool.bare("bot@example.com/two"));
+        assertSame(bare, JIDPool.intern("bot@example.com"));
+        assertSame(bare, JIDPool.bare(bare));
+        assertNull(bare.getResource());
+    }
+
+    @Test
+    public void should_compare_bare_addresses() {
+        assertTrue(JIDPool.sameBare(JIDPool.intern("bot@example.com/one"), JIDPool.intern("bot@example.com/two")));
+        assertTrue(JIDPool.sameBare(new JID("bot@example.com/one"), JIDPool.intern("bot@example.com")));
+        assertFalse(JIDPool.sameBare(JIDPool.intern("bot@example.com"), JIDPool.intern("other@example.com")));
+        assertFalse(JIDPool.sameBare(new JID("example.com"), new JID("bot@example.com")));
+        assertFalse(JIDPool.sameBare(JIDPool.intern("bot@example.com"), null));
+    }
+
+    @Test
+    public void should_intern_prepped_form() {
+        assertSame(JIDPool.intern("bot@example.com"), JIDPool.intern("BOT@Example.com"));
+        assertNull(JIDPool.intern((String) null));
+    }
+
+    @Test
+    public void should_look_up_without_interning() {
+        JID bot = JIDPool.intern("lookup@example.com/one");
+        assertSame(bot, JIDPool.lookup("lookup@example.com/one"));
+        assertSame(JIDPool.bare(bot), JIDPool.lookupBare("lookup@example.com/one"));
+
+        JID stranger = JIDPool.lookup("stranger@example.com/one");
+        assertEquals(new JID("stranger@example.com/one"), stranger);
+        assertNotSame(stranger, JIDPool.lookup("stranger@example.com/one"));
+        assertNotSame(JIDPool.lookupBare("stranger@example.com/one"), JIDPool.lookupBare("stranger@example.com/one"));
+        assertEquals(new JID("stranger@example.com"), JIDPool.lookupBare("stranger@example.com/one"));
+        assertNull(JIDPool.lookup(null));
+    }
+}
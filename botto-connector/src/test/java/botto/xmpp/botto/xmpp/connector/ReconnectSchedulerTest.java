@@ -0,0 +1,292 @@
+package botto.xmpp.botto.xmpp.connector;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ReconnectSchedulerTest {
+
+    private ScheduledExecutorService timer;
+    private ExecutorService executor;
+
+    @Before
+    public void setUp() {
+        timer = Executors.newScheduledThreadPool(1);
+        executor = Executors.newCachedThreadPool();
+    }
+
+    @After
+    public void tearDown() {
+        timer.shutdownNow();
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void delay_is_full_jitter_within_exponential_bound() {
+        ReconnectScheduler scheduler = new ReconnectScheduler(timer, executor, 1, 100, 5000);
+        assertEquals(0, scheduler.getDelayMillis(0));
+        for (int failures = 1; failures < 70; failures++) {
+            long bound = Math.min(5000, 100L << Math.min(failures - 1, 20));
+            long max = 0;
+            for (int i = 0; i < 1000; i++) {
+                long delay = scheduler.getDelayMillis(failures);
+                assertTrue("delay " + delay + " out of [0, " + bound + "]", delay >= 0 && delay <= bound);
+                max = Math.max(max, delay);
+            }
+            // the whole range is used, not just the bound
+            assertTrue(max > bound / 2);
+        }
+    }
+
+    @Test
+    public void failed_attempts_are_retried_until_done() throws InterruptedException {
+        ReconnectScheduler scheduler = new ReconnectScheduler(timer, executor, 1, 1, 10);
+        final AtomicInteger attempts = new AtomicInteger();
+        final CountDownLatch done = new CountDownLatch(1);
+        scheduler.submit(new TestTask(0) {
+            @Override
+            public boolean attempt() {
+                if (attempts.incrementAndGet() < 4) {
+                    return false;
+                }
+                done.countDown();
+                return true;
+            }
+        });
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals(4, attempts.get());
+    }
+
+    @Test
+    public void recently_active_channels_go_first() throws InterruptedException {
+        ReconnectScheduler scheduler = new ReconnectScheduler(timer, executor, 1, 1, 10);
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(3);
+        final List<Long> order = Collections.synchronizedList(new ArrayList<Long>());
+
+        // takes the only slot until released
+        scheduler.submit(new TestTask(0) {
+            @Override
+            public boolean attempt() {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return true;
+            }
+        });
+        for (long lastActivity : new long[] { 10, 30, 20 }) {
+            scheduler.submit(new TestTask(lastActivity) {
+                @Override
+                public boolean attempt() {
+                    order.add(getLastActivity());
+                    done.countDown();
+                    return true;
+                }
+            });
+        }
+        assertEquals(3, scheduler.getReadyCount());
+
+        release.countDown();
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList(30L, 20L, 10L), order);
+    }
+
+    /**
+     * A fleet of channels reconnects to a stand-in server that comes back after a restart,
+     * and drops any login beyond its capacity.
+     */
+    @Test
+    public void fleet_reconnects_after_server_restart() throws Exception {
+        final int channels = 200;
+        final int capacity = 8;
+
+        ServerSocket probe = new ServerSocket(0);
+        int port = probe.getLocalPort();
+        probe.close();
+
+        ReconnectScheduler scheduler = new ReconnectScheduler(timer, executor, capacity, 10, 500);
+        CountDownLatch reconnected = new CountDownLatch(channels);
+        AtomicInteger attempts = new AtomicInteger();
+
+        long start = System.nanoTime();
+        for (int i = 0; i < channels; i++) {
+            scheduler.submit(new LoginTask(port, i, attempts, reconnected));
+        }
+
+        // the server is down for a while: every channel backs off
+        Thread.sleep(300);
+        StandInServer server = new StandInServer(port, capacity);
+        try {
+            assertTrue("Fleet did not reconnect", reconnected.await(30, TimeUnit.SECONDS));
+            long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            // 300ms down, backoff bounded by 500ms, 200 logins of 5ms, 8 at a time: a few seconds at worst
+            assertTrue("Fleet of " + channels + " channels reconnected in " + elapsedMillis + "ms with " + attempts.get() + " attempts",
+                elapsedMillis < 5000);
+
+            assertEquals(channels, server.logins.get());
+            assertEquals(0, server.dropped.get());
+        }
+        finally {
+            server.close();
+        }
+    }
+
+    private abstract static class TestTask implements ReconnectScheduler.Task {
+        private final long lastActivity;
+
+        private TestTask(long lastActivity) {
+            this.lastActivity = lastActivity;
+        }
+
+        @Override
+        public long getLastActivity() {
+            return lastActivity;
+        }
+    }
+
+    private static class LoginTask implements ReconnectScheduler.Task {
+        private final int port;
+        private final int id;
+        private final AtomicInteger attempts;
+        private final CountDownLatch reconnected;
+
+        private LoginTask(int port, int id, AtomicInteger attempts, CountDownLatch reconnected) {
+            this.port = port;
+            this.id = id;
+            this.attempts = attempts;
+            this.reconnected = reconnected;
+        }
+
+        @Override
+        public boolean attempt() {
+            attempts.incrementAndGet();
+            Socket socket = new Socket();
+            try {
+                socket.connect(new InetSocketAddress("127.0.0.1", port), 1000);
+                OutputStream out = socket.getOutputStream();
+                out.write(("LOGIN bot" + id + "\n").getBytes("utf-8"));
+                out.flush();
+                String response = new BufferedReader(new InputStreamReader(socket.getInputStream(), "utf-8")).readLine();
+                if (!"OK".equals(response)) {
+                    return false;
+                }
+                reconnected.countDown();
+                return true;
+            }
+            catch (IOException ex) {
+                return false;
+            }
+            finally {
+                try {
+                    socket.close();
+                } catch (IOException e) {
+                    // ignore
+                }
+            }
+        }
+
+        @Override
+        public long getLastActivity() {
+            return id;
+        }
+    }
+
+    /**
+     * Accepts one login per connection; a login takes a few milliseconds,
+     * and connections beyond the capacity are closed straight away.
+     */
+    private static class StandInServer implements Runnable {
+        private final ServerSocket serverSocket;
+        private final int capacity;
+        private final ExecutorService handlers = Executors.newCachedThreadPool();
+        private final AtomicInteger active = new AtomicInteger();
+        private final AtomicInteger logins = new AtomicInteger();
+        private final AtomicInteger dropped = new AtomicInteger();
+
+        private StandInServer(int port, int capacity) throws IOException {
+            this.capacity = capacity;
+            serverSocket = new ServerSocket();
+            serverSocket.setReuseAddress(true);
+            serverSocket.bind(new InetSocketAddress("127.0.0.1", port), 1024);
+            Thread thread = new Thread(this, "stand-in-server");
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        @Override
+        public void run() {
+            while (!serverSocket.isClosed()) {
+                try {
+                    final Socket socket = serverSocket.accept();
+                    handlers.execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            handle(socket);
+                        }
+                    });
+                }
+                catch (IOException ex) {
+                    // closed
+                }
+            }
+        }
+
+        private void handle(Socket socket) {
+            try {
+                BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), "utf-8"));
+                String login = in.readLine();
+                if (active.incrementAndGet() > capacity) {
+                    active.decrementAndGet();
+                    dropped.incrementAndGet();
+                    return;
+                }
+                try {
+                    Thread.sleep(5);
+                }
+                finally {
+                    // done before answering, the client may start another login as soon as it reads the answer
+                    active.decrementAndGet();
+                }
+                if (login != null && login.startsWith("LOGIN ")) {
+                    logins.incrementAndGet();
+                    socket.getOutputStream().write("OK\n".getBytes("utf-8"));
+                    socket.getOutputStream().flush();
+                }
+            }
+            catch (Exception ex) {
+                // the client went away
+            }
+            finally {
+                try {
+                    socket.close();
+                } catch (IOException e) {
+                    // ignore
+                }
+            }
+        }
+
+        private void close() throws IOException {
+            serverSocket.close();
+            handlers.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package botto.xmpp.botto.xmpp.connector.channel;
+
+import botto.xmpp.botto.xmpp.connector.ConnectorId;
+import org.junit.Test;
+import org.xmpp.packet.JID;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ChannelContextTest {
+
+    private final Channel channel = Channel.from(new ConnectorId(1, Object.class, "test"), new JID("bot@example.com"));
+    private final ChannelContext context = ChannelContext.of(channel);
+
+    @Test
+    public void should_apply_valid_transitions() {
+        assertTrue(context.setEvent(ChannelEvent.connecting(channel)));
+        ChannelEvent connected = ChannelEvent.connected(channel);
+        assertTrue(context.setEvent(connected));
+        assertEquals(ChannelStatus.Connected, context.getStatus());
+        assertEquals(connected.getSequence(), context.getVersion());
+    }
+
+    @Test
+    public void should_drop_events_older_than_last_applied() {
+        ChannelEvent connecting = ChannelEvent.connecting(channel);
+        ChannelEvent connected = ChannelEvent.connected(channel);
+        assertTrue(context.setEvent(connected));
+        assertFalse(context.setEvent(connecting));
+        assertEquals(ChannelStatus.Connected, context.getStatus());
+    }
+
+    @Test
+    public void should_drop_invalid_transitions() {
+        assertTrue(context.setEvent(ChannelEvent.closing(channel)));
+        assertFalse(context.setEvent(ChannelEvent.connected(channel)));
+        assertTrue(context.setEvent(ChannelEvent.closed(channel)));
+        assertFalse(context.setEvent(ChannelEvent.opening(channel)));
+        assertEquals(ChannelStatus.Closed, context.getStatus());
+    }
+
+    @Test
+    public void should_fix_status_of_closed_and_disconnecting_events() {
+        assertEquals(ChannelStatus.Closed, ChannelEvent.closed(channel, "closed").getStatus());
+        assertEquals(ChannelStatus.Disconnecting, ChannelEvent.disconnecting(channel, "stopping").getStatus());
+    }
+}
@@ -0,0 +1,63 @@
+package botto.xmpp.botto.xmpp.connector.channel;
+
+import org.junit.Test;
+import org.xmpp.packet.IQ;
+import org.xmpp.packet.Message;
+import org.xmpp.packet.Packet;
+import org.xmpp.packet.Presence;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class IngressFilterTest {
+
+    @Test
+    public void should_accept_only_the_type_of_the_receiver() {
+        IngressFilter messages = IngressFilter.of(Message.class);
+        assertTrue(messages.accepts(new Message()));
+        assertFalse(messages.accepts(new Presence()));
+        assertFalse(messages.accepts(new IQ()));
+        assertFalse(messages.accepts("presence", null));
+        assertTrue(IngressFilter.of(Packet.class).acceptsAll());
+    }
+
+    @Test
+    public void should_accept_iqs_by_child_namespace() {
+        IngressFilter filter = IngressFilter.of(IQ.class, "jabber:iq:version");
+        assertTrue(filter.accepts(iq("jabber:iq:version")));
+        assertFalse(filter.accepts(iq("jabber:iq:roster")));
+        // results without a payload
+        assertTrue(filter.accepts(new IQ(IQ.Type.result)));
+        assertFalse(filter.accepts(new Message()));
+    }
+
+    @Test
+    public void should_look_past_the_error_of_an_iq() {
+        IQ error = iq("jabber:iq:roster");
+        error.getElement().addElement("error").addAttribute("type", "cancel");
+        assertEquals("jabber:iq:roster", IngressFilter.childNamespace(error.getElement()));
+    }
+
+    @Test
+    public void should_accept_what_either_filter_accepts() {
+        IngressFilter union = IngressFilter.of(IQ.class, "a")
+            .union(IngressFilter.of(IQ.class, "b"))
+            .union(IngressFilter.of(Presence.class));
+        assertTrue(union.acceptsIQ("a"));
+        assertTrue(union.acceptsIQ("b"));
+        assertFalse(union.acceptsIQ("c"));
+        assertTrue(union.acceptsPresences());
+        assertFalse(union.acceptsMessages());
+
+        assertTrue(union.union(IngressFilter.of(IQ.class)).acceptsIQ("c"));
+        assertEquals(union, IngressFilter.NONE.union(union));
+        assertTrue(union.union(IngressFilter.ALL).acceptsAll());
+    }
+
+    private static IQ iq(String namespace) {
+        IQ iq = new IQ(IQ.Type.get);
+        iq.setChildElement("query", namespace);
+        return iq;
+    }
+}
@@ -0,0 +1,68 @@
+package botto.xmpp.botto.xmpp.connector.stanza;
+
+import org.junit.Test;
+import org.xmpp.packet.IQ;
+import org.xmpp.packet.JID;
+import org.xmpp.packet.Message;
+import org.xmpp.packet.Packet;
+import org.xmpp.packet.Presence;
+
+import static org.junit.Assert.*;
+
+public class LazyMessageTest {
+
+    private static final String XML = "<message to='bot@example.com' from='user@example.com/home' id='m1' type='chat'>"
+        + "<body>hello</body><x xmlns='jabber:x:data'/></message>";
+
+    @Test
+    public void should_read_common_fields_without_parsing() {
+        LazyMessage message = (LazyMessage) new RawStanza(XML, "jabber:client").toPacket();
+        assertEquals(new JID("bot@example.com"), message.getTo());
+        assertEquals(new JID("user@example.com/home"), message.getFrom());
+        assertEquals("m1", message.getID());
+        assertEquals(Message.Type.chat, message.getType());
+        assertEquals("hello", message.getBody());
+        assertNull(message.getSubject());
+        assertEquals(XML, message.toXML());
+        assertFalse(message.isParsed());
+    }
+
+    @Test
+    public void should_parse_when_changed() {
+        LazyMessage message = (LazyMessage) new RawStanza(XML, "jabber:client").toPacket();
+        Message copy = message.createCopy();
+        message.setBody("changed");
+        assertTrue(message.isParsed());
+        assertEquals("changed", message.getBody());
+        assertEquals("m1", message.getID());
+        assertNotNull(message.getChildElement("x", "jabber:x:data"));
+        // the copy still reads the original stanza
+        assertEquals("hello", copy.getBody());
+    }
+
+    @Test
+    public void should_read_presences_without_parsing() {
+        Packet packet = new RawStanza("<presence from='user@example.com'><show>away</show><status>out</status></presence>", "jabber:client").toPacket();
+        LazyPresence presence = (LazyPresence) packet;
+        assertTrue(presence.isAvailable());
+        assertEquals(Presence.Show.away, presence.getShow());
+        assertEquals("out", presence.getStatus());
+        assertFalse(presence.isParsed());
+        assertEquals(0, presence.getPriority());
+        assertTrue(presence.isParsed());
+    }
+
+    @Test
+    public void should_read_iqs_without_parsing() {
+        String xml = "<iq to='bot@example.com' id='p1' type='get'><ping xmlns='urn:xmpp:ping'/></iq>";
+        LazyIQ iq = (LazyIQ) new RawStanza(xml, "jabber:client").toPacket();
+        assertTrue(iq.isRequest());
+        assertEquals("p1", iq.getID());
+        assertEquals(xml, iq.toXML());
+        assertSame(iq.getRawStanza(), RawStanza.of(iq));
+        assertFalse(iq.isParsed());
+        assertEquals("urn:xmpp:ping", iq.getChildElement().getNamespaceURI());
+        assertTrue(iq.isParsed());
+        assertEquals(IQ.Type.get, iq.getType());
+    }
+}
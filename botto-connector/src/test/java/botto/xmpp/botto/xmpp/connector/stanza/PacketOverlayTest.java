@@ -0,0 +1,88 @@
+package botto.xmpp.botto.xmpp.connector.stanza;
+
+import org.junit.Test;
+import org.xmpp.packet.IQ;
+import org.xmpp.packet.JID;
+import org.xmpp.packet.Message;
+import org.xmpp.packet.Packet;
+
+import static org.junit.Assert.*;
+
+public class PacketOverlayTest {
+
+    @Test
+    public void should_overlay_addresses_without_copying_the_element() {
+        Message reply = new Message();
+        reply.setTo("user@example.com");
+        reply.setBody("hello");
+
+        Packet copy = PacketOverlay.copyOf(reply);
+        copy.setFrom(new JID("bot@example.com"));
+        copy.setID("r1");
+
+        assertFalse(((OverlayPacket) copy).isWritten());
+        assertEquals(new JID("bot@example.com"), copy.getFrom());
+        assertEquals("r1", copy.getID());
+        assertEquals(new JID("user@example.com"), copy.getTo());
+        assertEquals("hello", ((Message) copy).getBody());
+        assertEquals("<message from='bot@example.com' id='r1' to=\"user@example.com\"><body>hello</body></message>", copy.toXML());
+        // the original is left as it was
+        assertNull(reply.getFrom());
+        assertNull(reply.getID());
+    }
+
+    @Test
+    public void should_copy_the_element_when_changed() {
+        IQ request = new IQ(IQ.Type.get, "q1");
+        request.setChildElement("query", "jabber:iq:version");
+
+        IQ copy = (IQ) PacketOverlay.copyOf(request);
+        copy.setFrom("bot@example.com");
+        copy.getChildElement().addElement("name").setText("botto");
+
+        assertTrue(((OverlayPacket) copy).isWritten());
+        assertEquals("bot@example.com", copy.getElement().attributeValue("from"));
+        assertEquals("botto", copy.getChildElement().elementText("name"));
+        assertNull(request.getChildElement().element("name"));
+        assertNull(request.getFrom());
+    }
+
+    @Test
+    public void should_rewrite_unparsed_stanzas() {
+        String xml = "<message to='bot@example.com' from='user@example.com'><body>hi</body></message>";
+        LazyMessage message = (LazyMessage) new RawStanza(xml, "jabber:client").toPacket();
+
+        Packet copy = PacketOverlay.copyOf(message);
+        copy.setTo(new JID("backend@example.com"));
+
+        assertFalse(((LazyPacket) copy).isParsed());
+        assertEquals("<message to='backend@example.com' from='user@example.com'><body>hi</body></message>", copy.toXML());
+        assertEquals(xml, message.toXML());
+    }
+
+    @Test
+    public void should_serialize_once_until_changed() {
+        Message reply = new Message();
+        reply.setBody("hello");
+        Packet copy = PacketOverlay.copyOf(reply);
+        copy.setFrom(new JID("bot@example.com"));
+
+        byte[] bytes = PacketBytes.of(copy);
+        assertSame(bytes, PacketBytes.of(copy));
+        assertSame(copy.toXML(), copy.toXML());
+        assertArrayEquals(bytes, PacketBytes.of(copy.createCopy()));
+
+        copy.setTo(new JID("user@example.com"));
+        assertNotSame(bytes, PacketBytes.of(copy));
+        assertTrue(copy.toXML().contains("to='user@example.com'"));
+    }
+
+    @Test
+    public void should_write_unparsed_stanzas_as_read() throws Exception {
+        String xml = "<message to='bot@example.com'><body>☺</body></message>";
+        Packet message = new RawStanza(xml, "jabber:client").toPacket();
+        assertSame(PacketBytes.of(message), PacketBytes.of(message));
+        assertArrayEquals(xml.getBytes("UTF-8"), PacketBytes.of(message));
+        assertArrayEquals(new Message().toXML().getBytes("UTF-8"), PacketBytes.of(new Message()));
+    }
+}
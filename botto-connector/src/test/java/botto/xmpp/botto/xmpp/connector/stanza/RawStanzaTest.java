@@ -0,0 +1,73 @@
+package botto.xmpp.botto.xmpp.connector.stanza;
+
+import org.dom4j.Element;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class RawStanzaTest {
+
+    private static final String CLIENT = "jabber:client";
+
+    @Test
+    public void should_read_attributes_of_the_start_tag() {
+        RawStanza stanza = new RawStanza("<message to='bot@example.com' from=\"a&amp;b@example.com/r\" type='chat'><body/></message>", CLIENT);
+        assertEquals("message", stanza.getName());
+        assertEquals("bot@example.com", stanza.getAttribute("to"));
+        assertEquals("a&b@example.com/r", stanza.getAttribute("from"));
+        assertEquals("chat", stanza.getAttribute("type"));
+        assertNull(stanza.getAttribute("id"));
+    }
+
+    @Test
+    public void should_read_text_of_direct_children_only() {
+        RawStanza stanza = new RawStanza("<message><html xmlns='http://jabber.org/protocol/xhtml-im'><body>rich</body></html>"
+            + "<body>1 &lt; 2 &#x263A;</body><subject/></message>", CLIENT);
+        assertTrue(stanza.isTextChild("body"));
+        assertEquals("1 < 2 ☺", stanza.getChildText("body"));
+        assertEquals("", stanza.getChildText("subject"));
+        assertNull(stanza.getChildText("thread"));
+        assertFalse(stanza.isTextChild("html"));
+    }
+
+    @Test
+    public void should_leave_cdata_to_the_parser() {
+        RawStanza stanza = new RawStanza("<message><body><![CDATA[<b>]]></body></message>", CLIENT);
+        assertFalse(stanza.isTextChild("body"));
+        assertEquals("<b>", stanza.parse().elementText("body"));
+    }
+
+    @Test
+    public void should_parse_in_the_namespace_of_the_stream() {
+        Element element = new RawStanza("<presence from='user@example.com'/>", CLIENT).parse();
+        assertEquals(CLIENT, element.getNamespaceURI());
+        assertNull(element.getParent());
+        assertEquals("user@example.com", element.attributeValue("from"));
+    }
+
+    @Test
+    public void should_read_one_attribute_without_indexing() {
+        String xml = "<message id='1' to='bot@example.com'><body to='no'/></message>";
+        assertEquals("message", RawStanza.name(xml));
+        assertEquals("bot@example.com", RawStanza.attribute(xml, "to"));
+        assertNull(RawStanza.attribute(xml, "from"));
+    }
+
+    @Test
+    public void should_rewrite_attributes_into_a_new_stanza() {
+        RawStanza stanza = new RawStanza("<message to='bot@example.com' from=\"user@example.com/r\"><body>hi</body></message>", CLIENT);
+        RawStanza forwarded = stanza.withAttribute("to", "other@example.com").withAttribute("from", "bot@example.com/a\"b");
+        assertEquals("<message to='other@example.com' from=\"bot@example.com/a&quot;b\"><body>hi</body></message>", forwarded.getXML());
+        assertEquals("bot@example.com/a\"b", forwarded.getAttribute("from"));
+        assertEquals("bot@example.com", stanza.getAttribute("to"));
+    }
+
+    @Test
+    public void should_add_and_remove_attributes() {
+        RawStanza stanza = new RawStanza("<iq type='get' id='1'><ping xmlns='urn:xmpp:ping'/></iq>", CLIENT);
+        assertEquals("<iq to='a&amp;b@example.com' type='get' id='1'><ping xmlns='urn:xmpp:ping'/></iq>",
+            stanza.withAttribute("to", "a&b@example.com").getXML());
+        assertEquals("<iq type='get'><ping xmlns='urn:xmpp:ping'/></iq>", stanza.withAttribute("id", null).getXML());
+        assertSame(stanza, stanza.withAttribute("from", null));
+    }
+}
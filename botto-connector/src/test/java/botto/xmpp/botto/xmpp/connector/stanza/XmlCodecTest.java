@@ -0,0 +1,35 @@
+package botto.xmpp.botto.xmpp.connector.stanza;
+
+import org.dom4j.Element;
+import org.dom4j.Namespace;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class XmlCodecTest {
+
+    @Test
+    public void should_share_names_between_documents() throws Exception {
+        Element first = XmlCodec.readStanza("<message to='a@example.com'><body>1</body></message>", "jabber:client");
+        Element second = XmlCodec.read("<message xmlns='jabber:client' to='b@example.com'><body>2</body></message>".getBytes("UTF-8"));
+        assertSame(first.getQName(), second.getQName());
+        assertSame(first.element("body").getQName(), second.element("body").getQName());
+        assertSame(first.attribute("to").getQName(), second.attribute("to").getQName());
+        assertSame(first.getNamespace(), second.getNamespace());
+        assertNull(first.getParent());
+        assertEquals("1", first.elementText("body"));
+    }
+
+    @Test
+    public void should_stop_keeping_names_past_the_bound() {
+        InterningDocumentFactory factory = new InterningDocumentFactory();
+        Namespace namespace = factory.createNamespace("", "urn:test");
+        for (int i = 0; factory.size() < InterningDocumentFactory.MAX_ENTRIES; i++) {
+            factory.createQName("name" + i, namespace);
+        }
+        assertSame(factory.createQName("name1", namespace), factory.createQName("name1", namespace));
+        assertNotSame(factory.createQName("other", namespace), factory.createQName("other", namespace));
+        assertEquals("other", factory.createQName("other", namespace).getName());
+        assertEquals(InterningDocumentFactory.MAX_ENTRIES, factory.size());
+    }
+}
@@ -2,9 +2,9 @@ package botto.xmpp.connectors.mock;
 
 import botto.xmpp.botto.xmpp.connector.*;
 import botto.xmpp.botto.xmpp.connector.channel.Channel;
-import botto.xmpp.botto.xmpp.connector.channel.ChannelConnection;
+import botto.xmpp.botto.xmpp.connector.channel.AbstractChannelConnection;
 
-public class MockBotConnection implements ChannelConnection {
+public class MockBotConnection extends AbstractChannelConnection {
 
     private final MockConnector connector;
     private final Channel channel;
@@ -46,7 +46,7 @@ public class MockConnector extends Connector<MockConnectorConfiguration, MockBot
             public void run() {
                 ;
                 try {
-                    receive(channel, packet);
+                    receive(connection, packet);
                 } catch (ConnectorException e) {
                     e.printStackTrace();  //To change body of catch statement use File | Settings | File Templates.
                 }
@@ -0,0 +1,250 @@
+package botto.xmpp.connectors.nio;
+
+import botto.xmpp.botto.xmpp.connector.ConnectorException;
+import botto.xmpp.botto.xmpp.connector.JIDPool;
+import botto.xmpp.botto.xmpp.connector.channel.ChannelEvent;
+import botto.xmpp.botto.xmpp.connector.stanza.RawStanza;
+import com.google.common.base.Objects;
+import org.dom4j.Element;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xmpp.packet.JID;
+import org.xmpp.packet.Packet;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A component domain, served by several ComponentSessions and shared by all the channels whose address is in the domain.
+ *
+ * Outgoing packets go through the session picked by the hash of the bare address of their channel, so that the
+ * packets of a channel keep their order. When that session is down they fail over to the next established one.
+ * Incoming stanzas, whatever the session they arrive on, are routed to the channel of their bare recipient,
+ * or else to the channel of the domain itself.
+ *
+ * Channels are connected while at least one session is established.
+ *
+ * When a session is lost, the stanzas it had queued and not started to write are sent again on the next established
+ * session, after what that session already queued; so are those queued on it while it was closing. Stanzas written in part, or written to the socket but never read
+ * by the server, are lost; so are the queued stanzas when no other session is established, and their count is logged.
+ */
+class ComponentDomain {
+
+    private final static Logger Log = LoggerFactory.getLogger(ComponentDomain.class);
+
+    private final NioComponentConnector connector;
+    private final String domain;
+    private final ComponentSession[] sessions;
+
+    private final Map<JID, NioComponentChannelConnection> connections = new ConcurrentHashMap<JID, NioComponentChannelConnection>();
+
+    // receives packets for nodes without a connection of their own
+    private volatile NioComponentChannelConnection domainConnection;
+
+    // guarded by this
+    private int established = 0;
+    private boolean refused = false;
+
+    ComponentDomain(NioComponentConnector connector, Reactor[] reactors, int firstReactor, String domain, String secret,
+                    NioComponentConnectorConfiguration configuration) {
+        this.connector = connector;
+        this.domain = domain;
+        this.sessions = new ComponentSession[configuration.getSessionsPerDomain()];
+        for (int i = 0; i < sessions.length; i++) {
+            Reactor reactor = reactors[(firstReactor + i) % reactors.length];
+            sessions[i] = new ComponentSession(connector, this, i, reactor, secret, configuration);
+        }
+    }
+
+    String getDomain() {
+        return domain;
+    }
+
+    ComponentSession[] getSessions() {
+        return sessions;
+    }
+
+    synchronized int getEstablishedCount() {
+        return established;
+    }
+
+    long getQueuedBytes() {
+        long bytes = 0;
+        for (ComponentSession session : sessions) {
+            bytes += session.getQueuedBytes();
+        }
+        return bytes;
+    }
+
+    /**
+     * Adds the connection and tells whether its channel is connected, under the same lock as the session events.
+     */
+    synchronized void addConnection(NioComponentChannelConnection connection) {
+        connections.put(JIDPool.bare(connection.getChannel().getAddress()), connection);
+        if (connection.getChannel().getAddress().getNode() == null) {
+            domainConnection = connection;
+        }
+        if (established > 0) {
+            connector.channelEvent(ChannelEvent.connected(connection.getChannel()));
+        }
+        else if (refused) {
+            connector.channelEvent(ChannelEvent.disconnected(connection.getChannel(), "Handshake failed"));
+        }
+    }
+
+    void removeConnection(NioComponentChannelConnection connection) {
+        connections.remove(JIDPool.bare(connection.getChannel().getAddress()));
+        if (connection == domainConnection) {
+            domainConnection = null;
+        }
+    }
+
+    boolean isEmpty() {
+        return connections.isEmpty();
+    }
+
+    void send(NioComponentChannelConnection connection, Packet packet) throws ConnectorException {
+        int first = (JIDPool.bare(connection.getChannel().getAddress()).hashCode() & Integer.MAX_VALUE) % sessions.length;
+        for (int i = 0; i < sessions.length; i++) {
+            if (sessions[(first + i) % sessions.length].send(packet)) {
+                return;
+            }
+        }
+        throw new ConnectorException("Not sending packet because no session of {0} is established. Packet: {1}", domain, packet.toXML());
+    }
+
+    void stop() {
+        for (ComponentSession session : sessions) {
+            session.stop();
+        }
+    }
+
+    synchronized void sessionEstablished(ComponentSession session) {
+        established++;
+        refused = false;
+        if (established == 1) {
+            Log.info("Component {} connected", domain);
+            for (NioComponentChannelConnection connection : connections.values()) {
+                connector.channelEvent(ChannelEvent.connected(connection.getChannel()));
+            }
+        }
+    }
+
+    synchronized void sessionLost(ComponentSession session, String reason) {
+        established--;
+        if (established > 0) {
+            Log.warn("Session {} of component {} lost, failing over to {} others: {}", session.getIndex(), domain, established, reason);
+            return;
+        }
+        for (NioComponentChannelConnection connection : connections.values()) {
+            connector.channelEvent(ChannelEvent.disconnected(connection.getChannel(), reason));
+            connector.channelEvent(ChannelEvent.connecting(connection.getChannel(), "Reconnecting"));
+        }
+    }
+
+    /**
+     * Sends the stanzas left unwritten by a lost session on the next established session, keeping their order.
+     */
+    void resend(ComponentSession lost, List<byte[]> stanzas) {
+        if (stanzas.isEmpty()) {
+            return;
+        }
+        for (int i = 1; i < sessions.length; i++) {
+            ComponentSession session = sessions[(lost.getIndex() + i) % sessions.length];
+            int resent = 0;
+            while (resent < stanzas.size() && session.resend(stanzas.get(resent))) {
+                resent++;
+            }
+            if (resent == stanzas.size()) {
+                Log.info("Sent {} stanzas of lost session {} of component {} on session {}", resent, lost.getIndex(), domain, session.getIndex());
+                return;
+            }
+            if (resent > 0) {
+                Log.warn("Dropped {} stanzas of lost session {} of component {}: session {} was lost too",
+                    stanzas.size() - resent, lost.getIndex(), domain, session.getIndex());
+                return;
+            }
+        }
+        Log.warn("Dropped {} stanzas of lost session {} of component {}: no other session is established", stanzas.size(), lost.getIndex(), domain);
+    }
+
+    synchronized void sessionRefused(ComponentSession session) {
+        if (refused || established > 0) {
+            return;
+        }
+        refused = true;
+        for (NioComponentChannelConnection connection : connections.values()) {
+            connector.channelEvent(ChannelEvent.disconnected(connection.getChannel(), "Handshake failed"));
+        }
+    }
+
+    /**
+     * Routes a stanza without parsing it: its name and recipient are read from the start tag,
+     * and it is delivered as a RawStanza if the ingress filter of its connection accepts it.
+     * IQs are left to route(Element) when the filter needs their child element.
+     * @return true if the stanza was routed or refused, false if it must be parsed
+     */
+    boolean routeUnparsed(String xml) {
+        String name = RawStanza.name(xml);
+        if (!"message".equals(name) && !"presence".equals(name) && !"iq".equals(name)) {
+            return false;
+        }
+        String to = RawStanza.attribute(xml, "to");
+        if (to != null && to.indexOf('&') >= 0) {
+            // escaped, the parser will decode it
+            return false;
+        }
+        NioComponentChannelConnection connection = connectionFor(to);
+        if (connection == null || !NioChannelConnection.isUnparsed(name, connection.getIngressFilter())) {
+            return false;
+        }
+        if (!connection.getIngressFilter().accepts(name, null)) {
+            connector.packetFiltered(connection);
+            return true;
+        }
+        deliver(connection, new RawStanza(xml, ComponentSession.COMPONENT_NAMESPACE).toPacket());
+        return true;
+    }
+
+    void route(Element element) {
+        NioComponentChannelConnection connection = connectionFor(element.attributeValue("to"));
+        if (connection == null) {
+            Log.warn("Could not find a connection to route packet: {}", element.asXML());
+            return;
+        }
+        if (!connection.getIngressFilter().accepts(element)) {
+            connector.packetFiltered(connection);
+            return;
+        }
+        Packet packet = StanzaParser.toPacket(element);
+        if (packet == null) {
+            Log.debug("Ignoring element: {}", element.asXML());
+            return;
+        }
+        deliver(connection, packet);
+    }
+
+    private void deliver(NioComponentChannelConnection connection, Packet packet) {
+        try {
+            connector.receiveFromConnection(connection, packet);
+        }
+        catch (Exception ex) {
+            Log.error("Error while processing packet {}: {}", packet.toXML(), ex);
+        }
+    }
+
+    private NioComponentChannelConnection connectionFor(String to) {
+        JID bare = JIDPool.lookupBare(to);
+        NioComponentChannelConnection connection = bare == null ? null : connections.get(bare);
+        return connection != null ? connection : domainConnection;
+    }
+
+    @Override
+    public String toString() {
+        return Objects.toStringHelper(this)
+            .add("domain", domain)
+            .add("sessions", sessions.length)
+            .toString();
+    }
+}
@@ -0,0 +1,234 @@
+package botto.xmpp.connectors.nio;
+
+import botto.xmpp.botto.xmpp.connector.ConnectorException;
+import botto.xmpp.botto.xmpp.connector.stanza.PacketBytes;
+import com.google.common.base.Charsets;
+import com.google.common.base.Objects;
+import com.google.common.io.BaseEncoding;
+import org.dom4j.Element;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xmpp.packet.Packet;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * One XEP-0114 session of a ComponentDomain, over a non-blocking socket driven by a Reactor.
+ *
+ * Incoming stanzas are handed to the domain for routing, and the domain is told when the session is established or lost.
+ * Handshakes are attempted by the ReconnectScheduler of the connector: the first one when the first channel
+ * of the domain opens, the next ones when the session is lost.
+ */
+class ComponentSession extends ReactorSession<ComponentSession.State> {
+
+    private final static Logger Log = LoggerFactory.getLogger(ComponentSession.class);
+
+    static final String COMPONENT_NAMESPACE = "jabber:component:accept";
+
+    private static final StanzaParser parser = new StanzaParser(COMPONENT_NAMESPACE);
+    private static final Pattern streamId = Pattern.compile("\\sid\\s*=\\s*(['\"])(.*?)\\1");
+
+    enum State { Idle, Connecting, Opening, Handshaking, Ready, Closed }
+
+    private final NioComponentConnector connector;
+    private final ComponentDomain component;
+    private final int index;
+    private final String domain;
+    private final String secret;
+    private final int maxStanzaBytes;
+    private final int sendBufferBytes;
+    private final int receiveBufferBytes;
+    private final long maxOutboundBytes;
+
+    ComponentSession(NioComponentConnector connector, ComponentDomain component, int index, Reactor reactor, String secret,
+                     NioComponentConnectorConfiguration configuration) {
+        super(reactor, parser, "component " + component.getDomain(), configuration.getHost(), configuration.getPort(),
+            configuration.getLoginTimeoutMillis(), State.Idle, State.Ready, State.Closed);
+        this.connector = connector;
+        this.component = component;
+        this.index = index;
+        this.domain = component.getDomain();
+        this.secret = secret;
+        this.maxStanzaBytes = configuration.getMaxStanzaBytes();
+        this.sendBufferBytes = configuration.getSendBufferBytes();
+        this.receiveBufferBytes = configuration.getReceiveBufferBytes();
+        this.maxOutboundBytes = configuration.getMaxOutboundBytes();
+    }
+
+    int getIndex() {
+        return index;
+    }
+
+    /**
+     * Queues the packet for writing. Can be called from any thread, and does not wait for the write.
+     * @return false if the session is not established
+     * @throws ConnectorException if maxOutboundBytes are already waiting to be written
+     */
+    boolean send(Packet packet) throws ConnectorException {
+        StreamSocket current = socket;
+        if (state != State.Ready || current == null) {
+            return false;
+        }
+        byte[] bytes = PacketBytes.of(packet);
+        long queued = current.getQueuedBytes();
+        if (queued + bytes.length > maxOutboundBytes) {
+            throw new ConnectorException("Not sending packet because {0} bytes wait to be written on session {1} of {2}. Packet: {3}",
+                String.valueOf(queued), index, domain, packet.toXML());
+        }
+        write(current, bytes);
+        lastActivity = System.currentTimeMillis();
+        return true;
+    }
+
+    /**
+     * Queues a stanza handed over by another session of the domain, with no limit on the queue.
+     * @return false if the session is not established
+     */
+    boolean resend(byte[] stanza) {
+        StreamSocket current = socket;
+        if (state != State.Ready || current == null) {
+            return false;
+        }
+        write(current, stanza);
+        return true;
+    }
+
+    // the session may close between the check of its state and the write: what the socket hands back goes to another session
+    private void write(StreamSocket current, byte[] stanza) {
+        List<byte[]> late = current.write(stanza);
+        if (!late.isEmpty()) {
+            component.resend(this, late);
+        }
+    }
+
+    /**
+     * @return the bytes queued on the session and not written yet
+     */
+    long getQueuedBytes() {
+        StreamSocket current = socket;
+        return current == null ? 0 : current.getQueuedBytes();
+    }
+
+    @Override
+    public void socketConnected(StreamSocket connected) {
+        state = State.Opening;
+        connected.write("<?xml version='1.0'?><stream:stream to='" + NioChannelConnection.escape(domain) + "' xmlns='" + COMPONENT_NAMESPACE
+            + "' xmlns:stream='" + StanzaParser.STREAM_NAMESPACE + "'>");
+    }
+
+    @Override
+    public void streamOpened(String header) {
+        if (state != State.Opening) {
+            return;
+        }
+        Matcher matcher = streamId.matcher(header);
+        if (!matcher.find()) {
+            fail("Stream header without id", null);
+            return;
+        }
+        state = State.Handshaking;
+        socket.write("<handshake>" + handshake(matcher.group(2), secret) + "</handshake>");
+    }
+
+    @Override
+    protected StreamSocket newAttempt() {
+        state = State.Connecting;
+        return new StreamSocket(reactor, this, maxStanzaBytes, sendBufferBytes, receiveBufferBytes);
+    }
+
+    @Override
+    protected void loginCompleted(boolean succeeded) {
+        if (succeeded) {
+            Log.info("Session {} of component {} established", index, domain);
+        }
+    }
+
+    @Override
+    protected boolean unparsed(String xml) {
+        if (!component.routeUnparsed(xml)) {
+            return false;
+        }
+        lastActivity = System.currentTimeMillis();
+        return true;
+    }
+
+    @Override
+    protected void element(Element element) {
+        if (state == State.Handshaking) {
+            if ("handshake".equals(element.getName())) {
+                state = State.Ready;
+                component.sessionEstablished(this);
+                login.set(true);
+            }
+            else {
+                Log.debug("Ignoring element while handshaking: {}", element.asXML());
+            }
+        }
+        else if (state == State.Ready) {
+            stanza(element);
+        }
+        else {
+            Log.debug("Ignoring element while {}: {}", state, element.asXML());
+        }
+    }
+
+    @Override
+    protected boolean isRefusal(String condition) {
+        return state == State.Handshaking && "not-authorized".equals(condition);
+    }
+
+    // the server refused the secret: not worth retrying
+    @Override
+    protected void refused() {
+        component.sessionRefused(this);
+    }
+
+    /**
+     * If the session was established, its channels are disconnected and it reconnects.
+     */
+    @Override
+    protected void failed(boolean lost, String reason, Throwable cause) {
+        List<byte[]> unwritten = socket.takeUnwritten();
+        if (lost) {
+            component.sessionLost(this, reason);
+            component.resend(this, unwritten);
+            connector.reconnect(this);
+        }
+        else if (!unwritten.isEmpty()) {
+            Log.warn("Dropped {} stanzas queued on stopped session {} of component {}", unwritten.size(), index, domain);
+        }
+    }
+
+    /**
+     * @return the lowercase hex SHA-1 of the concatenation of the stream id and the secret, as XEP-0114 wants it
+     */
+    static String handshake(String streamId, String secret) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            digest.update(streamId.getBytes(Charsets.UTF_8));
+            digest.update((secret == null ? "" : secret).getBytes(Charsets.UTF_8));
+            return BaseEncoding.base16().lowerCase().encode(digest.digest());
+        }
+        catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-1 is not available", e);
+        }
+    }
+
+    private void stanza(Element element) {
+        lastActivity = System.currentTimeMillis();
+        component.route(element);
+    }
+
+    @Override
+    public String toString() {
+        return Objects.toStringHelper(this)
+            .add("domain", domain)
+            .add("index", index)
+            .add("state", state)
+            .toString();
+    }
+}
@@ -0,0 +1,507 @@
+package botto.xmpp.connectors.nio;
+
+import botto.xmpp.botto.xmpp.connector.ConnectorException;
+import botto.xmpp.botto.xmpp.connector.ReconnectScheduler;
+import botto.xmpp.botto.xmpp.connector.StanzaIds;
+import botto.xmpp.botto.xmpp.connector.channel.AbstractChannelConnection;
+import botto.xmpp.botto.xmpp.connector.channel.Channel;
+import botto.xmpp.botto.xmpp.connector.channel.ChannelEvent;
+import botto.xmpp.botto.xmpp.connector.channel.IngressFilter;
+import botto.xmpp.botto.xmpp.connector.stanza.PacketBytes;
+import botto.xmpp.botto.xmpp.connector.stanza.PacketOverlay;
+import botto.xmpp.botto.xmpp.connector.stanza.RawStanza;
+import com.google.common.base.Charsets;
+import com.google.common.io.BaseEncoding;
+import org.dom4j.Element;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xmpp.packet.JID;
+import org.xmpp.packet.Packet;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A ChannelConnection that is a client session over a non-blocking socket, driven by a Reactor.
+ *
+ * The session negotiates the stream with SASL PLAIN, binds a resource and establishes the session if required,
+ * then exchanges stanzas. Logins are attempted by the ReconnectScheduler of the connector: the first one
+ * when the channel opens, the next ones when the session is lost.
+ *
+ * When the server offers XEP-0198 stream management, it is enabled after binding. A lost session is then resumed
+ * right after authentication, without binding or presence, and the stanzas the server did not acknowledge are
+ * sent again. If resumption fails, a new session is bound and the unacknowledged stanzas are sent on it,
+ * at the risk of sending twice those the server handled without acknowledging them.
+ */
+class NioChannelConnection extends AbstractChannelConnection implements ReconnectScheduler.Task {
+
+    private final static Logger Log = LoggerFactory.getLogger(NioChannelConnection.class);
+
+    static final String CLIENT_NAMESPACE = "jabber:client";
+    static final String SASL_NAMESPACE = "urn:ietf:params:xml:ns:xmpp-sasl";
+    static final String BIND_NAMESPACE = "urn:ietf:params:xml:ns:xmpp-bind";
+    static final String SESSION_NAMESPACE = "urn:ietf:params:xml:ns:xmpp-session";
+
+    private static final StanzaParser parser = new StanzaParser(CLIENT_NAMESPACE);
+
+    enum State { Idle, Connecting, Opening, Authenticating, Resuming, Binding, Establishing, Enabling, Ready, Closed }
+
+    private final NioConnector connector;
+    private final Channel channel;
+    private final String secret;
+    private final String resource;
+    private final int maxStanzaBytes;
+    private final int sendBufferBytes;
+    private final int receiveBufferBytes;
+    // null when stream management is disabled
+    private final StreamManagement streamManagement;
+
+    private final ClientSession session;
+
+    NioChannelConnection(NioConnector connector, Reactor reactor, Channel channel, NioConnectorConfiguration configuration) {
+        this.connector = connector;
+        this.channel = channel;
+        this.secret = configuration.getSecret(channel.getAddress());
+        this.resource = configuration.getResource();
+        this.maxStanzaBytes = configuration.getMaxStanzaBytes();
+        this.sendBufferBytes = configuration.getSendBufferBytes();
+        this.receiveBufferBytes = configuration.getReceiveBufferBytes();
+        this.streamManagement = configuration.getStreamManagementBufferSize() > 0
+            ? new StreamManagement(configuration.getStreamManagementBufferSize(), configuration.getAckRequestInterval())
+            : null;
+        this.session = new ClientSession(reactor, configuration);
+    }
+
+    @Override
+    public Channel getChannel() {
+        return channel;
+    }
+
+    @Override
+    public NioConnector getConnector() {
+        return connector;
+    }
+
+    State getState() {
+        return session.getState();
+    }
+
+    /**
+     * @return the full address bound by the server, or null if the session was never established
+     */
+    JID getBoundAddress() {
+        return session.boundAddress;
+    }
+
+    void send(Packet packet) throws ConnectorException {
+        session.send(packet);
+    }
+
+    void stop() {
+        session.stop();
+    }
+
+    /**
+     * Connects and logs in, waiting for the outcome on the calling thread.
+     * @return true when logged in, or when the server refused the credentials
+     */
+    @Override
+    public boolean attempt() {
+        return session.attempt();
+    }
+
+    @Override
+    public long getLastActivity() {
+        return session.getLastActivity();
+    }
+
+    static String escape(String text) {
+        return text.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;").replace("'", "&apos;").replace("\"", "&quot;");
+    }
+
+    // whether a stanza can be filtered and delivered from its start tag alone
+    static boolean isUnparsed(String name, IngressFilter filter) {
+        if ("iq".equals(name)) {
+            return !filter.filtersNamespaces();
+        }
+        return "message".equals(name) || "presence".equals(name);
+    }
+
+    private class ClientSession extends ReactorSession<State> {
+
+        // only used on the reactor thread
+        private boolean authenticated;
+        private boolean sessionRequired;
+        private boolean streamManagementOffered;
+        private List<String> retransmit = Collections.emptyList();
+
+        // guarded by streamManagement
+        private boolean evicting;
+
+        private volatile JID boundAddress;
+
+        ClientSession(Reactor reactor, NioConnectorConfiguration configuration) {
+            super(reactor, parser, channel.getAddress().toString(), configuration.getHost(), configuration.getPort(),
+                configuration.getLoginTimeoutMillis(), State.Idle, State.Ready, State.Closed);
+        }
+
+        void send(Packet packet) throws ConnectorException {
+            if (state != State.Ready) {
+                throw new ConnectorException("Not sending packet because connection is {0}. Packet: {1}", state, packet.toXML());
+            }
+            if (StanzaIds.lacksId(packet)) {
+                packet = PacketOverlay.copyOf(packet);
+                packet.setID(StanzaIds.nextId());
+            }
+            writeStanza(packet);
+            lastActivity = System.currentTimeMillis();
+        }
+
+        @Override
+        protected StreamSocket newAttempt() {
+            authenticated = false;
+            sessionRequired = false;
+            streamManagementOffered = false;
+            state = State.Connecting;
+            return new StreamSocket(reactor, this, maxStanzaBytes, sendBufferBytes, receiveBufferBytes);
+        }
+
+        @Override
+        protected void loginCompleted(boolean succeeded) {
+            connector.channelEvent(succeeded
+                ? ChannelEvent.connected(channel)
+                : ChannelEvent.disconnected(channel, "Login failed"));
+        }
+
+        /**
+         * If the session was established, the channel is disconnected and reconnects.
+         */
+        @Override
+        protected void failed(boolean lost, String reason, Throwable cause) {
+            if (lost) {
+                Log.warn("Session of {} lost: {}", channel.getAddress(), reason);
+                connector.channelEvent(cause == null
+                    ? ChannelEvent.disconnected(channel, reason)
+                    : ChannelEvent.disconnected(channel, reason, cause));
+                connector.channelEvent(ChannelEvent.connecting(channel, "Reconnecting"));
+                connector.reconnect(NioChannelConnection.this);
+            }
+        }
+
+        @Override
+        public void socketConnected(StreamSocket connected) {
+            openStream();
+        }
+
+        @Override
+        public void streamOpened(String header) {
+            Log.trace("Stream opened for {}: {}", channel.getAddress(), header);
+        }
+
+        @Override
+        protected void element(Element element) {
+            switch (state) {
+                case Opening:
+                    features(element);
+                    break;
+                case Authenticating:
+                    authentication(element);
+                    break;
+                case Resuming:
+                    resumption(element);
+                    break;
+                case Binding:
+                case Establishing:
+                    binding(element);
+                    break;
+                case Enabling:
+                    enabling(element);
+                    break;
+                case Ready:
+                    if (StreamManagement.NAMESPACE.equals(element.getNamespaceURI())) {
+                        acknowledgement(element);
+                    }
+                    else {
+                        stanza(element);
+                    }
+                    break;
+                default:
+                    Log.debug("Ignoring element while {}: {}", state, element.asXML());
+            }
+        }
+
+        private void bound() {
+            if (streamManagementOffered) {
+                state = State.Enabling;
+                write("<enable xmlns='" + StreamManagement.NAMESPACE + "' resume='true'/>");
+            }
+            else {
+                ready();
+            }
+        }
+
+        private void ready() {
+            writeStanza("<presence/>");
+            if (!retransmit.isEmpty()) {
+                Log.info("Sending {} stanzas of the previous session of {} again", retransmit.size(), channel.getAddress());
+                for (String xml : retransmit) {
+                    writeStanza(xml);
+                }
+                retransmit = Collections.emptyList();
+            }
+            // only now can new stanzas be sent, after the ones of the previous session
+            state = State.Ready;
+            login.set(true);
+        }
+
+        private void resumed(long handled) {
+            List<String> unacked;
+            // the lock keeps stanzas sent meanwhile after the retransmitted ones
+            synchronized (streamManagement) {
+                unacked = streamManagement.resumed(handled);
+                for (String xml : unacked) {
+                    write(xml);
+                }
+                state = State.Ready;
+            }
+            Log.info("Session of {} resumed, {} stanzas sent again", channel.getAddress(), unacked.size());
+            connector.sessionResumed(true);
+            login.set(true);
+        }
+
+        private void bind() {
+            state = State.Binding;
+            write("<iq type='set' id='bind_1'><bind xmlns='" + BIND_NAMESPACE + "'>"
+                + (resource == null ? "" : "<resource>" + escape(resource) + "</resource>") + "</bind></iq>");
+        }
+
+        private void openStream() {
+            state = State.Opening;
+            socket.resetStream();
+            write("<?xml version='1.0'?><stream:stream to='" + escape(channel.getAddress().getDomain()) + "' xmlns='" + CLIENT_NAMESPACE
+                + "' xmlns:stream='" + StanzaParser.STREAM_NAMESPACE + "' version='1.0'>");
+        }
+
+        private void write(String xml) {
+            socket.write(xml);
+        }
+
+        private void writeStanza(Packet packet) {
+            if (streamManagement == null) {
+                socket.write(PacketBytes.of(packet));
+                return;
+            }
+            // kept as text until acknowledged
+            writeStanza(packet.toXML());
+        }
+
+        // counts the stanza for stream management, in the order it is written
+        private void writeStanza(String xml) {
+            if (streamManagement == null) {
+                write(xml);
+                return;
+            }
+            synchronized (streamManagement) {
+                if (streamManagement.isFull()) {
+                    unackedDropped();
+                }
+                else {
+                    evicting = false;
+                }
+                boolean requestAck = streamManagement.sending(xml);
+                write(xml);
+                if (requestAck) {
+                    write("<r xmlns='" + StreamManagement.NAMESPACE + "'/>");
+                }
+            }
+        }
+
+        private void unackedDropped() {
+            if (!evicting) {
+                evicting = true;
+                Log.warn("Stream management buffer of {} is full: dropping unacknowledged stanzas, which a resumption will not send again",
+                    channel.getAddress());
+            }
+            connector.unackedDropped();
+        }
+
+        private void features(Element features) {
+            if (!"features".equals(features.getName())) {
+                Log.debug("Ignoring element while waiting for features: {}", features.asXML());
+                return;
+            }
+            if (!authenticated) {
+                Element mechanisms = features.element("mechanisms");
+                if (mechanisms == null || !hasMechanism(mechanisms, "PLAIN")) {
+                    reject("SASL PLAIN is not offered");
+                    return;
+                }
+                String credentials = "\0" + channel.getAddress().getNode() + "\0" + (secret == null ? "" : secret);
+                state = State.Authenticating;
+                write("<auth xmlns='" + SASL_NAMESPACE + "' mechanism='PLAIN'>" + BaseEncoding.base64().encode(credentials.getBytes(Charsets.UTF_8)) + "</auth>");
+                return;
+            }
+            if (features.element("bind") == null) {
+                fail("Resource binding is not offered", null);
+                return;
+            }
+            Element session = features.element("session");
+            sessionRequired = session != null && session.element("optional") == null;
+            Element sm = features.element("sm");
+            streamManagementOffered = streamManagement != null && sm != null && StreamManagement.NAMESPACE.equals(sm.getNamespaceURI());
+            if (streamManagementOffered && streamManagement.canResume()) {
+                state = State.Resuming;
+                write("<resume xmlns='" + StreamManagement.NAMESPACE + "' h='" + streamManagement.getHandled()
+                    + "' previd='" + escape(streamManagement.getId()) + "'/>");
+                return;
+            }
+            if (streamManagement != null) {
+                // a previous session that cannot be resumed
+                retransmit(streamManagement.reset());
+            }
+            bind();
+        }
+
+        private void retransmit(List<String> unacked) {
+            if (!unacked.isEmpty()) {
+                retransmit = unacked;
+            }
+        }
+
+        private void resumption(Element element) {
+            if ("resumed".equals(element.getName())) {
+                resumed(Long.parseLong(element.attributeValue("h", "0")));
+            }
+            else if ("failed".equals(element.getName())) {
+                Log.info("Session of {} could not be resumed, binding a new one", channel.getAddress());
+                connector.sessionResumed(false);
+                // servers may tell how much of the previous session they handled
+                if (element.attributeValue("h") != null) {
+                    streamManagement.acknowledged(Long.parseLong(element.attributeValue("h")));
+                }
+                retransmit(streamManagement.reset());
+                bind();
+            }
+        }
+
+        private void enabling(Element element) {
+            if ("enabled".equals(element.getName())) {
+                String resume = element.attributeValue("resume");
+                streamManagement.enabled(element.attributeValue("id"), "true".equals(resume) || "1".equals(resume));
+            }
+            else if ("failed".equals(element.getName())) {
+                Log.debug("Server refused stream management for {}", channel.getAddress());
+            }
+            else {
+                Log.debug("Ignoring element while enabling stream management: {}", element.asXML());
+                return;
+            }
+            ready();
+        }
+
+        private void acknowledgement(Element element) {
+            if ("r".equals(element.getName())) {
+                write("<a xmlns='" + StreamManagement.NAMESPACE + "' h='" + streamManagement.getHandled() + "'/>");
+            }
+            else if ("a".equals(element.getName())) {
+                streamManagement.acknowledged(Long.parseLong(element.attributeValue("h", "0")));
+            }
+        }
+
+        private boolean hasMechanism(Element mechanisms, String name) {
+            for (Object mechanism : mechanisms.elements("mechanism")) {
+                if (name.equals(((Element) mechanism).getTextTrim())) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private void authentication(Element element) {
+            if ("success".equals(element.getName())) {
+                authenticated = true;
+                openStream();
+            }
+            else if ("failure".equals(element.getName())) {
+                Element condition = element.elements().isEmpty() ? null : (Element) element.elements().get(0);
+                reject("SASL authentication failed " + (condition == null ? "" : condition.getName()));
+            }
+        }
+
+        private void binding(Element iq) {
+            String id = iq.attributeValue("id");
+            if (!"iq".equals(iq.getName()) || !("bind_1".equals(id) || "sess_1".equals(id))) {
+                Log.debug("Ignoring element while binding: {}", iq.asXML());
+                return;
+            }
+            if (!"result".equals(iq.attributeValue("type"))) {
+                fail("Could not " + ("bind_1".equals(id) ? "bind resource" : "establish session"), null);
+                return;
+            }
+            if ("bind_1".equals(id)) {
+                Element bind = iq.element("bind");
+                String jid = bind == null ? null : bind.elementText("jid");
+                boundAddress = jid == null ? null : new JID(jid);
+                if (sessionRequired) {
+                    state = State.Establishing;
+                    write("<iq type='set' id='sess_1'><session xmlns='" + SESSION_NAMESPACE + "'/></iq>");
+                }
+                else {
+                    bound();
+                }
+            }
+            else {
+                bound();
+            }
+        }
+
+        // stanzas are filtered by name and delivered without being parsed, unless IQs are filtered by their child element
+        @Override
+        protected boolean unparsed(String xml) {
+            String name = RawStanza.name(xml);
+            if (!isUnparsed(name, getIngressFilter())) {
+                return false;
+            }
+            if (!getIngressFilter().accepts(name, null)) {
+                filtered();
+                return true;
+            }
+            deliver(new RawStanza(xml, CLIENT_NAMESPACE).toPacket());
+            return true;
+        }
+
+        // a filtered stanza was still handled, as far as stream management is concerned
+        private void filtered() {
+            if (streamManagement != null) {
+                streamManagement.handled();
+            }
+            connector.packetFiltered(NioChannelConnection.this);
+        }
+
+        private void stanza(Element element) {
+            if (!getIngressFilter().accepts(element)) {
+                filtered();
+                return;
+            }
+            Packet packet = StanzaParser.toPacket(element);
+            if (packet == null) {
+                Log.debug("Ignoring element: {}", element.asXML());
+                return;
+            }
+            deliver(packet);
+        }
+
+        private void deliver(Packet packet) {
+            lastActivity = System.currentTimeMillis();
+            if (streamManagement != null) {
+                streamManagement.handled();
+            }
+            try {
+                connector.receiveFromConnection(NioChannelConnection.this, packet);
+            }
+            catch (Exception ex) {
+                Log.error("Error while processing packet {}: {}", packet.toXML(), ex);
+            }
+        }
+    }
+}
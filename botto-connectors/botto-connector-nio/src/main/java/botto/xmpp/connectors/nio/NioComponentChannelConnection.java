@@ -0,0 +1,57 @@
+package botto.xmpp.connectors.nio;
+
+import botto.xmpp.botto.xmpp.connector.ConnectorException;
+import botto.xmpp.botto.xmpp.connector.StanzaIds;
+import botto.xmpp.botto.xmpp.connector.channel.AbstractChannelConnection;
+import botto.xmpp.botto.xmpp.connector.channel.Channel;
+import botto.xmpp.botto.xmpp.connector.stanza.PacketOverlay;
+import org.xmpp.packet.Packet;
+
+/**
+ * A ChannelConnection sharing the component sessions of its domain with the other channels of the domain.
+ */
+class NioComponentChannelConnection extends AbstractChannelConnection {
+
+    private final NioComponentConnector connector;
+    private final ComponentDomain component;
+    private final Channel channel;
+
+    NioComponentChannelConnection(NioComponentConnector connector, ComponentDomain component, Channel channel) {
+        this.connector = connector;
+        this.component = component;
+        this.channel = channel;
+    }
+
+    @Override
+    public Channel getChannel() {
+        return channel;
+    }
+
+    @Override
+    public NioComponentConnector getConnector() {
+        return connector;
+    }
+
+    ComponentDomain getComponent() {
+        return component;
+    }
+
+    /**
+     * Sends from the address of the channel, with a generated id if it needs one, unless the packet has its own.
+     * The packet of the bot is left as it is: the missing attributes are overlaid on a copy sharing its element.
+     */
+    void send(Packet packet) throws ConnectorException {
+        boolean fixSender = packet.getFrom() == null;
+        boolean fixId = StanzaIds.lacksId(packet);
+        if (fixSender || fixId) {
+            packet = PacketOverlay.copyOf(packet);
+            if (fixSender) {
+                packet.setFrom(channel.getAddress());
+            }
+            if (fixId) {
+                packet.setID(StanzaIds.nextId());
+            }
+        }
+        component.send(this, packet);
+    }
+}
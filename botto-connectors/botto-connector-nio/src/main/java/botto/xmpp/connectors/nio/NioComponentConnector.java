@@ -0,0 +1,223 @@
+package botto.xmpp.connectors.nio;
+
+import botto.xmpp.botto.xmpp.connector.*;
+import botto.xmpp.botto.xmpp.connector.channel.Channel;
+import botto.xmpp.botto.xmpp.connector.channel.ChannelEvent;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xmpp.packet.JID;
+import org.xmpp.packet.Packet;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * A component connector speaking XEP-0114 itself, as an alternative to the WhackConnector.
+ *
+ * Each component domain has sessionsPerDomain ComponentSessions over non-blocking sockets, shared by the channels
+ * of the domain; a fixed number of Reactors drive all sessions. Sends only queue the stanza: the reactor thread writes whatever
+ * is queued in one gathering write, so concurrent senders do not wait for each other or for the socket.
+ * A send fails once maxOutboundBytes wait to be written on its session, rather than queueing without bound.
+ */
+public class NioComponentConnector extends Connector<NioComponentConnectorConfiguration, NioComponentChannelConnection> {
+
+    private final Logger Log = LoggerFactory.getLogger(NioComponentConnector.class);
+
+    private final AtomicInteger nextReactor = new AtomicInteger();
+    private final Map<String, ComponentDomain> components = new ConcurrentHashMap<String, ComponentDomain>();
+
+    private volatile Reactor[] reactors;
+    private ScheduledExecutorService timer;
+    private ExecutorService loginExecutor;
+    private volatile ReconnectScheduler logins;
+
+    public NioComponentConnector(ConnectorId connectorId, NioComponentConnectorConfiguration configuration) {
+        super(connectorId, configuration);
+        checkNotNull(configuration, "Configuration must not be null");
+        checkArgument(configuration.getIoThreads() > 0, "ioThreads must be positive: %s", configuration.getIoThreads());
+        checkArgument(configuration.getSessionsPerDomain() > 0, "sessionsPerDomain must be positive: %s", configuration.getSessionsPerDomain());
+        checkArgument(configuration.getMaxOutboundBytes() > 0, "maxOutboundBytes must be positive: %s", configuration.getMaxOutboundBytes());
+    }
+
+    @Override
+    public synchronized void doStart() throws ConnectorException {
+        if (reactors != null) {
+            return;
+        }
+        NioComponentConnectorConfiguration configuration = getConfiguration();
+        String id = String.valueOf(getConnectorId().getId());
+        Reactor[] started = new Reactor[configuration.getIoThreads()];
+        try {
+            for (int i = 0; i < started.length; i++) {
+                started[i] = new Reactor("nio-component-reactor-" + id + "-" + i, configuration.getReadBufferBytes());
+            }
+        }
+        catch (IOException ex) {
+            throw new ConnectorException(ex, "Could not open selectors for connector {0}", getConnectorId());
+        }
+        for (Reactor reactor : started) {
+            reactor.start();
+        }
+        timer = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder().setNameFormat("nio-component-login-timer-" + id).setDaemon(true).build());
+        loginExecutor = Executors.newFixedThreadPool(configuration.getMaxConcurrentLogins(), new ThreadFactoryBuilder().setNameFormat("nio-component-login-" + id + "-%d").setDaemon(true).build());
+        logins = new ReconnectScheduler(timer, loginExecutor, configuration.getMaxConcurrentLogins(),
+            configuration.getReconnectBaseDelayMillis(), configuration.getReconnectMaxDelayMillis());
+        reactors = started;
+        Log.info("Started connector {} with {} I/O threads", getConnectorId(), started.length);
+    }
+
+    @Override
+    public synchronized void doStop() throws ConnectorException {
+        if (reactors == null) {
+            return;
+        }
+        // closing the last channel of a domain stops its sessions
+        closeChannels();
+        for (ComponentDomain component : components.values()) {
+            component.stop();
+        }
+        components.clear();
+        for (Reactor reactor : reactors) {
+            reactor.stop();
+        }
+        timer.shutdownNow();
+        loginExecutor.shutdownNow();
+        reactors = null;
+    }
+
+    @Override
+    public synchronized void doOpenChannel(Channel channel) throws ConnectorException {
+        Reactor[] current = reactors;
+        if (current == null) {
+            throw new ConnectorException("Connector {0} is not started", getConnectorId());
+        }
+        verifyAddress(channel.getAddress());
+
+        String domain = channel.getAddress().getDomain();
+        ComponentDomain component = components.get(domain);
+        boolean created = component == null;
+        if (created) {
+            int firstReactor = (nextReactor.getAndAdd(getConfiguration().getSessionsPerDomain()) & Integer.MAX_VALUE) % current.length;
+            component = new ComponentDomain(this, current, firstReactor, domain, getConfiguration().getSecret(getSubdomain(domain)), getConfiguration());
+            components.put(domain, component);
+        }
+
+        NioComponentChannelConnection connection = new NioComponentChannelConnection(this, component, channel);
+        addConnection(channel, connection);
+        setChannelEvent(ChannelEvent.opened(channel));
+        setChannelEvent(ChannelEvent.connecting(channel));
+        component.addConnection(connection);
+        if (created) {
+            for (ComponentSession session : component.getSessions()) {
+                logins.submit(session);
+            }
+        }
+    }
+
+    @Override
+    public synchronized void doCloseChannel(Channel channel) throws ConnectorException {
+        NioComponentChannelConnection connection = removeConnection(channel);
+        ComponentDomain component = connection.getComponent();
+        component.removeConnection(connection);
+        if (component.isEmpty()) {
+            components.remove(component.getDomain());
+            component.stop();
+        }
+    }
+
+    @Override
+    public void doSend(Channel channel, Packet packet) throws ConnectorException {
+        NioComponentChannelConnection connection = getConnection(channel);
+        if (connection == null) {
+            throw new ConnectorException("No connection found for channel {0}", channel);
+        }
+        connection.send(packet);
+    }
+
+    @Override
+    public Map<String, ConnectorGauge> getGauges() {
+        return ImmutableMap.<String, ConnectorGauge>of(
+            "sessions", new ConnectorGauge() {
+                @Override
+                public long getValue() {
+                    int count = 0;
+                    for (ComponentDomain component : components.values()) {
+                        count += component.getEstablishedCount();
+                    }
+                    return count;
+                }
+            },
+            "outbound.bytes", new ConnectorGauge() {
+                @Override
+                public long getValue() {
+                    long bytes = 0;
+                    for (ComponentDomain component : components.values()) {
+                        bytes += component.getQueuedBytes();
+                    }
+                    return bytes;
+                }
+            },
+            "login.ready", new ConnectorGauge() {
+                @Override
+                public long getValue() {
+                    ReconnectScheduler current = logins;
+                    return current == null ? 0 : current.getReadyCount();
+                }
+            },
+            "login.running", new ConnectorGauge() {
+                @Override
+                public long getValue() {
+                    ReconnectScheduler current = logins;
+                    return current == null ? 0 : current.getRunningCount();
+                }
+            },
+            "login.waiting", new ConnectorGauge() {
+                @Override
+                public long getValue() {
+                    ReconnectScheduler current = logins;
+                    return current == null ? 0 : current.getWaitingCount();
+                }
+            });
+    }
+
+    void channelEvent(ChannelEvent event) {
+        setChannelEvent(event);
+    }
+
+    void reconnect(ComponentSession session) {
+        ReconnectScheduler current = logins;
+        if (current != null) {
+            current.submit(session);
+        }
+    }
+
+    void packetFiltered(NioComponentChannelConnection connection) {
+        filtered(connection);
+    }
+
+    void receiveFromConnection(NioComponentChannelConnection connection, Packet packet) throws ConnectorException {
+        receive(connection, packet);
+    }
+
+    private String getSubdomain(String domain) {
+        int dot = domain.indexOf('.');
+        return dot < 0 ? domain : domain.substring(0, dot);
+    }
+
+    private void verifyAddress(JID address) throws ConnectorException {
+        String domain = getConfiguration().getDomain();
+        if (domain != null && !address.getDomain().endsWith("." + domain)) {
+            throw new ConnectorException("Address {0} is not in a subdomain of {1}", address, domain);
+        }
+    }
+}
@@ -0,0 +1,184 @@
+package botto.xmpp.connectors.nio;
+
+import botto.xmpp.botto.xmpp.connector.ConnectorConfiguration;
+
+public class NioComponentConnectorConfiguration implements ConnectorConfiguration {
+    private String name;
+    private String host;
+    private int port = 5275;
+    private String domain;
+    private String secret;
+    private int sessionsPerDomain = 1;
+    private int ioThreads = 2;
+    private int readBufferBytes = 64 * 1024;
+    private int maxStanzaBytes = 1024 * 1024;
+    private int sendBufferBytes = 0;
+    private int receiveBufferBytes = 0;
+    private long maxOutboundBytes = 4 * 1024 * 1024;
+    private int maxConcurrentLogins = 4;
+    private long loginTimeoutMillis = 30000;
+    private long reconnectBaseDelayMillis = 1000;
+    private long reconnectMaxDelayMillis = 60000;
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    public String getHost() {
+        return host;
+    }
+
+    public void setHost(String host) {
+        this.host = host;
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    public void setPort(int port) {
+        this.port = port;
+    }
+
+    public String getDomain() {
+        return domain;
+    }
+
+    public void setDomain(String domain) {
+        this.domain = domain;
+    }
+
+    public String getSecret(String subdomain) {
+        return secret;
+    }
+
+    public void setSecret(String secret) {
+        this.secret = secret;
+    }
+
+    /**
+     * @return the number of parallel component sessions of each domain, sharing its traffic
+     */
+    public int getSessionsPerDomain() {
+        return sessionsPerDomain;
+    }
+
+    public void setSessionsPerDomain(int sessionsPerDomain) {
+        this.sessionsPerDomain = sessionsPerDomain;
+    }
+
+    /**
+     * @return the number of threads doing the I/O of all the component sessions of the connector
+     */
+    public int getIoThreads() {
+        return ioThreads;
+    }
+
+    public void setIoThreads(int ioThreads) {
+        this.ioThreads = ioThreads;
+    }
+
+    /**
+     * @return the size of the read buffer of each I/O thread
+     */
+    public int getReadBufferBytes() {
+        return readBufferBytes;
+    }
+
+    public void setReadBufferBytes(int readBufferBytes) {
+        this.readBufferBytes = readBufferBytes;
+    }
+
+    /**
+     * @return the size of the largest element accepted from the server, larger ones close the session
+     */
+    public int getMaxStanzaBytes() {
+        return maxStanzaBytes;
+    }
+
+    public void setMaxStanzaBytes(int maxStanzaBytes) {
+        this.maxStanzaBytes = maxStanzaBytes;
+    }
+
+    /**
+     * @return the size of the socket send buffer of each component session, or 0 for the system default
+     */
+    public int getSendBufferBytes() {
+        return sendBufferBytes;
+    }
+
+    public void setSendBufferBytes(int sendBufferBytes) {
+        this.sendBufferBytes = sendBufferBytes;
+    }
+
+    /**
+     * @return the size of the socket receive buffer of each component session, or 0 for the system default
+     */
+    public int getReceiveBufferBytes() {
+        return receiveBufferBytes;
+    }
+
+    public void setReceiveBufferBytes(int receiveBufferBytes) {
+        this.receiveBufferBytes = receiveBufferBytes;
+    }
+
+    /**
+     * @return the most bytes waiting to be written on a component session, sends beyond it fail
+     */
+    public long getMaxOutboundBytes() {
+        return maxOutboundBytes;
+    }
+
+    public void setMaxOutboundBytes(long maxOutboundBytes) {
+        this.maxOutboundBytes = maxOutboundBytes;
+    }
+
+    /**
+     * @return how many component sessions can do their handshake at the same time
+     */
+    public int getMaxConcurrentLogins() {
+        return maxConcurrentLogins;
+    }
+
+    public void setMaxConcurrentLogins(int maxConcurrentLogins) {
+        this.maxConcurrentLogins = maxConcurrentLogins;
+    }
+
+    /**
+     * @return how long a handshake can take, from connecting the socket to the answer of the server
+     */
+    public long getLoginTimeoutMillis() {
+        return loginTimeoutMillis;
+    }
+
+    public void setLoginTimeoutMillis(long loginTimeoutMillis) {
+        this.loginTimeoutMillis = loginTimeoutMillis;
+    }
+
+    /**
+     * @return the bound of the random delay before retrying a failed handshake, doubled at each further failure
+     */
+    public long getReconnectBaseDelayMillis() {
+        return reconnectBaseDelayMillis;
+    }
+
+    public void setReconnectBaseDelayMillis(long reconnectBaseDelayMillis) {
+        this.reconnectBaseDelayMillis = reconnectBaseDelayMillis;
+    }
+
+    /**
+     * @return the largest bound of the random delay before retrying a failed handshake
+     */
+    public long getReconnectMaxDelayMillis() {
+        return reconnectMaxDelayMillis;
+    }
+
+    public void setReconnectMaxDelayMillis(long reconnectMaxDelayMillis) {
+        this.reconnectMaxDelayMillis = reconnectMaxDelayMillis;
+    }
+}
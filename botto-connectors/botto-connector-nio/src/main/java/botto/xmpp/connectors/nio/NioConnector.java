@@ -0,0 +1,194 @@
+package botto.xmpp.connectors.nio;
+
+import botto.xmpp.botto.xmpp.connector.*;
+import botto.xmpp.botto.xmpp.connector.channel.Channel;
+import botto.xmpp.botto.xmpp.connector.channel.ChannelEvent;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xmpp.packet.Packet;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * A connector for single-node bots that multiplexes their client sessions on a few I/O threads.
+ *
+ * Each channel is a client session over a non-blocking socket; a fixed number of Reactors drive all sessions.
+ * Logins block a thread until the session is established, so they run on a separate pool of
+ * maxConcurrentLogins threads, paced by a ReconnectScheduler. Where the server allows it, lost sessions are
+ * resumed with XEP-0198 instead of logging in again.
+ */
+public class NioConnector extends Connector<NioConnectorConfiguration, NioChannelConnection> {
+
+    private final Logger Log = LoggerFactory.getLogger(NioConnector.class);
+
+    private final AtomicInteger nextReactor = new AtomicInteger();
+    private final AtomicLong resumed = new AtomicLong();
+    private final AtomicLong resumeFailed = new AtomicLong();
+    private final AtomicLong resumeDropped = new AtomicLong();
+
+    private volatile Reactor[] reactors;
+    private ScheduledExecutorService timer;
+    private ExecutorService loginExecutor;
+    private volatile ReconnectScheduler logins;
+
+    public NioConnector(ConnectorId connectorId, NioConnectorConfiguration configuration) {
+        super(connectorId, configuration);
+        checkNotNull(configuration, "Configuration must not be null");
+        checkArgument(configuration.getIoThreads() > 0, "ioThreads must be positive: %s", configuration.getIoThreads());
+        checkArgument(configuration.getAckRequestInterval() > 0, "ackRequestInterval must be positive: %s", configuration.getAckRequestInterval());
+    }
+
+    @Override
+    public synchronized void doStart() throws ConnectorException {
+        if (reactors != null) {
+            return;
+        }
+        NioConnectorConfiguration configuration = getConfiguration();
+        String id = String.valueOf(getConnectorId().getId());
+        Reactor[] started = new Reactor[configuration.getIoThreads()];
+        try {
+            for (int i = 0; i < started.length; i++) {
+                started[i] = new Reactor("nio-reactor-" + id + "-" + i, configuration.getReadBufferBytes());
+            }
+        }
+        catch (IOException ex) {
+            throw new ConnectorException(ex, "Could not open selectors for connector {0}", getConnectorId());
+        }
+        for (Reactor reactor : started) {
+            reactor.start();
+        }
+        timer = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder().setNameFormat("nio-login-timer-" + id).setDaemon(true).build());
+        loginExecutor = Executors.newFixedThreadPool(configuration.getMaxConcurrentLogins(), new ThreadFactoryBuilder().setNameFormat("nio-login-" + id + "-%d").setDaemon(true).build());
+        logins = new ReconnectScheduler(timer, loginExecutor, configuration.getMaxConcurrentLogins(),
+            configuration.getReconnectBaseDelayMillis(), configuration.getReconnectMaxDelayMillis());
+        reactors = started;
+        Log.info("Started connector {} with {} I/O threads", getConnectorId(), started.length);
+    }
+
+    @Override
+    public synchronized void doStop() throws ConnectorException {
+        if (reactors == null) {
+            return;
+        }
+        // connections keep their reactor: they are closed on it before it stops
+        closeChannels();
+        for (Reactor reactor : reactors) {
+            reactor.stop();
+        }
+        timer.shutdownNow();
+        loginExecutor.shutdownNow();
+        reactors = null;
+    }
+
+    @Override
+    public void doOpenChannel(Channel channel) throws ConnectorException {
+        Reactor[] current = reactors;
+        if (current == null) {
+            throw new ConnectorException("Connector {0} is not started", getConnectorId());
+        }
+        Reactor reactor = current[(nextReactor.getAndIncrement() & Integer.MAX_VALUE) % current.length];
+        NioChannelConnection connection = new NioChannelConnection(this, reactor, channel, getConfiguration());
+        addConnection(channel, connection);
+        setChannelEvent(ChannelEvent.opened(channel));
+        setChannelEvent(ChannelEvent.connecting(channel));
+        logins.submit(connection);
+    }
+
+    @Override
+    public void doCloseChannel(Channel channel) throws ConnectorException {
+        removeConnection(channel).stop();
+    }
+
+    @Override
+    public void doSend(Channel channel, Packet packet) throws ConnectorException {
+        NioChannelConnection connection = getConnection(channel);
+        if (connection == null) {
+            throw new ConnectorException("No connection found for channel {0}", channel);
+        }
+        connection.send(packet);
+    }
+
+    @Override
+    public Map<String, ConnectorGauge> getGauges() {
+        return ImmutableMap.<String, ConnectorGauge>builder()
+            .put("login.ready", new ConnectorGauge() {
+                @Override
+                public long getValue() {
+                    ReconnectScheduler current = logins;
+                    return current == null ? 0 : current.getReadyCount();
+                }
+            })
+            .put("login.running", new ConnectorGauge() {
+                @Override
+                public long getValue() {
+                    ReconnectScheduler current = logins;
+                    return current == null ? 0 : current.getRunningCount();
+                }
+            })
+            .put("login.waiting", new ConnectorGauge() {
+                @Override
+                public long getValue() {
+                    ReconnectScheduler current = logins;
+                    return current == null ? 0 : current.getWaitingCount();
+                }
+            })
+            .put("resume.succeeded", new ConnectorGauge() {
+                @Override
+                public long getValue() {
+                    return resumed.get();
+                }
+            })
+            .put("resume.failed", new ConnectorGauge() {
+                @Override
+                public long getValue() {
+                    return resumeFailed.get();
+                }
+            })
+            .put("resume.dropped", new ConnectorGauge() {
+                @Override
+                public long getValue() {
+                    return resumeDropped.get();
+                }
+            })
+            .build();
+    }
+
+    void channelEvent(ChannelEvent event) {
+        setChannelEvent(event);
+    }
+
+    void sessionResumed(boolean succeeded) {
+        (succeeded ? resumed : resumeFailed).incrementAndGet();
+    }
+
+    // an unacknowledged stanza was dropped from a full stream management buffer, and cannot be sent again on resumption
+    void unackedDropped() {
+        resumeDropped.incrementAndGet();
+    }
+
+    void reconnect(NioChannelConnection connection) {
+        ReconnectScheduler current = logins;
+        if (current != null) {
+            current.submit(connection);
+        }
+    }
+
+    void packetFiltered(NioChannelConnection connection) {
+        filtered(connection);
+    }
+
+    void receiveFromConnection(NioChannelConnection connection, Packet packet) throws ConnectorException {
+        receive(connection, packet);
+    }
+}
@@ -0,0 +1,186 @@
+package botto.xmpp.connectors.nio;
+
+import botto.xmpp.botto.xmpp.connector.ConnectorConfiguration;
+import org.xmpp.packet.JID;
+
+public class NioConnectorConfiguration implements ConnectorConfiguration {
+    private String name;
+    private String host;
+    private int port = 5222;
+    private String secret;
+    private String resource;
+    private int ioThreads = 2;
+    private int readBufferBytes = 64 * 1024;
+    private int maxStanzaBytes = 1024 * 1024;
+    private int sendBufferBytes = 0;
+    private int receiveBufferBytes = 0;
+    private int streamManagementBufferSize = 1000;
+    private int ackRequestInterval = 10;
+    private int maxConcurrentLogins = 16;
+    private long loginTimeoutMillis = 30000;
+    private long reconnectBaseDelayMillis = 1000;
+    private long reconnectMaxDelayMillis = 60000;
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    public String getHost() {
+        return host;
+    }
+
+    public void setHost(String host) {
+        this.host = host;
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    public void setPort(int port) {
+        this.port = port;
+    }
+
+    public String getSecret(JID address) {
+        return secret;
+    }
+
+    public void setSecret(String secret) {
+        this.secret = secret;
+    }
+
+    public String getResource() {
+        return resource;
+    }
+
+    public void setResource(String resource) {
+        this.resource = resource;
+    }
+
+    /**
+     * @return the number of threads doing the I/O of all the sessions of the connector
+     */
+    public int getIoThreads() {
+        return ioThreads;
+    }
+
+    public void setIoThreads(int ioThreads) {
+        this.ioThreads = ioThreads;
+    }
+
+    /**
+     * @return the size of the read buffer of each I/O thread
+     */
+    public int getReadBufferBytes() {
+        return readBufferBytes;
+    }
+
+    public void setReadBufferBytes(int readBufferBytes) {
+        this.readBufferBytes = readBufferBytes;
+    }
+
+    /**
+     * @return the size of the largest element accepted from the server, larger ones close the session
+     */
+    public int getMaxStanzaBytes() {
+        return maxStanzaBytes;
+    }
+
+    public void setMaxStanzaBytes(int maxStanzaBytes) {
+        this.maxStanzaBytes = maxStanzaBytes;
+    }
+
+    /**
+     * @return the size of the socket send buffer of each session, or 0 for the system default
+     */
+    public int getSendBufferBytes() {
+        return sendBufferBytes;
+    }
+
+    public void setSendBufferBytes(int sendBufferBytes) {
+        this.sendBufferBytes = sendBufferBytes;
+    }
+
+    /**
+     * @return the size of the socket receive buffer of each session, or 0 for the system default
+     */
+    public int getReceiveBufferBytes() {
+        return receiveBufferBytes;
+    }
+
+    public void setReceiveBufferBytes(int receiveBufferBytes) {
+        this.receiveBufferBytes = receiveBufferBytes;
+    }
+
+    /**
+     * @return how many stanzas not yet acknowledged by the server are kept to be sent again, when the server
+     * offers stream management; 0 disables stream management
+     */
+    public int getStreamManagementBufferSize() {
+        return streamManagementBufferSize;
+    }
+
+    public void setStreamManagementBufferSize(int streamManagementBufferSize) {
+        this.streamManagementBufferSize = streamManagementBufferSize;
+    }
+
+    /**
+     * @return how many stanzas are sent between two requests of acknowledgement to the server
+     */
+    public int getAckRequestInterval() {
+        return ackRequestInterval;
+    }
+
+    public void setAckRequestInterval(int ackRequestInterval) {
+        this.ackRequestInterval = ackRequestInterval;
+    }
+
+    /**
+     * @return how many sessions can log in at the same time
+     */
+    public int getMaxConcurrentLogins() {
+        return maxConcurrentLogins;
+    }
+
+    public void setMaxConcurrentLogins(int maxConcurrentLogins) {
+        this.maxConcurrentLogins = maxConcurrentLogins;
+    }
+
+    /**
+     * @return how long a login can take, from connecting the socket to binding the resource
+     */
+    public long getLoginTimeoutMillis() {
+        return loginTimeoutMillis;
+    }
+
+    public void setLoginTimeoutMillis(long loginTimeoutMillis) {
+        this.loginTimeoutMillis = loginTimeoutMillis;
+    }
+
+    /**
+     * @return the bound of the random delay before retrying a failed login, doubled at each further failure
+     */
+    public long getReconnectBaseDelayMillis() {
+        return reconnectBaseDelayMillis;
+    }
+
+    public void setReconnectBaseDelayMillis(long reconnectBaseDelayMillis) {
+        this.reconnectBaseDelayMillis = reconnectBaseDelayMillis;
+    }
+
+    /**
+     * @return the largest bound of the random delay before retrying a failed login
+     */
+    public long getReconnectMaxDelayMillis() {
+        return reconnectMaxDelayMillis;
+    }
+
+    public void setReconnectMaxDelayMillis(long reconnectMaxDelayMillis) {
+        this.reconnectMaxDelayMillis = reconnectMaxDelayMillis;
+    }
+}
@@ -0,0 +1,111 @@
+package botto.xmpp.connectors.nio;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bytes waiting to be written to a non-blocking socket, in order.
+ *
+ * Any thread can add without locking; only the reactor thread writes, gathering many buffers in one call,
+ * so packets sent while a write is in progress go out together with the next one.
+ * The queue keeps count of the bytes it holds, so that senders can stop adding when the socket does not keep up.
+ */
+class OutboundQueue {
+
+    private static final int GATHER = 64;
+
+    private final ConcurrentLinkedQueue<ByteBuffer> queue = new ConcurrentLinkedQueue<ByteBuffer>();
+    private final AtomicBoolean flushScheduled = new AtomicBoolean(false);
+    // bytes of the buffers in the queue, including what was already written of the first ones
+    private final AtomicLong bytes = new AtomicLong();
+
+    // only used on the reactor thread
+    private final ByteBuffer[] gather = new ByteBuffer[GATHER];
+
+    /**
+     * @return true if the caller must schedule a flush on the reactor thread
+     */
+    boolean add(ByteBuffer buffer) {
+        bytes.addAndGet(buffer.limit());
+        queue.add(buffer);
+        return flushScheduled.compareAndSet(false, true);
+    }
+
+    /**
+     * Called by a scheduled flush before writing: anything added from now on schedules another one.
+     */
+    void flushStarted() {
+        flushScheduled.set(false);
+    }
+
+    /**
+     * @return true if everything was written, false if the socket could not take it all
+     */
+    boolean flush(SocketChannel socket) throws IOException {
+        while (true) {
+            int count = 0;
+            for (ByteBuffer buffer : queue) {
+                if (count == GATHER) {
+                    break;
+                }
+                gather[count++] = buffer;
+            }
+            if (count == 0) {
+                return true;
+            }
+            try {
+                socket.write(gather, 0, count);
+            }
+            catch (IOException e) {
+                pollWritten(count);
+                throw e;
+            }
+            if (pollWritten(count) < count) {
+                return false;
+            }
+        }
+    }
+
+    // removes the gathered buffers that were written in full, and forgets the gathered ones
+    private int pollWritten(int count) {
+        int written = 0;
+        while (written < count && !gather[written].hasRemaining()) {
+            queue.poll();
+            bytes.addAndGet(-gather[written].limit());
+            written++;
+        }
+        Arrays.fill(gather, 0, count, null);
+        return written;
+    }
+
+    /**
+     * @return the bytes waiting to be written
+     */
+    long getBytes() {
+        return bytes.get();
+    }
+
+    /**
+     * Empties the queue.
+     * @return the stanzas nothing was written of, in order: buffers written in part, and read-only buffers
+     * such as those of stream elements, are left out
+     */
+    List<byte[]> drain() {
+        List<byte[]> unwritten = new ArrayList<byte[]>();
+        ByteBuffer buffer;
+        while ((buffer = queue.poll()) != null) {
+            bytes.addAndGet(-buffer.limit());
+            if (buffer.position() == 0 && buffer.hasArray()) {
+                unwritten.add(buffer.array());
+            }
+        }
+        return unwritten;
+    }
+}
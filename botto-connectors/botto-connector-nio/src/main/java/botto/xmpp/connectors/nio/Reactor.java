@@ -0,0 +1,147 @@
+package botto.xmpp.connectors.nio;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * One I/O thread multiplexing many sessions on a Selector.
+ *
+ * Sessions are registered, written to and closed only on this thread: other threads queue those
+ * operations with {@link #execute(Runnable)}, which wakes up the selector.
+ */
+class Reactor implements Runnable {
+
+    private final static Logger Log = LoggerFactory.getLogger(Reactor.class);
+
+    /**
+     * A session driven by a Reactor. All methods are called on the reactor thread.
+     */
+    interface Session {
+        public void connectable();
+        public void readable(ByteBuffer buffer);
+        public void writable();
+        public void fail(String reason, Throwable cause);
+    }
+
+    private final String name;
+    private final Selector selector;
+    private final ConcurrentLinkedQueue<Runnable> pending = new ConcurrentLinkedQueue<Runnable>();
+    private final ByteBuffer readBuffer;
+
+    private volatile Thread thread;
+    private volatile boolean running = false;
+
+    Reactor(String name, int readBufferSize) throws IOException {
+        this.name = name;
+        this.selector = Selector.open();
+        this.readBuffer = ByteBuffer.allocateDirect(readBufferSize);
+    }
+
+    Selector getSelector() {
+        return selector;
+    }
+
+    void start() {
+        running = true;
+        thread = new Thread(this, name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    void stop() {
+        running = false;
+        selector.wakeup();
+    }
+
+    boolean inReactorThread() {
+        return Thread.currentThread() == thread;
+    }
+
+    /**
+     * Runs the task on the reactor thread: now if already there, else after waking up the selector.
+     */
+    void execute(Runnable task) {
+        if (inReactorThread()) {
+            task.run();
+            return;
+        }
+        pending.add(task);
+        selector.wakeup();
+    }
+
+    @Override
+    public void run() {
+        Log.info("Reactor {} started", name);
+        while (running) {
+            try {
+                selector.select();
+                runPending();
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    handle(key);
+                }
+            }
+            catch (Exception ex) {
+                Log.error("Error in reactor {}", name, ex);
+            }
+        }
+        closeAll();
+        Log.info("Reactor {} stopped", name);
+    }
+
+    private void runPending() {
+        Runnable task;
+        while ((task = pending.poll()) != null) {
+            try {
+                task.run();
+            }
+            catch (Exception ex) {
+                Log.error("Error in reactor {} task", name, ex);
+            }
+        }
+    }
+
+    private void handle(SelectionKey key) {
+        Session session = (Session) key.attachment();
+        try {
+            if (!key.isValid()) {
+                return;
+            }
+            if (key.isConnectable()) {
+                session.connectable();
+            }
+            if (key.isValid() && key.isReadable()) {
+                readBuffer.clear();
+                session.readable(readBuffer);
+            }
+            if (key.isValid() && key.isWritable()) {
+                session.writable();
+            }
+        }
+        catch (Exception ex) {
+            session.fail("I/O error", ex);
+        }
+    }
+
+    private void closeAll() {
+        runPending();
+        for (SelectionKey key : selector.keys()) {
+            ((Session) key.attachment()).fail("Reactor stopped", null);
+        }
+        try {
+            selector.close();
+        }
+        catch (IOException ex) {
+            Log.warn("Error while closing selector of reactor {}", name, ex);
+        }
+    }
+}
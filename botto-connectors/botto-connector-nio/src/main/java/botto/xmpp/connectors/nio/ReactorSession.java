@@ -0,0 +1,257 @@
+package botto.xmpp.connectors.nio;
+
+import botto.xmpp.botto.xmpp.connector.ConnectorException;
+import botto.xmpp.botto.xmpp.connector.ReconnectScheduler;
+import com.google.common.util.concurrent.SettableFuture;
+import org.dom4j.Element;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.InetSocketAddress;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * The lifecycle shared by the XMPP sessions a Reactor drives over a StreamSocket: logins attempted by
+ * the ReconnectScheduler of the connector within a timeout, failures, refusals and stream errors.
+ * Subclasses negotiate the stream and handle the elements the server sends.
+ *
+ * Except for {@link #attempt()} and {@link #stop()}, all methods are called on the thread of the reactor.
+ *
+ * @param <S> the states of the session, among which are its idle, ready and closed states
+ */
+abstract class ReactorSession<S extends Enum<S>> implements StreamSocket.Listener, ReconnectScheduler.Task {
+
+    private final static Logger Log = LoggerFactory.getLogger(ReactorSession.class);
+
+    protected final Reactor reactor;
+    private final StanzaParser parser;
+    private final String name;
+    private final String host;
+    private final int port;
+    private final long loginTimeoutMillis;
+    private final S idleState;
+    private final S readyState;
+    private final S closedState;
+
+    // replaced on the reactor thread, written to from any thread
+    protected volatile StreamSocket socket;
+
+    // only used on the reactor thread
+    protected SettableFuture<Boolean> login;
+
+    protected volatile S state;
+    protected volatile long lastActivity = 0;
+    protected volatile boolean stopped = false;
+
+    /**
+     * @param name how the session is called in logs and errors
+     */
+    ReactorSession(Reactor reactor, StanzaParser parser, String name, String host, int port, long loginTimeoutMillis,
+                   S idleState, S readyState, S closedState) {
+        this.reactor = reactor;
+        this.parser = parser;
+        this.name = name;
+        this.host = host;
+        this.port = port;
+        this.loginTimeoutMillis = loginTimeoutMillis;
+        this.idleState = idleState;
+        this.readyState = readyState;
+        this.closedState = closedState;
+        this.state = idleState;
+    }
+
+    S getState() {
+        return state;
+    }
+
+    boolean isReady() {
+        return state == readyState;
+    }
+
+    void stop() {
+        stopped = true;
+        reactor.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (state == readyState) {
+                    socket.write("</stream:stream>");
+                }
+                fail("Stop requested", null);
+            }
+        });
+    }
+
+    /**
+     * Connects and logs in, waiting for the outcome on the calling thread.
+     * @return true when logged in, or when the server refused the credentials
+     */
+    @Override
+    public boolean attempt() {
+        if (stopped) {
+            return true;
+        }
+        final SettableFuture<Boolean> outcome = SettableFuture.create();
+        final InetSocketAddress address = new InetSocketAddress(host, port);
+        reactor.execute(new Runnable() {
+            @Override
+            public void run() {
+                open(address, outcome);
+            }
+        });
+        try {
+            loginCompleted(outcome.get(loginTimeoutMillis, TimeUnit.MILLISECONDS));
+            return true;
+        }
+        catch (ExecutionException ex) {
+            Log.warn("Could not connect {} to {}:{}: {}", name, host, port, ex.getCause().getMessage());
+            return false;
+        }
+        catch (TimeoutException ex) {
+            Log.warn("Login of {} to {}:{} timed out", name, host, port);
+            abort("Login timed out");
+            return false;
+        }
+        catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            abort("Login interrupted");
+            return true;
+        }
+    }
+
+    @Override
+    public long getLastActivity() {
+        return lastActivity;
+    }
+
+    @Override
+    public void socketClosed(StreamSocket closed, String reason, Throwable cause) {
+        if (closed == socket) {
+            fail(reason, cause);
+        }
+    }
+
+    @Override
+    public void element(String xml) throws ConnectorException {
+        if (socket.isClosed()) {
+            return;
+        }
+        if (state == readyState && unparsed(xml)) {
+            return;
+        }
+        Element element = parser.parse(xml);
+        if ("error".equals(element.getName()) && StanzaParser.STREAM_NAMESPACE.equals(element.getNamespaceURI())) {
+            Element condition = element.elements().isEmpty() ? null : (Element) element.elements().get(0);
+            String conditionName = condition == null ? "" : condition.getName();
+            if (isRefusal(conditionName)) {
+                reject("Stream error " + conditionName);
+            }
+            else {
+                fail("Stream error " + conditionName, null);
+            }
+            return;
+        }
+        element(element);
+    }
+
+    @Override
+    public void streamClosed() {
+        fail("Stream closed by server", null);
+    }
+
+    /**
+     * Resets what the session negotiated for a new login, and moves it to its connecting state.
+     * @return the socket to connect
+     */
+    protected abstract StreamSocket newAttempt();
+
+    /**
+     * Called on the login thread once the login completed.
+     * @param succeeded false when the server refused the credentials
+     */
+    protected abstract void loginCompleted(boolean succeeded);
+
+    /**
+     * Handles an element of the stream, other than a stream error.
+     */
+    protected abstract void element(Element element);
+
+    /**
+     * Called once the session is closed by a failure.
+     * @param lost true when the session was established and not stopped: it is time to reconnect
+     */
+    protected abstract void failed(boolean lost, String reason, Throwable cause);
+
+    /**
+     * Delivers a stanza of the established session without parsing it, when it can.
+     * @return true if the stanza was handled
+     */
+    protected boolean unparsed(String xml) {
+        return false;
+    }
+
+    /**
+     * @return true if the stream error means the server refused the credentials
+     */
+    protected boolean isRefusal(String condition) {
+        return false;
+    }
+
+    /**
+     * Called when the server refused the credentials, before the login completes.
+     */
+    protected void refused() {
+    }
+
+    /**
+     * Closes the session and fails the login in progress, if any.
+     */
+    protected final void fail(String reason, Throwable cause) {
+        S previous = state;
+        if (previous == idleState || previous == closedState) {
+            return;
+        }
+        close();
+        if (login != null && !login.isDone()) {
+            login.setException(cause == null
+                ? new ConnectorException("{0}: {1}", reason, name)
+                : new ConnectorException(cause, "{0}: {1}", reason, name));
+        }
+        failed(previous == readyState && !stopped, reason, cause);
+    }
+
+    // the server refused to log in: not worth retrying
+    protected final void reject(String reason) {
+        Log.error("Login of {} refused: {}", name, reason);
+        close();
+        refused();
+        login.set(false);
+    }
+
+    private void abort(final String reason) {
+        reactor.execute(new Runnable() {
+            @Override
+            public void run() {
+                fail(reason, null);
+            }
+        });
+    }
+
+    private void open(InetSocketAddress address, SettableFuture<Boolean> outcome) {
+        if (stopped || state != idleState && state != closedState) {
+            outcome.setException(new ConnectorException("Not connecting {0}: session is {1}", name, stopped ? "stopped" : state));
+            return;
+        }
+        login = outcome;
+        socket = newAttempt();
+        socket.open(address);
+    }
+
+    private void close() {
+        state = closedState;
+        if (socket != null) {
+            socket.close();
+        }
+    }
+}
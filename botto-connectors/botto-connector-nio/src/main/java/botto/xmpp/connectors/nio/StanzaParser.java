@@ -0,0 +1,56 @@
+package botto.xmpp.connectors.nio;
+
+import botto.xmpp.botto.xmpp.connector.ConnectorException;
+import botto.xmpp.botto.xmpp.connector.stanza.XmlCodec;
+import org.dom4j.DocumentException;
+import org.dom4j.Element;
+import org.xmpp.packet.IQ;
+import org.xmpp.packet.Message;
+import org.xmpp.packet.Packet;
+import org.xmpp.packet.Presence;
+
+/**
+ * Parses the top-level elements found by a StanzaSplitter.
+ *
+ * An element alone lacks the namespace declarations of the stream, so it is parsed inside a stream header.
+ * Stanzas that can be delivered to bots without a DOM are not parsed here, but wrapped in a RawStanza.
+ */
+class StanzaParser {
+
+    static final String STREAM_NAMESPACE = "http://etherx.jabber.org/streams";
+
+    private final String namespace;
+
+    /**
+     * @param namespace the default namespace of the stream, as jabber:client
+     */
+    StanzaParser(String namespace) {
+        this.namespace = namespace;
+    }
+
+    Element parse(String xml) throws ConnectorException {
+        try {
+            return XmlCodec.readStanza(xml, namespace);
+        }
+        catch (DocumentException e) {
+            throw new ConnectorException(e, "Could not parse element {0}", xml);
+        }
+    }
+
+    /**
+     * @return the stanza, or null if the element is not a message, presence or iq
+     */
+    static Packet toPacket(Element element) {
+        String name = element.getName();
+        if ("message".equals(name)) {
+            return new Message(element, true);
+        }
+        else if ("presence".equals(name)) {
+            return new Presence(element, true);
+        }
+        else if ("iq".equals(name)) {
+            return new IQ(element, true);
+        }
+        return null;
+    }
+}
@@ -0,0 +1,233 @@
+package botto.xmpp.connectors.nio;
+
+import botto.xmpp.botto.xmpp.connector.ConnectorException;
+import com.google.common.base.Charsets;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Splits an XMPP stream into its top-level elements as bytes arrive, without blocking.
+ *
+ * Only the markup is scanned here, so elements are handed over as complete strings to be parsed.
+ * Bytes of multi-byte UTF-8 sequences are never ASCII, so the stream is scanned without decoding it
+ * and a read may end anywhere, even in the middle of a character.
+ */
+class StanzaSplitter {
+
+    interface Handler {
+        /**
+         * @param header the opening tag of the stream
+         */
+        public void streamOpened(String header) throws ConnectorException;
+
+        /**
+         * @param xml a complete top-level element: a stanza, or stream features, errors and negotiation elements
+         */
+        public void element(String xml) throws ConnectorException;
+
+        public void streamClosed() throws ConnectorException;
+    }
+
+    private final int maxElementBytes;
+
+    private byte[] buffer = new byte[4096];
+    private int length = 0;
+    private int pos = 0;
+
+    // 0 before the stream header, 1 between top-level elements, 2 or more inside one
+    private int depth = 0;
+    private int elementStart = -1;
+
+    StanzaSplitter(int maxElementBytes) {
+        this.maxElementBytes = maxElementBytes;
+    }
+
+    /**
+     * Expects a new stream header, as after SASL negotiation. Bytes not consumed yet are kept.
+     */
+    void reset() {
+        depth = 0;
+        elementStart = -1;
+    }
+
+    void feed(ByteBuffer bytes, Handler handler) throws ConnectorException {
+        append(bytes);
+        while (pos < length) {
+            int tagStart = indexOf((byte) '<', pos);
+            if (tagStart < 0) {
+                pos = length;
+                break;
+            }
+            if (tagStart + 1 >= length) {
+                pos = tagStart;
+                break;
+            }
+            int tagEnd;
+            byte next = buffer[tagStart + 1];
+            if (next == '?') {
+                tagEnd = indexOf("?>", tagStart + 2);
+            }
+            else if (next == '!') {
+                if (startsWith("<!--", tagStart)) {
+                    tagEnd = indexOf("-->", tagStart + 4);
+                }
+                else if (startsWith("<![CDATA[", tagStart)) {
+                    tagEnd = indexOf("]]>", tagStart + 9);
+                }
+                else if (length - tagStart < 9) {
+                    tagEnd = -1;
+                }
+                else {
+                    throw new ConnectorException("Markup not allowed in XMPP streams: {0}", decode(tagStart, Math.min(length, tagStart + 16)));
+                }
+            }
+            else if (next == '/') {
+                tagEnd = indexOf((byte) '>', tagStart + 2);
+                if (tagEnd >= 0) {
+                    pos = tagEnd + 1;
+                    endTag(handler);
+                    continue;
+                }
+            }
+            else {
+                tagEnd = startTagEnd(tagStart + 1);
+                if (tagEnd >= 0) {
+                    pos = tagEnd + 1;
+                    startTag(tagStart, buffer[tagEnd - 1] == '/', handler);
+                    continue;
+                }
+            }
+            if (tagEnd < 0) {
+                pos = tagStart;
+                break;
+            }
+            // processing instructions, comments and CDATA sections stay in the element they are part of
+            pos = tagEnd + 1;
+        }
+        compact();
+        int pending = elementStart >= 0 ? length - elementStart : length - pos;
+        if (pending > maxElementBytes) {
+            throw new ConnectorException("Element exceeds {0} bytes", maxElementBytes);
+        }
+    }
+
+    private void startTag(int tagStart, boolean selfClosing, Handler handler) throws ConnectorException {
+        if (depth == 0) {
+            depth = 1;
+            handler.streamOpened(decode(tagStart, pos));
+        }
+        else if (depth == 1) {
+            if (selfClosing) {
+                handler.element(decode(tagStart, pos));
+            }
+            else {
+                elementStart = tagStart;
+                depth = 2;
+            }
+        }
+        else if (!selfClosing) {
+            depth++;
+        }
+    }
+
+    private void endTag(Handler handler) throws ConnectorException {
+        if (depth == 1) {
+            depth = 0;
+            handler.streamClosed();
+        }
+        else if (depth == 2) {
+            int start = elementStart;
+            elementStart = -1;
+            depth = 1;
+            handler.element(decode(start, pos));
+        }
+        else if (depth > 2) {
+            depth--;
+        }
+        else {
+            throw new ConnectorException("End tag outside of the stream");
+        }
+    }
+
+    // index of the '>' closing a start tag, skipping quoted attribute values
+    private int startTagEnd(int from) {
+        byte quote = 0;
+        for (int i = from; i < length; i++) {
+            byte b = buffer[i];
+            if (quote != 0) {
+                if (b == quote) {
+                    quote = 0;
+                }
+            }
+            else if (b == '"' || b == '\'') {
+                quote = b;
+            }
+            else if (b == '>') {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private int indexOf(byte b, int from) {
+        for (int i = from; i < length; i++) {
+            if (buffer[i] == b) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    // index of the last byte of the match
+    private int indexOf(String ascii, int from) {
+        int last = length - ascii.length();
+        for (int i = from; i <= last; i++) {
+            if (startsWith(ascii, i)) {
+                return i + ascii.length() - 1;
+            }
+        }
+        return -1;
+    }
+
+    private boolean startsWith(String ascii, int at) {
+        if (at + ascii.length() > length) {
+            return false;
+        }
+        for (int i = 0; i < ascii.length(); i++) {
+            if (buffer[at + i] != ascii.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private String decode(int start, int end) {
+        return new String(buffer, start, end - start, Charsets.UTF_8);
+    }
+
+    private void append(ByteBuffer bytes) {
+        int needed = length + bytes.remaining();
+        if (needed > buffer.length) {
+            byte[] grown = new byte[Math.max(needed, buffer.length * 2)];
+            System.arraycopy(buffer, 0, grown, 0, length);
+            buffer = grown;
+        }
+        int count = bytes.remaining();
+        bytes.get(buffer, length, count);
+        length += count;
+    }
+
+    // drops the bytes that are not part of a pending element, once per read
+    private void compact() {
+        int keep = elementStart >= 0 ? elementStart : pos;
+        if (keep == 0) {
+            return;
+        }
+        System.arraycopy(buffer, keep, buffer, 0, length - keep);
+        length -= keep;
+        pos -= keep;
+        if (elementStart >= 0) {
+            elementStart = 0;
+        }
+    }
+}
@@ -0,0 +1,150 @@
+package botto.xmpp.connectors.nio;
+
+import com.google.common.collect.ImmutableList;
+
+import java.util.ArrayDeque;
+import java.util.List;
+
+/**
+ * The XEP-0198 state of a client session: the stanzas sent but not yet acknowledged by the server,
+ * the count of stanzas handled from the server, and what is needed to resume the session on a new stream.
+ *
+ * Unacknowledged stanzas are kept in a buffer of bounded size; when it is full the oldest ones are dropped,
+ * and can no longer be retransmitted. Counts wrap at 2^32 as the protocol wants.
+ */
+class StreamManagement {
+
+    static final String NAMESPACE = "urn:xmpp:sm:3";
+
+    private static final long MASK = 0xFFFFFFFFL;
+
+    private final int bufferSize;
+    private final int ackRequestInterval;
+
+    // guarded by this, sending can happen on any thread
+    private final ArrayDeque<String> unacked = new ArrayDeque<String>();
+    private boolean enabled = false;
+    private String id;
+    private boolean resumable = false;
+    private long sent = 0;
+    private long handled = 0;
+    private long dropped = 0;
+
+    /**
+     * @param bufferSize how many unacknowledged stanzas are kept for retransmission
+     * @param ackRequestInterval how many stanzas are sent between two requests of acknowledgement
+     */
+    StreamManagement(int bufferSize, int ackRequestInterval) {
+        this.bufferSize = bufferSize;
+        this.ackRequestInterval = ackRequestInterval;
+    }
+
+    /**
+     * The server enabled stream management on the stream: counting starts from zero.
+     */
+    synchronized void enabled(String id, boolean resumable) {
+        this.enabled = true;
+        this.id = id;
+        this.resumable = resumable && id != null;
+        this.sent = 0;
+        this.handled = 0;
+        this.unacked.clear();
+    }
+
+    synchronized boolean canResume() {
+        return resumable;
+    }
+
+    synchronized String getId() {
+        return id;
+    }
+
+    /**
+     * Records a stanza about to be written. The caller must write it under the lock of this object,
+     * so that the order of counting is the order on the stream.
+     * @return true if an acknowledgement should be requested after the stanza
+     */
+    synchronized boolean sending(String xml) {
+        if (!enabled) {
+            return false;
+        }
+        if (unacked.size() == bufferSize) {
+            unacked.removeFirst();
+            dropped++;
+        }
+        unacked.addLast(xml);
+        sent++;
+        return sent % ackRequestInterval == 0;
+    }
+
+    /**
+     * The server handled h stanzas since stream management was enabled: they are no longer kept.
+     */
+    synchronized void acknowledged(long h) {
+        long serverCount = sent - ((sent - h) & MASK);
+        long pending = sent - serverCount;
+        while (unacked.size() > pending && !unacked.isEmpty()) {
+            unacked.removeFirst();
+        }
+    }
+
+    /**
+     * The server resumed the session having handled h stanzas.
+     * @return the stanzas to retransmit, oldest first; they stay unacknowledged until the server says otherwise
+     */
+    synchronized List<String> resumed(long h) {
+        acknowledged(h);
+        enabled = true;
+        return ImmutableList.copyOf(unacked);
+    }
+
+    /**
+     * The session cannot be resumed and a new one is starting: forgets it all.
+     * @return the stanzas that were not acknowledged, to send again on the new session
+     */
+    synchronized List<String> reset() {
+        List<String> pending = ImmutableList.copyOf(unacked);
+        unacked.clear();
+        enabled = false;
+        id = null;
+        resumable = false;
+        sent = 0;
+        handled = 0;
+        return pending;
+    }
+
+    synchronized boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * @return true if sending a stanza now would drop the oldest unacknowledged one
+     */
+    synchronized boolean isFull() {
+        return enabled && unacked.size() == bufferSize;
+    }
+
+    synchronized int getUnackedCount() {
+        return unacked.size();
+    }
+
+    /**
+     * @return how many unacknowledged stanzas were dropped from a full buffer
+     */
+    synchronized long getDroppedCount() {
+        return dropped;
+    }
+
+    /**
+     * Counts a stanza received from the server, if stream management is enabled.
+     */
+    synchronized void handled() {
+        if (enabled) {
+            handled++;
+        }
+    }
+
+    synchronized long getHandled() {
+        return handled & MASK;
+    }
+}
@@ -0,0 +1,249 @@
+package botto.xmpp.connectors.nio;
+
+import botto.xmpp.botto.xmpp.connector.ConnectorException;
+import com.google.common.base.Charsets;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The non-blocking socket of one XMPP stream: connects, splits what it reads into elements and writes
+ * what is queued. A new StreamSocket is used for each connection attempt.
+ *
+ * Except for {@link #write(String)}, all methods must be called on the thread of the reactor.
+ */
+class StreamSocket implements Reactor.Session {
+
+    private final static Logger Log = LoggerFactory.getLogger(StreamSocket.class);
+
+    interface Listener extends StanzaSplitter.Handler {
+        /**
+         * The socket is connected: time to open the stream.
+         */
+        public void socketConnected(StreamSocket socket);
+
+        /**
+         * The socket failed or was closed by the server. Not called when closed by {@link #close()}.
+         */
+        public void socketClosed(StreamSocket socket, String reason, Throwable cause);
+    }
+
+    private final Reactor reactor;
+    private final Listener listener;
+    private final StanzaSplitter splitter;
+    private final int sendBufferBytes;
+    private final int receiveBufferBytes;
+
+    private final OutboundQueue outbound = new OutboundQueue();
+    private final Runnable flushTask = new Runnable() {
+        @Override
+        public void run() {
+            outbound.flushStarted();
+            try {
+                flush();
+            }
+            catch (IOException ex) {
+                fail("Write failed", ex);
+            }
+        }
+    };
+
+    private SocketChannel socket;
+    private SelectionKey key;
+    private boolean closed = false;
+    // set by close() before it drains the queue, read by writers on other threads
+    private volatile boolean draining = false;
+    // the stanzas left in the queue when the socket was closed
+    private List<byte[]> unwritten = Collections.emptyList();
+
+    /**
+     * @param sendBufferBytes the size of the socket send buffer, or 0 for the system default
+     * @param receiveBufferBytes the size of the socket receive buffer, or 0 for the system default
+     */
+    StreamSocket(Reactor reactor, Listener listener, int maxStanzaBytes, int sendBufferBytes, int receiveBufferBytes) {
+        this.reactor = reactor;
+        this.listener = listener;
+        this.splitter = new StanzaSplitter(maxStanzaBytes);
+        this.sendBufferBytes = sendBufferBytes;
+        this.receiveBufferBytes = receiveBufferBytes;
+    }
+
+    void open(InetSocketAddress address) {
+        try {
+            socket = SocketChannel.open();
+            socket.configureBlocking(false);
+            socket.socket().setTcpNoDelay(true);
+            if (sendBufferBytes > 0) {
+                socket.socket().setSendBufferSize(sendBufferBytes);
+            }
+            if (receiveBufferBytes > 0) {
+                socket.socket().setReceiveBufferSize(receiveBufferBytes);
+            }
+            if (socket.connect(address)) {
+                key = socket.register(reactor.getSelector(), SelectionKey.OP_READ, this);
+                listener.socketConnected(this);
+            }
+            else {
+                key = socket.register(reactor.getSelector(), SelectionKey.OP_CONNECT, this);
+            }
+        }
+        catch (IOException ex) {
+            fail("Could not connect", ex);
+        }
+    }
+
+    /**
+     * Queues the xml of a stream element and makes sure it is written. Can be called from any thread.
+     * Unlike stanzas, stream elements are not handed back by takeUnwritten().
+     */
+    void write(String xml) {
+        write(ByteBuffer.wrap(xml.getBytes(Charsets.UTF_8)).asReadOnlyBuffer());
+    }
+
+    /**
+     * Queues a stanza already encoded in UTF-8, which may be shared but is not changed.
+     * @return the stanzas taken back from the queue because the socket was closed meanwhile, this one
+     * among them unless close() got it for takeUnwritten(); empty as long as the socket is open
+     */
+    List<byte[]> write(byte[] utf8) {
+        write(ByteBuffer.wrap(utf8));
+        // whatever got in after close() drained the queue would never be written nor handed back
+        return draining ? outbound.drain() : Collections.<byte[]>emptyList();
+    }
+
+    private void write(ByteBuffer buffer) {
+        if (outbound.add(buffer)) {
+            reactor.execute(flushTask);
+        }
+    }
+
+    /**
+     * Expects a new stream header from the server, as after a handshake that restarts the stream.
+     */
+    void resetStream() {
+        splitter.reset();
+    }
+
+    /**
+     * @return the bytes queued and not written yet
+     */
+    long getQueuedBytes() {
+        return outbound.getBytes();
+    }
+
+    boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * @return the stanzas written with write(byte[]) that were still queued, untouched, when the socket closed;
+     * an empty list the second time
+     */
+    List<byte[]> takeUnwritten() {
+        List<byte[]> taken = unwritten;
+        unwritten = Collections.emptyList();
+        return taken;
+    }
+
+    /**
+     * Writes what it can of the queue and closes the socket. What is left is kept for takeUnwritten().
+     */
+    void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        if (key != null) {
+            key.cancel();
+        }
+        if (socket != null) {
+            try {
+                if (socket.isConnected()) {
+                    outbound.flush(socket);
+                }
+            }
+            catch (IOException ex) {
+                // closing anyway
+            }
+            try {
+                socket.close();
+            }
+            catch (IOException ex) {
+                Log.debug("Error while closing socket", ex);
+            }
+        }
+        // from now on, writers take back what they queue: each stanza is polled by them or by this drain, never both
+        draining = true;
+        unwritten = outbound.drain();
+    }
+
+    @Override
+    public void connectable() {
+        try {
+            socket.finishConnect();
+        }
+        catch (IOException ex) {
+            fail("Could not connect", ex);
+            return;
+        }
+        key.interestOps(SelectionKey.OP_READ);
+        listener.socketConnected(this);
+    }
+
+    @Override
+    public void readable(ByteBuffer buffer) {
+        int read;
+        try {
+            read = socket.read(buffer);
+        }
+        catch (IOException ex) {
+            fail("Read failed", ex);
+            return;
+        }
+        if (read < 0) {
+            fail("Connection closed by server", null);
+            return;
+        }
+        buffer.flip();
+        try {
+            splitter.feed(buffer, listener);
+        }
+        catch (ConnectorException ex) {
+            fail("Invalid stream", ex);
+        }
+    }
+
+    @Override
+    public void writable() {
+        try {
+            flush();
+        }
+        catch (IOException ex) {
+            fail("Write failed", ex);
+        }
+    }
+
+    @Override
+    public void fail(String reason, Throwable cause) {
+        if (closed) {
+            return;
+        }
+        close();
+        listener.socketClosed(this, reason, cause);
+    }
+
+    // only writes once connected, any leftover waits for the socket to be writable
+    private void flush() throws IOException {
+        if (closed || key == null || !socket.isConnected()) {
+            return;
+        }
+        key.interestOps(outbound.flush(socket) ? SelectionKey.OP_READ : SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+    }
+}
@@ -0,0 +1,431 @@
+package botto.xmpp.connectors.nio;
+
+import botto.xmpp.botto.xmpp.connector.ConnectorException;
+import botto.xmpp.botto.xmpp.connector.ConnectorId;
+import botto.xmpp.botto.xmpp.connector.channel.Channel;
+import botto.xmpp.botto.xmpp.connector.channel.ChannelEvent;
+import botto.xmpp.botto.xmpp.connector.channel.ChannelListener;
+import botto.xmpp.botto.xmpp.connector.channel.ChannelStatus;
+import botto.xmpp.botto.xmpp.connector.channel.IngressFilter;
+import botto.xmpp.botto.xmpp.connector.stanza.LazyMessage;
+import org.dom4j.Element;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.xmpp.packet.IQ;
+import org.xmpp.packet.JID;
+import org.xmpp.packet.Message;
+import org.xmpp.packet.Packet;
+
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.*;
+
+import static org.junit.Assert.*;
+
+public class NioComponentConnectorTest {
+
+    private static final String DOMAIN = "bots.example.com";
+
+    private StandInComponentServer server;
+    private NioComponentConnector connector;
+    private RecordingListener listener;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new StandInComponentServer("secret");
+        connector = createConnector("secret", 1);
+        listener = new RecordingListener();
+        connector.addChannelListener(listener);
+        connector.start();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        connector.stop();
+        server.close();
+    }
+
+    @Test
+    public void should_share_one_session_and_route_stanzas() throws Exception {
+        Channel bot = open(new JID("bot", DOMAIN, null));
+        Channel domain = open(new JID(null, DOMAIN, null));
+        assertTrue(listener.awaitStatus(bot, ChannelStatus.Connected));
+        assertTrue(listener.awaitStatus(domain, ChannelStatus.Connected));
+        assertEquals(1, server.connections.get());
+
+        server.send(DOMAIN, "<message to='bot@" + DOMAIN + "/x' from='user@example.com'><body>to bot</body></message>");
+        server.send(DOMAIN, "<message to='other@" + DOMAIN + "' from='user@example.com'><body>to other</body></message>");
+
+        assertEquals(bot, listener.channels.poll(5, TimeUnit.SECONDS));
+        Packet toBot = listener.packets.poll(5, TimeUnit.SECONDS);
+        assertEquals("to bot", ((Message) toBot).getBody());
+        assertFalse(((LazyMessage) toBot).isParsed());
+        assertEquals(domain, listener.channels.poll(5, TimeUnit.SECONDS));
+        assertEquals("to other", ((Message) listener.packets.poll(5, TimeUnit.SECONDS)).getBody());
+
+        Message reply = new Message();
+        reply.setTo(new JID("user@example.com"));
+        reply.setBody("hello");
+        connector.send(bot, reply);
+
+        Element received = server.received.poll(5, TimeUnit.SECONDS);
+        assertNotNull(received);
+        assertEquals("bot@" + DOMAIN, received.attributeValue("from"));
+        assertNotNull(received.attributeValue("id"));
+        assertEquals("hello", received.elementText("body"));
+    }
+
+    @Test
+    public void should_connect_channels_opened_on_an_established_session() throws Exception {
+        Channel first = open(new JID("first", DOMAIN, null));
+        assertTrue(listener.awaitStatus(first, ChannelStatus.Connected));
+
+        Channel second = open(new JID("second", DOMAIN, null));
+        assertEquals(ChannelStatus.Connected, listener.latest.get(second));
+        assertEquals(1, server.handshakes.get());
+    }
+
+    @Test
+    public void should_not_retry_a_refused_secret() throws Exception {
+        connector.stop();
+        connector = createConnector("wrong", 1);
+        connector.addChannelListener(listener);
+        connector.start();
+
+        Channel channel = open(new JID("bot", DOMAIN, null));
+        assertTrue(listener.awaitStatus(channel, ChannelStatus.Disconnected));
+        Thread.sleep(200);
+        assertEquals(1, server.failedHandshakes.get());
+        assertEquals(0, server.handshakes.get());
+    }
+
+    @Test(expected = ConnectorException.class)
+    public void should_refuse_addresses_outside_the_domain() throws Exception {
+        connector.openChannel(new JID("bot", "elsewhere.org", null));
+    }
+
+    @Test
+    public void should_reconnect_when_session_is_lost() throws Exception {
+        Channel channel = open(new JID("bot", DOMAIN, null));
+        assertTrue(listener.awaitStatus(channel, ChannelStatus.Connected));
+        assertTrue(server.awaitSession(DOMAIN, 5000));
+
+        listener.latest.clear();
+        server.kick(DOMAIN);
+
+        assertTrue(listener.awaitStatus(channel, ChannelStatus.Connected));
+        assertTrue(server.awaitSession(DOMAIN, 5000));
+        assertEquals(2, server.handshakes.get());
+    }
+
+    @Test
+    public void should_keep_concurrent_sends_intact() throws Exception {
+        final Channel channel = open(new JID("bot", DOMAIN, null));
+        assertTrue(listener.awaitStatus(channel, ChannelStatus.Connected));
+
+        final int threads = 8;
+        final int perThread = 500;
+        ExecutorService senders = Executors.newFixedThreadPool(threads);
+        final CountDownLatch start = new CountDownLatch(1);
+        for (int t = 0; t < threads; t++) {
+            final int thread = t;
+            senders.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                        for (int i = 0; i < perThread; i++) {
+                            Message message = new Message();
+                            message.setTo(new JID("user@example.com"));
+                            message.setBody(thread + ":" + i);
+                            connector.send(channel, message);
+                        }
+                    }
+                    catch (Exception ex) {
+                        throw new RuntimeException(ex);
+                    }
+                }
+            });
+        }
+        start.countDown();
+        senders.shutdown();
+        assertTrue(senders.awaitTermination(10, TimeUnit.SECONDS));
+
+        Set<String> bodies = new HashSet<String>();
+        int[] next = new int[threads];
+        for (int i = 0; i < threads * perThread; i++) {
+            Element received = server.received.poll(10, TimeUnit.SECONDS);
+            assertNotNull("missing message " + i, received);
+            String body = received.elementText("body");
+            assertTrue(bodies.add(body));
+            // each sender's messages arrive in the order it sent them
+            String[] parts = body.split(":");
+            int thread = Integer.parseInt(parts[0]);
+            assertEquals(next[thread]++, Integer.parseInt(parts[1]));
+        }
+    }
+
+    @Test
+    public void should_spread_channels_over_sessions_keeping_each_on_one() throws Exception {
+        restart(3);
+        int bots = 30;
+        for (int i = 0; i < bots; i++) {
+            assertTrue(listener.awaitStatus(open(new JID("bot" + i, DOMAIN, null)), ChannelStatus.Connected));
+        }
+        assertTrue(server.awaitSessions(DOMAIN, 3, 5000));
+        assertTrue(awaitSessionGauge(3));
+
+        for (int n = 0; n < 10; n++) {
+            for (int i = 0; i < bots; i++) {
+                connector.send(Channel.from(connector.getConnectorId(), new JID("bot" + i, DOMAIN, null)), message("user@example.com", "" + n));
+            }
+        }
+        for (int i = 0; i < bots * 10; i++) {
+            assertNotNull(server.received.poll(5, TimeUnit.SECONDS));
+        }
+
+        Set<String> streams = new HashSet<String>();
+        for (Map.Entry<String, Set<String>> sender : server.streamsBySender.entrySet()) {
+            assertEquals(sender.getKey() + " used several sessions", 1, sender.getValue().size());
+            streams.addAll(sender.getValue());
+        }
+        assertEquals(bots, server.streamsBySender.size());
+        assertEquals(3, streams.size());
+    }
+
+    @Test
+    public void should_fail_over_when_one_session_is_lost() throws Exception {
+        restart(2);
+        int bots = 10;
+        for (int i = 0; i < bots; i++) {
+            assertTrue(listener.awaitStatus(open(new JID("bot" + i, DOMAIN, null)), ChannelStatus.Connected));
+        }
+        assertTrue(server.awaitSessions(DOMAIN, 2, 5000));
+        assertTrue(awaitSessionGauge(2));
+
+        listener.history.clear();
+        server.setAccepting(false);
+        server.kick(DOMAIN);
+        assertTrue(awaitSessionGauge(1));
+
+        for (int i = 0; i < bots; i++) {
+            connector.send(Channel.from(connector.getConnectorId(), new JID("bot" + i, DOMAIN, null)), message("user@example.com", "after"));
+        }
+        for (int i = 0; i < bots; i++) {
+            assertNotNull(server.received.poll(5, TimeUnit.SECONDS));
+        }
+        server.setAccepting(true);
+        assertTrue(awaitSessionGauge(2));
+        // the other session carried the channels: none was disconnected
+        assertFalse(listener.history.contains(ChannelStatus.Disconnected));
+    }
+
+    @Test
+    public void should_drop_what_the_ingress_filter_refuses() throws Exception {
+        Channel bot = open(new JID("bot", DOMAIN, null));
+        assertTrue(listener.awaitStatus(bot, ChannelStatus.Connected));
+        connector.setIngressFilter(bot, IngressFilter.of(IQ.class, "jabber:iq:version"));
+
+        String to = "bot@" + DOMAIN;
+        server.send(DOMAIN, "<message to='" + to + "' from='user@example.com'><body>dropped</body></message>");
+        server.send(DOMAIN, "<presence to='" + to + "' from='user@example.com'/>");
+        server.send(DOMAIN, "<iq type='get' id='1' to='" + to + "' from='user@example.com'><query xmlns='jabber:iq:roster'/></iq>");
+        server.send(DOMAIN, "<iq type='get' id='2' to='" + to + "' from='user@example.com'><query xmlns='jabber:iq:version'/></iq>");
+
+        IQ received = (IQ) listener.packets.poll(5, TimeUnit.SECONDS);
+        assertEquals("2", received.getID());
+        assertNull(listener.packets.poll(100, TimeUnit.MILLISECONDS));
+        assertEquals(3, connector.getFilteredCount());
+    }
+
+    @Test
+    public void should_refuse_sends_past_the_outbound_limit() throws Exception {
+        connector.stop();
+        connector = createConnector("secret", 1, 64 * 1024);
+        connector.addChannelListener(listener);
+        connector.start();
+
+        Channel bot = open(new JID("bot", DOMAIN, null));
+        assertTrue(listener.awaitStatus(bot, ChannelStatus.Connected));
+        assertTrue(server.awaitSession(DOMAIN, 5000));
+        server.setReading(false);
+
+        StringBuilder body = new StringBuilder();
+        for (int i = 0; i < 1024; i++) {
+            body.append('x');
+        }
+        int sent = sendUntilRefused(bot, body.toString());
+        // once the reactor filled the socket buffers, what it could not write stays queued
+        Thread.sleep(50);
+        sent += sendUntilRefused(bot, body.toString());
+        long queued = connector.getGauges().get("outbound.bytes").getValue();
+        assertTrue(queued > 0 && queued <= 64 * 1024);
+
+        server.setReading(true);
+        for (int i = 0; i < sent; i++) {
+            assertNotNull(server.received.poll(5, TimeUnit.SECONDS));
+        }
+        assertEquals(0, connector.getGauges().get("outbound.bytes").getValue());
+    }
+
+    @Test
+    public void should_resend_what_a_lost_session_left_queued() throws Exception {
+        connector.stop();
+        connector = createConnector("secret", 2, 64 * 1024);
+        connector.addChannelListener(listener);
+        connector.start();
+
+        Channel bot = open(new JID("bot", DOMAIN, null));
+        assertTrue(listener.awaitStatus(bot, ChannelStatus.Connected));
+        assertTrue(server.awaitSessions(DOMAIN, 2, 5000));
+        assertTrue(awaitSessionGauge(2));
+        connector.send(bot, message("user@example.com", "first"));
+        assertNotNull(server.received.poll(5, TimeUnit.SECONDS));
+        String stream = server.streamsBySender.get("bot@" + DOMAIN).iterator().next();
+
+        server.setReading(false);
+        StringBuilder body = new StringBuilder();
+        for (int i = 0; i < 1024; i++) {
+            body.append('x');
+        }
+        // past the socket buffers, stanzas stay in the queue of the session
+        while (!awaitQueued(32 * 1024)) {
+            connector.send(bot, message("user@example.com", body.toString()));
+        }
+        connector.send(bot, message("user@example.com", "last"));
+        server.kickStream(stream);
+        assertTrue(awaitSessionGauge(1));
+        server.setReading(true);
+
+        // what the kicked stream had in its socket buffers is lost, what was still queued comes on the other one
+        Element received;
+        do {
+            received = server.received.poll(5, TimeUnit.SECONDS);
+            assertNotNull("The queued stanzas were not sent again", received);
+        }
+        while (!"last".equals(received.elementText("body")));
+    }
+
+    @Test
+    public void should_close_channels_on_stop_and_open_them_again_after_start() throws Exception {
+        Channel bot = open(new JID("bot", DOMAIN, null));
+        assertTrue(listener.awaitStatus(bot, ChannelStatus.Connected));
+
+        connector.stop();
+        assertTrue(listener.awaitStatus(bot, ChannelStatus.Closed));
+        connector.start();
+
+        open(new JID("bot", DOMAIN, null));
+        assertTrue(listener.awaitStatus(bot, ChannelStatus.Connected));
+        assertEquals(2, server.handshakes.get());
+    }
+
+    private void restart(int sessionsPerDomain) throws ConnectorException {
+        connector.stop();
+        connector = createConnector("secret", sessionsPerDomain);
+        connector.addChannelListener(listener);
+        connector.start();
+    }
+
+    private int sendUntilRefused(Channel bot, String body) {
+        int sent = 0;
+        try {
+            for (; sent < 100000; sent++) {
+                connector.send(bot, message("user@example.com", body));
+            }
+        }
+        catch (ConnectorException ex) {
+            return sent;
+        }
+        throw new AssertionError("Sends were never refused");
+    }
+
+    // whether the bytes are still queued once the reactor had time to write what the socket takes
+    private boolean awaitQueued(long bytes) throws InterruptedException {
+        if (connector.getGauges().get("outbound.bytes").getValue() < bytes) {
+            return false;
+        }
+        Thread.sleep(50);
+        return connector.getGauges().get("outbound.bytes").getValue() >= bytes;
+    }
+
+    private boolean awaitSessionGauge(long value) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (System.currentTimeMillis() < deadline) {
+            if (connector.getGauges().get("sessions").getValue() == value) {
+                return true;
+            }
+            Thread.sleep(5);
+        }
+        return false;
+    }
+
+    private static Message message(String to, String body) {
+        Message message = new Message();
+        message.setTo(new JID(to));
+        message.setBody(body);
+        return message;
+    }
+
+    private NioComponentConnector createConnector(String secret, int sessionsPerDomain) {
+        return createConnector(secret, sessionsPerDomain, new NioComponentConnectorConfiguration().getMaxOutboundBytes());
+    }
+
+    private NioComponentConnector createConnector(String secret, int sessionsPerDomain, long maxOutboundBytes) {
+        NioComponentConnectorConfiguration configuration = new NioComponentConnectorConfiguration();
+        configuration.setHost("127.0.0.1");
+        configuration.setPort(server.getPort());
+        configuration.setDomain("example.com");
+        configuration.setSecret(secret);
+        configuration.setSessionsPerDomain(sessionsPerDomain);
+        configuration.setIoThreads(2);
+        configuration.setSendBufferBytes(16 * 1024);
+        configuration.setReceiveBufferBytes(16 * 1024);
+        configuration.setReconnectBaseDelayMillis(10);
+        configuration.setReconnectMaxDelayMillis(100);
+        configuration.setLoginTimeoutMillis(5000);
+        configuration.setMaxOutboundBytes(maxOutboundBytes);
+        return new NioComponentConnector(new ConnectorId(1, NioComponentConnector.class, "nio-component"), configuration);
+    }
+
+    private Channel open(JID address) throws ConnectorException {
+        connector.openChannel(address);
+        return Channel.from(connector.getConnectorId(), address);
+    }
+
+    private static class RecordingListener implements ChannelListener {
+        final BlockingQueue<Channel> channels = new LinkedBlockingQueue<Channel>();
+        final BlockingQueue<Packet> packets = new LinkedBlockingQueue<Packet>();
+        final ConcurrentHashMap<Channel, ChannelStatus> latest = new ConcurrentHashMap<Channel, ChannelStatus>();
+        final BlockingQueue<ChannelStatus> history = new LinkedBlockingQueue<ChannelStatus>();
+
+        @Override
+        public void onIncomingPacket(Channel channel, Packet packet) {
+            channels.add(channel);
+            packets.add(packet);
+        }
+
+        @Override
+        public void onOutgoingPacket(Channel channel, Packet packet) {
+        }
+
+        @Override
+        public void onChannelEvent(ChannelEvent event) {
+            latest.put(event.getChannel(), event.getStatus());
+            history.add(event.getStatus());
+        }
+
+        boolean awaitStatus(Channel channel, ChannelStatus status) throws InterruptedException {
+            long deadline = System.currentTimeMillis() + 10000;
+            while (System.currentTimeMillis() < deadline) {
+                if (latest.get(channel) == status) {
+                    return true;
+                }
+                Thread.sleep(5);
+            }
+            return false;
+        }
+    }
+}
@@ -0,0 +1,294 @@
+package botto.xmpp.connectors.nio;
+
+import botto.xmpp.botto.xmpp.connector.ConnectorException;
+import botto.xmpp.botto.xmpp.connector.ConnectorId;
+import botto.xmpp.botto.xmpp.connector.channel.Channel;
+import botto.xmpp.botto.xmpp.connector.channel.ChannelEvent;
+import botto.xmpp.botto.xmpp.connector.channel.ChannelListener;
+import botto.xmpp.botto.xmpp.connector.channel.ChannelStatus;
+import org.dom4j.Element;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.xmpp.packet.JID;
+import org.xmpp.packet.Message;
+import org.xmpp.packet.Packet;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class NioConnectorTest {
+
+    private static final String DOMAIN = "example.com";
+
+    private StandInXmppServer server;
+    private NioConnector connector;
+    private RecordingListener listener;
+
+    @Before
+    public void setUp() throws Exception {
+        Map<String, String> accounts = new HashMap<String, String>();
+        for (int i = 0; i < 200; i++) {
+            accounts.put("bot" + i, "secret");
+        }
+        server = new StandInXmppServer(DOMAIN, accounts);
+
+        connector = new NioConnector(new ConnectorId(1, NioConnector.class, "nio"), configuration());
+        listener = new RecordingListener();
+        connector.addChannelListener(listener);
+        connector.start();
+    }
+
+    private NioConnectorConfiguration configuration() {
+        NioConnectorConfiguration configuration = new NioConnectorConfiguration();
+        configuration.setHost("127.0.0.1");
+        configuration.setPort(server.getPort());
+        configuration.setSecret("secret");
+        configuration.setResource("botto");
+        configuration.setIoThreads(2);
+        configuration.setReconnectBaseDelayMillis(10);
+        configuration.setReconnectMaxDelayMillis(100);
+        configuration.setLoginTimeoutMillis(5000);
+        return configuration;
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        connector.stop();
+        server.close();
+    }
+
+    @Test
+    public void should_login_and_exchange_stanzas() throws Exception {
+        JID address = new JID("bot1", DOMAIN, null);
+        connector.openChannel(address);
+        Channel channel = Channel.from(connector.getConnectorId(), address);
+
+        assertTrue(listener.awaitStatus(channel, ChannelStatus.Connected));
+        assertTrue(server.awaitSession("bot1", 5000));
+
+        server.send("bot1", "<message to='bot1@example.com/botto' from='user@example.com' type='chat'><body>caffè</body></message>");
+        Packet incoming = listener.packets.poll(5, TimeUnit.SECONDS);
+        assertTrue(incoming instanceof Message);
+        assertEquals("caffè", ((Message) incoming).getBody());
+        assertEquals(new JID("user@example.com"), incoming.getFrom());
+
+        Message reply = new Message();
+        reply.setTo(new JID("user@example.com"));
+        reply.setFrom(address);
+        reply.setBody("hello");
+        connector.send(channel, reply);
+
+        Element received = server.received.poll(5, TimeUnit.SECONDS);
+        assertNotNull(received);
+        assertEquals("message", received.getName());
+        assertEquals("hello", received.elementText("body"));
+    }
+
+    @Test
+    public void should_not_retry_refused_credentials() throws Exception {
+        JID address = new JID("stranger", DOMAIN, null);
+        connector.openChannel(address);
+        Channel channel = Channel.from(connector.getConnectorId(), address);
+
+        assertTrue(listener.awaitStatus(channel, ChannelStatus.Disconnected));
+        Thread.sleep(200);
+        assertEquals(1, server.failedLogins.get());
+        assertEquals(0, server.logins.get());
+    }
+
+    @Test(expected = ConnectorException.class)
+    public void should_not_send_before_login() throws Exception {
+        JID address = new JID("stranger", DOMAIN, null);
+        connector.openChannel(address);
+        connector.send(Channel.from(connector.getConnectorId(), address), new Message());
+    }
+
+    @Test
+    public void should_reconnect_when_session_is_lost() throws Exception {
+        JID address = new JID("bot2", DOMAIN, null);
+        connector.openChannel(address);
+        Channel channel = Channel.from(connector.getConnectorId(), address);
+        assertTrue(listener.awaitStatus(channel, ChannelStatus.Connected));
+        assertTrue(server.awaitSession("bot2", 5000));
+
+        listener.latest.clear();
+        server.kick("bot2");
+
+        assertTrue(listener.awaitStatus(channel, ChannelStatus.Connected));
+        assertTrue(server.awaitSession("bot2", 5000));
+        assertEquals(2, server.logins.get());
+    }
+
+    @Test
+    public void should_resume_session_and_send_unacknowledged_stanzas_again() throws Exception {
+        server.setStreamManagement(true);
+        Channel channel = loseStanzasAndConnection("bot3", false);
+
+        assertTrue(listener.awaitStatus(channel, ChannelStatus.Connected));
+        assertLostStanzasArrive();
+        assertEquals(1, server.resumptions.get());
+        // resumed without binding nor presence
+        assertEquals(1, server.logins.get());
+        assertEquals(1, connector.getGauges().get("resume.succeeded").getValue());
+    }
+
+    @Test
+    public void should_login_again_when_session_cannot_be_resumed() throws Exception {
+        server.setStreamManagement(true);
+        Channel channel = loseStanzasAndConnection("bot4", true);
+
+        assertTrue(listener.awaitStatus(channel, ChannelStatus.Connected));
+        assertLostStanzasArrive();
+        assertEquals(1, server.failedResumptions.get());
+        assertTrue(server.awaitSession("bot4", 5000));
+        assertEquals(2, server.logins.get());
+        assertEquals(1, connector.getGauges().get("resume.failed").getValue());
+    }
+
+    @Test
+    public void should_count_unacknowledged_stanzas_dropped_from_a_full_buffer() throws Exception {
+        connector.stop();
+        NioConnectorConfiguration configuration = configuration();
+        configuration.setStreamManagementBufferSize(1);
+        configuration.setAckRequestInterval(1000);
+        connector = new NioConnector(new ConnectorId(1, NioConnector.class, "nio"), configuration);
+        connector.addChannelListener(listener);
+        connector.start();
+        server.setStreamManagement(true);
+
+        JID address = new JID("bot5", DOMAIN, null);
+        connector.openChannel(address);
+        Channel channel = Channel.from(connector.getConnectorId(), address);
+        assertTrue(listener.awaitStatus(channel, ChannelStatus.Connected));
+        for (int i = 0; i < 3; i++) {
+            Message message = new Message();
+            message.setTo(new JID("user@example.com"));
+            message.setBody("message " + i);
+            connector.send(channel, message);
+        }
+        // the initial presence, then the first two messages, each pushed out by the next stanza
+        assertEquals(3, connector.getGauges().get("resume.dropped").getValue());
+    }
+
+    @Test
+    public void should_close_channels_on_stop_and_open_them_again_after_start() throws Exception {
+        JID address = new JID("bot6", DOMAIN, null);
+        connector.openChannel(address);
+        Channel channel = Channel.from(connector.getConnectorId(), address);
+        assertTrue(listener.awaitStatus(channel, ChannelStatus.Connected));
+
+        connector.stop();
+        assertTrue(listener.awaitStatus(channel, ChannelStatus.Closed));
+        connector.start();
+
+        listener.latest.clear();
+        connector.openChannel(address);
+        assertTrue(listener.awaitStatus(channel, ChannelStatus.Connected));
+        assertTrue(server.awaitSession("bot6", 5000));
+        assertEquals(2, server.logins.get());
+    }
+
+    // sends three messages the server never gets, then drops the connection
+    private Channel loseStanzasAndConnection(String node, boolean forgetStreams) throws Exception {
+        JID address = new JID(node, DOMAIN, null);
+        connector.openChannel(address);
+        Channel channel = Channel.from(connector.getConnectorId(), address);
+        assertTrue(listener.awaitStatus(channel, ChannelStatus.Connected));
+        assertTrue(server.awaitSession(node, 5000));
+
+        server.setDropping(true);
+        for (int i = 0; i < 3; i++) {
+            Message message = new Message();
+            message.setTo(new JID("user@example.com"));
+            message.setBody("lost " + i);
+            connector.send(channel, message);
+        }
+        long deadline = System.currentTimeMillis() + 5000;
+        while (server.dropped.get() < 3 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        assertEquals(3, server.dropped.get());
+        server.setDropping(false);
+        if (forgetStreams) {
+            server.forgetStreams();
+        }
+
+        listener.latest.clear();
+        server.kick(node);
+        return channel;
+    }
+
+    private void assertLostStanzasArrive() throws InterruptedException {
+        for (int i = 0; i < 3; i++) {
+            Element received = server.received.poll(5, TimeUnit.SECONDS);
+            // a new session gets the unacknowledged initial presence of the previous one too
+            while (received != null && "presence".equals(received.getName())) {
+                received = server.received.poll(5, TimeUnit.SECONDS);
+            }
+            assertNotNull(received);
+            assertEquals("lost " + i, received.elementText("body"));
+        }
+    }
+
+    @Test
+    public void should_multiplex_sessions_on_few_threads() throws Exception {
+        int channels = 200;
+        for (int i = 0; i < channels; i++) {
+            connector.openChannel(new JID("bot" + i, DOMAIN, null));
+        }
+        for (int i = 0; i < channels; i++) {
+            assertTrue("bot" + i + " did not connect", listener.awaitStatus(Channel.from(connector.getConnectorId(), new JID("bot" + i, DOMAIN, null)), ChannelStatus.Connected));
+        }
+        // the server counts a login once it reads the initial presence, which may come after the connected event
+        long deadline = System.currentTimeMillis() + 5000;
+        while (server.logins.get() < channels && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        assertEquals(channels, server.logins.get());
+
+        int reactorThreads = 0;
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            if (thread.getName().startsWith("nio-reactor-1-")) {
+                reactorThreads++;
+            }
+        }
+        assertEquals(2, reactorThreads);
+    }
+
+    private static class RecordingListener implements ChannelListener {
+        final BlockingQueue<Packet> packets = new LinkedBlockingQueue<Packet>();
+        final ConcurrentHashMap<Channel, ChannelStatus> latest = new ConcurrentHashMap<Channel, ChannelStatus>();
+
+        @Override
+        public void onIncomingPacket(Channel channel, Packet packet) {
+            packets.add(packet);
+        }
+
+        @Override
+        public void onOutgoingPacket(Channel channel, Packet packet) {
+        }
+
+        @Override
+        public void onChannelEvent(ChannelEvent event) {
+            latest.put(event.getChannel(), event.getStatus());
+        }
+
+        boolean awaitStatus(Channel channel, ChannelStatus status) throws InterruptedException {
+            long deadline = System.currentTimeMillis() + 10000;
+            while (System.currentTimeMillis() < deadline) {
+                if (latest.get(channel) == status) {
+                    return true;
+                }
+                Thread.sleep(5);
+            }
+            return false;
+        }
+    }
+}
@@ -0,0 +1,30 @@
+package botto.xmpp.connectors.nio;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SocketChannel;
+
+import static org.junit.Assert.*;
+
+public class OutboundQueueTest {
+
+    @Test
+    public void should_report_write_failures() throws IOException {
+        OutboundQueue queue = new OutboundQueue();
+        queue.add(ByteBuffer.wrap(new byte[10]));
+        SocketChannel socket = SocketChannel.open();
+        socket.close();
+        try {
+            queue.flush(socket);
+            fail("Write to a closed socket should fail");
+        }
+        catch (ClosedChannelException ex) {
+            // expected
+        }
+        assertEquals(10, queue.getBytes());
+        assertEquals(1, queue.drain().size());
+    }
+}
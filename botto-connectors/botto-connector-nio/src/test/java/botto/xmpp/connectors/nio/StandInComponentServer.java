@@ -0,0 +1,269 @@
+package botto.xmpp.connectors.nio;
+
+import botto.xmpp.botto.xmpp.connector.ConnectorException;
+import com.google.common.base.Charsets;
+import org.dom4j.Element;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * An in-process XMPP server accepting XEP-0114 components for tests: one blocking thread per component session,
+ * one shared secret, any number of sessions per domain. Stanzas from components are queued, and stanzas can be pushed to them.
+ */
+class StandInComponentServer {
+
+    private final String secret;
+    private final ServerSocket serverSocket;
+    private final ExecutorService clients = Executors.newCachedThreadPool();
+    // by stream id
+    private final ConcurrentHashMap<String, Client> sessions = new ConcurrentHashMap<String, Client>();
+    private final AtomicInteger nextId = new AtomicInteger();
+    private volatile boolean accepting = true;
+    private volatile boolean reading = true;
+
+    final BlockingQueue<Element> received = new LinkedBlockingQueue<Element>();
+    // the ids of the streams each sender used
+    final ConcurrentHashMap<String, Set<String>> streamsBySender = new ConcurrentHashMap<String, Set<String>>();
+    final AtomicInteger handshakes = new AtomicInteger();
+    final AtomicInteger failedHandshakes = new AtomicInteger();
+    final AtomicInteger connections = new AtomicInteger();
+
+    StandInComponentServer(String secret) throws IOException {
+        this.secret = secret;
+        serverSocket = new ServerSocket();
+        serverSocket.setReuseAddress(true);
+        // small and fixed, so that what components write past it stays in their queues while the server does not read
+        serverSocket.setReceiveBufferSize(16 * 1024);
+        serverSocket.bind(new InetSocketAddress("127.0.0.1", 0), 1024);
+        Thread acceptor = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                accept();
+            }
+        }, "stand-in-component-server");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    /**
+     * Waits for the component of the domain to complete its handshake.
+     */
+    boolean awaitSession(String domain, long timeoutMillis) throws InterruptedException {
+        return awaitSessions(domain, 1, timeoutMillis);
+    }
+
+    /**
+     * Waits for the component of the domain to have at least count sessions.
+     */
+    boolean awaitSessions(String domain, int count, long timeoutMillis) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        while (System.currentTimeMillis() < deadline) {
+            if (getSessionCount(domain) >= count) {
+                return true;
+            }
+            Thread.sleep(5);
+        }
+        return false;
+    }
+
+    int getSessionCount(String domain) {
+        int count = 0;
+        for (Client client : sessions.values()) {
+            if (domain.equals(client.domain)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Sends to one of the sessions of the domain.
+     */
+    void send(String domain, String xml) throws IOException {
+        for (Client client : sessions.values()) {
+            if (domain.equals(client.domain)) {
+                client.write(xml);
+                return;
+            }
+        }
+        throw new IOException("No session for " + domain);
+    }
+
+    /**
+     * Drops one connection of a component, as a server restart would.
+     */
+    void kick(String domain) throws IOException {
+        for (Client client : sessions.values()) {
+            if (domain.equals(client.domain) && sessions.remove(client.streamId, client)) {
+                client.socket.close();
+                return;
+            }
+        }
+    }
+
+    /**
+     * Drops the connection of a stream.
+     */
+    void kickStream(String streamId) throws IOException {
+        Client client = sessions.remove(streamId);
+        if (client != null) {
+            client.socket.close();
+        }
+    }
+
+    /**
+     * While not accepting, new connections are closed right away, as by a server too busy to take them.
+     */
+    void setAccepting(boolean accepting) {
+        this.accepting = accepting;
+    }
+
+    /**
+     * While not reading, what the components write stays in the socket buffers, as with a server that does not keep up.
+     */
+    void setReading(boolean reading) {
+        this.reading = reading;
+    }
+
+    void close() throws IOException {
+        serverSocket.close();
+        for (Client client : sessions.values()) {
+            client.socket.close();
+        }
+        clients.shutdownNow();
+    }
+
+    private void accept() {
+        while (!serverSocket.isClosed()) {
+            try {
+                final Socket socket = serverSocket.accept();
+                if (!accepting) {
+                    socket.close();
+                    continue;
+                }
+                connections.incrementAndGet();
+                clients.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        new Client(socket).run();
+                    }
+                });
+            }
+            catch (IOException ex) {
+                // closed
+            }
+        }
+    }
+
+    private class Client implements StanzaSplitter.Handler {
+        private final Socket socket;
+        private final StanzaSplitter splitter = new StanzaSplitter(1024 * 1024);
+        private final StanzaParser parser = new StanzaParser(ComponentSession.COMPONENT_NAMESPACE);
+        private final String streamId = "c" + nextId.incrementAndGet();
+        private volatile String domain;
+        private boolean authenticated;
+
+        private Client(Socket socket) {
+            this.socket = socket;
+        }
+
+        public void run() {
+            try {
+                InputStream in = socket.getInputStream();
+                byte[] bytes = new byte[4096];
+                int read;
+                while ((read = in.read(bytes)) >= 0) {
+                    splitter.feed(ByteBuffer.wrap(bytes, 0, read), this);
+                    while (!reading) {
+                        Thread.sleep(5);
+                    }
+                }
+            }
+            catch (Exception ex) {
+                // the component or the test went away
+            }
+            finally {
+                sessions.remove(streamId, this);
+                try {
+                    socket.close();
+                } catch (IOException e) {
+                    // ignore
+                }
+            }
+        }
+
+        synchronized void write(String xml) throws IOException {
+            OutputStream out = socket.getOutputStream();
+            out.write(xml.getBytes(Charsets.UTF_8));
+            out.flush();
+        }
+
+        @Override
+        public void streamOpened(String header) throws ConnectorException {
+            domain = header.replaceAll("(?s).*\\sto='([^']*)'.*", "$1");
+            try {
+                write("<?xml version='1.0'?><stream:stream xmlns='" + ComponentSession.COMPONENT_NAMESPACE
+                    + "' xmlns:stream='http://etherx.jabber.org/streams' id='" + streamId + "' from='" + domain + "'>");
+            }
+            catch (IOException ex) {
+                throw new ConnectorException(ex);
+            }
+        }
+
+        @Override
+        public void element(String xml) throws ConnectorException {
+            Element element = parser.parse(xml);
+            try {
+                if (!authenticated) {
+                    if ("handshake".equals(element.getName()) && ComponentSession.handshake(streamId, secret).equals(element.getTextTrim())) {
+                        authenticated = true;
+                        sessions.put(streamId, this);
+                        handshakes.incrementAndGet();
+                        write("<handshake/>");
+                    }
+                    else {
+                        failedHandshakes.incrementAndGet();
+                        write("<stream:error><not-authorized xmlns='urn:ietf:params:xml:ns:xmpp-streams'/></stream:error></stream:stream>");
+                        socket.close();
+                    }
+                }
+                else {
+                    String from = element.attributeValue("from");
+                    if (from != null) {
+                        streamsBySender.putIfAbsent(from, Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>()));
+                        streamsBySender.get(from).add(streamId);
+                    }
+                    received.add(element);
+                }
+            }
+            catch (IOException ex) {
+                throw new ConnectorException(ex);
+            }
+        }
+
+        @Override
+        public void streamClosed() throws ConnectorException {
+            try {
+                write("</stream:stream>");
+                socket.close();
+            }
+            catch (IOException ex) {
+                throw new ConnectorException(ex);
+            }
+        }
+    }
+}
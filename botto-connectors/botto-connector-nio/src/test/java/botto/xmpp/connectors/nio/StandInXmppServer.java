@@ -0,0 +1,303 @@
+package botto.xmpp.connectors.nio;
+
+import botto.xmpp.botto.xmpp.connector.ConnectorException;
+import com.google.common.base.Charsets;
+import com.google.common.io.BaseEncoding;
+import org.dom4j.Element;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * An in-process XMPP server for tests: one blocking thread per client, SASL PLAIN against a map of accounts,
+ * resource binding and session establishment, and optionally stream management with resumption.
+ * Stanzas from clients are queued, and stanzas can be pushed to them.
+ */
+class StandInXmppServer {
+
+    private final String domain;
+    private final Map<String, String> accounts;
+    private final ServerSocket serverSocket;
+    private final ExecutorService clients = Executors.newCachedThreadPool();
+    private final ConcurrentHashMap<String, Client> sessions = new ConcurrentHashMap<String, Client>();
+    // the stream management state of sessions, kept when their connection drops
+    private final ConcurrentHashMap<String, ManagedStream> streams = new ConcurrentHashMap<String, ManagedStream>();
+    private final AtomicInteger nextStream = new AtomicInteger();
+    private volatile boolean streamManagement = false;
+    private volatile boolean dropping = false;
+
+    final BlockingQueue<Element> received = new LinkedBlockingQueue<Element>();
+    final AtomicInteger logins = new AtomicInteger();
+    final AtomicInteger failedLogins = new AtomicInteger();
+    final AtomicInteger dropped = new AtomicInteger();
+    final AtomicInteger resumptions = new AtomicInteger();
+    final AtomicInteger failedResumptions = new AtomicInteger();
+
+    StandInXmppServer(String domain, Map<String, String> accounts) throws IOException {
+        this.domain = domain;
+        this.accounts = accounts;
+        serverSocket = new ServerSocket();
+        serverSocket.setReuseAddress(true);
+        serverSocket.bind(new InetSocketAddress("127.0.0.1", 0), 1024);
+        Thread acceptor = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                accept();
+            }
+        }, "stand-in-xmpp-server");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    int getSessionCount() {
+        return sessions.size();
+    }
+
+    /**
+     * Waits for the client logged in as node to send its initial presence.
+     */
+    boolean awaitSession(String node, long timeoutMillis) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        while (System.currentTimeMillis() < deadline) {
+            Client client = sessions.get(node);
+            if (client != null && client.available) {
+                return true;
+            }
+            Thread.sleep(5);
+        }
+        return false;
+    }
+
+    void send(String node, String xml) throws IOException {
+        sessions.get(node).write(xml);
+    }
+
+    /**
+     * Drops the connection of a client, as a server restart would.
+     */
+    void kick(String node) throws IOException {
+        Client client = sessions.remove(node);
+        if (client != null) {
+            client.socket.close();
+        }
+    }
+
+    void setStreamManagement(boolean streamManagement) {
+        this.streamManagement = streamManagement;
+    }
+
+    /**
+     * While dropping, stanzas from clients are neither handled nor counted, as if lost on the way.
+     */
+    void setDropping(boolean dropping) {
+        this.dropping = dropping;
+    }
+
+    /**
+     * Forgets the sessions that could be resumed, as a server restart would.
+     */
+    void forgetStreams() {
+        streams.clear();
+    }
+
+    void close() throws IOException {
+        serverSocket.close();
+        for (Client client : sessions.values()) {
+            client.socket.close();
+        }
+        clients.shutdownNow();
+    }
+
+    private void accept() {
+        while (!serverSocket.isClosed()) {
+            try {
+                final Socket socket = serverSocket.accept();
+                clients.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        new Client(socket).run();
+                    }
+                });
+            }
+            catch (IOException ex) {
+                // closed
+            }
+        }
+    }
+
+    private class Client implements StanzaSplitter.Handler {
+        private final Socket socket;
+        private final StanzaSplitter splitter = new StanzaSplitter(1024 * 1024);
+        private final StanzaParser parser = new StanzaParser(NioChannelConnection.CLIENT_NAMESPACE);
+        private String node;
+        private boolean authenticated;
+        private ManagedStream stream;
+        private volatile boolean available;
+
+        private Client(Socket socket) {
+            this.socket = socket;
+        }
+
+        public void run() {
+            try {
+                InputStream in = socket.getInputStream();
+                byte[] bytes = new byte[4096];
+                int read;
+                while ((read = in.read(bytes)) >= 0) {
+                    splitter.feed(ByteBuffer.wrap(bytes, 0, read), this);
+                }
+            }
+            catch (Exception ex) {
+                // the client or the test went away
+            }
+            finally {
+                if (node != null) {
+                    sessions.remove(node, this);
+                }
+                try {
+                    socket.close();
+                } catch (IOException e) {
+                    // ignore
+                }
+            }
+        }
+
+        synchronized void write(String xml) throws IOException {
+            OutputStream out = socket.getOutputStream();
+            out.write(xml.getBytes(Charsets.UTF_8));
+            out.flush();
+        }
+
+        @Override
+        public void streamOpened(String header) throws ConnectorException {
+            try {
+                write("<?xml version='1.0'?><stream:stream xmlns='jabber:client' xmlns:stream='http://etherx.jabber.org/streams' id='s1' from='"
+                    + domain + "' version='1.0'>");
+                if (!authenticated) {
+                    write("<stream:features><mechanisms xmlns='" + NioChannelConnection.SASL_NAMESPACE + "'><mechanism>PLAIN</mechanism></mechanisms></stream:features>");
+                }
+                else {
+                    write("<stream:features><bind xmlns='" + NioChannelConnection.BIND_NAMESPACE + "'/><session xmlns='"
+                        + NioChannelConnection.SESSION_NAMESPACE + "'/>"
+                        + (streamManagement ? "<sm xmlns='" + StreamManagement.NAMESPACE + "'/>" : "") + "</stream:features>");
+                }
+            }
+            catch (IOException ex) {
+                throw new ConnectorException(ex);
+            }
+        }
+
+        @Override
+        public void element(String xml) throws ConnectorException {
+            Element element = parser.parse(xml);
+            if (stream != null && !dropping && !StreamManagement.NAMESPACE.equals(element.getNamespaceURI())) {
+                stream.handled++;
+            }
+            try {
+                if ("auth".equals(element.getName())) {
+                    String[] credentials = new String(BaseEncoding.base64().decode(element.getTextTrim()), Charsets.UTF_8).split("\0", -1);
+                    String password = accounts.get(credentials[1]);
+                    if (password != null && password.equals(credentials[2])) {
+                        node = credentials[1];
+                        authenticated = true;
+                        splitter.reset();
+                        write("<success xmlns='" + NioChannelConnection.SASL_NAMESPACE + "'/>");
+                    }
+                    else {
+                        failedLogins.incrementAndGet();
+                        write("<failure xmlns='" + NioChannelConnection.SASL_NAMESPACE + "'><not-authorized/></failure>");
+                    }
+                }
+                else if (StreamManagement.NAMESPACE.equals(element.getNamespaceURI())) {
+                    streamManagement(element);
+                }
+                else if (dropping) {
+                    dropped.incrementAndGet();
+                    return;
+                }
+                else if ("iq".equals(element.getName()) && element.element("bind") != null) {
+                    String resource = element.element("bind").elementText("resource");
+                    write("<iq type='result' id='" + element.attributeValue("id") + "'><bind xmlns='" + NioChannelConnection.BIND_NAMESPACE
+                        + "'><jid>" + node + "@" + domain + "/" + resource + "</jid></bind></iq>");
+                }
+                else if ("iq".equals(element.getName()) && element.element("session") != null) {
+                    write("<iq type='result' id='" + element.attributeValue("id") + "'/>");
+                }
+                else if ("presence".equals(element.getName()) && !available) {
+                    available();
+                    logins.incrementAndGet();
+                }
+                else {
+                    received.add(element);
+                }
+            }
+            catch (IOException ex) {
+                throw new ConnectorException(ex);
+            }
+        }
+
+        private void available() throws IOException {
+            Client previous = sessions.put(node, this);
+            if (previous != null && previous != this) {
+                previous.socket.close();
+            }
+            available = true;
+        }
+
+        private void streamManagement(Element element) throws IOException {
+            if ("enable".equals(element.getName())) {
+                stream = new ManagedStream(node);
+                String id = "sm" + nextStream.incrementAndGet();
+                streams.put(id, stream);
+                write("<enabled xmlns='" + StreamManagement.NAMESPACE + "' id='" + id + "' resume='true'/>");
+            }
+            else if ("resume".equals(element.getName())) {
+                ManagedStream previous = streams.get(element.attributeValue("previd"));
+                if (previous == null || !previous.node.equals(node)) {
+                    failedResumptions.incrementAndGet();
+                    write("<failed xmlns='" + StreamManagement.NAMESPACE + "'><item-not-found xmlns='urn:ietf:params:xml:ns:xmpp-stanzas'/></failed>");
+                    return;
+                }
+                stream = previous;
+                write("<resumed xmlns='" + StreamManagement.NAMESPACE + "' h='" + stream.handled + "' previd='" + element.attributeValue("previd") + "'/>");
+                available();
+                resumptions.incrementAndGet();
+            }
+            else if ("r".equals(element.getName()) && stream != null) {
+                write("<a xmlns='" + StreamManagement.NAMESPACE + "' h='" + stream.handled + "'/>");
+            }
+        }
+
+        @Override
+        public void streamClosed() throws ConnectorException {
+            try {
+                write("</stream:stream>");
+                socket.close();
+            }
+            catch (IOException ex) {
+                throw new ConnectorException(ex);
+            }
+        }
+    }
+
+    private static class ManagedStream {
+        private final String node;
+        private volatile long handled = 0;
+
+        private ManagedStream(String node) {
+            this.node = node;
+        }
+    }
+}
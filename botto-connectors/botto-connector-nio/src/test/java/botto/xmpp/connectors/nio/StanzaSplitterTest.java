@@ -0,0 +1,110 @@
+package botto.xmpp.connectors.nio;
+
+import botto.xmpp.botto.xmpp.connector.ConnectorException;
+import com.google.common.base.Charsets;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class StanzaSplitterTest {
+
+    private static final String HEADER = "<?xml version='1.0'?><stream:stream xmlns='jabber:client' xmlns:stream='http://etherx.jabber.org/streams' version='1.0'>";
+
+    @Test
+    public void splits_top_level_elements() throws ConnectorException {
+        Recorder recorder = feed(new StanzaSplitter(1024),
+            HEADER + "<stream:features><bind xmlns='urn:ietf:params:xml:ns:xmpp-bind'/></stream:features>"
+                + " <message to='a@b'><body>1 &gt; 0</body><x><y/></x></message>"
+                + "<presence/></stream:stream>");
+
+        assertEquals(1, recorder.headers.size());
+        assertEquals("<stream:features><bind xmlns='urn:ietf:params:xml:ns:xmpp-bind'/></stream:features>", recorder.elements.get(0));
+        assertEquals("<message to='a@b'><body>1 &gt; 0</body><x><y/></x></message>", recorder.elements.get(1));
+        assertEquals("<presence/>", recorder.elements.get(2));
+        assertEquals(1, recorder.closed);
+    }
+
+    @Test
+    public void splits_the_same_whatever_the_reads() throws ConnectorException {
+        String stream = HEADER + "<message to='a@b' x='>' y=\"'/>\"><body>caffè 中文</body><!-- <not/> --><![CDATA[<not/>]]></message><iq type='get' id='1'/>";
+        byte[] bytes = stream.getBytes(Charsets.UTF_8);
+        for (int chunk = 1; chunk <= 7; chunk++) {
+            StanzaSplitter splitter = new StanzaSplitter(1024);
+            Recorder recorder = new Recorder();
+            for (int i = 0; i < bytes.length; i += chunk) {
+                splitter.feed(ByteBuffer.wrap(bytes, i, Math.min(chunk, bytes.length - i)), recorder);
+            }
+            assertEquals(1, recorder.headers.size());
+            assertEquals(2, recorder.elements.size());
+            assertEquals("<message to='a@b' x='>' y=\"'/>\"><body>caffè 中文</body><!-- <not/> --><![CDATA[<not/>]]></message>", recorder.elements.get(0));
+            assertEquals("<iq type='get' id='1'/>", recorder.elements.get(1));
+        }
+    }
+
+    @Test
+    public void reset_expects_a_new_stream() throws ConnectorException {
+        final StanzaSplitter splitter = new StanzaSplitter(1024);
+        Recorder recorder = new Recorder() {
+            @Override
+            public void element(String xml) {
+                super.element(xml);
+                if (xml.startsWith("<success")) {
+                    splitter.reset();
+                }
+            }
+        };
+        feed(splitter, recorder, HEADER + "<success xmlns='urn:ietf:params:xml:ns:xmpp-sasl'/>" + HEADER + "<stream:features/>");
+
+        assertEquals(2, recorder.headers.size());
+        assertEquals(2, recorder.elements.size());
+    }
+
+    @Test(expected = ConnectorException.class)
+    public void rejects_elements_over_the_limit() throws ConnectorException {
+        StringBuilder body = new StringBuilder();
+        for (int i = 0; i < 100; i++) {
+            body.append("0123456789");
+        }
+        // still waiting for the end of the message
+        feed(new StanzaSplitter(512), HEADER + "<message><body>" + body);
+    }
+
+    @Test(expected = ConnectorException.class)
+    public void rejects_doctype() throws ConnectorException {
+        feed(new StanzaSplitter(512), "<!DOCTYPE stream [<!ENTITY x 'y'>]>" + HEADER);
+    }
+
+    private static Recorder feed(StanzaSplitter splitter, String stream) throws ConnectorException {
+        return feed(splitter, new Recorder(), stream);
+    }
+
+    private static Recorder feed(StanzaSplitter splitter, Recorder recorder, String stream) throws ConnectorException {
+        splitter.feed(ByteBuffer.wrap(stream.getBytes(Charsets.UTF_8)), recorder);
+        return recorder;
+    }
+
+    private static class Recorder implements StanzaSplitter.Handler {
+        final List<String> headers = new ArrayList<String>();
+        final List<String> elements = new ArrayList<String>();
+        int closed = 0;
+
+        @Override
+        public void streamOpened(String header) {
+            headers.add(header);
+        }
+
+        @Override
+        public void element(String xml) {
+            elements.add(xml);
+        }
+
+        @Override
+        public void streamClosed() {
+            closed++;
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package botto.xmpp.connectors.nio;
+
+import com.google.common.collect.ImmutableList;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class StreamManagementTest {
+
+    @Test
+    public void should_keep_stanzas_until_acknowledged() {
+        StreamManagement sm = enabled(10, 100);
+        for (int i = 0; i < 5; i++) {
+            sm.sending("s" + i);
+        }
+        sm.acknowledged(3);
+        assertEquals(2, sm.getUnackedCount());
+        assertEquals(ImmutableList.of("s3", "s4"), sm.resumed(3));
+
+        sm.acknowledged(5);
+        assertEquals(0, sm.getUnackedCount());
+    }
+
+    @Test
+    public void should_drop_oldest_stanzas_when_buffer_is_full() {
+        StreamManagement sm = enabled(3, 100);
+        for (int i = 0; i < 5; i++) {
+            sm.sending("s" + i);
+        }
+        assertEquals(2, sm.getDroppedCount());
+        assertEquals(ImmutableList.of("s2", "s3", "s4"), sm.resumed(0));
+    }
+
+    @Test
+    public void should_request_acks_at_interval() {
+        StreamManagement sm = enabled(100, 3);
+        assertFalse(sm.sending("s0"));
+        assertFalse(sm.sending("s1"));
+        assertTrue(sm.sending("s2"));
+        assertFalse(sm.sending("s3"));
+    }
+
+    @Test
+    public void should_not_track_before_enabled() {
+        StreamManagement sm = new StreamManagement(10, 10);
+        sm.sending("s0");
+        sm.handled();
+        assertEquals(0, sm.getUnackedCount());
+        assertEquals(0, sm.getHandled());
+        assertFalse(sm.canResume());
+    }
+
+    @Test
+    public void should_give_back_unacked_stanzas_on_reset() {
+        StreamManagement sm = enabled(10, 100);
+        sm.sending("s0");
+        sm.sending("s1");
+        sm.handled();
+
+        assertEquals(ImmutableList.of("s0", "s1"), sm.reset());
+        assertFalse(sm.canResume());
+        assertFalse(sm.isEnabled());
+        assertEquals(0, sm.getHandled());
+    }
+
+    @Test
+    public void should_count_handled_stanzas() {
+        StreamManagement sm = enabled(10, 100);
+        sm.handled();
+        sm.handled();
+        assertEquals(2, sm.getHandled());
+        assertTrue(sm.canResume());
+        assertEquals("id", sm.getId());
+    }
+
+    @Test
+    public void should_not_resume_without_id() {
+        StreamManagement sm = new StreamManagement(10, 100);
+        sm.enabled(null, true);
+        assertTrue(sm.isEnabled());
+        assertFalse(sm.canResume());
+    }
+
+    private static StreamManagement enabled(int bufferSize, int ackRequestInterval) {
+        StreamManagement sm = new StreamManagement(bufferSize, ackRequestInterval);
+        sm.enabled("id", true);
+        return sm;
+    }
+}
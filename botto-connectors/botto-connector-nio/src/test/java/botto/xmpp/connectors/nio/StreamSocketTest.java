@@ -0,0 +1,27 @@
+package botto.xmpp.connectors.nio;
+
+import com.google.common.collect.ImmutableList;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class StreamSocketTest {
+
+    @Test
+    public void should_hand_back_stanzas_queued_after_close() throws IOException {
+        StreamSocket socket = new StreamSocket(new Reactor("test", 1024), null, 1024, 0, 0);
+        byte[] before = "<message/>".getBytes("UTF-8");
+        byte[] after = "<presence/>".getBytes("UTF-8");
+
+        assertTrue(socket.write(before).isEmpty());
+        socket.close();
+        List<byte[]> late = socket.write(after);
+
+        assertEquals(ImmutableList.of(before), socket.takeUnwritten());
+        assertEquals(ImmutableList.of(after), late);
+        assertEquals(0, socket.getQueuedBytes());
+    }
+}
@@ -1,16 +1,19 @@
 package botto.xmpp.connectors.smack;
 
 
-import org.dom4j.Document;
+import botto.xmpp.botto.xmpp.connector.stanza.PacketBytes;
+import botto.xmpp.botto.xmpp.connector.stanza.XmlCodec;
+import org.dom4j.Attribute;
 import org.dom4j.DocumentException;
 import org.dom4j.Element;
-import org.dom4j.io.SAXReader;
 import org.jivesoftware.smack.Connection;
+import org.jivesoftware.smack.packet.DefaultPacketExtension;
+import org.jivesoftware.smack.packet.PacketExtension;
 import org.jivesoftware.smack.util.PacketParserUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.xml.sax.InputSource;
 import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
 import org.xmlpull.v1.XmlPullParserFactory;
 import org.xmpp.packet.IQ;
 import org.xmpp.packet.Message;
@@ -18,19 +21,53 @@ import org.xmpp.packet.Packet;
 import org.xmpp.packet.Presence;
 
 import java.io.ByteArrayInputStream;
-import java.io.UnsupportedEncodingException;
+import java.util.List;
 
+/**
+ * Converts packets between Smack (xmpp client library) and Tinder (xmpp component library) types.
+ *
+ * Messages, presences and IQs are converted field by field, without serializing and parsing them again.
+ * Extensions Smack keeps as plain name/value pairs are copied directly, and other extensions are parsed
+ * on their own from their XML. Packets the direct conversion can't represent faithfully, such as errors,
+ * Smack properties, or multiple localized bodies, are converted through a full XML round trip.
+ */
 public class PacketTypeConverter {
 
     private final static Logger Log = LoggerFactory.getLogger(PacketTypeConverter.class);
 
+    private static final XmlPullParserFactory pullParserFactory = createPullParserFactory();
+
+    // reset by setInput, so one per thread is enough
+    private static final ThreadLocal<XmlPullParser> pullParsers = new ThreadLocal<XmlPullParser>() {
+        @Override
+        protected XmlPullParser initialValue() {
+            try {
+                return pullParserFactory.newPullParser();
+            }
+            catch (XmlPullParserException e) {
+                throw new IllegalStateException("Could not create XML pull parser", e);
+            }
+        }
+    };
+
     // this method converts from smack (xmpp bot library) packet types
     // to tinder/whack packet types (xmpp component library)
     public static Packet converttoTinder(org.jivesoftware.smack.packet.Packet packet) {
-        SAXReader saxReader = new SAXReader();
+        Packet converted = toTinderDirect(packet);
+        return converted != null ? converted : converttoTinderXml(packet);
+    }
+
+    public static org.jivesoftware.smack.packet.Packet convertFromTinder(Packet packet, Connection connection) {
+        org.jivesoftware.smack.packet.Packet converted = fromTinderDirect(packet);
+        return converted != null ? converted : convertFromTinderXml(packet, connection);
+    }
+
+    /**
+     * Converts by serializing the Smack packet and parsing the XML into a Tinder packet.
+     */
+    public static Packet converttoTinderXml(org.jivesoftware.smack.packet.Packet packet) {
         try {
-            Document read = saxReader.read(new InputSource(new ByteArrayInputStream(packet.toXML().getBytes("utf-8"))));
-            Element element = read.getRootElement();
+            Element element = XmlCodec.read(packet.toXML());
             if (element.getName().equalsIgnoreCase("iq")) {
                 return new IQ(element);
             }
@@ -46,33 +83,33 @@ public class PacketTypeConverter {
         } catch (DocumentException e) {
             Log.error("Error while parsing packet {}: {}", packet.toXML(), e);
             throw new RuntimeException("exception while parsing packet " + packet.toXML(), e);
-        } catch (UnsupportedEncodingException e) {
-            Log.error("Error while parsing packet {}: {}", packet.toXML(), e);
-            throw new RuntimeException("exception while parsing packet " + packet.toXML(), e);
         }
     }
 
-    public static org.jivesoftware.smack.packet.Packet convertFromTinder(Packet packet, Connection connection) {
+    /**
+     * Converts by serializing the Tinder packet and parsing the XML into a Smack packet.
+     */
+    public static org.jivesoftware.smack.packet.Packet convertFromTinderXml(Packet packet, Connection connection) {
         try {
-            XmlPullParserFactory factory = XmlPullParserFactory.newInstance("org.xmlpull.mxp1.MXParserFactory", PacketTypeConverter.class); //XmlPullParserFactory.newInstance("org.xmlpull.v1.XmlPullParserFactory", PacketTypeConverter.class);
-            factory.setNamespaceAware(true);
-            XmlPullParser xpp = factory.newPullParser();
+            XmlPullParser xpp = pullParsers.get();
 
-            xpp.setInput(new ByteArrayInputStream(packet.toXML().getBytes("utf-8")), "utf-8");
+            xpp.setInput(new ByteArrayInputStream(PacketBytes.of(packet)), "utf-8");
 
             xpp.next();
 
-            if (packet.getElement().getName().equalsIgnoreCase("iq")) {
+            // the name of the start tag, as asking the packet for its element would copy a shared one
+            String name = xpp.getName();
+            if (name.equalsIgnoreCase("iq")) {
                 return PacketParserUtils.parseIQ(xpp, connection);
             }
-            else if (packet.getElement().getName().equalsIgnoreCase("presence")) {
+            else if (name.equalsIgnoreCase("presence")) {
                 return PacketParserUtils.parsePresence(xpp);
             }
-            else if(packet.getElement().getName().equalsIgnoreCase("message")) {
+            else if(name.equalsIgnoreCase("message")) {
                 return PacketParserUtils.parseMessage(xpp);
             }
             else {
-                throw new RuntimeException("Unknown packet type " + packet.getElement().getName() + ": " + packet.toXML());
+                throw new RuntimeException("Unknown packet type " + name + ": " + packet.toXML());
             }
         }
         catch (Exception e) {
@@ -80,4 +117,278 @@ public class PacketTypeConverter {
             throw new RuntimeException("exception while parsing packet " + packet.toXML(), e);
         }
     }
+
+    // returns null if the packet must be converted through XML
+    private static Packet toTinderDirect(org.jivesoftware.smack.packet.Packet packet) {
+        if (packet.getError() != null || !packet.getPropertyNames().isEmpty()) {
+            return null;
+        }
+        if (packet instanceof org.jivesoftware.smack.packet.Message) {
+            return toTinderMessage((org.jivesoftware.smack.packet.Message) packet);
+        }
+        if (packet instanceof org.jivesoftware.smack.packet.Presence) {
+            return toTinderPresence((org.jivesoftware.smack.packet.Presence) packet);
+        }
+        if (packet instanceof org.jivesoftware.smack.packet.IQ) {
+            return toTinderIQ((org.jivesoftware.smack.packet.IQ) packet);
+        }
+        return null;
+    }
+
+    private static Message toTinderMessage(org.jivesoftware.smack.packet.Message smack) {
+        if (smack.getLanguage() != null || smack.getBodies().size() > 1 || smack.getSubjects().size() > 1) {
+            return null;
+        }
+        Message message = new Message();
+        copyHeader(smack, message.getElement());
+        if (smack.getType() != org.jivesoftware.smack.packet.Message.Type.normal) {
+            message.getElement().addAttribute("type", smack.getType().toString());
+        }
+        if (smack.getSubject() != null) {
+            message.setSubject(smack.getSubject());
+        }
+        if (smack.getBody() != null) {
+            message.setBody(smack.getBody());
+        }
+        if (smack.getThread() != null) {
+            message.setThread(smack.getThread());
+        }
+        copyExtensions(smack, message.getElement());
+        return message;
+    }
+
+    private static Presence toTinderPresence(org.jivesoftware.smack.packet.Presence smack) {
+        Presence presence = new Presence();
+        copyHeader(smack, presence.getElement());
+        if (smack.getType() != org.jivesoftware.smack.packet.Presence.Type.available) {
+            presence.getElement().addAttribute("type", smack.getType().toString());
+        }
+        if (smack.getStatus() != null) {
+            presence.setStatus(smack.getStatus());
+        }
+        if (smack.getPriority() != Integer.MIN_VALUE) {
+            presence.setPriority(smack.getPriority());
+        }
+        if (smack.getMode() != null && smack.getMode() != org.jivesoftware.smack.packet.Presence.Mode.available) {
+            presence.getElement().addElement("show").setText(smack.getMode().toString());
+        }
+        copyExtensions(smack, presence.getElement());
+        return presence;
+    }
+
+    private static IQ toTinderIQ(org.jivesoftware.smack.packet.IQ smack) {
+        IQ iq = new IQ();
+        copyHeader(smack, iq.getElement());
+        iq.getElement().addAttribute("type", smack.getType().toString());
+        String child = smack.getChildElementXML();
+        if (child != null && child.length() > 0) {
+            iq.getElement().add(parseFragment(child));
+        }
+        copyExtensions(smack, iq.getElement());
+        return iq;
+    }
+
+    private static void copyHeader(org.jivesoftware.smack.packet.Packet smack, Element element) {
+        element.addAttribute("id", smack.getPacketID());
+        element.addAttribute("to", smack.getTo());
+        element.addAttribute("from", smack.getFrom());
+    }
+
+    private static void copyExtensions(org.jivesoftware.smack.packet.Packet smack, Element element) {
+        for (PacketExtension extension : smack.getExtensions()) {
+            if (extension instanceof DefaultPacketExtension) {
+                DefaultPacketExtension values = (DefaultPacketExtension) extension;
+                Element copy = element.addElement(values.getElementName(), values.getNamespace());
+                for (String name : values.getNames()) {
+                    copy.addElement(name).setText(values.getValue(name));
+                }
+            }
+            else {
+                element.add(parseFragment(extension.toXML()));
+            }
+        }
+    }
+
+    // returns null if the packet must be converted through XML
+    private static org.jivesoftware.smack.packet.Packet fromTinderDirect(Packet packet) {
+        Element element = packet.getElement();
+        if (element.element("error") != null || hasExtraAttributes(element)) {
+            return null;
+        }
+        if (packet instanceof Message) {
+            return fromTinderMessage(element);
+        }
+        if (packet instanceof Presence) {
+            return fromTinderPresence(element);
+        }
+        if (packet instanceof IQ) {
+            return fromTinderIQ(element);
+        }
+        return null;
+    }
+
+    private static org.jivesoftware.smack.packet.Message fromTinderMessage(Element element) {
+        if (element.elements("body").size() > 1 || element.elements("subject").size() > 1) {
+            return null;
+        }
+        org.jivesoftware.smack.packet.Message message = new org.jivesoftware.smack.packet.Message();
+        copyHeader(element, message);
+        String type = element.attributeValue("type");
+        if (type != null) {
+            message.setType(org.jivesoftware.smack.packet.Message.Type.fromString(type));
+        }
+        for (Element child : children(element)) {
+            String name = child.getName();
+            if (isDefaultNamespace(child) && "body".equals(name)) {
+                message.setBody(child.getText());
+            }
+            else if (isDefaultNamespace(child) && "subject".equals(name)) {
+                message.setSubject(child.getText());
+            }
+            else if (isDefaultNamespace(child) && "thread".equals(name)) {
+                message.setThread(child.getText());
+            }
+            else {
+                message.addExtension(new ElementExtension(child));
+            }
+        }
+        return message;
+    }
+
+    private static org.jivesoftware.smack.packet.Presence fromTinderPresence(Element element) {
+        String type = element.attributeValue("type");
+        org.jivesoftware.smack.packet.Presence presence;
+        try {
+            presence = new org.jivesoftware.smack.packet.Presence(type == null
+                ? org.jivesoftware.smack.packet.Presence.Type.available
+                : org.jivesoftware.smack.packet.Presence.Type.valueOf(type));
+        }
+        catch (IllegalArgumentException ex) {
+            // probe: not known to Smack
+            return null;
+        }
+        copyHeader(element, presence);
+        for (Element child : children(element)) {
+            String name = child.getName();
+            if (isDefaultNamespace(child) && "status".equals(name)) {
+                presence.setStatus(child.getText());
+            }
+            else if (isDefaultNamespace(child) && "priority".equals(name)) {
+                try {
+                    presence.setPriority(Integer.parseInt(child.getTextTrim()));
+                }
+                catch (IllegalArgumentException ex) {
+                    return null;
+                }
+            }
+            else if (isDefaultNamespace(child) && "show".equals(name)) {
+                try {
+                    presence.setMode(org.jivesoftware.smack.packet.Presence.Mode.valueOf(child.getTextTrim()));
+                }
+                catch (IllegalArgumentException ex) {
+                    return null;
+                }
+            }
+            else {
+                presence.addExtension(new ElementExtension(child));
+            }
+        }
+        return presence;
+    }
+
+    private static org.jivesoftware.smack.packet.IQ fromTinderIQ(Element element) {
+        List<Element> children = children(element);
+        if (children.size() > 1) {
+            return null;
+        }
+        final String childXML = children.isEmpty() ? null : children.get(0).asXML();
+        org.jivesoftware.smack.packet.IQ iq = new org.jivesoftware.smack.packet.IQ() {
+            @Override
+            public String getChildElementXML() {
+                return childXML;
+            }
+        };
+        copyHeader(element, iq);
+        iq.setType(org.jivesoftware.smack.packet.IQ.Type.fromString(element.attributeValue("type")));
+        return iq;
+    }
+
+    private static void copyHeader(Element element, org.jivesoftware.smack.packet.Packet smack) {
+        String id = element.attributeValue("id");
+        smack.setPacketID(id == null ? org.jivesoftware.smack.packet.Packet.ID_NOT_AVAILABLE : id);
+        smack.setTo(element.attributeValue("to"));
+        smack.setFrom(element.attributeValue("from"));
+    }
+
+    // attributes Smack packets can't carry, xml:lang included
+    private static boolean hasExtraAttributes(Element element) {
+        for (int i = 0; i < element.attributeCount(); i++) {
+            Attribute attribute = element.attribute(i);
+            String name = attribute.getQualifiedName();
+            if (!"id".equals(name) && !"to".equals(name) && !"from".equals(name) && !"type".equals(name)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isDefaultNamespace(Element child) {
+        String namespace = child.getNamespaceURI();
+        return namespace.length() == 0 || namespace.equals(child.getParent().getNamespaceURI());
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<Element> children(Element element) {
+        return element.elements();
+    }
+
+    private static Element parseFragment(String xml) {
+        try {
+            return XmlCodec.read(xml).createCopy();
+        }
+        catch (DocumentException e) {
+            throw new RuntimeException("exception while parsing packet fragment " + xml, e);
+        }
+    }
+
+    private static XmlPullParserFactory createPullParserFactory() {
+        try {
+            XmlPullParserFactory factory = XmlPullParserFactory.newInstance("org.xmlpull.mxp1.MXParserFactory", PacketTypeConverter.class);
+            factory.setNamespaceAware(true);
+            return factory;
+        }
+        catch (XmlPullParserException e) {
+            throw new IllegalStateException("Could not create XML pull parser factory", e);
+        }
+    }
+
+    /**
+     * A Tinder child element carried as a Smack extension: serialized as it is, never parsed.
+     */
+    private static class ElementExtension implements PacketExtension {
+        private final String name;
+        private final String namespace;
+        private final String xml;
+
+        private ElementExtension(Element element) {
+            name = element.getName();
+            namespace = element.getNamespaceURI();
+            xml = element.asXML();
+        }
+
+        @Override
+        public String getElementName() {
+            return name;
+        }
+
+        @Override
+        public String getNamespace() {
+            return namespace;
+        }
+
+        @Override
+        public String toXML() {
+            return xml;
+        }
+    }
 }
@@ -3,8 +3,9 @@ package botto.xmpp.connectors.smack;
 import botto.xmpp.botto.xmpp.connector.*;
 
 import botto.xmpp.botto.xmpp.connector.channel.Channel;
-import botto.xmpp.botto.xmpp.connector.channel.ChannelConnection;
+import botto.xmpp.botto.xmpp.connector.channel.AbstractChannelConnection;
 import botto.xmpp.botto.xmpp.connector.channel.ChannelEvent;
+import botto.xmpp.botto.xmpp.connector.stanza.PacketOverlay;
 import com.google.common.util.concurrent.FutureCallback;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
@@ -15,15 +16,14 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.xmpp.packet.Packet;
 
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
 
 /**
  * A ChannelConnection that uses the Smack library.
  *
- * Each connection wraps an XMPPConnection, which is allocated in its own thread.
+ * Each connection wraps an XMPPConnection, which is connected and logged in by the connect pool of the connector.
  */
-class SmackChannelConnection implements ChannelConnection {
+class SmackChannelConnection extends AbstractChannelConnection {
 
     private final static Logger Log = LoggerFactory.getLogger(SmackChannelConnection.class);
 
@@ -34,11 +34,17 @@ class SmackChannelConnection implements ChannelConnection {
 
     private final XMPPConnection connection;
 
-    private final ExecutorService connectionExecutor = Executors.newSingleThreadExecutor();
+    private final SmackConnectPool connectPool;
+
+    private volatile boolean stopped = false;
+
+    // time of the last packet sent or received, reconnects of recently active channels go first
+    private volatile long lastActivity = 0;
 
     // TODO: add a SmackBotConfiguration object, or create the XMPPConnection outside
-    public SmackChannelConnection(SmackConnector connector, Channel channel, String host, int port, String secret, String resource) {
+    public SmackChannelConnection(SmackConnector connector, SmackConnectPool connectPool, Channel channel, String host, int port, String secret, String resource) {
         this.connector = connector;
+        this.connectPool = connectPool;
         this.channel = channel;
 
         this.secret = secret;
@@ -61,23 +67,31 @@ class SmackChannelConnection implements ChannelConnection {
 
     synchronized void send(Packet packet) {
         if (!connection.isConnected()) {
+            String xml = packet.toXML();
             if (Log.isDebugEnabled())
-                Log.warn("Not sending packet because connection is not connected. Packet: {}", packet.toXML());
+                Log.warn("Not sending packet because connection is not connected. Packet: {}", xml);
 
-            throw new RuntimeException("Not sending packet because connection is not connected. Packet: {}" + packet.toXML());
+            throw new RuntimeException("Not sending packet because connection is not connected. Packet: {}" + xml);
         }
 
         if (!connection.isAuthenticated()) {
+            String xml = packet.toXML();
             if (Log.isDebugEnabled())
-                Log.warn("Not sending packet because connection is not authenticated. Packet: {}", packet.toXML());
+                Log.warn("Not sending packet because connection is not authenticated. Packet: {}", xml);
 
-            throw new RuntimeException("Not sending packet because connection is not authenticated. Packet: {} " + packet.toXML());
+            throw new RuntimeException("Not sending packet because connection is not authenticated. Packet: {} " + xml);
         }
 
         if (Log.isDebugEnabled()) {
             Log.debug("Sending packet {}", packet);
         }
 
+        if (StanzaIds.lacksId(packet)) {
+            // rather than the id Smack would make up
+            packet = PacketOverlay.copyOf(packet);
+            packet.setID(StanzaIds.nextId());
+        }
+
         org.jivesoftware.smack.packet.Packet converted;
         try {
             converted = PacketTypeConverter.convertFromTinder(packet, connection);
@@ -89,6 +103,7 @@ class SmackChannelConnection implements ChannelConnection {
 
         try {
             connection.sendPacket(converted);
+            lastActivity = System.currentTimeMillis();
         }
         catch (Exception ex) {
             Log.error("Error while sending packet {}", packet, ex);
@@ -108,6 +123,8 @@ class SmackChannelConnection implements ChannelConnection {
         // TODO: remove packet listener
         // connection.removePacketListener();
 
+        stopped = true;
+
         // disconnect
         if (connection.isConnected()) {
             connector.channelEvent(ChannelEvent.disconnecting(channel, "Connection stop requested"));
@@ -115,10 +132,18 @@ class SmackChannelConnection implements ChannelConnection {
         }
     }
 
-    public synchronized void start() {
+    public synchronized void start() throws ConnectorException {
         final SmackChannelConnection botConnection = this;
         connector.channelEvent(ChannelEvent.connecting(channel));
-        Futures.addCallback(connect(), new FutureCallback<Boolean>() {
+        ListenableFuture<Boolean> connected;
+        try {
+            connected = connect();
+        }
+        catch (RejectedExecutionException ex) {
+            connector.channelEvent(ChannelEvent.disconnected(channel, "Connect queue is full", ex));
+            throw new ConnectorException(ex, "Could not connect {0}: connect queue is full", channel.getAddress());
+        }
+        Futures.addCallback(connected, new FutureCallback<Boolean>() {
             @Override
             public void onSuccess(Boolean result) {
                 Log.info("Connection Successful");
@@ -129,6 +154,7 @@ class SmackChannelConnection implements ChannelConnection {
                     @Override
                     public void processPacket(org.jivesoftware.smack.packet.Packet packet) {
                         Log.debug("Received packet {}", packet.toXML());
+                        lastActivity = System.currentTimeMillis();
 
                         Packet converted;
 
@@ -141,13 +167,13 @@ class SmackChannelConnection implements ChannelConnection {
                         }
 
                         try {
-                            connector.receiveFromConnection(channel, converted);
+                            connector.receiveFromConnection(botConnection, converted);
                         }
                         catch(Exception ex) {
                            Log.error("Error while processing packet {}: {}", packet.toXML(), ex);
                         }
                     }
-                }, null);
+                }, new SmackIngressFilter(connector, botConnection));
 
                 connector.channelEvent(ChannelEvent.connected(channel));
             }
@@ -160,60 +186,89 @@ class SmackChannelConnection implements ChannelConnection {
     }
 
     private ListenableFuture<Boolean> connect() {
-        final SettableFuture<Boolean> future = SettableFuture.create();
-        connectionExecutor.submit(new Runnable() {
+        SettableFuture<Boolean> future = SettableFuture.create();
+        connectPool.connect(new ConnectTask(future, false));
+        return future;
+    }
 
-            private int count = 0;
+    // reconnects are never refused, but wait for a login slot in the connector's ReconnectScheduler
+    private void reconnect() {
+        connectPool.reconnect(new ConnectTask(SettableFuture.<Boolean>create(), true));
+    }
 
-            @Override
-            public void run() {
-                Log.info("Connecting {}... #{}", channel.getAddress(), count++);
+    /**
+     * Connects and logs in, attempted by the ReconnectScheduler until it succeeds or the login is refused.
+     */
+    private class ConnectTask implements ReconnectScheduler.Task {
 
-                if (connection.isConnected()) {
-                    connection.disconnect();
-                }
-                Log.trace("connection is connected {}", connection.isConnected());
-                while (!connection.isConnected()) {
-                    try {
-                        Log.trace("before connect()");
-                        connection.connect();
-                        Log.trace("after connect()");
-                        count = 0;
-                    }
-                    catch (XMPPException ex) {
-                        int retryMillis = getReconnectDelay(count);
-                        Log.error("Could not connect to {}:{}. Retry in " + retryMillis+ "ms. Error: " + ex.getMessage(), connection.getHost(), connection.getPort());
-                        sleep(getReconnectDelay(count));
-                    }
-                }
+        private final SettableFuture<Boolean> future;
+        private final boolean reconnect;
+        private int count = 0;
+
+        private ConnectTask(SettableFuture<Boolean> future, boolean reconnect) {
+            this.future = future;
+            this.reconnect = reconnect;
+        }
 
+        @Override
+        public boolean attempt() {
+            if (stopped) {
+                Log.debug("Not connecting {}: connection stopped", channel.getAddress());
+                return true;
+            }
+
+            Log.info("Connecting {}... #{}", channel.getAddress(), count);
+
+            if (count == 0 && !reconnect && connection.isConnected()) {
+                connection.disconnect();
+            }
+            Log.trace("connection is connected {}", connection.isConnected());
+            if (!connection.isConnected()) {
                 try {
-                    Log.trace("before login()");
-                    connection.login(channel.getAddress().getNode(), secret, resource);
-                    Log.trace("after login()");
-                    future.set(true);
+                    Log.trace("before connect()");
+                    connection.connect();
+                    Log.trace("after connect()");
                 }
                 catch (XMPPException ex) {
-                    connector.channelEvent(ChannelEvent.disconnected(channel, "Login failed", ex));
-                    future.setException(new ConnectorException("Could not login as '{}'. Error: {}", channel.getAddress().getNode(), ex.getMessage()));
+                    count++;
+                    Log.error("Could not connect to {}:{}. Attempt #" + count + " will be retried. Error: " + ex.getMessage(), connection.getHost(), connection.getPort());
+                    return false;
                 }
-
-                Log.trace("exit connect thread");
             }
 
-            private void sleep(long reconnectDelay) {
-                try {
-                    Thread.sleep(reconnectDelay);
-                } catch (InterruptedException e) {
-                    Thread.currentThread().interrupt();
+            try {
+                Log.trace("before login()");
+                connection.login(channel.getAddress().getNode(), secret, resource);
+                Log.trace("after login()");
+                if (reconnect) {
+                    connector.channelEvent(ChannelEvent.connected(channel, "Reconnection successful"));
                 }
+                future.set(true);
             }
-
-            private int getReconnectDelay(int count) {
-                return 5000;
+            catch (XMPPException ex) {
+                connector.channelEvent(ChannelEvent.disconnected(channel, "Login failed", ex));
+                future.setException(new ConnectorException("Could not login as ''{0}''. Error: {1}", channel.getAddress().getNode(), ex.getMessage()));
             }
-        });
-        return future;
+            catch (IllegalStateException ex) {
+                // lost the connection between connect and login
+                count++;
+                Log.error("Connection to {}:{} lost before login. Attempt #" + count + " will be retried.", connection.getHost(), connection.getPort());
+                return false;
+            }
+
+            Log.trace("exit connect thread");
+            return true;
+        }
+
+        @Override
+        public long getLastActivity() {
+            return lastActivity;
+        }
+
+        @Override
+        public String toString() {
+            return "ConnectTask(" + channel + ")";
+        }
     }
 
     private class SmackConnectionListener implements ConnectionListener {
@@ -226,13 +281,15 @@ class SmackChannelConnection implements ChannelConnection {
             //if (connection.isConnected())
             //    connection.disconnect();
             connector.channelEvent(ChannelEvent.disconnected(channel, "Disconnected"));
-            connect();
+            reconnect();
         }
 
         @Override
         public void connectionClosedOnError(Exception e) {
             Log.warn("Connection {}: closed with exception {}", connection, e);
             connector.channelEvent(ChannelEvent.disconnected(channel, "Disconnected with error", e));
+            // typically the server went away: all channels reconnect, paced by the ReconnectScheduler
+            reconnect();
         }
 
         @Override
@@ -0,0 +1,83 @@
+package botto.xmpp.connectors.smack;
+
+import botto.xmpp.botto.xmpp.connector.ReconnectScheduler;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The bounded pool connecting and logging in all the channels of a SmackConnector.
+ *
+ * All connects, first ones included, go through a ReconnectScheduler, which backs off with jitter
+ * and limits how many of them run at the same time, so the pool has one thread per login slot.
+ * First connects are rejected when queueCapacity connects or reconnects are already waiting for a slot;
+ * reconnects are never rejected.
+ */
+class SmackConnectPool {
+
+    private final ThreadPoolExecutor executor;
+    private final ScheduledExecutorService retries;
+    private final ReconnectScheduler reconnects;
+    private final AtomicLong rejected = new AtomicLong();
+    private final int queueCapacity;
+
+    SmackConnectPool(String name, int queueCapacity, int maxConcurrentLogins, long reconnectBaseDelayMillis, long reconnectMaxDelayMillis) {
+        this.queueCapacity = queueCapacity;
+        // the scheduler never hands over more than maxConcurrentLogins tasks at a time
+        executor = new ThreadPoolExecutor(maxConcurrentLogins, maxConcurrentLogins, 60, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<Runnable>(),
+            new ThreadFactoryBuilder().setNameFormat("smack-connect-" + name + "-%d").setDaemon(true).build());
+        executor.allowCoreThreadTimeOut(true);
+        retries = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactoryBuilder().setNameFormat("smack-connect-retry-" + name).setDaemon(true).build());
+        reconnects = new ReconnectScheduler(retries, executor, maxConcurrentLogins, reconnectBaseDelayMillis, reconnectMaxDelayMillis);
+    }
+
+    /**
+     * Connects a new connection as soon as a login slot is free.
+     * @throws RejectedExecutionException if queueCapacity attempts are already waiting for a slot, or the pool is shut down
+     */
+    void connect(ReconnectScheduler.Task connect) {
+        if (executor.isShutdown() || reconnects.getReadyCount() >= queueCapacity) {
+            rejected.incrementAndGet();
+            throw new RejectedExecutionException("Connect queue is full or shut down");
+        }
+        reconnects.submit(connect);
+    }
+
+    /**
+     * Reconnects a connection that was closed: never refused, but it may wait for a free slot.
+     */
+    void reconnect(ReconnectScheduler.Task connect) {
+        reconnects.submit(connect);
+    }
+
+    long getThreadCount() {
+        return executor.getPoolSize();
+    }
+
+    long getActiveCount() {
+        return executor.getActiveCount();
+    }
+
+    /**
+     * @return the connects and reconnects waiting for a login slot or for their delay to pass
+     */
+    long getQueueDepth() {
+        return reconnects.getReadyCount() + reconnects.getWaitingCount();
+    }
+
+    long getRejectedCount() {
+        return rejected.get();
+    }
+
+    ReconnectScheduler getReconnects() {
+        return reconnects;
+    }
+
+    void shutdown() {
+        retries.shutdownNow();
+        executor.shutdownNow();
+    }
+}
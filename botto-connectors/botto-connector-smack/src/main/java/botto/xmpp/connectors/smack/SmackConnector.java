@@ -4,11 +4,14 @@ import botto.xmpp.botto.xmpp.connector.*;
 
 import botto.xmpp.botto.xmpp.connector.channel.Channel;
 import botto.xmpp.botto.xmpp.connector.channel.ChannelEvent;
+import com.google.common.collect.ImmutableMap;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import org.xmpp.packet.Packet;
 
+import java.util.Map;
+
 import static com.google.common.base.Preconditions.checkNotNull;
 
 /**
@@ -18,6 +21,9 @@ public class SmackConnector extends Connector<SmackConnectorConfiguration, Smack
 
     private final Logger Log = LoggerFactory.getLogger(SmackConnector.class);
 
+    // created when the connector starts, null when it is stopped
+    private volatile SmackConnectPool connectPool;
+
     public SmackConnector(ConnectorId connectorId, SmackConnectorConfiguration configuration) {
         super(connectorId, configuration);
         checkNotNull(configuration, "Configuration must not be null");
@@ -25,9 +31,19 @@ public class SmackConnector extends Connector<SmackConnectorConfiguration, Smack
 
     @Override
     public void doOpenChannel(Channel channel) throws ConnectorException {
-        SmackChannelConnection connection = new SmackChannelConnection(this, channel, getConfiguration().getHost(), getConfiguration().getPort(), getConfiguration().getSecret(channel.getAddress()), getConfiguration().getResource());
+        SmackConnectPool pool = connectPool;
+        if (pool == null) {
+            throw new ConnectorException("Connector {0} is not started", getConnectorId());
+        }
+        SmackChannelConnection connection = new SmackChannelConnection(this, pool, channel, getConfiguration().getHost(), getConfiguration().getPort(), getConfiguration().getSecret(channel.getAddress()), getConfiguration().getResource());
         addConnection(channel, connection);
-        connection.start();
+        try {
+            connection.start();
+        }
+        catch (ConnectorException ex) {
+            removeConnection(channel);
+            throw ex;
+        }
         setChannelEvent(ChannelEvent.opened(channel));
         return;
     }
@@ -42,13 +58,80 @@ public class SmackConnector extends Connector<SmackConnectorConfiguration, Smack
     }
 
     @Override
-    public void doStart() throws ConnectorException {
+    public synchronized void doStart() throws ConnectorException {
         // TODO: all connections should only be started here
+        if (connectPool != null) {
+            return;
+        }
+        SmackConnectorConfiguration configuration = getConfiguration();
+        connectPool = new SmackConnectPool(String.valueOf(getConnectorId().getId()), configuration.getConnectQueueCapacity(),
+            configuration.getMaxConcurrentLogins(), configuration.getReconnectBaseDelayMillis(), configuration.getReconnectMaxDelayMillis());
     }
 
     @Override
-    public void doStop()  throws ConnectorException {
-        // TODO: should stop all connections here
+    public synchronized void doStop()  throws ConnectorException {
+        if (connectPool == null) {
+            return;
+        }
+        // connections keep the pool they were opened with
+        closeChannels();
+        connectPool.shutdown();
+        connectPool = null;
+    }
+
+    @Override
+    public Map<String, ConnectorGauge> getGauges() {
+        return ImmutableMap.<String, ConnectorGauge>builder()
+            .put("connect.threads", new ConnectorGauge() {
+                @Override
+                public long getValue() {
+                    SmackConnectPool current = connectPool;
+                    return current == null ? 0 : current.getThreadCount();
+                }
+            })
+            .put("connect.active", new ConnectorGauge() {
+                @Override
+                public long getValue() {
+                    SmackConnectPool current = connectPool;
+                    return current == null ? 0 : current.getActiveCount();
+                }
+            })
+            .put("connect.queue", new ConnectorGauge() {
+                @Override
+                public long getValue() {
+                    SmackConnectPool current = connectPool;
+                    return current == null ? 0 : current.getQueueDepth();
+                }
+            })
+            .put("connect.rejected", new ConnectorGauge() {
+                @Override
+                public long getValue() {
+                    SmackConnectPool current = connectPool;
+                    return current == null ? 0 : current.getRejectedCount();
+                }
+            })
+            .put("reconnect.ready", new ConnectorGauge() {
+                @Override
+                public long getValue() {
+                    SmackConnectPool current = connectPool;
+                    return current == null ? 0 : current.getReconnects().getReadyCount();
+                }
+            })
+            .put("reconnect.running", new ConnectorGauge() {
+                @Override
+                public long getValue() {
+                    SmackConnectPool current = connectPool;
+                    return current == null ? 0 : current.getReconnects().getRunningCount();
+                }
+            })
+            .put("reconnect.waiting", new ConnectorGauge() {
+                @Override
+                public long getValue() {
+                    SmackConnectPool current = connectPool;
+                    return current == null ? 0 : current.getReconnects().getWaitingCount();
+                }
+            })
+            .build();
     }
 
     @Override
@@ -56,7 +139,11 @@ public class SmackConnector extends Connector<SmackConnectorConfiguration, Smack
         getConnection(channel).send(packet);
     }
 
-    public void receiveFromConnection(Channel channel, org.xmpp.packet.Packet packet) throws ConnectorException {
-        receive(channel, packet);
+    void packetFiltered(SmackChannelConnection connection) {
+        filtered(connection);
+    }
+
+    void receiveFromConnection(SmackChannelConnection connection, org.xmpp.packet.Packet packet) throws ConnectorException {
+        receive(connection, packet);
     }
 }
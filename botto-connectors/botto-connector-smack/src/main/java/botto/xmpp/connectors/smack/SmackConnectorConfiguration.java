@@ -8,6 +8,10 @@ public class SmackConnectorConfiguration implements ConnectorConfiguration {
     private String host;
     private int port;
     private String secret;
+    private int connectQueueCapacity = 10000;
+    private int maxConcurrentLogins = 4;
+    private long reconnectBaseDelayMillis = 1000;
+    private long reconnectMaxDelayMillis = 60000;
 
     @Override
     public String getName() {
@@ -45,4 +49,49 @@ public class SmackConnectorConfiguration implements ConnectorConfiguration {
     public void setSecret(String secret) {
         this.secret = secret;
     }
+
+    /**
+     * @return how many connects can wait for a login slot before new channels are refused
+     */
+    public int getConnectQueueCapacity() {
+        return connectQueueCapacity;
+    }
+
+    public void setConnectQueueCapacity(int connectQueueCapacity) {
+        this.connectQueueCapacity = connectQueueCapacity;
+    }
+
+    /**
+     * @return how many connects and reconnects can log in at the same time, over all the channels of the connector,
+     * which is also the number of threads they run on
+     */
+    public int getMaxConcurrentLogins() {
+        return maxConcurrentLogins;
+    }
+
+    public void setMaxConcurrentLogins(int maxConcurrentLogins) {
+        this.maxConcurrentLogins = maxConcurrentLogins;
+    }
+
+    /**
+     * @return the bound of the random delay before retrying a failed connect, doubled at each further failure
+     */
+    public long getReconnectBaseDelayMillis() {
+        return reconnectBaseDelayMillis;
+    }
+
+    public void setReconnectBaseDelayMillis(long reconnectBaseDelayMillis) {
+        this.reconnectBaseDelayMillis = reconnectBaseDelayMillis;
+    }
+
+    /**
+     * @return the largest bound of the random delay before retrying a failed connect
+     */
+    public long getReconnectMaxDelayMillis() {
+        return reconnectMaxDelayMillis;
+    }
+
+    public void setReconnectMaxDelayMillis(long reconnectMaxDelayMillis) {
+        this.reconnectMaxDelayMillis = reconnectMaxDelayMillis;
+    }
 }
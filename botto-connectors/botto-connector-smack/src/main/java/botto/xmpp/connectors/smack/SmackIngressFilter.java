@@ -0,0 +1,100 @@
+package botto.xmpp.connectors.smack;
+
+import botto.xmpp.botto.xmpp.connector.channel.IngressFilter;
+import org.jivesoftware.smack.filter.PacketFilter;
+import org.jivesoftware.smack.packet.IQ;
+import org.jivesoftware.smack.packet.Message;
+import org.jivesoftware.smack.packet.Packet;
+import org.jivesoftware.smack.packet.PacketExtension;
+import org.jivesoftware.smack.packet.Presence;
+
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * A Smack PacketFilter checking the ingress filter of a connection, so that the packets
+ * its receiver can't handle never reach the PacketTypeConverter.
+ */
+class SmackIngressFilter implements PacketFilter {
+
+    private static final ConcurrentMap<Class<? extends IQ>, String> namespaces = new ConcurrentHashMap<Class<? extends IQ>, String>();
+
+    private final SmackConnector connector;
+    private final SmackChannelConnection connection;
+
+    SmackIngressFilter(SmackConnector connector, SmackChannelConnection connection) {
+        this.connector = connector;
+        this.connection = connection;
+    }
+
+    @Override
+    public boolean accept(Packet packet) {
+        IngressFilter filter = connection.getIngressFilter();
+        if (filter.acceptsAll() || accepts(filter, packet)) {
+            return true;
+        }
+        connector.packetFiltered(connection);
+        return false;
+    }
+
+    private static boolean accepts(IngressFilter filter, Packet packet) {
+        if (packet instanceof Message) {
+            return filter.acceptsMessages();
+        }
+        if (packet instanceof Presence) {
+            return filter.acceptsPresences();
+        }
+        if (packet instanceof IQ) {
+            return filter.acceptsIQ(filter.filtersNamespaces() ? childNamespace((IQ) packet) : null);
+        }
+        return true;
+    }
+
+    /**
+     * @return the namespace of the child element: the one of its extension when it has one, else the one the IQ class
+     * was parsed from, learned from the start tag of the first IQ of that class since a provider parses one namespace
+     */
+    static String childNamespace(IQ iq) {
+        Iterator<PacketExtension> extensions = iq.getExtensions().iterator();
+        if (extensions.hasNext()) {
+            return extensions.next().getNamespace();
+        }
+        // the IQs Smack creates without a provider are anonymous, and have no child element
+        Class<? extends IQ> type = iq.getClass();
+        String namespace = type.isAnonymousClass() ? null : namespaces.get(type);
+        if (namespace == null) {
+            namespace = startTagNamespace(iq.getChildElementXML());
+            if (namespace != null && !type.isAnonymousClass()) {
+                namespaces.putIfAbsent(type, namespace);
+            }
+        }
+        return namespace;
+    }
+
+    // the default namespace declared on the first start tag, read from the tag rather than by parsing it
+    static String startTagNamespace(String xml) {
+        if (xml == null) {
+            return null;
+        }
+        int start = xml.indexOf('<');
+        int end = xml.indexOf('>', start + 1);
+        if (start < 0 || end < 0) {
+            return null;
+        }
+        String tag = xml.substring(start, end);
+        int xmlns = tag.indexOf("xmlns=");
+        // an attribute such as fooxmlns= is not a namespace declaration
+        while (xmlns > 0 && !Character.isWhitespace(tag.charAt(xmlns - 1))) {
+            xmlns = tag.indexOf("xmlns=", xmlns + 1);
+        }
+        if (xmlns > 0 && xmlns + 7 < tag.length()) {
+            char quote = tag.charAt(xmlns + 6);
+            int close = tag.indexOf(quote, xmlns + 7);
+            if ((quote == '\'' || quote == '"') && close > 0) {
+                return tag.substring(xmlns + 7, close);
+            }
+        }
+        return null;
+    }
+}
@@ -1,6 +1,8 @@
 package botto.xmpp.connectors.whack;
 
 import botto.xmpp.botto.xmpp.connector.ConnectorException;
+import botto.xmpp.botto.xmpp.connector.JIDPool;
+import botto.xmpp.botto.xmpp.connector.StanzaIds;
 import com.google.common.base.Objects;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -11,7 +13,6 @@ import org.xmpp.packet.JID;
 import org.xmpp.packet.Packet;
 
 import java.util.Map;
-import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
 
 public class WhackBotComponent implements Component {
@@ -20,7 +21,10 @@ public class WhackBotComponent implements Component {
 
     private final WhackConnector connector;
     private final String subdomain;
-    private final Map<String, WhackChannelConnection> connections = new ConcurrentHashMap<String, WhackChannelConnection>();
+    private final Map<JID, WhackChannelConnection> connections = new ConcurrentHashMap<JID, WhackChannelConnection>();
+
+    // receives packets for nodes without a connection of their own
+    private volatile WhackChannelConnection domainConnection;
 
     private JID jid;
     private ComponentManager componentManager;
@@ -31,11 +35,17 @@ public class WhackBotComponent implements Component {
     }
 
     public void addConnection(WhackChannelConnection connection) {
-        connections.put(connection.getChannel().getAddress().toBareJID(), connection);
+        connections.put(JIDPool.bare(connection.getChannel().getAddress()), connection);
+        if (connection.getChannel().getAddress().getNode() == null) {
+            domainConnection = connection;
+        }
     }
 
     public void removeConnection(WhackChannelConnection connection) {
-        connections.remove(connection.getChannel().getAddress().toBareJID());
+        connections.remove(JIDPool.bare(connection.getChannel().getAddress()));
+        if (connection == domainConnection) {
+            domainConnection = null;
+        }
     }
 
     @Override
@@ -51,13 +61,17 @@ public class WhackBotComponent implements Component {
     @Override
     public void processPacket(Packet packet) {
         Log.debug("Received packet {}", packet);
-        WhackChannelConnection connection = connections.get(packet.getTo().toBareJID());
+        JID to = JIDPool.lookupBare(packet.getElement().attributeValue("to"));
+        WhackChannelConnection connection = to == null ? null : connections.get(to);
+        if (connection == null) {
+            connection = domainConnection;
+        }
         if (connection == null) {
             Log.warn("Could not find a connection to route packet: {}", packet);
             return;
         }
         try {
-            connector.receiveFromComponent(connection.getChannel(), packet);
+            connector.receiveFromComponent(connection, packet);
         } catch (ConnectorException e) {
             e.printStackTrace();  //To change body of catch statement use File | Settings | File Templates.
         }
@@ -86,8 +100,8 @@ public class WhackBotComponent implements Component {
             packet.setFrom(jid);
         }
 
-        if (packet.getID() == null) {
-            packet.setID(UUID.randomUUID().toString());
+        if (StanzaIds.lacksId(packet)) {
+            packet.setID(StanzaIds.nextId());
         }
 
         Log.debug("[{}] sending packet {}", this, packet);
@@ -2,13 +2,13 @@ package botto.xmpp.connectors.whack;
 
 import botto.xmpp.botto.xmpp.connector.*;
 import botto.xmpp.botto.xmpp.connector.channel.Channel;
-import botto.xmpp.botto.xmpp.connector.channel.ChannelConnection;
+import botto.xmpp.botto.xmpp.connector.channel.AbstractChannelConnection;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.xmpp.component.ComponentException;
 import org.xmpp.packet.Packet;
 
-class WhackChannelConnection implements ChannelConnection {
+class WhackChannelConnection extends AbstractChannelConnection {
 
     private static final Logger Log = LoggerFactory.getLogger(WhackChannelConnection.class);
 
@@ -31,6 +31,10 @@ class WhackChannelConnection implements ChannelConnection {
         }
     }
 
+    WhackBotComponent getComponent() {
+        return component;
+    }
+
     @Override
     public Connector getConnector() {
         return connector;
@@ -33,7 +33,7 @@ public class WhackConnector extends Connector<WhackConnectorConfiguration, Whack
     }
 
     @Override
-    public void doOpenChannel(Channel channel) throws ConnectorException {
+    public synchronized void doOpenChannel(Channel channel) throws ConnectorException {
         Log.debug("Creating Whack connection for {}", channel);
         verifyAddress(channel.getAddress());
 
@@ -46,7 +46,7 @@ public class WhackConnector extends Connector<WhackConnectorConfiguration, Whack
             } catch (ComponentException e) {
                 throw new ConnectorException("Error while creating component for subdomain " + subdomain, e);
             }
-
+            components.put(subdomain, component);
         }
 
         WhackChannelConnection connection = new WhackChannelConnection(this, component, channel);
@@ -55,14 +55,13 @@ public class WhackConnector extends Connector<WhackConnectorConfiguration, Whack
     }
 
     @Override
-    public void doCloseChannel(Channel channel) throws ConnectorException {
+    public synchronized void doCloseChannel(Channel channel) throws ConnectorException {
         WhackChannelConnection connection = removeConnection(channel);
-        for(WhackBotComponent component : components.values()) {
-            component.removeConnection(connection);
-            if (component.isEmpty()) {
-                removeComponent(component);
-            }
-            return;
+        WhackBotComponent component = connection.getComponent();
+        component.removeConnection(connection);
+        if (component.isEmpty()) {
+            components.remove(component.getSubdomain());
+            removeComponent(component);
         }
     }
 
@@ -111,7 +110,7 @@ public class WhackConnector extends Connector<WhackConnectorConfiguration, Whack
         getConnection(channel).send(packet);
     }
 
-    public void receiveFromComponent(Channel channel, Packet packet) throws ConnectorException {
-        receive(channel, packet);
+    void receiveFromComponent(WhackChannelConnection connection, Packet packet) throws ConnectorException {
+        receive(connection, packet);
     }
 }
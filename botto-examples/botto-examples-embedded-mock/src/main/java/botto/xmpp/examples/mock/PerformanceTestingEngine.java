@@ -1,6 +1,7 @@
 package botto.xmpp.examples.mock;
 
 import botto.xmpp.AbstractBot;
+import botto.xmpp.AddBotsResult;
 import botto.xmpp.BotManager;
 import botto.xmpp.Meters;
 import botto.xmpp.botto.xmpp.connector.ConnectorId;
@@ -11,14 +12,20 @@ import botto.xmpp.examples.bots.SpamBot;
 import botto.xmpp.reflection.AnnotatedBotObject;
 import ch.qos.logback.classic.Level;
 import com.codahale.metrics.JmxReporter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.xmpp.packet.JID;
 
+import java.util.HashMap;
+import java.util.Map;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 
 public class PerformanceTestingEngine {
 
+    private static final Logger Log = LoggerFactory.getLogger(PerformanceTestingEngine.class);
+
     public static void main(String[] args) throws Exception {
 
         // start metrics reporting to JMX
@@ -41,8 +48,11 @@ public class PerformanceTestingEngine {
         connectionManager.registerConnector(connector);
 
 
-        // 100k bots generating traffic that goes nowhere
-        for (int i = 0; i < 1000000; i++) {
+        int pairs = 1000000;
+        Map<JID, AbstractBot> bots = new HashMap<JID, AbstractBot>(pairs * 4);
+
+        // 1M pairs of bots generating traffic that goes nowhere
+        for (int i = 0; i < pairs; i++) {
 
             JID echoAddress = new JID("echo" + i + "@example.com");
             JID spamAddress = new JID("spam" + i + "@example.com");
@@ -51,16 +61,20 @@ public class PerformanceTestingEngine {
             SpamBot spamBot = new SpamBot(echoAddress);
             AbstractBot spamAnnotatedBot = AnnotatedBotObject.from(spamBot).get();
 
-            connectionManager.addBot(connector.getConnectorId(), spamAddress, spamAnnotatedBot);
+            bots.put(spamAddress, spamAnnotatedBot);
 
 
             service.scheduleAtFixedRate(spamBot, 10, 1, TimeUnit.SECONDS);
 
             EchoBot echoBot = new EchoBot();
             AbstractBot echo = AnnotatedBotObject.from(echoBot).get();
-            connectionManager.addBot(connector.getConnectorId(), echoAddress, echo);
+            bots.put(echoAddress, echo);
         }
 
+        long start = System.currentTimeMillis();
+        AddBotsResult result = connectionManager.addBots(connector.getConnectorId(), bots).get();
+        Log.info("Added bots in {}ms: {}", System.currentTimeMillis() - start, result);
+
         connector.start();
         connectionManager.start();
     }
@@ -1,6 +1,7 @@
 package botto.xmpp;
 
 import botto.xmpp.annotations.BotContext;
+import botto.xmpp.botto.xmpp.connector.channel.IngressFilter;
 import org.xmpp.packet.Packet;
 
 public abstract class AbstractBot implements Bot {
@@ -14,7 +15,37 @@ public abstract class AbstractBot implements Bot {
         return doReceive(packet);
     }
 
+    /**
+     * Deliver a packet together with the context of the channel it was received on.
+     * Shared bots are bound to many channels and never get a context through setContext,
+     * so this is the only way for them to know where a packet comes from.
+     */
+    public final Packet receive(BotContext botContext, Packet packet) {
+        return doReceive(botContext, packet);
+    }
+
+    /**
+     * A shared bot can be bound to any number of addresses at the same time.
+     * The BotManager will not call setContext on shared bots, and will deliver
+     * packets using receive(BotContext, Packet) instead.
+     */
+    public boolean isShared() {
+        return false;
+    }
+
+    /**
+     * The packets this bot can handle. Connectors drop the others before converting them,
+     * so a bot must not receive anything outside of it. The default accepts all packets.
+     */
+    public IngressFilter getIngressFilter() {
+        return IngressFilter.ALL;
+    }
+
     protected abstract Packet doReceive(Packet packet);
 
+    protected Packet doReceive(BotContext botContext, Packet packet) {
+        return doReceive(packet);
+    }
+
     protected abstract void doSetcontext(BotContext botContext);
 }
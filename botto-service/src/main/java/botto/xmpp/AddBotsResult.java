@@ -0,0 +1,42 @@
+package botto.xmpp;
+
+import botto.xmpp.botto.xmpp.connector.channel.ChannelContext;
+import com.google.common.base.Objects;
+import org.xmpp.packet.JID;
+
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * Outcome of BotManager.addBots: the channel opened for each address, or the reason it could not be opened.
+ */
+public class AddBotsResult {
+
+    private final Map<JID, ChannelContext> opened;
+    private final Map<JID, Throwable> failed;
+
+    AddBotsResult(Map<JID, ChannelContext> opened, Map<JID, Throwable> failed) {
+        this.opened = Collections.unmodifiableMap(opened);
+        this.failed = Collections.unmodifiableMap(failed);
+    }
+
+    public Map<JID, ChannelContext> getOpened() {
+        return opened;
+    }
+
+    public Map<JID, Throwable> getFailed() {
+        return failed;
+    }
+
+    public boolean isSuccess() {
+        return failed.isEmpty();
+    }
+
+    @Override
+    public String toString() {
+        return Objects.toStringHelper(this)
+            .add("opened", opened.size())
+            .add("failed", failed.size())
+            .toString();
+    }
+}
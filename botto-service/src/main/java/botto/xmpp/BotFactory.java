@@ -0,0 +1,23 @@
+package botto.xmpp;
+
+import org.xmpp.packet.JID;
+
+/**
+ * Creates and disposes bots on behalf of a BotPassivator.
+ */
+public interface BotFactory {
+
+    /**
+     * Create the bot for an address.
+     * @param address the address of the bot
+     * @param state the state returned by the last call to passivate, or null if the bot was never passivated
+     *              or is stateless
+     */
+    public AbstractBot activate(JID address, byte[] state) throws Exception;
+
+    /**
+     * Dispose of an idle bot.
+     * @return the serialized state of the bot, or null if the bot is stateless and can simply be discarded
+     */
+    public byte[] passivate(JID address, AbstractBot bot) throws Exception;
+}
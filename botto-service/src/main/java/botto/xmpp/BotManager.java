@@ -1,13 +1,21 @@
 package botto.xmpp;
 
+import botto.xmpp.annotations.BotContext;
+import botto.xmpp.annotations.BotState;
 import botto.xmpp.botto.xmpp.connector.Connector;
 import botto.xmpp.botto.xmpp.connector.ConnectorException;
+import botto.xmpp.botto.xmpp.connector.ConnectorGauge;
 import botto.xmpp.botto.xmpp.connector.ConnectorId;
 import botto.xmpp.botto.xmpp.connector.channel.Channel;
 import botto.xmpp.botto.xmpp.connector.channel.ChannelContext;
 import botto.xmpp.botto.xmpp.connector.channel.ChannelContextListener;
 import botto.xmpp.botto.xmpp.connector.channel.ChannelEvent;
+import botto.xmpp.botto.xmpp.connector.channel.ChannelReceiver;
+import botto.xmpp.botto.xmpp.connector.channel.ChannelStatus;
+import botto.xmpp.service.component.NodeFilter;
+import botto.xmpp.state.BotStateStore;
 import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.util.concurrent.*;
 import net.caprazzi.reusables.common.Managed;
 import net.caprazzi.reusables.threading.ExecutorUtils;
@@ -17,36 +25,58 @@ import org.slf4j.helpers.MessageFormatter;
 import org.xmpp.packet.JID;
 import org.xmpp.packet.Packet;
 
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Object bindings overview:
  * - A Channel uniquely binds an Address to a Connector
- * - A Bot is uniquely bound to a Channel
- * - An Address is a JID (could be an expression in the future(
+ * - A Bot is uniquely bound to a Channel, unless it is shared (see AbstractBot.isShared)
+ * - An Address is a JID, or a domain and a NodeFilter accepting any number of nodes of that domain
  */
 public class BotManager implements Managed {
 
     private static final Logger Log = LoggerFactory.getLogger(BotManager.class);
-    private final ChannelRegistry channels = new ChannelRegistry();
+    private static final int DEFAULT_OPEN_CONCURRENCY = Runtime.getRuntime().availableProcessors() * 2;
+    private final ChannelRegistry channels;
     private final ConnectorRegistry connectors = new ConnectorRegistry();
     // executes connector.openChannel, connector.closeChannel, connector.send, bot.receive
     private final ListeningExecutorService executor;
+    // delivers channel events to listeners
+    private final ExecutorService eventExecutor;
+    // opens the channels of addBots, with as many threads as the running calls ask for; idle threads go away
+    private final ExecutorService openers = Executors.newCachedThreadPool(new ThreadFactoryBuilder()
+        .setNameFormat("botto-open-%d")
+        .setDaemon(true)
+        .build());
     private boolean started;
+    // serializes changes to the routers bound to domain channels
+    private final Object routers = new Object();
+    private volatile BotStateStore stateStore;
 
-    private BotManager(ExecutorService executorService) {
+    private BotManager(ExecutorService executorService, ExecutorService eventExecutorService) {
         executor = MoreExecutors.listeningDecorator(executorService);
+        eventExecutor = eventExecutorService;
+        channels = new ChannelRegistry(eventExecutorService);
     }
 
     public static BotManager create() {
-        return new BotManager(Executors.newSingleThreadExecutor());
+        return new BotManager(Executors.newSingleThreadExecutor(), Executors.newSingleThreadExecutor(new ThreadFactoryBuilder()
+            .setNameFormat("botto-channel-events")
+            .setDaemon(true)
+            .build()));
     }
 
     protected static BotManager create(ExecutorService executorService) {
-        return new BotManager(executorService);
+        return new BotManager(executorService, executorService);
     }
 
     public boolean isStarted() {
@@ -71,27 +101,74 @@ public class BotManager implements Managed {
         }
         started = false;
         try {
-            ExecutorUtils.shutdown(Log, executor, 2, TimeUnit.SECONDS);
+            ExecutorUtils.shutdown(Log, openers, 2, TimeUnit.SECONDS);
+            // connectors close their channels when stopping, and the events of those still get delivered
             for (Connector connector : connectors.list()) {
-                stopConnector(connector);
+                try {
+                    stopConnector(connector);
+                } catch (Exception ex) {
+                    Log.error("Error while stopping connector {} - ignoring: {}", connector, ex);
+                }
             }
+            ExecutorUtils.shutdown(Log, executor, 2, TimeUnit.SECONDS);
+            ExecutorUtils.shutdown(Log, eventExecutor, 2, TimeUnit.SECONDS);
         } catch (Exception ex) {
             Log.error("Error during shutdown - ignoring: {}", ex);
         }
     }
 
+    /**
+     * Set the store that provides the BotState injected in fields and parameters marked @State.
+     * Bots added before this call only see the store once they are bound to a new context.
+     */
+    public void setStateStore(BotStateStore stateStore) {
+        this.stateStore = stateStore;
+    }
+
+    BotState getState(JID address) {
+        BotStateStore store = stateStore;
+        return store != null ? store.forAddress(address) : null;
+    }
+
+    /**
+     * Listeners are called asynchronously, one thread at a time, and only see the latest event
+     * of a channel if events arrive faster than they are handled.
+     */
     public void addChannelEventListener(ChannelContextListener listener) {
         channels.addChannelContextListener(listener);
     }
 
+    /**
+     * @return the live number of channels of a connector with a status
+     */
+    public long countChannels(ConnectorId connectorId, ChannelStatus status) {
+        return channels.countChannels(connectorId, status);
+    }
+
+    /**
+     * Pages through a snapshot of the channels, for admin tools. Does not block packet dispatch.
+     * @param connectorId the connector, or null for all connectors
+     * @param status the status of the listed channels, or null for any status
+     */
+    public List<ChannelContext> listChannels(ConnectorId connectorId, ChannelStatus status, int offset, int limit) {
+        return channels.listChannels(connectorId, status, offset, limit);
+    }
+
     // TODO: why is this sinchronized and not other methods?
     // TODO: should a connector generate its own ConnectorId?
-    public synchronized void registerConnector(final Connector connector) throws BottoException {
+    public synchronized void registerConnector(final Connector<?, ?> connector) throws BottoException {
         Preconditions.checkNotNull(connector, "Connector can't be null");
         Preconditions.checkNotNull(connector.getConnectorId(), "Connector ID can't be null");
 
         connectors.addConnector(connector);
         connector.addChannelListener(new ConnectorChannelListener(this, connector));
+        Meters.connectors.registerGauges(connector.getConnectorId(), connector.getGauges());
+        Meters.connectors.registerGauges(connector.getConnectorId(), ImmutableMap.<String, ConnectorGauge>of("ingress.filtered", new ConnectorGauge() {
+            @Override
+            public long getValue() {
+                return connector.getFilteredCount();
+            }
+        }));
         Log.info("Registered connector {} with id {}", connector);
         if (isStarted()) {
             startConnector(connector);
@@ -108,11 +185,158 @@ public class BotManager implements Managed {
         return async(message("opening new channel for {}::{} on {}", address, bot, connectorId), new Callable<ChannelContext>() {
             @Override
             public ChannelContext call() throws Exception {
-                final Connector connector = connectors.getConnector(connectorId);
-                ChannelContext context = connector.openChannel(address);
-                bot.setContext(new ChannelBotContext(context, BotManager.this, connector));
-                channels.addChannel(context, bot);
-                return context;
+                return openChannel(connectors.getConnector(connectorId), address, bot);
+            }
+        });
+    }
+
+    /**
+     * Bulk version of addBot, with one concurrent opener per processor pair.
+     * @see #addBots(ConnectorId, Map, int)
+     */
+    public ListenableFuture<AddBotsResult> addBots(ConnectorId connectorId, Map<JID, AbstractBot> bots) {
+        return addBots(connectorId, bots, DEFAULT_OPEN_CONCURRENCY);
+    }
+
+    /**
+     * Adds many bots at once.
+     * The channel registry is sized once for all the bots, and channels are opened by {@code concurrency}
+     * threads, or one per bot if there are fewer bots, each opening channels one after the other.
+     * The threads come from a pool shared by all calls, which keeps them for a while once idle.
+     * A failure to open a channel does not stop the others from being opened.
+     * @return a future that completes when all channels were attempted, with the result for each address,
+     * or that fails if the connector is not registered
+     */
+    public ListenableFuture<AddBotsResult> addBots(final ConnectorId connectorId, final Map<JID, AbstractBot> bots, int concurrency) {
+        Preconditions.checkNotNull(bots, "Bots can't be null");
+        Preconditions.checkArgument(concurrency > 0, "Concurrency must be positive: %s", concurrency);
+
+        final Connector connector;
+        try {
+            connector = connectors.getConnector(connectorId);
+        } catch (BottoRuntimeException ex) {
+            return Futures.immediateFailedFuture(ex);
+        }
+        final Map<JID, ChannelContext> opened = new ConcurrentHashMap<JID, ChannelContext>(bots.size());
+        final Map<JID, Throwable> failed = new ConcurrentHashMap<JID, Throwable>();
+        final SettableFuture<AddBotsResult> result = SettableFuture.create();
+        if (bots.isEmpty()) {
+            result.set(new AddBotsResult(opened, failed));
+            return result;
+        }
+        channels.ensureCapacity(bots.size());
+
+        final Iterator<Map.Entry<JID, AbstractBot>> pending = bots.entrySet().iterator();
+        int workers = Math.min(concurrency, bots.size());
+        final AtomicInteger running = new AtomicInteger(workers);
+        Log.info("Opening {} channels on {} with {} threads", bots.size(), connectorId, workers);
+        for (int i = 0; i < workers; i++) {
+            openers.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        Map.Entry<JID, AbstractBot> entry;
+                        while ((entry = next(pending)) != null) {
+                            try {
+                                opened.put(entry.getKey(), openChannel(connector, entry.getKey(), entry.getValue()));
+                            } catch (Throwable t) {
+                                Log.error("Failure: opening new channel for {} on {}: {}", entry.getKey(), connectorId, t);
+                                failed.put(entry.getKey(), t);
+                            }
+                        }
+                    } finally {
+                        if (running.decrementAndGet() == 0) {
+                            Log.info("Opened {} channels on {}, {} failures", opened.size(), connectorId, failed.size());
+                            result.set(new AddBotsResult(opened, failed));
+                        }
+                    }
+                }
+            });
+        }
+        return result;
+    }
+
+    /**
+     * Binds the same shared bot to many addresses.
+     * The bot is not bound to any context, and receives the context of each channel
+     * together with every packet: memory used by the bot does not grow with the number of addresses.
+     * @return a future that completes when all channels are open, or fails if any of them fails to open
+     */
+    public ListenableFuture<List<ChannelContext>> addSharedBot(final ConnectorId connectorId, final Iterable<JID> addresses, final AbstractBot bot) {
+        Preconditions.checkNotNull(addresses, "Addresses can't be null");
+        Preconditions.checkNotNull(bot, "Bot can't be null");
+        Preconditions.checkArgument(bot.isShared(), "Bot %s is not a shared bot", bot);
+        List<ListenableFuture<ChannelContext>> futures = new ArrayList<ListenableFuture<ChannelContext>>();
+        for (JID address : addresses) {
+            futures.add(addBot(connectorId, address, bot));
+        }
+        return Futures.allAsList(futures);
+    }
+
+    /**
+     * Binds a bot to all the nodes of a domain accepted by a filter, with no registration per node.
+     * A single channel is opened for the domain, and packets are routed to the bot of the first
+     * filter accepting the node they are addressed to: see NodeIndex for the order.
+     * Shared bots receive a context whose state is the state of the node; other bots are bound
+     * to the context of the domain channel.
+     * Only connectors receiving all the packets of a domain on the domain channel, such as
+     * components, can serve these bots.
+     * @return a future with the context of the domain channel
+     */
+    public ListenableFuture<ChannelContext> addBot(final ConnectorId connectorId, final String domain, final NodeFilter filter, final AbstractBot bot) {
+        Preconditions.checkNotNull(domain, "Domain can't be null");
+        Preconditions.checkNotNull(filter, "Filter can't be null");
+        Preconditions.checkNotNull(bot, "Bot can't be null");
+        return async(message("adding bot {} for {} on {}", bot, filter, domain), new Callable<ChannelContext>() {
+            @Override
+            public ChannelContext call() throws Exception {
+                Connector connector = connectors.getConnector(connectorId);
+                JID address = new JID(domain);
+                synchronized (routers) {
+                    AbstractBot existing = channels.getBot(address);
+                    if (existing != null && !(existing instanceof NodeRouter)) {
+                        throw new BottoRuntimeException("Domain {0} is already bound to bot {1}", domain, existing);
+                    }
+                    NodeRouter router = (NodeRouter) existing;
+                    ChannelContext context;
+                    if (router == null) {
+                        router = new NodeRouter();
+                        router.addBot(filter, bot);
+                        context = openChannel(connector, address, router);
+                    } else {
+                        router.addBot(filter, bot);
+                        context = channels.getContext(channels.getChannel(address));
+                        connector.setIngressFilter(context.getChannel(), router.getIngressFilter());
+                    }
+                    if (!bot.isShared()) {
+                        bot.setContext(new ChannelBotContext(context, BotManager.this, connector));
+                    }
+                    return context;
+                }
+            }
+        });
+    }
+
+    /**
+     * Removes the bot bound to a filter, and closes the domain channel when no filter is left.
+     */
+    public ListenableFuture<Void> removeBot(final ConnectorId connectorId, final String domain, final NodeFilter filter) {
+        return async(message("removing bot for {} on {}", filter, domain), new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                JID address = new JID(domain);
+                synchronized (routers) {
+                    AbstractBot existing = channels.getBot(address);
+                    if (!(existing instanceof NodeRouter) || ((NodeRouter) existing).removeBot(filter) == null) {
+                        throw new BottoRuntimeException("No bot found for {0} on domain {1}", filter, domain);
+                    }
+                    if (((NodeRouter) existing).isEmpty()) {
+                        closeChannel(connectors.getConnector(connectorId), channels.getChannel(address));
+                    } else {
+                        connectors.getConnector(connectorId).setIngressFilter(channels.getChannel(address), existing.getIngressFilter());
+                    }
+                }
+                return null;
             }
         });
     }
@@ -121,10 +345,7 @@ public class BotManager implements Managed {
         return async(message("Removing bot {}::{} on {}", bot, address, connectorId), new Callable<Void>() {
             @Override
             public Void call() throws Exception {
-                Connector connector = connectors.getConnector(connectorId);
-                Channel channel = channels.getChannel(address);
-                connector.closeChannel(channel);
-                channels.removeChannel(channel);
+                closeChannel(connectors.getConnector(connectorId), channels.getChannel(address));
                 return null;
             }
         });
@@ -148,17 +369,28 @@ public class BotManager implements Managed {
     }
 
     /**
-     * Asynchronously dispatch a Packet to a bot and send back any response.
+     * Asynchronously dispatch a Packet to the bot registered for the channel and send back any response.
      * @param connector The connector where the Packet originated
      * @param channel The channel where the Packet originated
      * @param packet The incoming packet
      * @param meter Metrics object to use
      */
     void receive(final Connector connector, final Channel channel, final Packet packet, final Meters.ConnectorMetrics meter) {
+        final AbstractBot bot = channels.getBot(channel);
+        final BotContext botContext = bot != null && bot.isShared()
+            ? new ChannelBotContext(channels.getContext(channel), this, connector)
+            : null;
+        dispatch(connector, channel, bot, botContext, packet, meter);
+    }
+
+    /**
+     * Dispatch a Packet to a resolved bot and send back any response.
+     * @param botContext The context to pass with the packet to a shared bot, or null
+     */
+    void dispatch(final Connector connector, final Channel channel, final AbstractBot bot, final BotContext botContext, final Packet packet, final Meters.ConnectorMetrics meter) {
         Log.debug("Received packet on {}::{}: {}", channel, connector, packet);
 
-        final AbstractBot bot = channels.getBot(channel);
-        ListenableFuture<Packet> execute = deliverToBot(packet, bot, meter);
+        ListenableFuture<Packet> execute = deliverToBot(packet, bot, botContext, meter);
         Futures.addCallback(execute, new FutureCallback<Packet>() {
             public void onSuccess(Packet response) {
                 Log.debug("Delivered packet to bot {}: {}, with response {}", bot, packet.getID(), response);
@@ -179,11 +411,14 @@ public class BotManager implements Managed {
         channels.setChannelEvent(event);
     }
 
-    private ListenableFuture<Packet> deliverToBot(final Packet packet, final AbstractBot bot, final Meters.ConnectorMetrics metrics) {
+    private ListenableFuture<Packet> deliverToBot(final Packet packet, final AbstractBot bot, final BotContext botContext, final Meters.ConnectorMetrics metrics) {
         return executor.submit(new Callable<Packet>() {
             public Packet call() throws Exception {
                 long start = metrics.startBotDelivery();
                 try {
+                    if (botContext != null) {
+                        return bot.receive(botContext, packet);
+                    }
                     return bot.receive(packet);
                 } catch (Exception ex) {
                     throw new BottoRuntimeException(ex, "Failed to deliver packet {0} to bot {1}", packet, bot);
@@ -194,6 +429,34 @@ public class BotManager implements Managed {
         });
     }
 
+    private ChannelContext openChannel(Connector connector, JID address, AbstractBot bot) throws ConnectorException {
+        ChannelContext context = connector.openChannel(address);
+        BotContext botContext = new ChannelBotContext(context, BotManager.this, connector);
+        if (!bot.isShared()) {
+            bot.setContext(botContext);
+        }
+        channels.addChannel(context, bot);
+        connector.setIngressFilter(context.getChannel(), bot.getIngressFilter());
+        connector.bindReceiver(context.getChannel(), new DeliveryHandle(this, connector, context.getChannel(), bot, bot.isShared() ? botContext : null));
+        return context;
+    }
+
+    // invalidates the delivery handle before the channel goes away
+    private void closeChannel(Connector connector, Channel channel) throws ConnectorException {
+        ChannelReceiver receiver = connector.unbindReceiver(channel);
+        if (receiver instanceof DeliveryHandle) {
+            ((DeliveryHandle) receiver).invalidate();
+        }
+        connector.closeChannel(channel);
+        channels.removeChannel(channel);
+    }
+
+    private static <T> T next(Iterator<T> iterator) {
+        synchronized (iterator) {
+            return iterator.hasNext() ? iterator.next() : null;
+        }
+    }
+
     private void startConnector(Connector connector) {
         try {
             connector.start();
@@ -0,0 +1,132 @@
+package botto.xmpp;
+
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import net.caprazzi.reusables.common.Managed;
+import net.caprazzi.reusables.threading.ExecutorUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xmpp.packet.JID;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps idle bots out of memory.
+ *
+ * Bots created with wrap() start passive: they are activated by the BotFactory on the first
+ * incoming packet, and are handed back to the factory after being idle for longer than the timeout.
+ * Only active bots are tracked, so the cost of a sweep does not depend on the number of passive bots.
+ */
+public class BotPassivator implements Managed {
+
+    private static final Logger Log = LoggerFactory.getLogger(BotPassivator.class);
+
+    private final long idleTimeoutMillis;
+    private final Set<PassivatingBot> active = Collections.newSetFromMap(new ConcurrentHashMap<PassivatingBot, Boolean>());
+    private ScheduledExecutorService scheduler;
+
+    private BotPassivator(long idleTimeoutMillis) {
+        this.idleTimeoutMillis = idleTimeoutMillis;
+    }
+
+    public static BotPassivator create(long idleTimeout, TimeUnit unit) {
+        Preconditions.checkArgument(idleTimeout >= 0, "Idle timeout can't be negative");
+        return new BotPassivator(unit.toMillis(idleTimeout));
+    }
+
+    /**
+     * Create a passive stub for a bot. Add the stub to a BotManager as any other bot.
+     */
+    public PassivatingBot wrap(JID address, BotFactory factory) {
+        Meters.passivation.countPassive();
+        return new PassivatingBot(address, factory, this);
+    }
+
+    /**
+     * Forget a stub, for example after removing it from the BotManager.
+     * Packets that still reach the stub are dropped, and releasing it again does nothing.
+     */
+    public void release(PassivatingBot bot) {
+        bot.discard();
+    }
+
+    /**
+     * Passivate all bots that have been idle for longer than the timeout.
+     * @return the number of passivated bots
+     */
+    public int passivateIdleBots() {
+        long idleSince = System.currentTimeMillis() - idleTimeoutMillis;
+        int count = 0;
+        for (PassivatingBot bot : active) {
+            if (bot.passivateIfIdle(idleSince)) {
+                count++;
+            }
+        }
+        if (count > 0) {
+            Log.debug("Passivated {} idle bots", count);
+        }
+        return count;
+    }
+
+    public int getActiveCount() {
+        return active.size();
+    }
+
+    // called by bots while holding their own lock
+    void activated(PassivatingBot bot) {
+        active.add(bot);
+        Meters.passivation.countActivation();
+    }
+
+    // called by bots while holding their own lock
+    void discarded(PassivatingBot bot, boolean wasActive) {
+        active.remove(bot);
+        Meters.passivation.countReleased(wasActive);
+    }
+
+    // called by bots while holding their own lock
+    void passivated(PassivatingBot bot) {
+        active.remove(bot);
+        Meters.passivation.countPassivation();
+    }
+
+    @Override
+    public synchronized void start() {
+        if (scheduler != null) {
+            throw new BottoRuntimeException("Could not start: already started");
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+            .setDaemon(true)
+            .setNameFormat("botto-passivator-%d")
+            .build());
+        long period = Math.max(1, idleTimeoutMillis / 2);
+        scheduler.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    passivateIdleBots();
+                } catch (Exception ex) {
+                    Log.error("Error while passivating idle bots: {}", ex);
+                }
+            }
+        }, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public synchronized void stop() {
+        if (scheduler == null) {
+            throw new BottoRuntimeException("Could not stop: not started");
+        }
+        try {
+            ExecutorUtils.shutdown(Log, scheduler, 2, TimeUnit.SECONDS);
+        } catch (Exception ex) {
+            Log.error("Error during shutdown - ignoring: {}", ex);
+        }
+        scheduler = null;
+    }
+}
@@ -1,25 +1,43 @@
 package botto.xmpp;
 
-import botto.xmpp.annotations.BotContext;
+import botto.xmpp.annotations.BotState;
+import botto.xmpp.annotations.StatefulBotContext;
 import botto.xmpp.botto.xmpp.connector.Connector;
 import botto.xmpp.botto.xmpp.connector.channel.ChannelContext;
 import botto.xmpp.botto.xmpp.connector.channel.ChannelStatus;
 import com.google.common.base.Preconditions;
+import org.xmpp.packet.JID;
 import org.xmpp.packet.Packet;
 
-public class ChannelBotContext implements BotContext {
+public class ChannelBotContext implements StatefulBotContext {
 
     private final ChannelContext context;
     private final BotManager manager;
     private final Connector connector;
+    // the address owning the state, differs from the channel address on domain channels
+    private final JID address;
+    // looked up once, so the store can prepare the address for every later access
+    private volatile BotState state;
 
     public ChannelBotContext(ChannelContext context, BotManager manager, Connector connector) {
+        this(context, manager, connector, null);
+    }
+
+    private ChannelBotContext(ChannelContext context, BotManager manager, Connector connector, JID address) {
         Preconditions.checkNotNull(context);
         Preconditions.checkNotNull(manager);
         Preconditions.checkNotNull(connector);
         this.context = context;
         this.manager = manager;
         this.connector = connector;
+        this.address = address;
+    }
+
+    /**
+     * @return a context on the same channel, with the state of another address
+     */
+    ChannelBotContext forAddress(JID address) {
+        return new ChannelBotContext(context, manager, connector, address);
     }
 
     @Override
@@ -27,6 +45,16 @@ public class ChannelBotContext implements BotContext {
         return context.getStatus().isConnected();
     }
 
+    @Override
+    public BotState getState() {
+        BotState current = state;
+        if (current == null) {
+            current = manager.getState(address != null ? address : context.getChannel().getAddress());
+            state = current;
+        }
+        return current;
+    }
+
     @Override
     public void send(Packet packet) {
         if (!isConnected()) {
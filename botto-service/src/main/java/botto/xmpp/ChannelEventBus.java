@@ -0,0 +1,119 @@
+package botto.xmpp;
+
+import botto.xmpp.botto.xmpp.connector.channel.Channel;
+import botto.xmpp.botto.xmpp.connector.channel.ChannelContext;
+import botto.xmpp.botto.xmpp.connector.channel.ChannelContextListener;
+import botto.xmpp.botto.xmpp.connector.channel.ChannelEvent;
+import com.google.common.base.Preconditions;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Delivers channel events to listeners on an executor, away from the connector thread that reported them.
+ *
+ * Each listener has its own queue of channels with pending events, and only the latest event
+ * of each channel is kept: a listener that lags behind skips the intermediate statuses of a channel
+ * instead of going through all of them. Each listener is called by one thread at a time.
+ */
+class ChannelEventBus {
+
+    private static final Logger Log = LoggerFactory.getLogger(ChannelEventBus.class);
+
+    // events delivered by a listener before yielding the executor to other listeners
+    private static final int BATCH_SIZE = 256;
+
+    private final Executor executor;
+    private final CopyOnWriteArrayList<ListenerQueue> queues = new CopyOnWriteArrayList<ListenerQueue>();
+
+    ChannelEventBus(Executor executor) {
+        this.executor = Preconditions.checkNotNull(executor);
+    }
+
+    void addListener(ChannelContextListener listener) {
+        queues.add(new ListenerQueue(Preconditions.checkNotNull(listener)));
+    }
+
+    void publish(ChannelContext context, ChannelEvent event) {
+        for (ListenerQueue queue : queues) {
+            queue.offer(new Pending(context, event));
+        }
+    }
+
+    private static final class Pending {
+        private final ChannelContext context;
+        private final ChannelEvent event;
+        private final long published = System.nanoTime();
+
+        private Pending(ChannelContext context, ChannelEvent event) {
+            this.context = context;
+            this.event = event;
+        }
+    }
+
+    private final class ListenerQueue implements Runnable {
+        private final ChannelContextListener listener;
+        private final ConcurrentHashMap<Channel, Pending> latest = new ConcurrentHashMap<Channel, Pending>();
+        private final ConcurrentLinkedQueue<Channel> channels = new ConcurrentLinkedQueue<Channel>();
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+
+        private ListenerQueue(ChannelContextListener listener) {
+            this.listener = listener;
+        }
+
+        private void offer(Pending pending) {
+            Channel channel = pending.event.getChannel();
+            if (latest.put(channel, pending) == null) {
+                Meters.channelEvents.countPending();
+                channels.add(channel);
+            } else {
+                Meters.channelEvents.countCoalesced();
+            }
+            schedule();
+        }
+
+        private void schedule() {
+            if (scheduled.compareAndSet(false, true)) {
+                try {
+                    executor.execute(this);
+                } catch (RuntimeException ex) {
+                    scheduled.set(false);
+                    Log.error("Could not schedule delivery of channel events to {}: {}", listener, ex);
+                }
+            }
+        }
+
+        @Override
+        public void run() {
+            try {
+                Channel channel;
+                for (int i = 0; i < BATCH_SIZE && (channel = channels.poll()) != null; i++) {
+                    // a newer event for the channel may have replaced the one that queued it
+                    Pending pending = latest.remove(channel);
+                    if (pending != null) {
+                        deliver(pending);
+                    }
+                }
+            } finally {
+                scheduled.set(false);
+            }
+            if (!channels.isEmpty()) {
+                schedule();
+            }
+        }
+
+        private void deliver(Pending pending) {
+            Meters.channelEvents.timeLag(pending.published);
+            try {
+                listener.onChannelEvent(pending.context, pending.event);
+            } catch (Exception ex) {
+                Log.error("Listener {} failed on event {}: {}", listener, pending.event, ex);
+            }
+        }
+    }
+}
@@ -1,99 +1,278 @@
 package botto.xmpp;
 
+import botto.xmpp.botto.xmpp.connector.ConnectorId;
+import botto.xmpp.botto.xmpp.connector.JIDPool;
 import botto.xmpp.botto.xmpp.connector.channel.Channel;
 import botto.xmpp.botto.xmpp.connector.channel.ChannelContext;
 import botto.xmpp.botto.xmpp.connector.channel.ChannelContextListener;
 import botto.xmpp.botto.xmpp.connector.channel.ChannelEvent;
+import botto.xmpp.botto.xmpp.connector.channel.ChannelStatus;
 import com.google.common.base.Preconditions;
-import org.apache.commons.lang3.event.EventListenerSupport;
+import com.google.common.util.concurrent.MoreExecutors;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.xmpp.packet.JID;
 
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
+/**
+ * Binds the bare JID of each channel to its context and bot.
+ *
+ * Entries are kept in an open-addressing table made of parallel arrays, rather than in a map of entry
+ * objects, so that each channel costs a few array slots on top of the objects it already owns.
+ * Lookups never lock. Writers are serialized, publish a slot by writing its key last, and never
+ * reuse the slot of a removed entry: a reader that finds a key can only see that entry's bot and
+ * context, or null once the entry is removed. Removed slots are reclaimed when the table is rebuilt.
+ */
 class ChannelRegistry {
 
-    // TODO: only use address.toBareJID for indexing
-    private final ConcurrentHashMap<JID, ChannelBot> channels = new ConcurrentHashMap<JID, ChannelBot>();
+    private static final Logger Log = LoggerFactory.getLogger(ChannelRegistry.class);
 
-    private final EventListenerSupport<ChannelContextListener> listeners =
-            EventListenerSupport.create(ChannelContextListener.class);
+    private static final int DEFAULT_CAPACITY = 64;
+    private static final float MAX_LOAD = 0.75f;
+    private static final JID REMOVED = new JID(null, "removed.invalid", null, true);
 
-    public void addChannel(ChannelContext context, AbstractBot bot) {
+    private final ChannelEventBus events;
+    private final ChannelStatusIndex statuses = new ChannelStatusIndex();
+
+    private volatile Table table = new Table(DEFAULT_CAPACITY);
+
+    // guarded by this
+    private int size;
+    private int removed;
+
+    ChannelRegistry() {
+        this(MoreExecutors.sameThreadExecutor());
+    }
+
+    /**
+     * @param eventExecutor executes the delivery of channel events to listeners
+     */
+    ChannelRegistry(Executor eventExecutor) {
+        events = new ChannelEventBus(eventExecutor);
+    }
+
+    public synchronized void addChannel(ChannelContext context, AbstractBot bot) {
         Preconditions.checkNotNull(context);
         Preconditions.checkNotNull(context.getChannel());
         Preconditions.checkNotNull(context.getChannel().getAddress());
         Preconditions.checkNotNull(bot);
-        ChannelBot found = channels.putIfAbsent(context.getChannel().getAddress(), new ChannelBot(context, bot));
-        if (found != null) {
+        JID address = context.getChannel().getAddress();
+        int hash = hash(address);
+        if (table.find(address, hash) >= 0) {
             throw new BottoRuntimeException("There is already a bot for channel {0}: {1}", context, bot);
         }
+        if (size + removed + 1 > table.capacity() * MAX_LOAD) {
+            rebuild(capacityFor(size + 1, MAX_LOAD / 2));
+        }
+        // events reach the context through the table only: read its status before publishing it
+        statuses.add(context.getChannel().getConnectorId(), context.getStatus());
+        table.insert(address, hash, context, bot);
+        size++;
     }
 
-    public void removeChannel(Channel channel) {
+    public synchronized void removeChannel(Channel channel) {
         Preconditions.checkNotNull(channel);
-        ChannelBot removed = channels.remove(channel.getAddress());
-        if (removed == null) {
+        JID address = channel.getAddress();
+        int slot = table.find(address, hash(address));
+        if (slot < 0) {
             throw new BottoRuntimeException("Could not remove bot for channel {0}: not found", channel);
         }
+        ChannelContext context = table.contexts[slot];
+        table.remove(slot);
+        size--;
+        removed++;
+        // closed channels accept no more events, so the status can't change after this read
+        statuses.remove(context.getChannel().getConnectorId(), context.getStatus());
+    }
+
+    /**
+     * Grows the table once so that it can hold {@code additional} more channels without rebuilding.
+     */
+    public synchronized void ensureCapacity(int additional) {
+        Preconditions.checkArgument(additional >= 0, "Capacity can't be negative: %s", additional);
+        if (size + removed + additional > table.capacity() * MAX_LOAD) {
+            rebuild(capacityFor(size + additional, MAX_LOAD));
+        }
+    }
+
+    public synchronized int size() {
+        return size;
     }
 
     public Channel getChannel(JID address) {
         Preconditions.checkNotNull(address);
-        ChannelBot channelBot = channels.get(address);
-        if (channelBot != null) {
-            return channelBot.getContext().getChannel();
+        ChannelContext context = findContext(address);
+        if (context != null) {
+            return context.getChannel();
         }
         throw new BottoRuntimeException("No channel found for address {0}", address);
     }
 
+    public ChannelContext getContext(Channel channel) {
+        Preconditions.checkNotNull(channel);
+        return findContext(channel.getAddress());
+    }
+
     public AbstractBot getBot(Channel channel) {
         Preconditions.checkNotNull(channel);
-        ChannelBot channelBot = channels.get(channel.getAddress());
-        if (channelBot != null) {
-            return channelBot.getBot();
-        }
-        return null;
+        return findBot(channel.getAddress());
     }
 
     public AbstractBot getBot(JID address) {
         Preconditions.checkNotNull(address);
-        ChannelBot channelBot = channels.get(address);
-        if (channelBot != null) {
-            return channelBot.getBot();
-        }
-        return null;
+        return findBot(address);
     }
 
     public void setChannelEvent(ChannelEvent event) {
         Preconditions.checkNotNull(event);
-        ChannelBot entry = channels.get(event.getChannel().getAddress());
-        if (entry == null) {
+        ChannelContext context = findContext(event.getChannel().getAddress());
+        if (context == null) {
             return;
         }
-        entry.getContext().setEvent(event);
-        listeners.fire().onChannelEvent(entry.getContext(), event);
+        ChannelStatus previous = context.applyEvent(event);
+        if (previous == null) {
+            Log.debug("Dropped out of order or invalid event {} for {}", event, context);
+            return;
+        }
+        statuses.move(context.getChannel().getConnectorId(), previous, event.getStatus());
+        events.publish(context, event);
+    }
+
+    /**
+     * @return the number of channels of the connector with the status, without walking the channels
+     */
+    public long countChannels(ConnectorId connectorId, ChannelStatus status) {
+        return statuses.count(connectorId, status);
+    }
+
+    /**
+     * Lists the contexts of the channels of a connector, in a stable order as long as the registry
+     * does not grow. Never locks: channels added or removed while listing may or may not be included.
+     * @param connectorId the connector, or null for all connectors
+     * @param status the status of the listed channels, or null for any status
+     * @param offset number of matching channels to skip
+     * @param limit maximum number of channels to return
+     */
+    public List<ChannelContext> listChannels(ConnectorId connectorId, ChannelStatus status, int offset, int limit) {
+        Preconditions.checkArgument(offset >= 0, "Offset can't be negative: %s", offset);
+        Preconditions.checkArgument(limit >= 0, "Limit can't be negative: %s", limit);
+        List<ChannelContext> page = new ArrayList<ChannelContext>(Math.min(limit, 1024));
+        Table current = table;
+        int skipped = 0;
+        for (int slot = 0; slot < current.capacity() && page.size() < limit; slot++) {
+            ChannelContext context = current.contexts[slot];
+            if (context == null
+                || (connectorId != null && !connectorId.equals(context.getChannel().getConnectorId()))
+                || (status != null && status != context.getStatus())) {
+                continue;
+            }
+            if (skipped++ >= offset) {
+                page.add(context);
+            }
+        }
+        return page;
     }
 
     public void addChannelContextListener(ChannelContextListener listener) {
-        listeners.addListener(listener);
+        events.addListener(listener);
     }
 
-    private static class ChannelBot {
-        private final ChannelContext context;
-        private final AbstractBot bot;
+    private ChannelContext findContext(JID address) {
+        Table current = table;
+        int slot = current.find(address, hash(address));
+        return slot < 0 ? null : current.contexts[slot];
+    }
 
-        public ChannelBot(ChannelContext context, AbstractBot bot) {
-            this.context = context;
-            this.bot = bot;
-        }
+    private AbstractBot findBot(JID address) {
+        Table current = table;
+        int slot = current.find(address, hash(address));
+        return slot < 0 ? null : current.bots[slot];
+    }
 
-        private ChannelContext getContext() {
-            return context;
+    private static int capacityFor(int entries, float load) {
+        int capacity = DEFAULT_CAPACITY;
+        while (entries > capacity * load) {
+            capacity <<= 1;
         }
+        return capacity;
+    }
 
-        private AbstractBot getBot() {
-            return bot;
+    // copies all live entries to a new table
+    private void rebuild(int capacity) {
+        Table current = table;
+        Table rebuilt = new Table(capacity);
+        for (int slot = 0; slot < current.capacity(); slot++) {
+            JID key = current.keys.get(slot);
+            if (key != null && key != REMOVED) {
+                rebuilt.insert(key, current.hashes[slot], current.contexts[slot], current.bots[slot]);
+            }
         }
+        table = rebuilt;
+        removed = 0;
     }
 
+    // the hash of the bare JID, computed without building the bare JID string
+    static int hash(JID address) {
+        String node = address.getNode();
+        int h = (node == null ? 0 : node.hashCode()) * 31 + address.getDomain().hashCode();
+        return h ^ (h >>> 16);
+    }
+
+    private static final class Table {
+        private final AtomicReferenceArray<JID> keys;
+        private final int[] hashes;
+        private final ChannelContext[] contexts;
+        private final AbstractBot[] bots;
+        private final int mask;
+
+        private Table(int capacity) {
+            keys = new AtomicReferenceArray<JID>(capacity);
+            hashes = new int[capacity];
+            contexts = new ChannelContext[capacity];
+            bots = new AbstractBot[capacity];
+            mask = capacity - 1;
+        }
+
+        private int capacity() {
+            return mask + 1;
+        }
+
+        private int find(JID address, int hash) {
+            int slot = hash & mask;
+            for (int probes = 0; probes <= mask; probes++) {
+                JID key = keys.get(slot);
+                if (key == null) {
+                    return -1;
+                }
+                if (key != REMOVED && hashes[slot] == hash && JIDPool.sameBare(key, address)) {
+                    return slot;
+                }
+                slot = (slot + 1) & mask;
+            }
+            return -1;
+        }
+
+        // only called by writers; the volatile write of the key publishes the slot
+        private void insert(JID address, int hash, ChannelContext context, AbstractBot bot) {
+            int slot = hash & mask;
+            while (keys.get(slot) != null) {
+                slot = (slot + 1) & mask;
+            }
+            hashes[slot] = hash;
+            contexts[slot] = context;
+            bots[slot] = bot;
+            keys.set(slot, address);
+        }
+
+        // only called by writers
+        private void remove(int slot) {
+            keys.set(slot, REMOVED);
+            contexts[slot] = null;
+            bots[slot] = null;
+        }
+    }
 }
@@ -0,0 +1,120 @@
+package botto.xmpp;
+
+import botto.xmpp.botto.xmpp.connector.ConnectorId;
+import botto.xmpp.botto.xmpp.connector.channel.ChannelStatus;
+import com.codahale.metrics.Gauge;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import static com.codahale.metrics.MetricRegistry.name;
+
+/**
+ * Live count of channels by connector and status, kept up to date on every status transition
+ * so that it never needs to walk the channels.
+ *
+ * Counters are striped by thread: concurrent transitions reported by different connector threads
+ * update different cache lines, and reading a count sums the stripes.
+ * Arrays are not aligned to cache lines, so each row of counters is followed by a full line of padding:
+ * two rows never share a line, wherever the array starts.
+ * Counts are exported as gauges named connectors.{connector}.channels.{status}.
+ */
+class ChannelStatusIndex {
+
+    private static final ChannelStatus[] statuses = ChannelStatus.values();
+    private static final int STRIPES = stripes();
+    // longs in a 64 byte cache line
+    private static final int LINE = 8;
+    // counters of a stripe, rounded up to whole lines, then one line of padding
+    private static final int ROW = (statuses.length + LINE - 1) / LINE * LINE + LINE;
+
+    private final ConcurrentHashMap<ConnectorId, StatusCounters> counters = new ConcurrentHashMap<ConnectorId, StatusCounters>();
+
+    void add(ConnectorId connectorId, ChannelStatus status) {
+        if (isIndexed(connectorId, status)) {
+            forConnector(connectorId).add(status, 1);
+        }
+    }
+
+    void remove(ConnectorId connectorId, ChannelStatus status) {
+        if (isIndexed(connectorId, status)) {
+            forConnector(connectorId).add(status, -1);
+        }
+    }
+
+    void move(ConnectorId connectorId, ChannelStatus from, ChannelStatus to) {
+        if (from != to && isIndexed(connectorId, from)) {
+            StatusCounters connector = forConnector(connectorId);
+            connector.add(from, -1);
+            connector.add(to, 1);
+        }
+    }
+
+    long count(ConnectorId connectorId, ChannelStatus status) {
+        StatusCounters connector = counters.get(connectorId);
+        return connector == null ? 0 : connector.count(status);
+    }
+
+    // partial test doubles of channels and contexts have neither
+    private static boolean isIndexed(ConnectorId connectorId, ChannelStatus status) {
+        return connectorId != null && status != null;
+    }
+
+    private StatusCounters forConnector(ConnectorId connectorId) {
+        StatusCounters connector = counters.get(connectorId);
+        if (connector == null) {
+            StatusCounters created = new StatusCounters();
+            connector = counters.putIfAbsent(connectorId, created);
+            if (connector == null) {
+                connector = created;
+                registerGauges(connectorId, created);
+            }
+        }
+        return connector;
+    }
+
+    private static void registerGauges(ConnectorId connectorId, final StatusCounters connector) {
+        for (final ChannelStatus status : statuses) {
+            try {
+                Meters.Metrics.register(name(Meters.class, "connectors", connectorId.toString(), "channels", status.name().toLowerCase()), new Gauge<Long>() {
+                    @Override
+                    public Long getValue() {
+                        return connector.count(status);
+                    }
+                });
+            } catch (IllegalArgumentException ex) {
+                // only happens if two connectors have the same name, as in ConnectorMetrics
+            }
+        }
+    }
+
+    private static int stripes() {
+        int stripes = 1;
+        while (stripes < Runtime.getRuntime().availableProcessors() * 2) {
+            stripes <<= 1;
+        }
+        return stripes;
+    }
+
+    private static final class StatusCounters {
+        // a line of padding, then one padded row of statuses per stripe
+        private final AtomicLongArray cells = new AtomicLongArray(LINE + STRIPES * ROW);
+
+        private void add(ChannelStatus status, long delta) {
+            int stripe = (int) Thread.currentThread().getId() & (STRIPES - 1);
+            cells.addAndGet(cell(stripe, status), delta);
+        }
+
+        private long count(ChannelStatus status) {
+            long count = 0;
+            for (int stripe = 0; stripe < STRIPES; stripe++) {
+                count += cells.get(cell(stripe, status));
+            }
+            return count;
+        }
+
+        private static int cell(int stripe, ChannelStatus status) {
+            return LINE + stripe * ROW + status.ordinal();
+        }
+    }
+}
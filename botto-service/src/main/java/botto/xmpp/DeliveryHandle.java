@@ -0,0 +1,52 @@
+package botto.xmpp;
+
+import botto.xmpp.annotations.BotContext;
+import botto.xmpp.botto.xmpp.connector.Connector;
+import botto.xmpp.botto.xmpp.connector.channel.Channel;
+import botto.xmpp.botto.xmpp.connector.channel.ChannelReceiver;
+import org.xmpp.packet.Packet;
+
+/**
+ * The bot, context and metrics of a channel, resolved once when the bot is added, and bound to
+ * the connection of the channel: packets received on the channel reach the bot without a registry lookup.
+ * Once the bot is removed the handle is invalid, and packets still in flight go through the registry.
+ */
+class DeliveryHandle implements ChannelReceiver {
+
+    private final BotManager manager;
+    private final Connector connector;
+    private final Channel channel;
+    private final AbstractBot bot;
+    // only for shared bots, which receive their context with every packet
+    private final BotContext botContext;
+    private final Meters.ConnectorMetrics meter;
+
+    private volatile boolean valid = true;
+
+    DeliveryHandle(BotManager manager, Connector connector, Channel channel, AbstractBot bot, BotContext botContext) {
+        this.manager = manager;
+        this.connector = connector;
+        this.channel = channel;
+        this.bot = bot;
+        this.botContext = botContext;
+        this.meter = Meters.connectors.forConnector(connector.getConnectorId());
+    }
+
+    @Override
+    public void receive(Packet packet) {
+        meter.countIncoming(packet);
+        if (valid) {
+            manager.dispatch(connector, channel, bot, botContext, packet, meter);
+        } else {
+            manager.receive(connector, channel, packet, meter);
+        }
+    }
+
+    void invalidate() {
+        valid = false;
+    }
+
+    boolean isValid() {
+        return valid;
+    }
+}
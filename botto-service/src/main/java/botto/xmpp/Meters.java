@@ -1,5 +1,6 @@
 package botto.xmpp;
 
+import botto.xmpp.botto.xmpp.connector.ConnectorGauge;
 import botto.xmpp.botto.xmpp.connector.ConnectorId;
 import com.codahale.metrics.*;
 import org.xmpp.packet.IQ;
@@ -7,6 +8,7 @@ import org.xmpp.packet.Message;
 import org.xmpp.packet.Packet;
 import org.xmpp.packet.Presence;
 
+import java.util.Map;
 import java.util.concurrent.TimeUnit;
 
 import static com.codahale.metrics.MetricRegistry.*;
@@ -20,9 +22,12 @@ public class Meters {
     }
 
     public static final ConnectorsMetrics connectors = new ConnectorsMetrics();
+    public static final PassivationMetrics passivation = new PassivationMetrics();
+    public static final ChannelEventMetrics channelEvents = new ChannelEventMetrics();
 
     public static final Timer incomingRoutingTimer = Meters.Metrics.timer(name(Meters.class, "engine", "routing", "incoming"));
     public static final Timer outgoingRoutingTimer = Meters.Metrics.timer(name(Meters.class, "engine", "routing", "outgoing"));
+    public static final Meter unroutedPackets = Meters.Metrics.meter(name(Meters.class, "engine", "routing", "unrouted"));
 
     public static final class ConnectorsMetrics {
         private final ConnectorMetrics allConnectors = new ConnectorMetrics(null, "all");
@@ -30,6 +35,26 @@ public class Meters {
         public ConnectorMetrics forConnector(ConnectorId connectorId) {
             return new ConnectorMetrics(allConnectors, metricName(connectorId));
         }
+
+        /**
+         * Registers the gauges a connector reports as connectors.[connector].[gauge name]
+         */
+        public void registerGauges(ConnectorId connectorId, Map<String, ConnectorGauge> gauges) {
+            for (Map.Entry<String, ConnectorGauge> entry : gauges.entrySet()) {
+                final ConnectorGauge gauge = entry.getValue();
+                try {
+                    Meters.Metrics.register(name(Meters.class, "connectors", metricName(connectorId), entry.getKey()), new Gauge<Long>() {
+                        @Override
+                        public Long getValue() {
+                            return gauge.getValue();
+                        }
+                    });
+                }
+                catch (IllegalArgumentException ex) {
+                    // only happens if two connectors have the same name, as in ConnectorMetrics
+                }
+            }
+        }
     }
 
     public static final class ConnectorMetrics {
@@ -226,6 +251,73 @@ public class Meters {
         }
     }
 
+    public static final class PassivationMetrics {
+
+        private final Counter active = Meters.Metrics.counter(name(Meters.class, "bots", "active"));
+        private final Counter passive = Meters.Metrics.counter(name(Meters.class, "bots", "passive"));
+        private final Timer activation = Meters.Metrics.timer(name(Meters.class, "bots", "activation"));
+        private final Meter passivations = Meters.Metrics.meter(name(Meters.class, "bots", "passivation"));
+
+        private PassivationMetrics() { }
+
+        public long startActivation() {
+            return System.nanoTime();
+        }
+
+        public void timeActivation(long start) {
+            activation.update(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+
+        public void countPassive() {
+            passive.inc();
+        }
+
+        public void countActivation() {
+            passive.dec();
+            active.inc();
+        }
+
+        public void countPassivation() {
+            active.dec();
+            passive.inc();
+            passivations.mark();
+        }
+
+        public void countReleased(boolean wasActive) {
+            if (wasActive) {
+                active.dec();
+            }
+            else {
+                passive.dec();
+            }
+        }
+    }
+
+    public static final class ChannelEventMetrics {
+
+        private final Counter pending = Meters.Metrics.counter(name(Meters.class, "channels", "events", "pending"));
+        private final Meter coalesced = Meters.Metrics.meter(name(Meters.class, "channels", "events", "coalesced"));
+        private final Timer lag = Meters.Metrics.timer(name(Meters.class, "channels", "events", "lag"));
+
+        private ChannelEventMetrics() { }
+
+        public void countPending() {
+            pending.inc();
+        }
+
+        public void countCoalesced() {
+            coalesced.mark();
+        }
+
+        /**
+         * Counts the delivery of a pending event, and times how long it waited for the listener
+         */
+        public void timeLag(long published) {
+            pending.dec();
+            lag.update(System.nanoTime() - published, TimeUnit.NANOSECONDS);
+        }
+    }
+
     private static final class PacketMetrics {
 
         public final Meter received;
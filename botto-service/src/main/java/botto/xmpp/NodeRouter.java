@@ -0,0 +1,90 @@
+package botto.xmpp;
+
+import botto.xmpp.annotations.BotContext;
+import botto.xmpp.botto.xmpp.connector.channel.IngressFilter;
+import botto.xmpp.service.component.NodeFilter;
+import botto.xmpp.service.component.NodeIndex;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xmpp.packet.JID;
+import org.xmpp.packet.Packet;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Shared bot bound to the channel of a whole domain, delivering each packet to the bot
+ * registered for a NodeFilter accepting the node the packet is addressed to. Packets no filter
+ * accepts, including those addressed to the bare domain, are counted and dropped.
+ */
+class NodeRouter extends AbstractBot {
+
+    private static final Logger Log = LoggerFactory.getLogger(NodeRouter.class);
+
+    private final NodeIndex<AbstractBot> bots = new NodeIndex<AbstractBot>();
+
+    void addBot(NodeFilter filter, AbstractBot bot) {
+        bots.add(filter, bot);
+    }
+
+    AbstractBot removeBot(NodeFilter filter) {
+        return bots.remove(filter);
+    }
+
+    boolean isEmpty() {
+        return bots.isEmpty();
+    }
+
+    /**
+     * @return the packets at least one of the bots can handle
+     */
+    @Override
+    public IngressFilter getIngressFilter() {
+        List<IngressFilter> filters = new ArrayList<IngressFilter>();
+        for (AbstractBot bot : bots.values()) {
+            filters.add(bot.getIngressFilter());
+        }
+        return IngressFilter.union(filters);
+    }
+
+    @Override
+    public boolean isShared() {
+        return true;
+    }
+
+    @Override
+    protected Packet doReceive(Packet packet) {
+        throw new BottoRuntimeException("Could not route packet {0} without a channel context", packet);
+    }
+
+    @Override
+    protected Packet doReceive(BotContext botContext, Packet packet) {
+        JID to = packet.getTo();
+        AbstractBot bot = to != null ? bots.find(to.getNode()) : null;
+        if (bot == null) {
+            Log.debug("No bot accepts packet {}", packet);
+            Meters.unroutedPackets.mark();
+            return null;
+        }
+        Packet response = bot.isShared()
+            ? bot.receive(contextFor(botContext, to), packet)
+            : bot.receive(packet);
+        // responses leave through the domain channel: they must come from the address that was hit
+        if (response != null && response.getFrom() == null) {
+            response.setFrom(to);
+        }
+        return response;
+    }
+
+    @Override
+    protected void doSetcontext(BotContext botContext) {
+        throw new IllegalStateException("A NodeRouter is shared and is never bound to a context");
+    }
+
+    private static BotContext contextFor(BotContext botContext, JID to) {
+        if (botContext instanceof ChannelBotContext) {
+            return ((ChannelBotContext) botContext).forAddress(new JID(to.getNode(), to.getDomain(), null, true));
+        }
+        return botContext;
+    }
+}
@@ -0,0 +1,154 @@
+package botto.xmpp;
+
+import botto.xmpp.annotations.BotContext;
+import com.google.common.base.Objects;
+import com.google.common.base.Preconditions;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xmpp.packet.JID;
+import org.xmpp.packet.Packet;
+
+/**
+ * A small stub that stands in for a bot while it is idle.
+ *
+ * The actual bot is created by a BotFactory when the first packet arrives,
+ * and handed back to the factory by the BotPassivator once it has been idle for long enough.
+ * Instances are created with BotPassivator.wrap
+ */
+public class PassivatingBot extends AbstractBot {
+
+    private static final Logger Log = LoggerFactory.getLogger(PassivatingBot.class);
+
+    private final JID address;
+    private final BotFactory factory;
+    private final BotPassivator passivator;
+
+    // all fields below are guarded by this
+    private AbstractBot active;
+    private byte[] state;
+    private BotContext context;
+    private int inFlight;
+    private long lastActivity;
+    private boolean released;
+
+    PassivatingBot(JID address, BotFactory factory, BotPassivator passivator) {
+        this.address = Preconditions.checkNotNull(address);
+        this.factory = Preconditions.checkNotNull(factory);
+        this.passivator = Preconditions.checkNotNull(passivator);
+    }
+
+    public JID getAddress() {
+        return address;
+    }
+
+    public synchronized boolean isActive() {
+        return active != null;
+    }
+
+    @Override
+    protected Packet doReceive(Packet packet) {
+        return doReceive(null, packet);
+    }
+
+    @Override
+    protected Packet doReceive(BotContext botContext, Packet packet) {
+        AbstractBot bot = acquire();
+        if (bot == null) {
+            Log.debug("Dropping packet for released bot {}: {}", address, packet);
+            return null;
+        }
+        try {
+            if (bot.isShared()) {
+                return bot.receive(botContext != null ? botContext : currentContext(), packet);
+            }
+            return bot.receive(packet);
+        } finally {
+            release();
+        }
+    }
+
+    @Override
+    protected synchronized void doSetcontext(BotContext botContext) {
+        context = botContext;
+        if (active != null && !active.isShared()) {
+            active.setContext(botContext);
+        }
+    }
+
+    private synchronized BotContext currentContext() {
+        return context;
+    }
+
+    // activates the bot if needed, and prevents passivation until released; null once the stub was released
+    private synchronized AbstractBot acquire() {
+        if (released) {
+            return null;
+        }
+        if (active == null) {
+            long start = Meters.passivation.startActivation();
+            try {
+                active = factory.activate(address, state);
+            } catch (Exception ex) {
+                throw new BottoRuntimeException(ex, "Could not activate bot for {0}", address);
+            } finally {
+                Meters.passivation.timeActivation(start);
+            }
+            if (active == null) {
+                throw new BottoRuntimeException("Bot factory {0} returned no bot for {1}", factory, address);
+            }
+            state = null;
+            if (context != null && !active.isShared()) {
+                active.setContext(context);
+            }
+            passivator.activated(this);
+            Log.debug("Activated bot for {}", address);
+        }
+        inFlight++;
+        return active;
+    }
+
+    private synchronized void release() {
+        inFlight--;
+        lastActivity = System.currentTimeMillis();
+    }
+
+    /**
+     * Passivate the bot if it has not received any packet since idleSince.
+     * @return true if the bot was passivated
+     */
+    synchronized boolean passivateIfIdle(long idleSince) {
+        if (active == null || inFlight > 0 || lastActivity > idleSince) {
+            return false;
+        }
+        try {
+            state = factory.passivate(address, active);
+        } catch (Exception ex) {
+            Log.error("Could not passivate bot for {}, keeping it active: {}", address, ex);
+            return false;
+        }
+        active = null;
+        passivator.passivated(this);
+        Log.debug("Passivated bot for {}", address);
+        return true;
+    }
+
+    // drops the bot and its state without handing it back to the factory, once
+    synchronized void discard() {
+        if (released) {
+            return;
+        }
+        released = true;
+        boolean wasActive = active != null;
+        active = null;
+        state = null;
+        passivator.discarded(this, wasActive);
+    }
+
+    @Override
+    public synchronized String toString() {
+        return Objects.toStringHelper(this)
+            .addValue(address)
+            .add("active", active)
+            .toString();
+    }
+}
@@ -51,6 +51,10 @@ public class ExampleEngineMain {
         SmackConnector smackConnector = new SmackConnector(smackConnectorId, smackConfiguration);
         connectionManager.registerConnector(smackConnector);
 
+        // channels can only be opened on started connectors
+        whackConnector.start();
+        smackConnector.start();
+        connectionManager.start();
 
         {
             AbstractBot bot = makeBot(new ExampleBot());
@@ -77,10 +81,6 @@ public class ExampleEngineMain {
             connectionManager.addBot(whackConnectorId, new JID("something@bots.caprazzi.net"), bot);
         }
 
-        whackConnector.start();
-        smackConnector.start();
-        connectionManager.start();
-
         // start metrics reporting to JMX
         final JmxReporter reporter = JmxReporter.forRegistry(Meters.Metrics).build();
         reporter.start();
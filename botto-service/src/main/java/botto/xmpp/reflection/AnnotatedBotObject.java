@@ -1,7 +1,11 @@
 package botto.xmpp.reflection;
 
 import botto.xmpp.annotations.BotContext;
+import botto.xmpp.annotations.BotState;
+import botto.xmpp.annotations.State;
+import botto.xmpp.annotations.StatefulBotContext;
 import botto.xmpp.AbstractBot;
+import botto.xmpp.botto.xmpp.connector.channel.IngressFilter;
 import botto.xmpp.utils.Packets;
 import com.google.common.base.Objects;
 import com.google.common.base.Optional;
@@ -19,30 +23,54 @@ import java.util.Collection;
 
 public class AnnotatedBotObject extends AbstractBot {
 
-    private final Logger Log = LoggerFactory.getLogger(AnnotatedBotObject.class);
+    private static final Logger Log = LoggerFactory.getLogger(AnnotatedBotObject.class);
 
     private final Class<?> clazz;
     private final Object obj;
     private final Collection<Field> injectableFields;
     private final Collection<ReceiverMethod> receiverMethods;
+    private final boolean shared;
+    private final IngressFilter ingressFilter;
+    private volatile BotContext boundContext;
 
-    private AnnotatedBotObject(Object obj) {
+    private AnnotatedBotObject(Object obj, boolean shared) {
         Preconditions.checkNotNull(obj, "Bot object must not be null.");
         this.obj = obj;
         this.clazz = obj.getClass();
+        this.shared = shared;
         injectableFields = scanInjectableFields();
         receiverMethods = scanReceiverMethods();
+        ingressFilter = unionOf(receiverMethods);
     }
 
     public static Optional<AnnotatedBotObject> from(Object obj) {
         Preconditions.checkNotNull(obj, "Bot object must not be null.");
-        AnnotatedBotObject annotated = new AnnotatedBotObject(obj);
+        AnnotatedBotObject annotated = new AnnotatedBotObject(obj, false);
         if (annotated.injectableFields.size() > 0 || annotated.receiverMethods.size() > 0) {
             return Optional.of(annotated);
         }
         return Optional.absent();
     }
 
+    /**
+     * Creates a bot that can be bound to any number of addresses.
+     * A shared bot object must be stateless with respect to its channel: it can't have
+     * fields marked @Context or @State, and receives the BotContext and BotState of each packet
+     * as @Context and @State parameters of its @Receive methods instead.
+     */
+    public static Optional<AnnotatedBotObject> shared(Object obj) {
+        Preconditions.checkNotNull(obj, "Bot object must not be null.");
+        AnnotatedBotObject annotated = new AnnotatedBotObject(obj, true);
+        if (annotated.injectableFields.size() > 0) {
+            Log.debug("Object {} can't be used as a shared bot because it has fields marked @Context or @State: {}", obj, annotated.injectableFields);
+            return Optional.absent();
+        }
+        if (annotated.receiverMethods.size() > 0) {
+            return Optional.of(annotated);
+        }
+        return Optional.absent();
+    }
+
     private Collection<Field> scanInjectableFields() {
         ArrayList<Field> injectables = new ArrayList<Field>();
         for(Field field : ReflectionUtils.fields(clazz)) {
@@ -68,7 +96,23 @@ public class AnnotatedBotObject extends AbstractBot {
         return receivers;
     }
 
+    private static IngressFilter unionOf(Collection<ReceiverMethod> methods) {
+        IngressFilter union = IngressFilter.NONE;
+        for (ReceiverMethod method : methods) {
+            union = union.union(method.getIngressFilter());
+        }
+        return union;
+    }
+
     private boolean isInjectable(Field field) {
+        if (field.getAnnotation(State.class) != null) {
+            if (BotState.class.isAssignableFrom(field.getType())) {
+                return true;
+            }
+            Log.debug("Field marked @State is not valid because its type is not supported : {}", field);
+            return false;
+        }
+
         Context annotation = field.getAnnotation(Context.class);
         if (annotation == null) {
             return false;
@@ -86,15 +130,33 @@ public class AnnotatedBotObject extends AbstractBot {
     // method annotated @Receive that can receive
     // the specific type of this packet
     protected Packet doReceive(Packet packet) {
+        return doReceive(boundContext, packet);
+    }
+
+    @Override
+    protected Packet doReceive(BotContext botContext, Packet packet) {
         for (ReceiverMethod method : receiverMethods) {
             if (method.canReceive(packet)) {
                 Log.debug("Delivering {} to method {}", Packets.toString(packet), method);
-                return method.receive(obj, packet).orNull();
+                return method.receive(obj, botContext, packet).orNull();
             }
         }
         return null;
     }
 
+    @Override
+    public boolean isShared() {
+        return shared;
+    }
+
+    /**
+     * @return the packets at least one of the @Receive methods can receive
+     */
+    @Override
+    public IngressFilter getIngressFilter() {
+        return ingressFilter;
+    }
+
     private void inject(Object value) {
         for(Field field : injectableFields) {
             if (!Modifier.isPublic(field.getModifiers())) {
@@ -121,7 +183,15 @@ public class AnnotatedBotObject extends AbstractBot {
     @Override
     protected void doSetcontext(BotContext botContext) {
         Preconditions.checkNotNull(botContext, "botContext can't be null");
+        Preconditions.checkState(!shared, "A shared bot can't be bound to a single context");
+        boundContext = botContext;
         inject(botContext);
+        if (botContext instanceof StatefulBotContext) {
+            BotState state = ((StatefulBotContext) botContext).getState();
+            if (state != null) {
+                inject(state);
+            }
+        }
     }
 
     public Object getObject() {
@@ -136,6 +206,7 @@ public class AnnotatedBotObject extends AbstractBot {
     public String toString() {
         return Objects.toStringHelper(this)
             .add("bot", obj)
+            .add("shared", shared)
             .toString();
     }
 }
@@ -1,5 +1,12 @@
 package botto.xmpp.reflection;
 
+import botto.xmpp.annotations.BotContext;
+import botto.xmpp.annotations.BotState;
+import botto.xmpp.annotations.Context;
+import botto.xmpp.annotations.State;
+import botto.xmpp.annotations.StatefulBotContext;
+import botto.xmpp.botto.xmpp.connector.channel.IngressFilter;
+import botto.xmpp.botto.xmpp.connector.stanza.RawStanza;
 import com.google.common.base.Objects;
 import com.google.common.base.Optional;
 import botto.xmpp.annotations.Receive;
@@ -7,10 +14,15 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.xmpp.packet.Packet;
 
+import java.lang.annotation.Annotation;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
 
+/**
+ * A method marked @Receive, taking a Packet or a subclass, or a RawStanza for bots that only look at
+ * addresses and forward what they receive without having it parsed. It may return a Packet or a RawStanza to send back.
+ */
 public class ReceiverMethod {
 
     private static final Logger Log = LoggerFactory.getLogger(ReceiverMethod.class);
@@ -18,22 +30,64 @@ public class ReceiverMethod {
     private final Method method;
     private final Class<?>[] arguments;
     private final int receiverArgument;
+    private final int contextArgument;
+    private final int stateArgument;
+    private final boolean raw;
+    private final IngressFilter ingressFilter;
 
-    private ReceiverMethod(Method method, Class<?>[] arguments, int receiverArgument) {
+    private ReceiverMethod(Method method, Class<?>[] arguments, int receiverArgument, int contextArgument, int stateArgument, String[] namespaces) {
         this.method = method;
         this.arguments = arguments;
         this.receiverArgument = receiverArgument;
+        this.contextArgument = contextArgument;
+        this.stateArgument = stateArgument;
+        this.raw = arguments[receiverArgument] == RawStanza.class;
+        this.ingressFilter = IngressFilter.of(raw ? Packet.class : arguments[receiverArgument].asSubclass(Packet.class), namespaces);
     }
 
     public boolean canReceive(Packet packet) {
-        return arguments[receiverArgument].isAssignableFrom(packet.getClass());
+        return (raw || arguments[receiverArgument].isAssignableFrom(packet.getClass())) && ingressFilter.accepts(packet);
+    }
+
+    /**
+     * @return true if this method takes the stanza unparsed, as a RawStanza
+     */
+    public boolean isRaw() {
+        return raw;
+    }
+
+    /**
+     * @return the packets this method can receive, by type and IQ namespace
+     */
+    public IngressFilter getIngressFilter() {
+        return ingressFilter;
+    }
+
+    /**
+     * @return true if this method takes a BotContext parameter annotated with @Context
+     */
+    public boolean acceptsContext() {
+        return contextArgument >= 0;
     }
 
     public Optional<Packet> receive(Object instance,Packet packet) {
+        return receive(instance, null, packet);
+    }
+
+    public Optional<Packet> receive(Object instance, BotContext context, Packet packet) {
         Object[] args = new Object[arguments.length];
-        args[receiverArgument] = packet;
+        args[receiverArgument] = raw ? RawStanza.of(packet) : packet;
+        if (contextArgument >= 0) {
+            args[contextArgument] = context;
+        }
+        if (stateArgument >= 0 && context instanceof StatefulBotContext) {
+            args[stateArgument] = ((StatefulBotContext) context).getState();
+        }
         try {
             Object response = method.invoke(instance, args);
+            if (response instanceof RawStanza) {
+                return Optional.fromNullable(((RawStanza) response).toPacket());
+            }
             if (response == null || ! Packet.class.isAssignableFrom(response.getClass())) {
                 return Optional.absent();
             }
@@ -56,19 +110,19 @@ public class ReceiverMethod {
             return Optional.absent();
         }
 
-        if (method.getReturnType() != void.class && !Packet.class.isAssignableFrom(method.getReturnType())) {
-            Log.debug("Method marked as @Receiver is not valid because it does not return void, Packet or a subclass of Packet: {}", method);
+        if (method.getReturnType() != void.class && method.getReturnType() != RawStanza.class && !Packet.class.isAssignableFrom(method.getReturnType())) {
+            Log.debug("Method marked as @Receiver is not valid because it does not return void, RawStanza, Packet or a subclass of Packet: {}", method);
             return Optional.absent();
         }
 
         Class<?>[] arguments = method.getParameterTypes();
 
-        // must have one and only one parameter of any subclass of Packet
+        // must have one and only one parameter of any subclass of Packet, or RawStanza
         int packetParams = 0;
         int packetArgument = -1;
 
         for(int pos=0; pos < arguments.length; pos++) {
-            if (Packet.class.isAssignableFrom(arguments[pos])) {
+            if (Packet.class.isAssignableFrom(arguments[pos]) || arguments[pos] == RawStanza.class) {
                 packetArgument = pos;
                 packetParams++;
             }
@@ -79,7 +133,47 @@ public class ReceiverMethod {
             return Optional.absent();
         }
 
-        return Optional.of(new ReceiverMethod(method, arguments, packetArgument));
+        // may have at most one BotContext parameter marked @Context, and one BotState parameter marked @State
+        int contextParams = 0;
+        int contextArgument = -1;
+        int stateParams = 0;
+        int stateArgument = -1;
+
+        Annotation[][] annotations = method.getParameterAnnotations();
+        for(int pos=0; pos < arguments.length; pos++) {
+            if (hasAnnotation(annotations[pos], Context.class)) {
+                if (!BotContext.class.isAssignableFrom(arguments[pos])) {
+                    Log.debug("Method marked as @Receiver is not valid because a parameter marked @Context is not a BotContext: {}", method);
+                    return Optional.absent();
+                }
+                contextArgument = pos;
+                contextParams++;
+            }
+            if (hasAnnotation(annotations[pos], State.class)) {
+                if (!BotState.class.isAssignableFrom(arguments[pos])) {
+                    Log.debug("Method marked as @Receiver is not valid because a parameter marked @State is not a BotState: {}", method);
+                    return Optional.absent();
+                }
+                stateArgument = pos;
+                stateParams++;
+            }
+        }
+
+        if (contextParams > 1 || stateParams > 1) {
+            Log.debug("Method marked as @Receiver is not valid because it has more than one parameter marked @Context or @State: {}", method);
+            return Optional.absent();
+        }
+
+        return Optional.of(new ReceiverMethod(method, arguments, packetArgument, contextArgument, stateArgument, annotation.namespaces()));
+    }
+
+    private static boolean hasAnnotation(Annotation[] annotations, Class<? extends Annotation> type) {
+        for (Annotation annotation : annotations) {
+            if (type.isInstance(annotation)) {
+                return true;
+            }
+        }
+        return false;
     }
 
     @Override
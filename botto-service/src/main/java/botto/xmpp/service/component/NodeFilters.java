@@ -1,25 +1,167 @@
 package botto.xmpp.service.component;
 
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableSet;
+
+import java.util.Set;
+import java.util.regex.Pattern;
+
 public class NodeFilters {
 
     public static final NodeFilter singleNode(final String node) {
-        return new NodeFilter() {
+        return new SingleNode(node);
+    }
+
+    /**
+     * Accepts all nodes starting with the prefix
+     */
+    public static final NodeFilter prefix(String prefix) {
+        return new Prefix(prefix);
+    }
+
+    /**
+     * Accepts all nodes matching the whole regular expression
+     */
+    public static final NodeFilter regex(String regex) {
+        return new Regex(Pattern.compile(regex));
+    }
+
+    /**
+     * Accepts any of the nodes
+     */
+    public static final NodeFilter anyOf(Iterable<String> nodes) {
+        return new NodeSet(ImmutableSet.copyOf(nodes));
+    }
+
+    public static final NodeFilter anyOf(String... nodes) {
+        return new NodeSet(ImmutableSet.copyOf(nodes));
+    }
+
+    public static final class SingleNode implements NodeFilter {
+        private final String node;
+
+        private SingleNode(String node) {
+            this.node = Preconditions.checkNotNull(node);
+        }
+
+        public String getNode() {
+            return node;
+        }
+
+        @Override
+        public boolean accept(String testNode) {
+            return node.equals(testNode);
+        }
+
+        @Override
+        public String toString() {
+            return "SingleNodeFilter: " + node;
+        }
+
+        @Override
+        public int hashCode() {
+            return node.hashCode();
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            return obj instanceof SingleNode && node.equals(((SingleNode) obj).node);
+        }
+    }
 
-            @Override
-            public boolean accept(String testNode) {
-                return node.equals(testNode);
-            }
+    public static final class Prefix implements NodeFilter {
+        private final String prefix;
 
-            @Override
-            public String toString() {
-                return "SingleNodeFilter: " + node;
-            }
+        private Prefix(String prefix) {
+            this.prefix = Preconditions.checkNotNull(prefix);
+        }
 
-            @Override
-            public int hashCode() {
-                return node.hashCode();
-            }
-        };
+        public String getPrefix() {
+            return prefix;
+        }
+
+        @Override
+        public boolean accept(String testNode) {
+            return testNode != null && testNode.startsWith(prefix);
+        }
+
+        @Override
+        public String toString() {
+            return "PrefixNodeFilter: " + prefix;
+        }
+
+        @Override
+        public int hashCode() {
+            return prefix.hashCode() * 31 + 1;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            return obj instanceof Prefix && prefix.equals(((Prefix) obj).prefix);
+        }
     }
 
+    public static final class Regex implements NodeFilter {
+        private final Pattern pattern;
+
+        private Regex(Pattern pattern) {
+            this.pattern = pattern;
+        }
+
+        public Pattern getPattern() {
+            return pattern;
+        }
+
+        @Override
+        public boolean accept(String testNode) {
+            return testNode != null && pattern.matcher(testNode).matches();
+        }
+
+        @Override
+        public String toString() {
+            return "RegexNodeFilter: " + pattern;
+        }
+
+        @Override
+        public int hashCode() {
+            return pattern.pattern().hashCode() * 31 + 2;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            return obj instanceof Regex && pattern.pattern().equals(((Regex) obj).pattern.pattern());
+        }
+    }
+
+    public static final class NodeSet implements NodeFilter {
+        private final Set<String> nodes;
+
+        private NodeSet(Set<String> nodes) {
+            this.nodes = nodes;
+        }
+
+        public Set<String> getNodes() {
+            return nodes;
+        }
+
+        @Override
+        public boolean accept(String testNode) {
+            return nodes.contains(testNode);
+        }
+
+        @Override
+        public String toString() {
+            return "NodeSetFilter: " + nodes;
+        }
+
+        @Override
+        public int hashCode() {
+            return nodes.hashCode();
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            return obj instanceof NodeSet && nodes.equals(((NodeSet) obj).nodes);
+        }
+    }
 }
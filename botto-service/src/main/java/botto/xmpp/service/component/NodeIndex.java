@@ -0,0 +1,151 @@
+package botto.xmpp.service.component;
+
+import com.google.common.base.Preconditions;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Finds the value registered for the first NodeFilter accepting a node.
+ *
+ * Filters are matched in order of cost: single nodes and node sets by hash lookup, then prefixes
+ * through a trie (the longest matching prefix wins), then regular expressions and any other
+ * NodeFilter implementation, one by one in registration order.
+ * Lookups never lock: every change rebuilds an immutable snapshot of the index.
+ */
+public class NodeIndex<T> {
+
+    // guarded by this
+    private final Map<NodeFilter, T> filters = new LinkedHashMap<NodeFilter, T>();
+
+    private volatile Snapshot<T> snapshot = new Snapshot<T>(new LinkedHashMap<NodeFilter, T>());
+
+    /**
+     * @throws IllegalArgumentException if the filter is already registered, or if it accepts a node
+     *         or a prefix already accepted by another single node, node set or prefix filter
+     */
+    public synchronized void add(NodeFilter filter, T value) {
+        Preconditions.checkNotNull(filter, "Filter can't be null");
+        Preconditions.checkNotNull(value, "Value can't be null");
+        Preconditions.checkArgument(!filters.containsKey(filter), "Filter already registered: %s", filter);
+        Map<NodeFilter, T> updated = new LinkedHashMap<NodeFilter, T>(filters);
+        updated.put(filter, value);
+        snapshot = new Snapshot<T>(updated);
+        filters.put(filter, value);
+    }
+
+    /**
+     * @return the value registered for the filter, or null if the filter was not registered
+     */
+    public synchronized T remove(NodeFilter filter) {
+        T removed = filters.remove(filter);
+        if (removed != null) {
+            snapshot = new Snapshot<T>(filters);
+        }
+        return removed;
+    }
+
+    public synchronized boolean isEmpty() {
+        return filters.isEmpty();
+    }
+
+    /**
+     * @return a copy of the registered values, in registration order
+     */
+    public synchronized List<T> values() {
+        return new ArrayList<T>(filters.values());
+    }
+
+    /**
+     * @return the value for the node, or null if no filter accepts it
+     */
+    public T find(String node) {
+        return snapshot.find(node);
+    }
+
+    private static final class Snapshot<T> {
+        private final Map<String, T> exact = new HashMap<String, T>();
+        private final TrieNode<T> prefixes = new TrieNode<T>();
+        private final List<NodeFilter> scanned = new ArrayList<NodeFilter>();
+        private final List<T> scannedValues = new ArrayList<T>();
+
+        private Snapshot(Map<NodeFilter, T> filters) {
+            for (Map.Entry<NodeFilter, T> entry : filters.entrySet()) {
+                NodeFilter filter = entry.getKey();
+                if (filter instanceof NodeFilters.SingleNode) {
+                    addExact(((NodeFilters.SingleNode) filter).getNode(), entry.getValue());
+                } else if (filter instanceof NodeFilters.NodeSet) {
+                    for (String node : ((NodeFilters.NodeSet) filter).getNodes()) {
+                        addExact(node, entry.getValue());
+                    }
+                } else if (filter instanceof NodeFilters.Prefix) {
+                    addPrefix(((NodeFilters.Prefix) filter).getPrefix(), entry.getValue());
+                } else {
+                    scanned.add(filter);
+                    scannedValues.add(entry.getValue());
+                }
+            }
+        }
+
+        private void addExact(String node, T value) {
+            Preconditions.checkArgument(!exact.containsKey(node), "Node already registered: %s", node);
+            exact.put(node, value);
+        }
+
+        private void addPrefix(String prefix, T value) {
+            TrieNode<T> current = prefixes;
+            for (int i = 0; i < prefix.length(); i++) {
+                current = current.child(prefix.charAt(i), true);
+            }
+            Preconditions.checkArgument(current.value == null, "Prefix already registered: %s", prefix);
+            current.value = value;
+        }
+
+        private T find(String node) {
+            if (node == null) {
+                return null;
+            }
+            T found = exact.get(node);
+            if (found != null) {
+                return found;
+            }
+            TrieNode<T> current = prefixes;
+            found = current.value;
+            for (int i = 0; i < node.length() && current != null; i++) {
+                current = current.child(node.charAt(i), false);
+                if (current != null && current.value != null) {
+                    found = current.value;
+                }
+            }
+            if (found != null) {
+                return found;
+            }
+            for (int i = 0; i < scanned.size(); i++) {
+                if (scanned.get(i).accept(node)) {
+                    return scannedValues.get(i);
+                }
+            }
+            return null;
+        }
+    }
+
+    private static final class TrieNode<T> {
+        private Map<Character, TrieNode<T>> children;
+        private T value;
+
+        private TrieNode<T> child(char c, boolean create) {
+            TrieNode<T> child = children != null ? children.get(c) : null;
+            if (child == null && create) {
+                if (children == null) {
+                    children = new HashMap<Character, TrieNode<T>>(4);
+                }
+                child = new TrieNode<T>();
+                children.put(c, child);
+            }
+            return child;
+        }
+    }
+}
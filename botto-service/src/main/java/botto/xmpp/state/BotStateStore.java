@@ -0,0 +1,14 @@
+package botto.xmpp.state;
+
+import botto.xmpp.annotations.BotState;
+import org.xmpp.packet.JID;
+
+/**
+ * Provides the persistent state of each bot address
+ */
+public interface BotStateStore {
+    /**
+     * @return the state for the bare JID of address
+     */
+    public BotState forAddress(JID address);
+}
@@ -0,0 +1,385 @@
+package botto.xmpp.state;
+
+import botto.xmpp.BottoRuntimeException;
+import botto.xmpp.annotations.BotState;
+import com.google.common.base.Charsets;
+import com.google.common.base.Objects;
+import com.google.common.base.Preconditions;
+import org.xmpp.packet.JID;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * A BotStateStore backed by a memory-mapped file.
+ *
+ * The file is a fixed-capacity open-addressing hash table of (address, key) to a 64 bit value.
+ * Values live in the page cache rather than on the java heap, and are found again when
+ * the same file is opened after a restart.
+ *
+ * Layout: a header followed by capacity slots of SLOT_SIZE bytes each:
+ * [int status][int hash][short key length][key bytes][long value]
+ *
+ * Removal shifts the rest of the probe run back into the freed slot instead of leaving a tombstone,
+ * so a store that keeps adding and removing keys does not fill up with deleted slots.
+ */
+public class MappedStateStore implements BotStateStore, Closeable {
+
+    public static final int MAX_KEY_BYTES = 110;
+
+    private static final int MAGIC = 0xB0770001;
+    private static final int HEADER_SIZE = 64;
+    private static final int SLOT_SIZE = 128;
+
+    private static final int HEADER_MAGIC = 0;
+    private static final int HEADER_CAPACITY = 4;
+    private static final int HEADER_SIZE_FIELD = 8;
+
+    private static final int SLOT_STATUS = 0;
+    private static final int SLOT_HASH = 4;
+    private static final int SLOT_KEY_LENGTH = 8;
+    private static final int SLOT_KEY = 10;
+    private static final int SLOT_VALUE = 120;
+
+    private static final int EMPTY = 0;
+    private static final int USED = 1;
+
+    private static final double MAX_LOAD = 0.75;
+    // the largest power of two whose file can be mapped in one buffer
+    private static final int MAX_CAPACITY = Integer.highestOneBit((Integer.MAX_VALUE - HEADER_SIZE) / SLOT_SIZE);
+
+    private final File file;
+    private final RandomAccessFile raf;
+    private final MappedByteBuffer buffer;
+    private final int capacity;
+    private final int mask;
+    private int size;
+
+    private MappedStateStore(File file, RandomAccessFile raf, MappedByteBuffer buffer, int capacity) {
+        this.file = file;
+        this.raf = raf;
+        this.buffer = buffer;
+        this.capacity = capacity;
+        this.mask = capacity - 1;
+        this.size = buffer.getInt(HEADER_SIZE_FIELD);
+    }
+
+    /**
+     * Open a store, creating the file if it does not exist.
+     * The capacity of an existing file is preserved.
+     * @param capacity maximum number of slots, rounded up to a power of two
+     */
+    public static MappedStateStore open(File file, int capacity) throws IOException {
+        Preconditions.checkNotNull(file);
+        Preconditions.checkArgument(capacity > 0, "Capacity must be positive");
+        Preconditions.checkArgument(capacity <= MAX_CAPACITY, "Capacity too large: %s, at most %s", capacity, MAX_CAPACITY);
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            if (raf.length() >= HEADER_SIZE) {
+                raf.seek(HEADER_MAGIC);
+                int magic = raf.readInt();
+                if (magic != MAGIC) {
+                    throw new IOException("Not a state store: " + file);
+                }
+                raf.seek(HEADER_CAPACITY);
+                capacity = raf.readInt();
+            }
+            else {
+                capacity = Integer.highestOneBit(capacity - 1) << 1;
+                capacity = Math.max(capacity, 2);
+            }
+            long length = HEADER_SIZE + (long) capacity * SLOT_SIZE;
+            Preconditions.checkArgument(length <= Integer.MAX_VALUE, "Capacity too large: %s", capacity);
+            MappedByteBuffer buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, length);
+            buffer.putInt(HEADER_MAGIC, MAGIC);
+            buffer.putInt(HEADER_CAPACITY, capacity);
+            return new MappedStateStore(file, raf, buffer, capacity);
+        }
+        catch (IOException ex) {
+            raf.close();
+            throw ex;
+        }
+    }
+
+    @Override
+    public BotState forAddress(JID address) {
+        Preconditions.checkNotNull(address);
+        return new AddressState(address.toBareJID());
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Write all changes to disk
+     */
+    public synchronized void flush() {
+        buffer.force();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        buffer.force();
+        raf.close();
+    }
+
+    synchronized boolean contains(byte[] key) {
+        return find(key, hash(key)) >= 0;
+    }
+
+    synchronized long get(byte[] key, long defaultValue) {
+        int slot = find(key, hash(key));
+        return slot < 0 ? defaultValue : buffer.getLong(offset(slot) + SLOT_VALUE);
+    }
+
+    synchronized void put(byte[] key, long value) {
+        int slot = findOrInsert(key, hash(key));
+        buffer.putLong(offset(slot) + SLOT_VALUE, value);
+    }
+
+    synchronized long add(byte[] key, long delta) {
+        int slot = findOrInsert(key, hash(key));
+        int offset = offset(slot) + SLOT_VALUE;
+        long value = buffer.getLong(offset) + delta;
+        buffer.putLong(offset, value);
+        return value;
+    }
+
+    synchronized void remove(byte[] key) {
+        int slot = find(key, hash(key));
+        if (slot >= 0) {
+            removeSlot(slot);
+            setSize(size - 1);
+        }
+    }
+
+    /**
+     * Number of slots that are not empty, always equal to size()
+     */
+    synchronized int occupiedSlots() {
+        int occupied = 0;
+        for (int slot = 0; slot < capacity; slot++) {
+            if (buffer.getInt(offset(slot) + SLOT_STATUS) != EMPTY) {
+                occupied++;
+            }
+        }
+        return occupied;
+    }
+
+    /**
+     * Empty a slot, and move back the entries after it whose probe run would otherwise be broken
+     */
+    private void removeSlot(int slot) {
+        buffer.putInt(offset(slot) + SLOT_STATUS, EMPTY);
+        int next = slot;
+        while (true) {
+            next = (next + 1) & mask;
+            int offset = offset(next);
+            if (buffer.getInt(offset + SLOT_STATUS) == EMPTY) {
+                return;
+            }
+            int home = buffer.getInt(offset + SLOT_HASH) & mask;
+            // the entry stays if its home is cyclically within (slot, next]
+            boolean stays = slot <= next ? (slot < home && home <= next) : (slot < home || home <= next);
+            if (!stays) {
+                copySlot(next, slot);
+                buffer.putInt(offset + SLOT_STATUS, EMPTY);
+                slot = next;
+            }
+        }
+    }
+
+    private void copySlot(int from, int to) {
+        int source = offset(from);
+        int target = offset(to);
+        for (int i = 0; i < SLOT_SIZE; i++) {
+            buffer.put(target + i, buffer.get(source + i));
+        }
+    }
+
+    private int find(byte[] key, int hash) {
+        int slot = hash & mask;
+        for (int probes = 0; probes < capacity; probes++) {
+            int offset = offset(slot);
+            int status = buffer.getInt(offset + SLOT_STATUS);
+            if (status == EMPTY) {
+                return -1;
+            }
+            if (status == USED && buffer.getInt(offset + SLOT_HASH) == hash && keyEquals(offset, key)) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    private int findOrInsert(byte[] key, int hash) {
+        int found = find(key, hash);
+        if (found >= 0) {
+            return found;
+        }
+        if (size + 1 > capacity * MAX_LOAD) {
+            throw new BottoRuntimeException("State store {0} is full ({1} entries)", file, size);
+        }
+        int slot = hash & mask;
+        while (buffer.getInt(offset(slot) + SLOT_STATUS) != EMPTY) {
+            slot = (slot + 1) & mask;
+        }
+        int offset = offset(slot);
+        buffer.putInt(offset + SLOT_HASH, hash);
+        buffer.putShort(offset + SLOT_KEY_LENGTH, (short) key.length);
+        for (int i = 0; i < key.length; i++) {
+            buffer.put(offset + SLOT_KEY + i, key[i]);
+        }
+        buffer.putLong(offset + SLOT_VALUE, 0L);
+        buffer.putInt(offset + SLOT_STATUS, USED);
+        setSize(size + 1);
+        return slot;
+    }
+
+    private boolean keyEquals(int offset, byte[] key) {
+        if (buffer.getShort(offset + SLOT_KEY_LENGTH) != key.length) {
+            return false;
+        }
+        for (int i = 0; i < key.length; i++) {
+            if (buffer.get(offset + SLOT_KEY + i) != key[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void setSize(int size) {
+        this.size = size;
+        buffer.putInt(HEADER_SIZE_FIELD, size);
+    }
+
+    private static int offset(int slot) {
+        return HEADER_SIZE + slot * SLOT_SIZE;
+    }
+
+    private static int hash(byte[] key) {
+        int h = 0x9747b28c;
+        for (byte b : key) {
+            h = (h ^ b) * 0x5bd1e995;
+            h ^= h >>> 15;
+        }
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * @return the address followed by a zero byte, in UTF-8
+     */
+    private static byte[] prefix(String address) {
+        byte[] encoded = address.getBytes(Charsets.UTF_8);
+        byte[] prefix = new byte[encoded.length + 1];
+        System.arraycopy(encoded, 0, prefix, 0, encoded.length);
+        return prefix;
+    }
+
+    @Override
+    public String toString() {
+        return Objects.toStringHelper(this)
+            .addValue(file)
+            .add("capacity", capacity)
+            .toString();
+    }
+
+    private class AddressState implements BotState {
+        private final String address;
+        // encoded once, each key is this prefix followed by the name
+        private final byte[] prefix;
+
+        private AddressState(String address) {
+            this.address = address;
+            this.prefix = prefix(address);
+        }
+
+        private byte[] key(String name) {
+            Preconditions.checkNotNull(name, "Key can't be null");
+            byte[] encoded = name.getBytes(Charsets.UTF_8);
+            if (prefix.length + encoded.length > MAX_KEY_BYTES) {
+                throw new IllegalArgumentException("Key too long for address " + address + ": " + name);
+            }
+            byte[] key = new byte[prefix.length + encoded.length];
+            System.arraycopy(prefix, 0, key, 0, prefix.length);
+            System.arraycopy(encoded, 0, key, prefix.length, encoded.length);
+            return key;
+        }
+
+        @Override
+        public boolean contains(String key) {
+            return MappedStateStore.this.contains(key(key));
+        }
+
+        @Override
+        public long getLong(String key, long defaultValue) {
+            return get(key(key), defaultValue);
+        }
+
+        @Override
+        public void putLong(String key, long value) {
+            put(key(key), value);
+        }
+
+        @Override
+        public long increment(String key, long delta) {
+            return add(key(key), delta);
+        }
+
+        @Override
+        public int getInt(String key, int defaultValue) {
+            return (int) get(key(key), defaultValue);
+        }
+
+        @Override
+        public void putInt(String key, int value) {
+            put(key(key), value);
+        }
+
+        @Override
+        public double getDouble(String key, double defaultValue) {
+            byte[] bytes = key(key);
+            synchronized (MappedStateStore.this) {
+                if (!MappedStateStore.this.contains(bytes)) {
+                    return defaultValue;
+                }
+                return Double.longBitsToDouble(get(bytes, 0L));
+            }
+        }
+
+        @Override
+        public void putDouble(String key, double value) {
+            put(key(key), Double.doubleToRawLongBits(value));
+        }
+
+        @Override
+        public boolean getBoolean(String key, boolean defaultValue) {
+            return get(key(key), defaultValue ? 1L : 0L) != 0L;
+        }
+
+        @Override
+        public void putBoolean(String key, boolean value) {
+            put(key(key), value ? 1L : 0L);
+        }
+
+        @Override
+        public void remove(String key) {
+            MappedStateStore.this.remove(key(key));
+        }
+
+        @Override
+        public String toString() {
+            return "BotState(" + address + ")";
+        }
+    }
+}
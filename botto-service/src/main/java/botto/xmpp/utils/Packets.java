@@ -1,6 +1,9 @@
 package botto.xmpp.utils;
 
+import botto.xmpp.botto.xmpp.connector.JIDPool;
+import botto.xmpp.botto.xmpp.connector.StanzaIds;
 import botto.xmpp.botto.xmpp.connector.channel.Channel;
+import botto.xmpp.botto.xmpp.connector.stanza.PacketOverlay;
 import com.google.common.base.Objects;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Strings;
@@ -56,11 +59,11 @@ public class Packets {
 
     public static boolean equalBareJid(JID first, JID second) {
         Preconditions.checkNotNull(first);
-        return second != null && first.toBareJID().equals(second.toBareJID());
+        return JIDPool.sameBare(first, second);
     }
 
     public static boolean requireId(Packet packet) {
-        return (packet instanceof Message || packet instanceof IQ);
+        return StanzaIds.requiresId(packet);
     }
 
     public static boolean hasId(Packet packet) {
@@ -68,9 +71,13 @@ public class Packets {
     }
 
     public static String createId() {
-        return null;  //To change body of created methods use File | Settings | File Templates.
+        return StanzaIds.nextId();
     }
 
+    /**
+     * @return the packet, or a copy of it with an id and the address of the channel as sender if it lacks them.
+     * The copy shares the element of the packet, and writes the new attributes when it is serialized.
+     */
     public static Packet preparePacketForSending(Channel channel, Packet packet) {
         boolean fixId = Packets.requireId(packet) && !Packets.hasId(packet);
         boolean fixSender = !Packets.equalBareJid(channel.getAddress(), packet.getFrom());
@@ -79,7 +86,7 @@ public class Packets {
             return packet;
         }
 
-        Packet copy = packet.createCopy();
+        Packet copy = PacketOverlay.copyOf(packet);
 
         if (fixId) {
             copy.setID(Packets.createId());
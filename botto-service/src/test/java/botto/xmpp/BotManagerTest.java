@@ -1,10 +1,16 @@
 package botto.xmpp;
 
+import botto.xmpp.annotations.BotContext;
 import botto.xmpp.botto.xmpp.connector.Connector;
+import botto.xmpp.botto.xmpp.connector.ConnectorConfiguration;
 import botto.xmpp.botto.xmpp.connector.ConnectorException;
 import botto.xmpp.botto.xmpp.connector.ConnectorId;
+import botto.xmpp.botto.xmpp.connector.channel.AbstractChannelConnection;
 import botto.xmpp.botto.xmpp.connector.channel.Channel;
 import botto.xmpp.botto.xmpp.connector.channel.ChannelContext;
+import botto.xmpp.botto.xmpp.connector.channel.ChannelReceiver;
+import botto.xmpp.botto.xmpp.connector.channel.ChannelStatus;
+import botto.xmpp.service.component.NodeFilters;
 import botto.xmpp.service.dispatcher.ListenableConfirmation;
 import com.google.common.util.concurrent.FutureCallback;
 import com.google.common.util.concurrent.Futures;
@@ -15,15 +21,26 @@ import org.easymock.EasyMock;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mockito;
 import org.xmpp.packet.JID;
 import org.xmpp.packet.Message;
 import org.xmpp.packet.Packet;
 
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
 
 import static org.easymock.EasyMock.*;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 import static org.mockito.Matchers.any;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.verify;
@@ -143,6 +160,198 @@ public class BotManagerTest {
         verify(removeCallback).onSuccess(null);
     }
 
+    @Test
+    public void add_shared_bot() throws Exception {
+        Connector connector = mock(Connector.class);
+        ConnectorId id = mock(ConnectorId.class);
+        when(connector.getConnectorId()).thenReturn(id);
+        botManager.registerConnector(connector);
+
+        ChannelContext firstContext = ChannelContext.of(Channel.from(id, addressFirstBot));
+        ChannelContext secondContext = ChannelContext.of(Channel.from(id, addressSecondBot));
+        when(connector.openChannel(addressFirstBot)).thenReturn(firstContext);
+        when(connector.openChannel(addressSecondBot)).thenReturn(secondContext);
+
+        SharedTestBot bot = new SharedTestBot();
+        ListenableFuture<List<ChannelContext>> future = botManager.addSharedBot(id, Arrays.asList(addressFirstBot, addressSecondBot), bot);
+        assertEquals(Arrays.asList(firstContext, secondContext), future.get());
+
+        botManager.receive(connector, secondContext.getChannel(), firstMessage, Meters.connectors.forConnector(id));
+
+        assertEquals(firstMessage, bot.packet);
+        assertNotNull(bot.context);
+    }
+
+    @Test
+    public void add_bots() throws Exception {
+        Connector connector = mock(Connector.class);
+        ConnectorId id = mock(ConnectorId.class);
+        when(connector.getConnectorId()).thenReturn(id);
+        botManager.registerConnector(connector);
+
+        JID failingAddress = new JID("failing_bot@example.com");
+        ChannelContext firstContext = ChannelContext.of(Channel.from(id, addressFirstBot));
+        ChannelContext secondContext = ChannelContext.of(Channel.from(id, addressSecondBot));
+        RuntimeException exception = new RuntimeException("Random open channel failure");
+        when(connector.openChannel(addressFirstBot)).thenReturn(firstContext);
+        when(connector.openChannel(addressSecondBot)).thenReturn(secondContext);
+        when(connector.openChannel(failingAddress)).thenThrow(exception);
+
+        Map<JID, AbstractBot> bots = new LinkedHashMap<JID, AbstractBot>();
+        bots.put(addressFirstBot, firstBot);
+        bots.put(addressSecondBot, secondBot);
+        bots.put(failingAddress, new TestBot());
+
+        AddBotsResult result = botManager.addBots(id, bots, 2).get();
+
+        assertEquals(firstContext, result.getOpened().get(addressFirstBot));
+        assertEquals(secondContext, result.getOpened().get(addressSecondBot));
+        assertEquals(exception, result.getFailed().get(failingAddress));
+        assertEquals(2, result.getOpened().size());
+    }
+
+    @Test
+    public void add_bots_on_one_subdomain_concurrently() throws Exception {
+        ConnectorId id = new ConnectorId(0, ComponentTestConnector.class, "example.com");
+        ComponentTestConnector connector = new ComponentTestConnector(id);
+        botManager.registerConnector(connector);
+
+        Map<JID, AbstractBot> bots = new LinkedHashMap<JID, AbstractBot>();
+        for (int i = 0; i < 500; i++) {
+            bots.put(new JID("bot" + i + "@bots.example.com"), new TestBot());
+        }
+
+        AddBotsResult result = botManager.addBots(id, bots, 16).get();
+
+        assertEquals(500, result.getOpened().size());
+        assertEquals(0, result.getFailed().size());
+        for (JID address : bots.keySet()) {
+            assertNotNull(connector.connection(Channel.from(id, address)));
+        }
+        assertEquals(500, botManager.countChannels(id, ChannelStatus.Opening));
+    }
+
+    @Test
+    public void add_bots_with_more_openers_than_processors() throws Exception {
+        int concurrency = Runtime.getRuntime().availableProcessors() * 2 + 2;
+        final CountDownLatch opening = new CountDownLatch(concurrency);
+        ConnectorId id = new ConnectorId(0, ComponentTestConnector.class, "example.com");
+        ComponentTestConnector connector = new ComponentTestConnector(id) {
+            @Override
+            public void doOpenChannel(Channel channel) throws ConnectorException {
+                // no channel opens until all openers are in here at once
+                opening.countDown();
+                try {
+                    if (!opening.await(5, TimeUnit.SECONDS)) {
+                        throw new ConnectorException("Only {0} openers ran at once", opening.getCount());
+                    }
+                } catch (InterruptedException ex) {
+                    throw new ConnectorException(ex);
+                }
+                super.doOpenChannel(channel);
+            }
+        };
+        botManager.registerConnector(connector);
+
+        Map<JID, AbstractBot> bots = new LinkedHashMap<JID, AbstractBot>();
+        for (int i = 0; i < concurrency; i++) {
+            bots.put(new JID("bot" + i + "@bots.example.com"), new TestBot());
+        }
+
+        AddBotsResult result = botManager.addBots(id, bots, concurrency).get();
+
+        assertEquals(concurrency, result.getOpened().size());
+    }
+
+    @Test
+    public void add_bots_on_unknown_connector() throws Exception {
+        Map<JID, AbstractBot> bots = new LinkedHashMap<JID, AbstractBot>();
+        bots.put(addressFirstBot, firstBot);
+
+        ListenableFuture<AddBotsResult> future = botManager.addBots(firstConnectorId, bots);
+
+        try {
+            future.get();
+            fail("Expected the future to fail");
+        } catch (ExecutionException ex) {
+            assertTrue(ex.getCause() instanceof BottoRuntimeException);
+        }
+    }
+
+    @Test
+    public void add_filtered_bot() throws Exception {
+        Connector connector = mock(Connector.class);
+        ConnectorId id = mock(ConnectorId.class);
+        when(connector.getConnectorId()).thenReturn(id);
+        botManager.registerConnector(connector);
+
+        JID domain = new JID("bots.example.com");
+        ChannelContext domainContext = ChannelContext.of(Channel.from(id, domain));
+        when(connector.openChannel(domain)).thenReturn(domainContext);
+
+        SharedTestBot echoBot = new SharedTestBot();
+        SharedTestBot otherBot = new SharedTestBot();
+        assertEquals(domainContext, botManager.addBot(id, "bots.example.com", NodeFilters.prefix("echo"), echoBot).get());
+        assertEquals(domainContext, botManager.addBot(id, "bots.example.com", NodeFilters.singleNode("other"), otherBot).get());
+
+        Message message = new Message();
+        message.setTo(new JID("echo42@bots.example.com"));
+        botManager.receive(connector, domainContext.getChannel(), message, Meters.connectors.forConnector(id));
+
+        assertEquals(message, echoBot.packet);
+        assertEquals(null, otherBot.packet);
+        verify(connector, Mockito.times(1)).openChannel(domain);
+    }
+
+    @Test
+    public void drop_packets_no_filter_accepts() throws Exception {
+        Connector connector = mock(Connector.class);
+        ConnectorId id = mock(ConnectorId.class);
+        when(connector.getConnectorId()).thenReturn(id);
+        botManager.registerConnector(connector);
+
+        JID domain = new JID("bots.example.com");
+        ChannelContext domainContext = ChannelContext.of(Channel.from(id, domain));
+        when(connector.openChannel(domain)).thenReturn(domainContext);
+
+        SharedTestBot echoBot = new SharedTestBot();
+        botManager.addBot(id, "bots.example.com", NodeFilters.prefix("echo"), echoBot).get();
+
+        long unrouted = Meters.unroutedPackets.getCount();
+        Message unknown = new Message();
+        unknown.setTo(new JID("nobody@bots.example.com"));
+        botManager.receive(connector, domainContext.getChannel(), unknown, Meters.connectors.forConnector(id));
+        Message bare = new Message();
+        bare.setTo(domain);
+        botManager.receive(connector, domainContext.getChannel(), bare, Meters.connectors.forConnector(id));
+
+        assertEquals(null, echoBot.packet);
+        assertEquals(unrouted + 2, Meters.unroutedPackets.getCount());
+        verify(connector, Mockito.never()).send(Mockito.any(Channel.class), Mockito.any(Packet.class));
+    }
+
+    @Test
+    public void bind_and_invalidate_delivery_handle() throws Exception {
+        Connector connector = mock(Connector.class);
+        ConnectorId id = mock(ConnectorId.class);
+        when(connector.getConnectorId()).thenReturn(id);
+        botManager.registerConnector(connector);
+
+        ChannelContext context = ChannelContext.of(Channel.from(id, addressFirstBot));
+        when(connector.openChannel(addressFirstBot)).thenReturn(context);
+        SharedTestBot bot = new SharedTestBot();
+        botManager.addBot(id, addressFirstBot, bot).get();
+
+        ArgumentCaptor<ChannelReceiver> receiver = ArgumentCaptor.forClass(ChannelReceiver.class);
+        verify(connector).bindReceiver(Mockito.eq(context.getChannel()), receiver.capture());
+        receiver.getValue().receive(firstMessage);
+        assertEquals(firstMessage, bot.packet);
+
+        when(connector.unbindReceiver(context.getChannel())).thenReturn(receiver.getValue());
+        botManager.removeBot(id, addressFirstBot, bot).get();
+        assertFalse(((DeliveryHandle) receiver.getValue()).isValid());
+    }
+
     @Test
     public void send_message() {
         //1. register connector
@@ -171,4 +380,88 @@ public class BotManagerTest {
         verify(callback).onFailure(any(Throwable.class));
     }
 
-}
\ No newline at end of file
+    private static class SharedTestBot extends AbstractBot {
+        private BotContext context;
+        private Packet packet;
+
+        @Override
+        public boolean isShared() {
+            return true;
+        }
+
+        @Override
+        protected Packet doReceive(Packet packet) {
+            throw new IllegalStateException("Shared bot should always receive a context");
+        }
+
+        @Override
+        protected Packet doReceive(BotContext context, Packet packet) {
+            this.context = context;
+            this.packet = packet;
+            return null;
+        }
+
+        @Override
+        protected void doSetcontext(BotContext botContext) {
+            throw new IllegalStateException("Shared bot should never be bound to a context");
+        }
+    }
+
+    private static class ComponentTestConnector extends Connector<ConnectorConfiguration, TestConnection> {
+
+        private ComponentTestConnector(ConnectorId connectorId) {
+            super(connectorId, new ConnectorConfiguration() {
+                @Override
+                public String getName() {
+                    return "component";
+                }
+            });
+        }
+
+        private TestConnection connection(Channel channel) {
+            return getConnection(channel);
+        }
+
+        @Override
+        public void doOpenChannel(Channel channel) throws ConnectorException {
+            addConnection(channel, new TestConnection(this, channel));
+        }
+
+        @Override
+        public void doCloseChannel(Channel channel) throws ConnectorException {
+            removeConnection(channel);
+        }
+
+        @Override
+        public void doStart() throws ConnectorException {
+        }
+
+        @Override
+        public void doStop() throws ConnectorException {
+        }
+
+        @Override
+        public void doSend(Channel channel, Packet packet) throws ConnectorException {
+        }
+    }
+
+    private static class TestConnection extends AbstractChannelConnection {
+        private final Connector connector;
+        private final Channel channel;
+
+        private TestConnection(Connector connector, Channel channel) {
+            this.connector = connector;
+            this.channel = channel;
+        }
+
+        @Override
+        public Channel getChannel() {
+            return channel;
+        }
+
+        @Override
+        public Connector getConnector() {
+            return connector;
+        }
+    }
+}
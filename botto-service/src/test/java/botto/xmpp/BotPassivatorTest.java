@@ -0,0 +1,132 @@
+package botto.xmpp;
+
+import botto.xmpp.annotations.BotContext;
+import org.junit.Test;
+import org.xmpp.packet.JID;
+import org.xmpp.packet.Message;
+import org.xmpp.packet.Packet;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+
+public class BotPassivatorTest {
+
+    private final JID address = new JID("counter@example.com");
+    private final BotPassivator passivator = BotPassivator.create(0, TimeUnit.MILLISECONDS);
+    private final CounterBotFactory factory = new CounterBotFactory();
+
+    @Test
+    public void should_start_passive() {
+        PassivatingBot bot = passivator.wrap(address, factory);
+        assertFalse(bot.isActive());
+        assertEquals(0, factory.activations);
+    }
+
+    @Test
+    public void should_activate_on_first_packet() {
+        PassivatingBot bot = passivator.wrap(address, factory);
+        BotContext context = mock(BotContext.class);
+        bot.setContext(context);
+
+        bot.receive(new Message());
+
+        assertTrue(bot.isActive());
+        assertEquals(1, factory.activations);
+        assertSame(context, factory.last.context);
+        assertEquals(1, passivator.getActiveCount());
+    }
+
+    @Test
+    public void should_passivate_and_restore_state() {
+        PassivatingBot bot = passivator.wrap(address, factory);
+        bot.receive(new Message());
+        bot.receive(new Message());
+
+        assertEquals(1, passivator.passivateIdleBots());
+        assertFalse(bot.isActive());
+        assertEquals(0, passivator.getActiveCount());
+        assertArrayEquals(new byte[] { 2 }, factory.passivated);
+
+        bot.receive(new Message());
+        assertEquals(2, factory.activations);
+        assertEquals(3, factory.last.count);
+    }
+
+    @Test
+    public void should_not_passivate_recently_active_bots() {
+        BotPassivator slowPassivator = BotPassivator.create(1, TimeUnit.HOURS);
+        PassivatingBot bot = slowPassivator.wrap(address, factory);
+        bot.receive(new Message());
+        assertEquals(0, slowPassivator.passivateIdleBots());
+        assertTrue(bot.isActive());
+    }
+
+    @Test
+    public void should_discard_released_bots() {
+        PassivatingBot bot = passivator.wrap(address, factory);
+        bot.receive(new Message());
+        passivator.release(bot);
+        assertFalse(bot.isActive());
+        assertEquals(0, passivator.getActiveCount());
+        assertNull(factory.passivated);
+    }
+
+    @Test
+    public void should_drop_packets_for_released_bots() {
+        PassivatingBot bot = passivator.wrap(address, factory);
+        bot.receive(new Message());
+        passivator.release(bot);
+        passivator.release(bot);
+
+        assertNull(bot.receive(new Message()));
+        assertFalse(bot.isActive());
+        assertEquals(0, passivator.getActiveCount());
+        assertEquals(1, factory.activations);
+    }
+
+    private static class CounterBotFactory implements BotFactory {
+        private int activations;
+        private CounterBot last;
+        private byte[] passivated;
+
+        @Override
+        public AbstractBot activate(JID address, byte[] state) {
+            activations++;
+            last = new CounterBot(state == null ? 0 : state[0]);
+            return last;
+        }
+
+        @Override
+        public byte[] passivate(JID address, AbstractBot bot) {
+            passivated = new byte[] { (byte) ((CounterBot) bot).count };
+            return passivated;
+        }
+    }
+
+    private static class CounterBot extends AbstractBot {
+        private int count;
+        private BotContext context;
+
+        private CounterBot(int count) {
+            this.count = count;
+        }
+
+        @Override
+        protected Packet doReceive(Packet packet) {
+            count++;
+            return null;
+        }
+
+        @Override
+        protected void doSetcontext(BotContext botContext) {
+            this.context = botContext;
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package botto.xmpp;
+
+import botto.xmpp.botto.xmpp.connector.ConnectorId;
+import botto.xmpp.botto.xmpp.connector.channel.Channel;
+import botto.xmpp.botto.xmpp.connector.channel.ChannelContext;
+import botto.xmpp.botto.xmpp.connector.channel.ChannelContextListener;
+import botto.xmpp.botto.xmpp.connector.channel.ChannelEvent;
+import org.junit.Test;
+import org.xmpp.packet.JID;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ChannelEventBusTest {
+
+    private final Queue<Runnable> tasks = new LinkedList<Runnable>();
+    private final ChannelEventBus bus = new ChannelEventBus(new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            tasks.add(command);
+        }
+    });
+    private final ConnectorId connectorId = new ConnectorId(1, Object.class, "test");
+    private final Channel first = Channel.from(connectorId, new JID("first@example.com"));
+    private final Channel second = Channel.from(connectorId, new JID("second@example.com"));
+
+    @Test
+    public void should_deliver_asynchronously_latest_event_of_each_channel() {
+        RecordingListener listener = new RecordingListener();
+        bus.addListener(listener);
+
+        bus.publish(ChannelContext.of(first), ChannelEvent.connecting(first));
+        bus.publish(ChannelContext.of(second), ChannelEvent.connecting(second));
+        bus.publish(ChannelContext.of(first), ChannelEvent.connected(first));
+        assertTrue(listener.events.isEmpty());
+        assertEquals(1, tasks.size());
+
+        runTasks();
+
+        List<ChannelEvent> expected = new ArrayList<ChannelEvent>();
+        expected.add(ChannelEvent.connected(first));
+        expected.add(ChannelEvent.connecting(second));
+        assertEquals(expected, listener.events);
+    }
+
+    @Test
+    public void should_deliver_events_published_after_drain() {
+        RecordingListener listener = new RecordingListener();
+        bus.addListener(listener);
+
+        bus.publish(ChannelContext.of(first), ChannelEvent.connecting(first));
+        runTasks();
+        bus.publish(ChannelContext.of(first), ChannelEvent.connected(first));
+        runTasks();
+
+        assertEquals(2, listener.events.size());
+        assertEquals(ChannelEvent.connected(first), listener.events.get(1));
+    }
+
+    @Test
+    public void should_isolate_failing_listeners() {
+        RecordingListener listener = new RecordingListener();
+        bus.addListener(new ChannelContextListener() {
+            @Override
+            public void onChannelEvent(ChannelContext context, ChannelEvent event) {
+                throw new RuntimeException("failing listener");
+            }
+        });
+        bus.addListener(listener);
+
+        bus.publish(ChannelContext.of(first), ChannelEvent.connecting(first));
+        runTasks();
+
+        assertEquals(1, listener.events.size());
+    }
+
+    private void runTasks() {
+        Runnable task;
+        while ((task = tasks.poll()) != null) {
+            task.run();
+        }
+    }
+
+    private static class RecordingListener implements ChannelContextListener {
+        private final List<ChannelEvent> events = new ArrayList<ChannelEvent>();
+
+        @Override
+        public void onChannelEvent(ChannelContext context, ChannelEvent event) {
+            events.add(event);
+        }
+    }
+}
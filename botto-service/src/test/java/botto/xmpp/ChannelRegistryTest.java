@@ -0,0 +1,104 @@
+package botto.xmpp;
+
+import botto.xmpp.botto.xmpp.connector.channel.Channel;
+import botto.xmpp.botto.xmpp.connector.channel.ChannelContext;
+import botto.xmpp.botto.xmpp.connector.channel.ChannelEvent;
+import botto.xmpp.botto.xmpp.connector.channel.ChannelStatus;
+import botto.xmpp.botto.xmpp.connector.ConnectorId;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.xmpp.packet.JID;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class ChannelRegistryTest {
+
+    @Rule
+    public ExpectedException exex = ExpectedException.none();
+
+    ChannelRegistry registry = new ChannelRegistry();
+    ConnectorId connectorId = new ConnectorId(1, Object.class, "test");
+
+    @Test
+    public void should_find_bot_by_bare_address() {
+        Channel channel = Channel.from(connectorId, new JID("bot@example.com"));
+        AbstractBot bot = new TestBot();
+        registry.addChannel(ChannelContext.of(channel), bot);
+        assertSame(bot, registry.getBot(new JID("bot@example.com/resource")));
+        assertSame(channel, registry.getChannel(new JID("bot@example.com")));
+        assertNull(registry.getBot(new JID("other@example.com")));
+    }
+
+    @Test
+    public void should_reject_duplicate_bare_address() {
+        registry.addChannel(ChannelContext.of(Channel.from(connectorId, new JID("bot@example.com"))), new TestBot());
+        exex.expect(BottoRuntimeException.class);
+        registry.addChannel(ChannelContext.of(Channel.from(connectorId, new JID("bot@example.com/r"))), new TestBot());
+    }
+
+    @Test
+    public void should_grow_and_reclaim_removed_slots() {
+        List<Channel> channels = new ArrayList<Channel>();
+        for (int i = 0; i < 1000; i++) {
+            Channel channel = Channel.from(connectorId, new JID("bot" + i + "@example.com"));
+            channels.add(channel);
+            registry.addChannel(ChannelContext.of(channel), new TestBot());
+        }
+        for (int i = 0; i < 1000; i += 2) {
+            registry.removeChannel(channels.get(i));
+        }
+        for (int i = 0; i < 1000; i++) {
+            Channel channel = Channel.from(connectorId, new JID("again" + i + "@example.com"));
+            registry.addChannel(ChannelContext.of(channel), new TestBot());
+        }
+        assertEquals(1500, registry.size());
+        for (int i = 0; i < 1000; i++) {
+            if (i % 2 == 0) {
+                assertNull(registry.getContext(channels.get(i)));
+            } else {
+                assertSame(channels.get(i), registry.getContext(channels.get(i)).getChannel());
+            }
+        }
+    }
+
+    @Test
+    public void should_count_and_list_channels_by_status() {
+        List<Channel> channels = new ArrayList<Channel>();
+        for (int i = 0; i < 10; i++) {
+            Channel channel = Channel.from(connectorId, new JID("bot" + i + "@example.com"));
+            channels.add(channel);
+            registry.addChannel(ChannelContext.of(channel), new TestBot());
+        }
+        for (int i = 0; i < 4; i++) {
+            registry.setChannelEvent(ChannelEvent.connected(channels.get(i)));
+        }
+        registry.setChannelEvent(ChannelEvent.closing(channels.get(9)));
+        registry.setChannelEvent(ChannelEvent.closed(channels.get(9)));
+        registry.removeChannel(channels.get(9));
+
+        assertEquals(4, registry.countChannels(connectorId, ChannelStatus.Connected));
+        assertEquals(5, registry.countChannels(connectorId, ChannelStatus.Opening));
+        assertEquals(0, registry.countChannels(connectorId, ChannelStatus.Closed));
+
+        List<ChannelContext> first = registry.listChannels(connectorId, ChannelStatus.Connected, 0, 3);
+        List<ChannelContext> second = registry.listChannels(connectorId, ChannelStatus.Connected, 3, 3);
+        assertEquals(3, first.size());
+        assertEquals(1, second.size());
+        assertFalse(first.contains(second.get(0)));
+        assertEquals(9, registry.listChannels(null, null, 0, 100).size());
+    }
+
+    @Test
+    public void should_fail_removing_unknown_channel() {
+        exex.expect(BottoRuntimeException.class);
+        exex.expectMessage(org.hamcrest.Matchers.startsWith("Could not remove bot"));
+        registry.removeChannel(Channel.from(connectorId, new JID("bot@example.com")));
+    }
+}
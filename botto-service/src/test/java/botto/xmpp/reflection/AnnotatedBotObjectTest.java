@@ -3,8 +3,11 @@ package botto.xmpp.reflection;
 import botto.xmpp.annotations.BotContext;
 import botto.xmpp.annotations.Context;
 import botto.xmpp.annotations.Receive;
+import botto.xmpp.botto.xmpp.connector.channel.IngressFilter;
+import botto.xmpp.botto.xmpp.connector.stanza.RawStanza;
 import com.google.common.base.Optional;
 
+import org.junit.Test;
 import org.junit.experimental.theories.*;
 import org.junit.runner.RunWith;
 import org.xmpp.packet.IQ;
@@ -17,8 +20,12 @@ import java.lang.annotation.RetentionPolicy;
 import java.util.Arrays;
 import java.util.List;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
 
 @RunWith(Theories.class)
 public class AnnotatedBotObjectTest {
@@ -60,6 +67,7 @@ public class AnnotatedBotObjectTest {
                 objectAssignment(new IQRespondIQBot()),
                 objectAssignment(new MultiRespondMultiBot()),
                 objectAssignment(new TaggedBotContextBot()),
+                objectAssignment(new SharedContextBot()),
                 objectAssignment(new CompleteBot())
             });
         }
@@ -78,6 +86,71 @@ public class AnnotatedBotObjectTest {
         assertTrue(bot.isPresent());
     }
 
+    @Test
+    public void should_create_shared_bot_with_context_parameter() {
+        Optional<AnnotatedBotObject> bot = AnnotatedBotObject.shared(new SharedContextBot());
+        assertTrue(bot.isPresent());
+        assertTrue(bot.get().isShared());
+    }
+
+    @Test
+    public void should_not_create_shared_bot_with_context_field() {
+        assertFalse(AnnotatedBotObject.shared(new TaggedBotContextBot()).isPresent());
+        assertFalse(AnnotatedBotObject.shared(new CompleteBot()).isPresent());
+    }
+
+    @Test
+    public void should_pass_context_to_shared_bot() {
+        SharedContextBot source = new SharedContextBot();
+        AnnotatedBotObject bot = AnnotatedBotObject.shared(source).get();
+        BotContext context = mock(BotContext.class);
+        Message message = new Message();
+        bot.receive(context, message);
+        assertSame(context, source.lastContext);
+        assertSame(message, source.lastMessage);
+    }
+
+    @Test
+    public void should_derive_ingress_filter_from_receiver_methods() {
+        IngressFilter filter = AnnotatedBotObject.from(new NamespacedIQBot()).get().getIngressFilter();
+        assertTrue(filter.acceptsMessages());
+        assertFalse(filter.acceptsPresences());
+        assertTrue(filter.acceptsIQ("jabber:iq:version"));
+        assertTrue(filter.acceptsIQ(null));
+        assertFalse(filter.acceptsIQ("jabber:iq:roster"));
+        assertTrue(AnnotatedBotObject.from(new CompleteBot()).get().getIngressFilter().acceptsAll());
+    }
+
+    @Test
+    public void should_deliver_iqs_only_in_accepted_namespaces() {
+        NamespacedIQBot source = new NamespacedIQBot();
+        AnnotatedBotObject bot = AnnotatedBotObject.from(source).get();
+        IQ roster = new IQ(IQ.Type.get);
+        roster.setChildElement("query", "jabber:iq:roster");
+        bot.receive(roster);
+        assertNull(source.lastIQ);
+
+        IQ version = new IQ(IQ.Type.get);
+        version.setChildElement("query", "jabber:iq:version");
+        bot.receive(version);
+        assertSame(version, source.lastIQ);
+    }
+
+    @Test
+    public void should_forward_raw_stanzas() {
+        AnnotatedBotObject bot = AnnotatedBotObject.from(new ForwardingBot()).get();
+        Message message = new Message();
+        message.setTo("proxy@example.com");
+        message.setFrom("user@example.com");
+        message.setBody("hello");
+        Packet forwarded = bot.receive(message);
+        assertTrue(forwarded instanceof Message);
+        assertEquals("backend@example.com", forwarded.getTo().toString());
+        assertEquals("proxy@example.com", forwarded.getFrom().toString());
+        assertEquals("hello", ((Message) forwarded).getBody());
+        assertTrue(bot.getIngressFilter().acceptsAll());
+    }
+
     // just an empty object
     private static class EmptyBot { }
 
@@ -161,6 +234,26 @@ public class AnnotatedBotObjectTest {
         }
     }
 
+    public static class NamespacedIQBot {
+        IQ lastIQ;
+
+        @Receive
+        public void onMessage(Message message) {
+        }
+
+        @Receive(namespaces = "jabber:iq:version")
+        public void onVersion(IQ iq) {
+            lastIQ = iq;
+        }
+    }
+
+    public static class ForwardingBot {
+        @Receive
+        public RawStanza forward(RawStanza stanza) {
+            return stanza.withAttribute("from", stanza.getAttribute("to")).withAttribute("to", "backend@example.com");
+        }
+    }
+
     // one method for each packet type
     private static class MultiRespondMultiBot {
         @Receive
@@ -213,6 +306,18 @@ public class AnnotatedBotObjectTest {
         private BotContext context;
     }
 
+    // receives the context of each packet as a parameter
+    public static class SharedContextBot {
+        private BotContext lastContext;
+        private Message lastMessage;
+
+        @Receive
+        public void onMessage(@Context BotContext context, Message message) {
+            lastContext = context;
+            lastMessage = message;
+        }
+    }
+
     // one method for each packet type
     private static class CompleteBot {
         @Receive
@@ -0,0 +1,60 @@
+package botto.xmpp.service.component;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class NodeIndexTest {
+
+    NodeIndex<String> index = new NodeIndex<String>();
+
+    @Test
+    public void should_prefer_exact_then_prefix_then_regex() {
+        index.add(NodeFilters.regex("user[0-9]+"), "regex");
+        index.add(NodeFilters.prefix("user"), "prefix");
+        index.add(NodeFilters.prefix("user1"), "longer prefix");
+        index.add(NodeFilters.singleNode("user10"), "single");
+        index.add(NodeFilters.anyOf("user20", "user21"), "set");
+
+        assertEquals("single", index.find("user10"));
+        assertEquals("set", index.find("user21"));
+        assertEquals("longer prefix", index.find("user11"));
+        assertEquals("prefix", index.find("user2"));
+        assertNull(index.find("other"));
+        assertNull(index.find(null));
+    }
+
+    @Test
+    public void should_scan_regex_in_registration_order() {
+        index.add(NodeFilters.regex("a.*"), "first");
+        index.add(NodeFilters.regex("ab.*"), "second");
+        assertEquals("first", index.find("abc"));
+    }
+
+    @Test
+    public void should_remove_filter() {
+        index.add(NodeFilters.prefix("echo"), "echo");
+        assertEquals("echo", index.remove(NodeFilters.prefix("echo")));
+        assertNull(index.find("echo1"));
+        assertTrue(index.isEmpty());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void should_reject_overlapping_nodes() {
+        index.add(NodeFilters.anyOf("a", "b"), "set");
+        index.add(NodeFilters.singleNode("b"), "single");
+    }
+
+    @Test
+    public void should_keep_index_after_rejected_filter() {
+        index.add(NodeFilters.singleNode("b"), "single");
+        try {
+            index.add(NodeFilters.anyOf("a", "b"), "set");
+        } catch (IllegalArgumentException expected) {
+        }
+        assertNull(index.find("a"));
+        assertEquals("single", index.find("b"));
+    }
+}
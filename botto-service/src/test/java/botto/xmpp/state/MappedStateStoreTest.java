@@ -0,0 +1,134 @@
+package botto.xmpp.state;
+
+import botto.xmpp.BottoRuntimeException;
+import botto.xmpp.annotations.BotState;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.junit.rules.TemporaryFolder;
+import org.xmpp.packet.JID;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class MappedStateStoreTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Rule
+    public ExpectedException exex = ExpectedException.none();
+
+    private File file;
+    private MappedStateStore store;
+
+    @Before
+    public void setUp() throws IOException {
+        file = new File(folder.getRoot(), "state.db");
+        store = MappedStateStore.open(file, 16);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        store.close();
+    }
+
+    @Test
+    public void should_store_primitive_values() {
+        BotState state = store.forAddress(new JID("bot@example.com"));
+        state.putLong("long", Long.MAX_VALUE);
+        state.putInt("int", -42);
+        state.putDouble("double", 1.5);
+        state.putBoolean("boolean", true);
+
+        assertEquals(Long.MAX_VALUE, state.getLong("long", 0));
+        assertEquals(-42, state.getInt("int", 0));
+        assertEquals(1.5, state.getDouble("double", 0), 0);
+        assertTrue(state.getBoolean("boolean", false));
+        assertEquals(7, state.getInt("missing", 7));
+        assertEquals(0.5, state.getDouble("missing", 0.5), 0);
+    }
+
+    @Test
+    public void should_increment_and_remove() {
+        BotState state = store.forAddress(new JID("bot@example.com"));
+        assertEquals(1, state.increment("count", 1));
+        assertEquals(11, state.increment("count", 10));
+        state.remove("count");
+        assertFalse(state.contains("count"));
+        assertEquals(3, state.increment("count", 3));
+        assertEquals(1, store.size());
+    }
+
+    @Test
+    public void should_scope_state_by_bare_address() {
+        BotState first = store.forAddress(new JID("first@example.com/resource"));
+        BotState second = store.forAddress(new JID("second@example.com"));
+        first.putLong("count", 1);
+        second.putLong("count", 2);
+
+        assertEquals(1, store.forAddress(new JID("first@example.com")).getLong("count", 0));
+        assertEquals(2, second.getLong("count", 0));
+    }
+
+    @Test
+    public void should_survive_reopen() throws IOException {
+        store.forAddress(new JID("bot@example.com")).putLong("count", 42);
+        store.close();
+
+        store = MappedStateStore.open(file, 1024);
+        assertEquals(16, store.getCapacity());
+        assertEquals(42, store.forAddress(new JID("bot@example.com")).getLong("count", 0));
+    }
+
+    @Test
+    public void should_reject_writes_when_full() {
+        BotState state = store.forAddress(new JID("bot@example.com"));
+        for (int i = 0; i < 12; i++) {
+            state.putLong("key" + i, i);
+        }
+        exex.expect(BottoRuntimeException.class);
+        state.putLong("one-too-many", 0);
+    }
+
+    @Test
+    public void should_refuse_capacities_that_cannot_be_mapped() throws IOException {
+        exex.expect(IllegalArgumentException.class);
+        MappedStateStore.open(new File(folder.getRoot(), "large.db"), (1 << 30) + 1);
+    }
+
+    @Test
+    public void should_not_fill_up_with_removed_keys() {
+        BotState state = store.forAddress(new JID("bot@example.com"));
+        state.putLong("kept", 1);
+        for (int i = 0; i < 1000; i++) {
+            state.putLong("key" + i, i);
+            state.remove("key" + i);
+        }
+        assertEquals(1, store.size());
+        assertEquals(1, store.occupiedSlots());
+        assertFalse(state.contains("key0"));
+        assertEquals(1, state.getLong("kept", 0));
+    }
+
+    @Test
+    public void should_find_keys_after_removing_from_a_full_run() {
+        BotState state = store.forAddress(new JID("bot@example.com"));
+        for (int i = 0; i < 12; i++) {
+            state.putLong("key" + i, i);
+        }
+        for (int i = 0; i < 12; i += 2) {
+            state.remove("key" + i);
+        }
+        for (int i = 0; i < 12; i++) {
+            assertEquals(i % 2 == 0 ? -1 : i, state.getLong("key" + i, -1));
+        }
+        assertEquals(6, store.occupiedSlots());
+    }
+}
@@ -4,9 +4,13 @@ package botto.xmpp.utils;
 import botto.xmpp.connectors.smack.PacketTypeConverter;
 import org.junit.Assert;
 import org.jivesoftware.smack.XMPPConnection;
+import org.jivesoftware.smack.packet.DefaultPacketExtension;
 import org.jivesoftware.smack.packet.Packet;
+import org.jivesoftware.smack.packet.XMPPError;
 import org.junit.Test;
+import org.xmpp.packet.IQ;
 import org.xmpp.packet.JID;
+import org.xmpp.packet.Message;
 import org.xmpp.packet.Presence;
 
 public class PacketTypeConverterTest {
@@ -34,4 +38,77 @@ public class PacketTypeConverterTest {
         Assert.assertEquals(tinder.getType(), reTinder.getType());
     }
 
+    @Test
+    public void testTinderMessage() {
+        Message tinder = new Message();
+        tinder.setTo(new JID("someone@somewhre.com"));
+        tinder.setFrom(new JID("someoneelse@somewhre.com/resource"));
+        tinder.setID("id");
+        tinder.setType(Message.Type.chat);
+        tinder.setBody("hello");
+        tinder.setSubject("subject");
+        tinder.setThread("thread");
+        tinder.addChildElement("x", "urn:test").addElement("value").setText("42");
+
+        Packet smack = PacketTypeConverter.convertFromTinder(tinder, new XMPPConnection("foo"));
+
+        org.jivesoftware.smack.packet.Message smackMessage = (org.jivesoftware.smack.packet.Message) smack;
+        Assert.assertEquals("hello", smackMessage.getBody());
+        Assert.assertEquals(org.jivesoftware.smack.packet.Message.Type.chat, smackMessage.getType());
+        Assert.assertNotNull(smack.getExtension("x", "urn:test"));
+
+        Message reTinder = (Message) PacketTypeConverter.converttoTinder(smack);
+
+        Assert.assertEquals(tinder.getFrom(), reTinder.getFrom());
+        Assert.assertEquals(tinder.getTo(), reTinder.getTo());
+        Assert.assertEquals(tinder.getID(), reTinder.getID());
+        Assert.assertEquals(tinder.getType(), reTinder.getType());
+        Assert.assertEquals(tinder.getBody(), reTinder.getBody());
+        Assert.assertEquals(tinder.getSubject(), reTinder.getSubject());
+        Assert.assertEquals(tinder.getThread(), reTinder.getThread());
+        Assert.assertEquals("42", reTinder.getChildElement("x", "urn:test").elementText("value"));
+    }
+
+    @Test
+    public void testSmackMessageMatchesXmlConversion() {
+        org.jivesoftware.smack.packet.Message smack = new org.jivesoftware.smack.packet.Message("someone@somewhre.com", org.jivesoftware.smack.packet.Message.Type.groupchat);
+        smack.setFrom("room@somewhre.com/nick");
+        smack.setBody("hello & goodbye");
+        DefaultPacketExtension extension = new DefaultPacketExtension("x", "urn:test");
+        extension.setValue("value", "42");
+        smack.addExtension(extension);
+
+        Assert.assertEquals(PacketTypeConverter.converttoTinderXml(smack).toXML(), PacketTypeConverter.converttoTinder(smack).toXML());
+    }
+
+    @Test
+    public void testTinderIQ() {
+        IQ tinder = new IQ(IQ.Type.get, "id");
+        tinder.setTo(new JID("someone@somewhre.com"));
+        tinder.setFrom(new JID("someoneelse@somewhre.com"));
+        tinder.setChildElement("query", "jabber:iq:version");
+
+        Packet smack = PacketTypeConverter.convertFromTinder(tinder, new XMPPConnection("foo"));
+
+        IQ reTinder = (IQ) PacketTypeConverter.converttoTinder(smack);
+
+        Assert.assertEquals(tinder.getFrom(), reTinder.getFrom());
+        Assert.assertEquals(tinder.getTo(), reTinder.getTo());
+        Assert.assertEquals(tinder.getID(), reTinder.getID());
+        Assert.assertEquals(tinder.getType(), reTinder.getType());
+        Assert.assertEquals("jabber:iq:version", reTinder.getChildElement().getNamespaceURI());
+    }
+
+    @Test
+    public void testSmackErrorFallsBackToXml() {
+        org.jivesoftware.smack.packet.Presence smack = new org.jivesoftware.smack.packet.Presence(org.jivesoftware.smack.packet.Presence.Type.error);
+        smack.setTo("someone@somewhre.com");
+        smack.setError(new XMPPError(XMPPError.Condition.item_not_found));
+
+        Presence tinder = (Presence) PacketTypeConverter.converttoTinder(smack);
+
+        Assert.assertEquals(Presence.Type.error, tinder.getType());
+        Assert.assertNotNull(tinder.getError());
+    }
+
 }